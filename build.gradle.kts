@@ -235,6 +235,10 @@ tasks {
 
 project(":service:core") {
 
+    dependencies {
+        implementation("org.agrona", "agrona", Versions.agrona)
+    }
+
 }
 
 project(":service:transport") {
@@ -273,6 +277,47 @@ project(":service:server") {
         implementation("io.grpc", "grpc-stub", Versions.grpc)
         implementation("io.grpc", "grpc-protobuf", Versions.grpc)
         implementation("io.grpc", "grpc-netty-shaded", Versions.grpc)
+        implementation("io.grpc", "grpc-services", Versions.grpc)
+        implementation("org.agrona", "agrona", Versions.agrona)
+    }
+
+    val cdsDirectory = buildDir.resolve("cds")
+    val cdsClassList = cdsDirectory.resolve("classes.lst")
+    val cdsArchive = cdsDirectory.resolve("server.jsa")
+    // class data sharing only archives classes loaded from jars, so the archive is bound to this class path
+    val serverClasspath = files(tasks.jar) + configurations.getByName("runtimeClasspath")
+
+    tasks.register<JavaExec>("cdsClassList") {
+        group = "distribution"
+        description = "Records classes loaded by a warmed-up training run of the server."
+        classpath = serverClasspath
+        mainClass.set("com.xxx.lastprice.server.LastPriceServer")
+        systemProperty("service.port", "0")
+        systemProperty("service.domain_socket_path", cdsDirectory.resolve("training.sock").absolutePath)
+        systemProperty("service.warm_up_iterations", "5000")
+        systemProperty("service.warm_up_exit", "true")
+        jvmArgs("-Xshare:off", "-XX:DumpLoadedClassList=${cdsClassList.absolutePath}")
+        outputs.file(cdsClassList)
+        doFirst { cdsDirectory.mkdirs() }
+    }
+
+    tasks.register<Exec>("cdsArchive") {
+        group = "distribution"
+        description = "Builds application class data sharing archive of the server."
+        dependsOn("cdsClassList")
+        inputs.file(cdsClassList)
+        outputs.file(cdsArchive)
+        outputs.file(cdsDirectory.resolve("classpath.txt"))
+        doFirst {
+            cdsDirectory.resolve("classpath.txt").writeText(serverClasspath.asPath)
+            commandLine(
+                File(System.getProperty("java.home"), "bin/java").absolutePath,
+                "-Xshare:dump",
+                "-XX:SharedClassListFile=${cdsClassList.absolutePath}",
+                "-XX:SharedArchiveFile=${cdsArchive.absolutePath}",
+                "-cp", serverClasspath.asPath
+            )
+        }
     }
 
 }
@@ -282,6 +327,10 @@ project(":service:client") {
     dependencies {
         api(project(":service:transport"))
         implementation("io.grpc", "grpc-netty-shaded", Versions.grpc)
+        implementation("org.agrona", "agrona", Versions.agrona)
+        // cluster tests run several in-process servers
+        testImplementation(project(":service:server"))
+        testImplementation(project(":service:core"))
     }
 
 }
@@ -291,6 +340,7 @@ project(":performance-analysis") {
     dependencies {
         implementation(project(":service:client"))
         implementation(project(":service:server"))
+        implementation("io.grpc", "grpc-services", Versions.grpc)
         implementation("org.hdrhistogram", "HdrHistogram", Versions.hdrHistogram)
     }
 
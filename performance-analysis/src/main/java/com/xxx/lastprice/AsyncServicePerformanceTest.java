@@ -0,0 +1,168 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.domain.AsyncLastPriceService;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceException;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.domain.ServiceResult;
+import com.xxx.lastprice.domain.SingleWriterLastPriceService;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the blocking and the asynchronous service API: lookups of unsupported instruments answered
+ * with an exception and with a status, and uploads to the single writer engine waited for one by one
+ * and pipelined with a window of calls in flight. The timings are saved as a {@link BenchmarkRun} of the
+ * {@code async-service} benchmark, a lookup is too short to time alone, so a lookup timing is the mean of a sample
+ * of lookups.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class AsyncServicePerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 1_000;
+    private static final int LOOKUPS = 5_000_000;
+    private static final int LOOKUPS_PER_SAMPLE = 1_000;
+    private static final int ROUNDS = 5;
+    private static final int CHUNK_SIZE = 10;
+    private static final int CHUNKS = 200_000;
+    private static final int WINDOW = 64;
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("async-service");
+        try {
+            measureWrongInstrument(instruments, benchmarkRun);
+            System.out.println();
+            measureSingleWriterUploads(instruments, benchmarkRun);
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void measureWrongInstrument(List<String> instruments, BenchmarkRun benchmarkRun) throws Exception {
+        final Recorder exceptionLookups = benchmarkRun.recorder("wrong-instrument-lookup-exception");
+        final Recorder statusLookups = benchmarkRun.recorder("wrong-instrument-lookup-status");
+        final LastPriceServiceImpl service = createService(instruments);
+        final AsyncLastPriceService asyncService = service.async();
+        long exceptions = 0;
+        long statuses = 0;
+        long exceptionNanos = 0;
+        long statusNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int sample = 0; sample < LOOKUPS / LOOKUPS_PER_SAMPLE; sample++) {
+                final long start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS_PER_SAMPLE; i++) {
+                    try {
+                        service.findLastPrice("UNKNOWN");
+                    } catch (LastPriceServiceException e) {
+                        exceptions++;
+                    }
+                }
+                // the first round only warms up the JIT
+                if (round > 0) {
+                    final long nanos = System.nanoTime() - start;
+                    exceptionNanos += nanos;
+                    exceptionLookups.recordValue(nanos / LOOKUPS_PER_SAMPLE);
+                }
+            }
+            for (int sample = 0; sample < LOOKUPS / LOOKUPS_PER_SAMPLE; sample++) {
+                final long start = System.nanoTime();
+                for (int i = 0; i < LOOKUPS_PER_SAMPLE; i++) {
+                    if (asyncService.findLastPrice("UNKNOWN").join().getStatus()
+                        == ServiceResult.Status.WRONG_INSTRUMENT) {
+                        statuses++;
+                    }
+                }
+                if (round > 0) {
+                    final long nanos = System.nanoTime() - start;
+                    statusNanos += nanos;
+                    statusLookups.recordValue(nanos / LOOKUPS_PER_SAMPLE);
+                }
+            }
+        }
+        final double lookups = (double) LOOKUPS * (ROUNDS - 1);
+        System.out.printf("%28s %10s%n", "wrong instrument lookup", "ns");
+        System.out.printf("%28s %10.1f%n", "blocking, exception", exceptionNanos / lookups);
+        System.out.printf("%28s %10.1f%n", "async, status", statusNanos / lookups);
+        if (exceptions != statuses) {
+            throw new IllegalStateException("Lookups were not rejected");
+        }
+    }
+
+    private static void measureSingleWriterUploads(List<String> instruments, BenchmarkRun benchmarkRun)
+        throws Exception {
+
+        final List<List<PriceRecord>> chunks = new ArrayList<>();
+        for (int i = 0; i < INSTRUMENTS_NUMBER / CHUNK_SIZE; i++) {
+            final List<PriceRecord> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (String instrument : instruments.subList(i * CHUNK_SIZE, (i + 1) * CHUNK_SIZE)) {
+                chunk.add(new PriceRecord(instrument, 1L, new byte[64]));
+            }
+            chunks.add(chunk);
+        }
+        System.out.printf("%28s %12s%n", "single writer uploads", "chunks/s");
+        try (SingleWriterLastPriceService service = new SingleWriterLastPriceService(
+            createService(instruments), 1 << 20, System::currentTimeMillis, 60_000)) {
+
+            final AsyncLastPriceService asyncService = service.async();
+            for (int round = 0; round < 2; round++) {
+                // the first round only warms up the JIT
+                final Recorder blockingUploads =
+                    round > 0 ? benchmarkRun.recorder("upload-blocking") : new Recorder(3);
+                final Recorder asyncUploads =
+                    round > 0 ? benchmarkRun.recorder("upload-async-" + WINDOW + "-in-flight") : new Recorder(3);
+                final long batchRunId = service.startBatchRun();
+                long start = System.nanoTime();
+                for (int i = 0; i < CHUNKS; i++) {
+                    final long uploadStart = System.nanoTime();
+                    service.uploadPriceRecordsChunk(batchRunId, chunks.get(i % chunks.size()));
+                    blockingUploads.recordValue(System.nanoTime() - uploadStart);
+                }
+                final double blocking = CHUNKS / ((System.nanoTime() - start) / 1e9);
+
+                start = System.nanoTime();
+                final Queue<CompletableFuture<ServiceResult<Void>>> inFlight = new ArrayDeque<>(WINDOW);
+                for (int i = 0; i < CHUNKS; i++) {
+                    if (inFlight.size() == WINDOW) {
+                        inFlight.poll().join();
+                    }
+                    final long uploadStart = System.nanoTime();
+                    inFlight.add(asyncService.uploadPriceRecordsChunk(batchRunId, 0, chunks.get(i % chunks.size()))
+                        .whenComplete((result, e) -> asyncUploads.recordValue(System.nanoTime() - uploadStart)));
+                }
+                inFlight.forEach(CompletableFuture::join);
+                final double pipelined = CHUNKS / ((System.nanoTime() - start) / 1e9);
+                service.cancelBatchRun(batchRunId);
+                if (round > 0) {
+                    System.out.printf("%28s %12.0f%n", "blocking", blocking);
+                    System.out.printf("%28s %12.0f%n", "async, " + WINDOW + " in flight", pipelined);
+                }
+            }
+        }
+    }
+
+    private static LastPriceServiceImpl createService(List<String> instruments) {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        return LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build();
+    }
+
+}
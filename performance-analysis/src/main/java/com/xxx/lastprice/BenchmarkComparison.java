@@ -0,0 +1,272 @@
+package com.xxx.lastprice;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.xxx.lastprice.BenchmarkRun.HISTOGRAM_LOG_SUFFIX;
+import static com.xxx.lastprice.BenchmarkRun.METADATA_FILE;
+
+/**
+ * Compares two runs persisted by {@link BenchmarkRun} and writes a markdown report.
+ *
+ * Every operation found in both runs is compared at a few percentiles. A percentile is flagged as
+ * a regression when the candidate is slower by more than the threshold and the per-interval values
+ * of the percentile differ significantly by the two-sided Mann-Whitney U test, so a single noisy
+ * interval does not fail a release. Maximum latency is reported but never flagged, as it is a single
+ * observation per run.
+ *
+ * Usage: {@code BenchmarkComparison <baseline run directory> <candidate run directory> [report file]},
+ * exits with status 1 if a regression is found.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BenchmarkComparison {
+
+    /**
+     * Highest p-value of the test which still counts as a significant difference.
+     */
+    public static final String SIGNIFICANCE_PROP = "benchmark.significance";
+    public static final double SIGNIFICANCE = Double.parseDouble(System.getProperty(SIGNIFICANCE_PROP, "0.01"));
+
+    /**
+     * Smallest relative slowdown of a percentile flagged as a regression.
+     */
+    public static final String REGRESSION_THRESHOLD_PROP = "benchmark.regression_threshold";
+    public static final double REGRESSION_THRESHOLD =
+        Double.parseDouble(System.getProperty(REGRESSION_THRESHOLD_PROP, "0.05"));
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison <baseline run directory> <candidate run directory> "
+                + "[report file]");
+            System.exit(2);
+        }
+        final StringBuilder report = new StringBuilder();
+        final boolean regressed = compare(Paths.get(args[0]), Paths.get(args[1]), report);
+        System.out.print(report);
+        if (args.length > 2) {
+            Files.writeString(Paths.get(args[2]), report, StandardCharsets.UTF_8);
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /**
+     * Compares two runs and appends the markdown report.
+     *
+     * @param baseline directory of the baseline run
+     * @param candidate directory of the candidate run
+     * @param report report to append to
+     * @return {@code true} if any operation regressed
+     * @throws IOException if the runs cannot be read
+     */
+    public static boolean compare(Path baseline, Path candidate, StringBuilder report) throws IOException {
+        final Properties baselineMetadata = readMetadata(baseline);
+        final Properties candidateMetadata = readMetadata(candidate);
+        report.append("# Benchmark comparison: ").append(baselineMetadata.getProperty("benchmark")).append("\n\n");
+        report.append("| | baseline | candidate |\n|---|---|---|\n");
+        final TreeSet<String> keys = new TreeSet<>(baselineMetadata.stringPropertyNames());
+        keys.addAll(candidateMetadata.stringPropertyNames());
+        for (String key : keys) {
+            final String baselineValue = baselineMetadata.getProperty(key, "");
+            final String candidateValue = candidateMetadata.getProperty(key, "");
+            final String marker = baselineValue.equals(candidateValue) ? "" : " **differs**";
+            report.append("| ").append(key).append(marker)
+                .append(" | ").append(baselineValue).append(" | ").append(candidateValue).append(" |\n");
+        }
+        report.append(String.format("%nRegression: slower by more than %.0f%% with p < %s "
+            + "(Mann-Whitney U over per-interval values).%n", REGRESSION_THRESHOLD * 100, SIGNIFICANCE));
+
+        boolean regressed = false;
+        final List<String> regressions = new ArrayList<>();
+        for (String operation : operations(baseline)) {
+            final Path candidateLog = candidate.resolve(operation + HISTOGRAM_LOG_SUFFIX);
+            if (!Files.exists(candidateLog)) {
+                report.append("\n## ").append(operation).append("\n\nMissing in the candidate run.\n");
+                continue;
+            }
+            final List<Histogram> baselineIntervals =
+                readIntervals(baseline.resolve(operation + HISTOGRAM_LOG_SUFFIX));
+            final List<Histogram> candidateIntervals = readIntervals(candidateLog);
+            final Histogram baselineTotal = total(baselineIntervals);
+            final Histogram candidateTotal = total(candidateIntervals);
+            report.append("\n## ").append(operation).append("\n\n")
+                .append(String.format("%d calls in %d intervals vs %d calls in %d intervals%n%n",
+                    baselineTotal.getTotalCount(), baselineIntervals.size(),
+                    candidateTotal.getTotalCount(), candidateIntervals.size()))
+                .append("| percentile | baseline us | candidate us | change | p-value | verdict |\n")
+                .append("|---|---:|---:|---:|---:|---|\n");
+            for (double percentile : PERCENTILES) {
+                final double baselineValue = baselineTotal.getValueAtPercentile(percentile) / 1000.0;
+                final double candidateValue = candidateTotal.getValueAtPercentile(percentile) / 1000.0;
+                final double change = change(baselineValue, candidateValue);
+                final double pValue = mannWhitneyPValue(
+                    percentileSample(baselineIntervals, percentile),
+                    percentileSample(candidateIntervals, percentile)
+                );
+                final String verdict = verdict(change, pValue);
+                if (verdict.equals("REGRESSION")) {
+                    regressed = true;
+                    regressions.add(operation + " " + percentileName(percentile));
+                }
+                report.append(String.format("| %s | %.1f | %.1f | %s | %.4f | %s |%n",
+                    percentileName(percentile), baselineValue, candidateValue, changeName(change), pValue, verdict));
+            }
+            final double baselineMax = baselineTotal.getMaxValue() / 1000.0;
+            final double candidateMax = candidateTotal.getMaxValue() / 1000.0;
+            report.append(String.format("| max | %.1f | %.1f | %s | | |%n",
+                baselineMax, candidateMax, changeName(change(baselineMax, candidateMax))));
+        }
+        report.append("\n## Summary\n\n").append(regressed
+            ? "Regressions: " + String.join(", ", regressions) + "\n"
+            : "No significant regressions.\n");
+        return regressed;
+    }
+
+    /**
+     * Returns two-sided p-value of the Mann-Whitney U test with tie correction and normal approximation,
+     * which is good enough for the dozens of intervals of a benchmark run.
+     *
+     * @param first first sample
+     * @param second second sample
+     * @return p-value, one if either sample is empty or all values are equal
+     */
+    static double mannWhitneyPValue(double[] first, double[] second) {
+        final int n1 = first.length;
+        final int n2 = second.length;
+        if (n1 == 0 || n2 == 0) {
+            return 1;
+        }
+        final int n = n1 + n2;
+        final double[][] values = new double[n][];
+        for (int i = 0; i < n1; i++) {
+            values[i] = new double[]{first[i], 0};
+        }
+        for (int i = 0; i < n2; i++) {
+            values[n1 + i] = new double[]{second[i], 1};
+        }
+        Arrays.sort(values, (a, b) -> Double.compare(a[0], b[0]));
+        double firstRankSum = 0;
+        double tieCorrection = 0;
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j < n && values[j][0] == values[i][0]) {
+                j++;
+            }
+            // tied values share the average of their ranks
+            final double rank = (i + 1 + j) / 2.0;
+            for (int k = i; k < j; k++) {
+                if (values[k][1] == 0) {
+                    firstRankSum += rank;
+                }
+            }
+            final double ties = j - i;
+            tieCorrection += ties * ties * ties - ties;
+            i = j;
+        }
+        final double u = firstRankSum - n1 * (n1 + 1) / 2.0;
+        final double mean = n1 * (double) n2 / 2;
+        final double variance = n1 * (double) n2 / 12 * ((n + 1) - tieCorrection / (n * (double) (n - 1)));
+        if (variance <= 0) {
+            return 1;
+        }
+        final double z = Math.max(0, Math.abs(u - mean) - 0.5) / Math.sqrt(variance);
+        return Math.min(1, 2 * (1 - standardNormalCdf(z)));
+    }
+
+    /**
+     * Returns relative change of the candidate value, which is undefined if only the baseline one is zero,
+     * e.g. when the baseline run did not record the operation.
+     *
+     * @param baseline baseline value
+     * @param candidate candidate value
+     * @return relative change, {@link Double#NaN} if it is undefined
+     */
+    static double change(double baseline, double candidate) {
+        if (baseline == 0) {
+            return candidate == 0 ? 0 : Double.NaN;
+        }
+        return candidate / baseline - 1;
+    }
+
+    private static String changeName(double change) {
+        return Double.isNaN(change) ? "n/a" : String.format("%+.1f%%", change * 100);
+    }
+
+    private static String verdict(double change, double pValue) {
+        if (Double.isNaN(change) || pValue >= SIGNIFICANCE || Math.abs(change) <= REGRESSION_THRESHOLD) {
+            return "~";
+        }
+        return change > 0 ? "REGRESSION" : "improvement";
+    }
+
+    private static String percentileName(double percentile) {
+        return percentile == Math.rint(percentile) ? "p" + (int) percentile : "p" + percentile;
+    }
+
+    private static double standardNormalCdf(double z) {
+        // Abramowitz and Stegun 7.1.26, absolute error below 1.5e-7
+        final double x = Math.abs(z) / Math.sqrt(2);
+        final double t = 1 / (1 + 0.3275911 * x);
+        final double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+            + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    private static double[] percentileSample(List<Histogram> intervals, double percentile) {
+        return intervals.stream().mapToDouble(interval -> interval.getValueAtPercentile(percentile)).toArray();
+    }
+
+    private static Histogram total(List<Histogram> intervals) {
+        final Histogram total = new Histogram(3);
+        intervals.forEach(total::add);
+        return total;
+    }
+
+    private static List<Histogram> readIntervals(Path log) throws IOException {
+        final List<Histogram> intervals = new ArrayList<>();
+        try (HistogramLogReader reader = new HistogramLogReader(log.toFile())) {
+            EncodableHistogram interval;
+            while ((interval = reader.nextIntervalHistogram()) != null) {
+                intervals.add((Histogram) interval);
+            }
+        }
+        return intervals;
+    }
+
+    private static List<String> operations(Path run) throws IOException {
+        try (Stream<Path> files = Files.list(run)) {
+            return files
+                .map(file -> file.getFileName().toString())
+                .filter(name -> name.endsWith(HISTOGRAM_LOG_SUFFIX))
+                .map(name -> name.substring(0, name.length() - HISTOGRAM_LOG_SUFFIX.length()))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static Properties readMetadata(Path run) throws IOException {
+        final Properties metadata = new Properties();
+        try (InputStream input = Files.newInputStream(run.resolve(METADATA_FILE))) {
+            metadata.load(input);
+        }
+        return metadata;
+    }
+
+}
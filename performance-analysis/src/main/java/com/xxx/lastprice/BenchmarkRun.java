@@ -0,0 +1,207 @@
+package com.xxx.lastprice;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists latencies of a benchmark run, so runs of different releases can be compared later by
+ * {@link BenchmarkComparison}. Every run gets its own directory under
+ * {@code <results directory>/<benchmark>/} holding an HdrHistogram interval log per operation and
+ * the environment the run was taken in.
+ *
+ * Latencies are recorded into {@link Recorder}s, which are rolled into the logs every second,
+ * so the comparison has a sample of percentiles over time and not just a single value per run.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BenchmarkRun implements AutoCloseable {
+
+    /**
+     * Directory to keep benchmark runs in.
+     */
+    public static final String RESULTS_DIRECTORY_PROP = "benchmark.results_dir";
+    public static final String RESULTS_DIRECTORY = System.getProperty(RESULTS_DIRECTORY_PROP, "benchmark-results");
+
+    /**
+     * Label of the run, e.g. version of the service under test, becomes part of the run directory name.
+     */
+    public static final String LABEL_PROP = "benchmark.label";
+    public static final String LABEL = System.getProperty(LABEL_PROP, "unlabelled");
+
+    public static final String METADATA_FILE = "metadata.properties";
+    public static final String HISTOGRAM_LOG_SUFFIX = ".hlog";
+
+    private static final long INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final DateTimeFormatter DIRECTORY_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path directory;
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private final ScheduledExecutorService roller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "benchmark-run-roller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean closed;
+
+    private BenchmarkRun(Path directory) {
+        this.directory = directory;
+        roller.scheduleAtFixedRate(this::roll, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates directory of a new run of the given benchmark and writes the environment metadata into it.
+     *
+     * @param benchmark name of the benchmark
+     * @return started run
+     * @throws IOException if the run directory cannot be written
+     */
+    public static BenchmarkRun start(String benchmark) throws IOException {
+        final Path directory = Paths.get(RESULTS_DIRECTORY, benchmark,
+            LocalDateTime.now().format(DIRECTORY_TIME_FORMAT) + "-" + LABEL);
+        Files.createDirectories(directory);
+        final Properties metadata = new Properties();
+        metadata.setProperty("benchmark", benchmark);
+        metadata.setProperty("label", LABEL);
+        metadata.setProperty("started", LocalDateTime.now().toString());
+        metadata.setProperty("git.commit", gitCommit());
+        for (String property : new String[]{
+            "java.version", "java.vm.name", "java.vm.version", "os.name", "os.arch", "os.version"}) {
+            metadata.setProperty(property, System.getProperty(property));
+        }
+        metadata.setProperty("available.processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        metadata.setProperty("max.memory.bytes", String.valueOf(Runtime.getRuntime().maxMemory()));
+        metadata.setProperty(
+            "jvm.arguments",
+            String.join(" ", ManagementFactory.getRuntimeMXBean().getInputArguments())
+        );
+        System.getProperties().stringPropertyNames().stream()
+            .filter(name -> name.startsWith("service.") || name.startsWith("benchmark."))
+            .forEach(name -> metadata.setProperty(name, System.getProperty(name)));
+        try (OutputStream output = Files.newOutputStream(directory.resolve(METADATA_FILE))) {
+            metadata.store(output, "Benchmark run environment");
+        }
+        return new BenchmarkRun(directory);
+    }
+
+    /**
+     * Returns recorder of the given operation latencies in nanoseconds, creating its log on the first call.
+     *
+     * @param operation name of the operation, becomes the log file name
+     * @return recorder safe to use from many threads
+     * @throws IOException if the log cannot be created
+     */
+    public synchronized Recorder recorder(String operation) throws IOException {
+        Operation existing = operations.get(operation);
+        if (existing == null) {
+            existing = new Operation(directory.resolve(operation + HISTOGRAM_LOG_SUFFIX), startMillis);
+            operations.put(operation, existing);
+        }
+        return existing.recorder;
+    }
+
+    /**
+     * Returns all latencies of the given operation logged so far, complete once the run is closed.
+     *
+     * @param operation name of the operation
+     * @return copy of the accumulated histogram
+     */
+    public synchronized Histogram getTotalHistogram(String operation) {
+        return operations.get(operation).total.copy();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes the last interval and closes the logs, closing a closed run has no effect.
+     */
+    @Override
+    public void close() {
+        roller.shutdownNow();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            roll();
+            closed = true;
+            operations.values().forEach(operation -> operation.log.close());
+        }
+    }
+
+    private synchronized void roll() {
+        if (closed) {
+            return;
+        }
+        operations.values().forEach(Operation::roll);
+    }
+
+    private static String gitCommit() {
+        try {
+            final Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD")
+                .redirectErrorStream(true)
+                .start();
+            try (BufferedReader output = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                final String commit = output.readLine();
+                return process.waitFor() == 0 && commit != null ? commit : "unknown";
+            }
+        } catch (IOException e) {
+            return "unknown";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "unknown";
+        }
+    }
+
+    private static final class Operation {
+
+        private final Recorder recorder = new Recorder(3);
+        private final Histogram total = new Histogram(3);
+        private final PrintStream log;
+        private final HistogramLogWriter writer;
+        private Histogram interval;
+
+        Operation(Path file, long startMillis) throws IOException {
+            this.log = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8);
+            this.writer = new HistogramLogWriter(log);
+            writer.outputLogFormatVersion();
+            writer.outputStartTime(startMillis);
+            writer.setBaseTime(startMillis);
+            writer.outputBaseTime(startMillis);
+            writer.outputLegend();
+        }
+
+        void roll() {
+            interval = recorder.getIntervalHistogram(interval);
+            if (interval.getTotalCount() == 0) {
+                return;
+            }
+            total.add(interval);
+            writer.outputIntervalHistogram(interval);
+        }
+
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.domain.BatchRun;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.ChunkReducer;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures pre-reduction of uploaded chunks for chunks with different share of duplicated instruments:
+ * time the batch run is updated under the repository lock with and without pre-reduction, time of the reduction
+ * itself and the whole upload call. The timings are saved as a {@link BenchmarkRun} of the {@code chunk-reduce}
+ * benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ChunkReducePerformanceTest {
+
+    private static final int CHUNK_SIZE = 32_768;
+    private static final int[] RECORDS_PER_INSTRUMENT = {1, 4, 16};
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 100;
+
+    public static void main(String[] args) throws Exception {
+        final ChunkReducer reducer =
+            new ChunkReducer(ChunkReducer.DEFAULT_PARALLEL_THRESHOLD, ForkJoinPool.commonPool());
+        System.out.printf("chunk of %d records, %d cores%n", CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%12s %14s %14s %12s %14s %14s%n", "records per", "locked, us", "locked, us",
+            "reduce, us", "upload, us", "upload, us");
+        System.out.printf("%12s %14s %14s %12s %14s %14s%n", "instrument", "as uploaded", "pre-reduced",
+            "", "as uploaded", "pre-reduced");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("chunk-reduce");
+        try {
+            for (int recordsPerInstrument : RECORDS_PER_INSTRUMENT) {
+                run(reducer, recordsPerInstrument, benchmarkRun);
+            }
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void run(ChunkReducer reducer, int recordsPerInstrument, BenchmarkRun benchmarkRun)
+        throws Exception {
+
+        final String operationSuffix = "-" + recordsPerInstrument + "-per-instrument";
+        final Recorder lockedPlainRecorder = benchmarkRun.recorder("locked-as-uploaded" + operationSuffix);
+        final Recorder lockedReducedRecorder = benchmarkRun.recorder("locked-pre-reduced" + operationSuffix);
+        final Recorder reduceRecorder = benchmarkRun.recorder("reduce" + operationSuffix);
+        final Recorder uploadPlainRecorder = benchmarkRun.recorder("upload-as-uploaded" + operationSuffix);
+        final Recorder uploadReducedRecorder = benchmarkRun.recorder("upload-pre-reduced" + operationSuffix);
+        final List<String> instruments = new ArrayList<>();
+        for (int i = 0; i < CHUNK_SIZE / recordsPerInstrument; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final List<PriceRecord> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            chunk.add(new PriceRecord(instruments.get(i % instruments.size()), i, new byte[64]));
+        }
+        final Set<String> supportedInstruments = Set.copyOf(instruments);
+        final LastPriceServiceImpl plainService = createService(instruments, null);
+        final LastPriceServiceImpl reducingService = createService(instruments, reducer);
+
+        long lockedPlainNanos = 0;
+        long lockedReducedNanos = 0;
+        long reduceNanos = 0;
+        long uploadPlainNanos = 0;
+        long uploadReducedNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                new BatchRun(i).updatePriceRecords(0, chunk);
+                final long lockedPlain = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                final Collection<PriceRecord> latestRecords = reducer.reduce(chunk, supportedInstruments);
+                final long reduce = System.nanoTime() - start;
+                start = System.nanoTime();
+                new BatchRun(i).updatePriceRecords(0, latestRecords);
+                final long lockedReduced = System.nanoTime() - start;
+
+                final long uploadPlain = upload(plainService, chunk);
+                final long uploadReduced = upload(reducingService, chunk);
+                // the first round only warms up the JIT
+                if (round > 0) {
+                    lockedPlainNanos += lockedPlain;
+                    lockedReducedNanos += lockedReduced;
+                    reduceNanos += reduce;
+                    uploadPlainNanos += uploadPlain;
+                    uploadReducedNanos += uploadReduced;
+                    lockedPlainRecorder.recordValue(lockedPlain);
+                    lockedReducedRecorder.recordValue(lockedReduced);
+                    reduceRecorder.recordValue(reduce);
+                    uploadPlainRecorder.recordValue(uploadPlain);
+                    uploadReducedRecorder.recordValue(uploadReduced);
+                }
+            }
+        }
+        final double iterations = (double) ITERATIONS * (ROUNDS - 1) * 1_000;
+        System.out.printf("%12d %14.0f %14.0f %12.0f %14.0f %14.0f%n", recordsPerInstrument,
+            lockedPlainNanos / iterations, lockedReducedNanos / iterations, reduceNanos / iterations,
+            uploadPlainNanos / iterations, uploadReducedNanos / iterations);
+    }
+
+    private static long upload(LastPriceServiceImpl service, List<PriceRecord> chunk) throws Exception {
+        final long batchRunId = service.startBatchRun();
+        final long start = System.nanoTime();
+        service.uploadPriceRecordsChunk(batchRunId, 0, chunk);
+        final long nanos = System.nanoTime() - start;
+        service.cancelBatchRun(batchRunId);
+        return nanos;
+    }
+
+    private static LastPriceServiceImpl createService(List<String> instruments, ChunkReducer reducer) {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        return LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        )
+            .chunkReducer(reducer)
+            .build();
+    }
+
+}
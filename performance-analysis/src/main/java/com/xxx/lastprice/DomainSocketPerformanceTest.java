@@ -0,0 +1,141 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares round trip latency of last price requests over TCP loopback and over Unix domain socket.
+ * Both servers share the same service, the client uses {@link LastPriceChannels} for both targets.
+ * Latencies are saved as a {@link BenchmarkRun} of the {@code domain-socket} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class DomainSocketPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 100;
+    private static final int PAYLOAD_SIZE = 64;
+    private static final int WARM_UP_REQUESTS = 50_000;
+    private static final int MEASURED_REQUESTS = 50_000;
+
+    private static final String TCP = "tcp";
+    private static final String DOMAIN_SOCKET = "uds";
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final LastPriceServiceHandler handler = new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build());
+        final Path socket = Paths.get(System.getProperty("java.io.tmpdir"), "last-price-perf.sock");
+        Files.deleteIfExists(socket);
+        final EventLoopGroup eventLoopGroup = new EpollEventLoopGroup();
+        final Server tcpServer = ServerBuilder.forPort(0).addService(handler).build().start();
+        final Server domainSocketServer = NettyServerBuilder.forAddress(new DomainSocketAddress(socket.toString()))
+            .channelType(EpollServerDomainSocketChannel.class)
+            .bossEventLoopGroup(eventLoopGroup)
+            .workerEventLoopGroup(eventLoopGroup)
+            .addService(handler)
+            .build()
+            .start();
+        final BenchmarkRun run = BenchmarkRun.start("domain-socket");
+        try {
+            final String tcpTarget = "localhost:" + tcpServer.getPort();
+            final String domainSocketTarget = LastPriceChannels.DOMAIN_SOCKET_SCHEME + socket;
+            upload(tcpTarget, instruments);
+            // alternate transports so that both get the same share of JIT and noise
+            for (int round = 0; round < 2; round++) {
+                measure(run.recorder(TCP), tcpTarget, instruments);
+                measure(run.recorder(DOMAIN_SOCKET), domainSocketTarget, instruments);
+            }
+        } finally {
+            run.close();
+            tcpServer.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            domainSocketServer.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            eventLoopGroup.shutdownGracefully().await(5, TimeUnit.SECONDS);
+            Files.deleteIfExists(socket);
+        }
+        System.out.printf("%10s %10s %10s %10s %10s%n", "transport", "p50 us", "p90 us", "p99 us", "p99.9 us");
+        for (String transport : new String[]{TCP, DOMAIN_SOCKET}) {
+            final Histogram histogram = run.getTotalHistogram(transport);
+            System.out.printf("%10s %10.1f %10.1f %10.1f %10.1f%n",
+                transport,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0
+            );
+        }
+        System.out.println("Run saved to " + run.getDirectory());
+    }
+
+    private static void upload(String target, List<String> instruments) throws InterruptedException {
+        final ManagedChannel channel = LastPriceChannels.forTarget(target);
+        try {
+            final LastPriceClient client = new LastPriceClient(channel);
+            final long batchRunId = client.startBatchRun().getBatchRunId();
+            final List<InstrumentPriceRecord> records = new ArrayList<>(instruments.size());
+            for (String instrument : instruments) {
+                records.add(InstrumentPriceRecord.newBuilder()
+                    .setInstrument(instrument)
+                    .setAsOf(1)
+                    .setPayload(ByteString.copyFrom(new byte[PAYLOAD_SIZE]))
+                    .build());
+            }
+            client.uploadPriceRecordsChunk(batchRunId, records);
+            client.completeBatchRun(batchRunId);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void measure(Recorder recorder, String target, List<String> instruments)
+        throws InterruptedException {
+
+        final ManagedChannel channel = LastPriceChannels.forTarget(target);
+        try {
+            final LastPriceClient client = new LastPriceClient(channel);
+            for (int i = 0; i < WARM_UP_REQUESTS + MEASURED_REQUESTS; i++) {
+                final String instrument = instruments.get(i % instruments.size());
+                final long start = System.nanoTime();
+                client.requestLastPrice(instrument);
+                if (i >= WARM_UP_REQUESTS) {
+                    recorder.recordValue(System.nanoTime() - start);
+                }
+            }
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+}
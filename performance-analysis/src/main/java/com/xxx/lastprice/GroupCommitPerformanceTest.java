@@ -0,0 +1,173 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.domain.BatchRun;
+import com.xxx.lastprice.domain.GroupCommitCompletionStage;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.domain.StripedPriceRecordContainer;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Measures throughput of batch run completions with separate merges and with group commit
+ * for different number of concurrent completers, and with separate merges into a market state striped
+ * by instrument. Reader threads poll the market state meanwhile, their number is set with {@code readers}
+ * system property. With {@code disjoint} system property set every completer updates its own instruments only,
+ * instruments are split between completers by stripe. Completion latencies are saved as a {@link BenchmarkRun}
+ * of the {@code group-commit} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class GroupCommitPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 1000;
+    private static final int RECORDS_PER_BATCH = 100;
+    private static final int PAYLOAD_SIZE = 64;
+    private static final long WARM_UP_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long MEASUREMENT_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final int[] COMPLETERS = {1, 8, 64};
+    private static final int READERS = Integer.getInteger("readers", 1);
+    private static final boolean DISJOINT = Boolean.getBoolean("disjoint");
+    private static final int STRIPES = 16;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        System.out.printf("%-12s %10s %20s %20s%n", "mode", "completers", "completions/s", "reads/s");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("group-commit");
+        try {
+            for (int completers : COMPLETERS) {
+                run(
+                    "separate",
+                    completers,
+                    PriceRecordContainer::new,
+                    marketState -> batchRun -> batchRun.mergeTo(marketState),
+                    benchmarkRun
+                );
+                run(
+                    "group",
+                    completers,
+                    PriceRecordContainer::new,
+                    marketState -> new GroupCommitCompletionStage(marketState, 0)::complete,
+                    benchmarkRun
+                );
+                run(
+                    "striped",
+                    completers,
+                    () -> new StripedPriceRecordContainer(STRIPES),
+                    marketState -> batchRun -> batchRun.mergeTo(marketState),
+                    benchmarkRun
+                );
+            }
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void run(
+        String mode,
+        int completers,
+        Supplier<PriceRecordContainer> marketStateFactory,
+        Function<PriceRecordContainer, Consumer<BatchRun>> completionFactory,
+        BenchmarkRun benchmarkRun) throws InterruptedException, IOException {
+
+        final PriceRecordContainer marketState = marketStateFactory.get();
+        final Consumer<BatchRun> completion = completionFactory.apply(marketState);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean measuring = new AtomicBoolean(false);
+        final LongAdder completions = new LongAdder();
+        final LongAdder reads = new LongAdder();
+        final Recorder completionLatencies = benchmarkRun.recorder("complete-" + mode + "-" + completers);
+        final List<List<String>> universes = splitUniverse(completers);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < completers; i++) {
+            final List<String> universe = universes.get(i);
+            threads.add(new Thread(() -> {
+                long batchRunId = 0;
+                while (running.get()) {
+                    final BatchRun batchRun = createBatchRun(batchRunId++, universe);
+                    final long start = System.nanoTime();
+                    completion.accept(batchRun);
+                    if (measuring.get()) {
+                        completionLatencies.recordValue(System.nanoTime() - start);
+                        completions.increment();
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < READERS; i++) {
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    marketState.getPriceRecord(instrument(ThreadLocalRandom.current().nextInt(INSTRUMENTS_NUMBER)));
+                    if (measuring.get()) {
+                        reads.increment();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(WARM_UP_MS);
+        measuring.set(true);
+        Thread.sleep(MEASUREMENT_MS);
+        measuring.set(false);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final double seconds = MEASUREMENT_MS / 1000.0;
+        System.out.printf(
+            "%-12s %10d %20.0f %20.0f%n", mode, completers, completions.sum() / seconds, reads.sum() / seconds
+        );
+    }
+
+    private static List<List<String>> splitUniverse(int completers) {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add(instrument(i));
+        }
+        final List<List<String>> universes = new ArrayList<>(completers);
+        if (!DISJOINT) {
+            for (int i = 0; i < completers; i++) {
+                universes.add(instruments);
+            }
+            return universes;
+        }
+        // contiguous slices of instruments ordered by stripe make completers touch different stripes
+        final StripedPriceRecordContainer stripes = new StripedPriceRecordContainer(STRIPES);
+        instruments.sort(Comparator.comparingInt(stripes::getStripeIndex));
+        for (int i = 0; i < completers; i++) {
+            universes.add(instruments.subList(
+                i * INSTRUMENTS_NUMBER / completers, (i + 1) * INSTRUMENTS_NUMBER / completers
+            ));
+        }
+        return universes;
+    }
+
+    private static BatchRun createBatchRun(long id, List<String> universe) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final List<PriceRecord> records = new ArrayList<>(RECORDS_PER_BATCH);
+        for (int i = 0; i < RECORDS_PER_BATCH; i++) {
+            records.add(new PriceRecord(
+                universe.get(random.nextInt(universe.size())), System.nanoTime(), new byte[PAYLOAD_SIZE]
+            ));
+        }
+        final BatchRun batchRun = new BatchRun(id);
+        batchRun.updatePriceRecords(records);
+        return batchRun;
+    }
+
+    private static String instrument(int index) {
+        return "INSTRUMENT_" + index;
+    }
+
+}
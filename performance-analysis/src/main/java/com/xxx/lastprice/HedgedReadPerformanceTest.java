@@ -0,0 +1,155 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.client.HedgedLastPriceReader;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.StatusRuntimeException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures tail latency of last price reads from two replicas, while every replica periodically merges
+ * a big batch run holding its market state write lock. Reads are compared with and without hedging
+ * to the other replica, the hedge delay is set by {@code -DhedgeDelayUs}. Latencies are saved as a
+ * {@link BenchmarkRun} of the {@code hedged-read} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class HedgedReadPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 10_000;
+    private static final int RECORDS_PER_MERGE = 200_000;
+    private static final long MERGE_PAUSE_MS = 50;
+    private static final long HEDGE_DELAY_US = Long.getLong("hedgeDelayUs", 1000);
+    private static final long DEADLINE_US = TimeUnit.SECONDS.toMicros(1);
+    private static final int WARM_UP_REQUESTS = 20_000;
+    private static final int MEASURED_REQUESTS = 50_000;
+    // cancelled losers of hedged reads make the server log benign stream errors for frames still in flight
+    private static final Logger NETTY_SERVER_HANDLER_LOGGER =
+        Logger.getLogger("io.grpc.netty.shaded.io.grpc.netty.NettyServerHandler");
+
+    public static void main(String[] args) throws Exception {
+        NETTY_SERVER_HANDLER_LOGGER.setLevel(Level.OFF);
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        final List<LastPriceServiceImpl> replicas = new ArrayList<>();
+        final List<Server> servers = new ArrayList<>();
+        final List<ManagedChannel> channels = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final AtomicLong batchIdSequence = new AtomicLong();
+            final LastPriceServiceImpl replica = LastPriceServiceImpl.builder(
+                new PriceRecordContainer(),
+                new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+                instruments,
+                new BatchRunAdmissionControl(1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+            ).build();
+            replicas.add(replica);
+            final Server server = ServerBuilder.forPort(0).addService(new LastPriceServiceHandler(replica)).build().start();
+            servers.add(server);
+            channels.add(LastPriceChannels.forTarget("localhost:" + server.getPort()));
+        }
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread merger = new Thread(() -> merge(replicas, instruments, running));
+        merger.start();
+        final BenchmarkRun run = BenchmarkRun.start("hedged-read");
+        try {
+            System.out.printf("%10s %10s %10s %10s %10s %10s%n",
+                "mode", "p50 us", "p99 us", "p99.9 us", "max us", "failed");
+            for (int round = 0; round < 2; round++) {
+                // a hedge delay equal to the deadline never sends the backup request
+                measure("plain", new HedgedLastPriceReader(channels, executorService, DEADLINE_US, DEADLINE_US),
+                    run.recorder("plain"), instruments);
+                measure("hedged", new HedgedLastPriceReader(channels, executorService, HEDGE_DELAY_US, DEADLINE_US),
+                    run.recorder("hedged"), instruments);
+            }
+        } finally {
+            run.close();
+            running.set(false);
+            merger.join();
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+            for (Server server : servers) {
+                server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+            executorService.shutdown();
+        }
+        System.out.println("Run saved to " + run.getDirectory());
+    }
+
+    private static void merge(List<LastPriceServiceImpl> replicas, List<String> instruments, AtomicBoolean running) {
+        long asOf = 0;
+        int replica = 0;
+        while (running.get()) {
+            final List<PriceRecord> records = new ArrayList<>(RECORDS_PER_MERGE);
+            for (int i = 0; i < RECORDS_PER_MERGE; i++) {
+                records.add(new PriceRecord(instruments.get(i % INSTRUMENTS_NUMBER), ++asOf, new byte[16]));
+            }
+            try {
+                final LastPriceServiceImpl service = replicas.get(replica++ % replicas.size());
+                final long batchRunId = service.startBatchRun();
+                service.uploadPriceRecordsChunk(batchRunId, records);
+                service.completeBatchRun(batchRunId);
+                Thread.sleep(MERGE_PAUSE_MS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void measure(
+        String mode,
+        HedgedLastPriceReader reader,
+        Recorder recorder,
+        List<String> instruments) {
+
+
+        final Histogram histogram = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
+        int failed = 0;
+        for (int i = 0; i < WARM_UP_REQUESTS + MEASURED_REQUESTS; i++) {
+            final long start = System.nanoTime();
+            try {
+                reader.requestLastPrice(instruments.get(i % INSTRUMENTS_NUMBER));
+            } catch (StatusRuntimeException e) {
+                failed++;
+            }
+            if (i >= WARM_UP_REQUESTS) {
+                final long latency = System.nanoTime() - start;
+                histogram.recordValue(latency);
+                recorder.recordValue(latency);
+            }
+        }
+        System.out.printf("%10s %10.1f %10.1f %10.1f %10.1f %10d%n",
+            mode,
+            histogram.getValueAtPercentile(50) / 1000.0,
+            histogram.getValueAtPercentile(99) / 1000.0,
+            histogram.getValueAtPercentile(99.9) / 1000.0,
+            histogram.getMaxValue() / 1000.0,
+            failed
+        );
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.ExecutorRoutingInterceptor;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.StatusRuntimeException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures last price read latency while bulk producers keep uploading big chunks, with all calls on
+ * the default gRPC executor, with reads and writes on separate pools and with reads on the transport
+ * event loops and writes on a separate pool. Read latencies are saved as a {@link BenchmarkRun} of the
+ * {@code mixed-load} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class MixedLoadPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 1_000;
+    private static final int READERS = 4;
+    private static final int READ_THREADS = 2;
+    private static final int BULK_PRODUCERS = 8;
+    private static final int BULK_CHUNKS = 10;
+    private static final int BULK_CHUNK_SIZE = 5_000;
+    private static final int WRITE_THREADS = 2;
+    private static final int WRITE_QUEUE_CAPACITY = 16;
+    private static final long WARM_UP_MS = TimeUnit.SECONDS.toMillis(3);
+    private static final long MEASUREMENT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private enum Mode {
+        SHARED, SPLIT, DIRECT
+    }
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        System.out.printf("%8s %10s %10s %10s %12s %16s %10s%n",
+            "mode", "p50 us", "p99 us", "p99.9 us", "reads/s", "bulk records/s", "rejected");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("mixed-load");
+        try {
+            for (Mode mode : Mode.values()) {
+                run(mode, instruments, benchmarkRun.recorder("read-" + mode.name().toLowerCase()));
+            }
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void run(Mode mode, List<String> instruments, Recorder savedReadLatencies) throws Exception {
+        final ExecutorService readExecutorService = Executors.newFixedThreadPool(READ_THREADS);
+        final ExecutorService writeExecutorService = new ThreadPoolExecutor(
+            WRITE_THREADS, WRITE_THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY)
+        );
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final LastPriceServiceHandler handler = new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(BULK_PRODUCERS + 1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build());
+        final ServerBuilder<?> serverBuilder = ServerBuilder.forPort(0);
+        if (mode == Mode.SHARED) {
+            serverBuilder.addService(handler);
+        } else {
+            if (mode == Mode.SPLIT) {
+                serverBuilder.executor(readExecutorService);
+            } else {
+                serverBuilder.directExecutor();
+            }
+            serverBuilder.addService(
+                ServerInterceptors.intercept(handler, ExecutorRoutingInterceptor.forWrites(writeExecutorService))
+            );
+        }
+        final Server server = serverBuilder.build().start();
+        final ManagedChannel channel = LastPriceChannels.forTarget("localhost:" + server.getPort());
+        // readers get their own connection, so big chunks do not delay them on the client side
+        final ManagedChannel readChannel = LastPriceChannels.forTarget("localhost:" + server.getPort());
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean measuring = new AtomicBoolean(false);
+        final AtomicLong bulkRecords = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final Recorder readLatencies = new Recorder(3);
+        final List<Thread> threads = new ArrayList<>();
+        try {
+            final LastPriceClient client = new LastPriceClient(channel);
+            final LastPriceClient readClient = new LastPriceClient(readChannel);
+            final List<InstrumentPriceRecord> bulkChunk = createChunk(instruments);
+            for (int i = 0; i < BULK_PRODUCERS; i++) {
+                threads.add(new Thread(() -> {
+                    while (running.get()) {
+                        try {
+                            final long batchRunId = client.startBatchRun().getBatchRunId();
+                            for (int chunk = 0; chunk < BULK_CHUNKS && running.get(); chunk++) {
+                                client.uploadPriceRecordsChunk(batchRunId, bulkChunk);
+                                if (measuring.get()) {
+                                    bulkRecords.addAndGet(BULK_CHUNK_SIZE);
+                                }
+                            }
+                            client.completeBatchRun(batchRunId);
+                        } catch (StatusRuntimeException e) {
+                            // the write queue is full, the abandoned batch run is not cleaned up in this test
+                            rejected.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < READERS; i++) {
+                final int firstInstrument = i;
+                threads.add(new Thread(() -> {
+                    int instrument = firstInstrument;
+                    while (running.get()) {
+                        final long start = System.nanoTime();
+                        readClient.requestLastPrice(instruments.get(instrument++ % INSTRUMENTS_NUMBER));
+                        final long latency = System.nanoTime() - start;
+                        readLatencies.recordValue(latency);
+                        if (measuring.get()) {
+                            savedReadLatencies.recordValue(latency);
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            Thread.sleep(WARM_UP_MS);
+            readLatencies.reset();
+            measuring.set(true);
+            Thread.sleep(MEASUREMENT_MS);
+            measuring.set(false);
+            final Histogram histogram = readLatencies.getIntervalHistogram();
+            System.out.printf("%8s %10.1f %10.1f %10.1f %12.0f %16.0f %10d%n",
+                mode.name().toLowerCase(),
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getTotalCount() / (MEASUREMENT_MS / 1000.0),
+                bulkRecords.get() / (MEASUREMENT_MS / 1000.0),
+                rejected.get()
+            );
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            readChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            readExecutorService.shutdown();
+            writeExecutorService.shutdown();
+        }
+    }
+
+    private static List<InstrumentPriceRecord> createChunk(List<String> instruments) {
+        final List<InstrumentPriceRecord> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+        for (int i = 0; i < BULK_CHUNK_SIZE; i++) {
+            chunk.add(InstrumentPriceRecord.newBuilder()
+                .setInstrument(instruments.get(i % instruments.size()))
+                .setAsOf(i)
+                .setPayload(ByteString.copyFrom(new byte[16]))
+                .build());
+        }
+        return chunk;
+    }
+
+}
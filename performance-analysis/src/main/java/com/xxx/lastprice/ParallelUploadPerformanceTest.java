@@ -0,0 +1,101 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures upload throughput into a single batch run for different number of producers.
+ * Every producer uploads sequenced chunks of random records to the same batch run. Upload latencies are saved
+ * as a {@link BenchmarkRun} of the {@code parallel-upload} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ParallelUploadPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 10_000;
+    private static final int RECORDS_PER_CHUNK = 100;
+    private static final int PAYLOAD_SIZE = 64;
+    private static final long WARM_UP_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long MEASUREMENT_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final int[] PRODUCERS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        System.out.printf("%10s %20s%n", "producers", "records/s");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("parallel-upload");
+        try {
+            for (int producers : PRODUCERS) {
+                run(instruments, producers, benchmarkRun.recorder("upload-" + producers + "-producers"));
+            }
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void run(List<String> instruments, int producers, Recorder uploadLatencies) throws Exception {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final LastPriceServiceImpl service = LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build();
+        final long batchRunId = service.startBatchRun();
+        final AtomicLong chunkSequence = new AtomicLong(1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean measuring = new AtomicBoolean(false);
+        final LongAdder uploadedRecords = new LongAdder();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            threads.add(new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    final List<PriceRecord> chunk = new ArrayList<>(RECORDS_PER_CHUNK);
+                    for (int j = 0; j < RECORDS_PER_CHUNK; j++) {
+                        chunk.add(new PriceRecord(
+                            instruments.get(random.nextInt(INSTRUMENTS_NUMBER)), System.nanoTime(), new byte[PAYLOAD_SIZE]
+                        ));
+                    }
+                    final long start = System.nanoTime();
+                    try {
+                        service.uploadPriceRecordsChunk(batchRunId, chunkSequence.getAndIncrement(), chunk);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    if (measuring.get()) {
+                        uploadLatencies.recordValue(System.nanoTime() - start);
+                        uploadedRecords.add(RECORDS_PER_CHUNK);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(WARM_UP_MS);
+        measuring.set(true);
+        Thread.sleep(MEASUREMENT_MS);
+        measuring.set(false);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        service.completeBatchRun(batchRunId);
+        System.out.printf("%10d %20.0f%n", producers, uploadedRecords.sum() / (MEASUREMENT_MS / 1000.0));
+    }
+
+}
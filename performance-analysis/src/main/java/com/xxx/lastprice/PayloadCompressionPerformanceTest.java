@@ -0,0 +1,284 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PayloadCompressor;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.server.ResponseCompressionInterceptor;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.UploadChunkRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Measures payload compression on verbose quote payloads of a few kilobytes: heap retained by the market state
+ * with and without compression, compression and decompression cost per record, and latency of uploads and reads
+ * over loopback with and without gzip message compression. Wire latencies are saved as a {@link BenchmarkRun}
+ * of the {@code payload-compression} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PayloadCompressionPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 10_000;
+    private static final int QUOTE_LEVELS = 40;
+    private static final int ROUNDS = 5;
+    private static final int CHUNK_SIZE = 50;
+    private static final int UPLOADED_CHUNKS = 400;
+    private static final int READS = 20_000;
+    private static final int CACHE_SLOTS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        final List<PriceRecord> records = new ArrayList<>(INSTRUMENTS_NUMBER);
+        final Random random = new Random(1);
+        long payloadBytes = 0;
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+            final byte[] payload = quote(random);
+            payloadBytes += payload.length;
+            records.add(new PriceRecord(instruments.get(i), 1L, payload));
+        }
+        System.out.printf("%d records, average payload %d bytes%n%n",
+            INSTRUMENTS_NUMBER, payloadBytes / INSTRUMENTS_NUMBER);
+
+        measureAtRest(records);
+        System.out.println();
+        measureWire(instruments, random);
+    }
+
+    private static void measureAtRest(List<PriceRecord> records) {
+        final long heapBefore = usedHeapAfterGc();
+        final PriceRecordContainer plainState = new PriceRecordContainer();
+        plainState.updatePriceRecords(copy(records));
+        final long plainHeap = usedHeapAfterGc() - heapBefore;
+
+        final PayloadCompressor compressor = new PayloadCompressor(256, CACHE_SLOTS);
+        List<PriceRecord> compressedRecords = null;
+        long compressNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            compressedRecords = new ArrayList<>(compressor.compress(records));
+            // the first round only warms up the JIT
+            if (round > 0) {
+                compressNanos += System.nanoTime() - start;
+            }
+        }
+        final long compressedHeapBefore = usedHeapAfterGc();
+        final PriceRecordContainer compressedState = new PriceRecordContainer();
+        compressedState.updatePriceRecords(compressor.compress(copy(records)));
+        final long compressedHeap = usedHeapAfterGc() - compressedHeapBefore;
+
+        System.out.printf("%12s %16s %16s%n", "market state", "estimated MB", "measured heap MB");
+        System.out.printf("%12s %16.1f %16.1f%n", "plain", mb(plainState.getSizeInBytes()), mb(plainHeap));
+        System.out.printf("%12s %16.1f %16.1f%n",
+            "compressed", mb(compressedState.getSizeInBytes()), mb(compressedHeap));
+        System.out.println();
+
+        final List<PriceRecord> uncachedRecords =
+            new ArrayList<>(new PayloadCompressor(256, 0).compress(records));
+        long checksum = 0;
+        long coldNanos = 0;
+        long hotNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (PriceRecord priceRecord : uncachedRecords) {
+                checksum += priceRecord.getPayload()[0];
+            }
+            if (round > 0) {
+                coldNanos += System.nanoTime() - start;
+            }
+            // a hot set well below the cache size, reads of it are admitted and then mostly hit
+            final List<PriceRecord> hotRecords = compressedRecords.subList(0, CACHE_SLOTS / 8);
+            for (PriceRecord priceRecord : hotRecords) {
+                checksum += priceRecord.getPayload()[0] + priceRecord.getPayload()[0];
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < INSTRUMENTS_NUMBER / hotRecords.size(); i++) {
+                for (PriceRecord priceRecord : hotRecords) {
+                    checksum += priceRecord.getPayload()[0];
+                }
+            }
+            if (round > 0) {
+                hotNanos += System.nanoTime() - start;
+            }
+        }
+        final long measured = (long) (ROUNDS - 1) * INSTRUMENTS_NUMBER;
+        System.out.printf("%20s %10s%n", "cost per record", "ns");
+        System.out.printf("%20s %10d%n", "compress", compressNanos / measured);
+        System.out.printf("%20s %10d%n", "decompress", coldNanos / measured);
+        System.out.printf("%20s %10d%n", "cached read", hotNanos / measured);
+        System.out.println("checksum " + checksum);
+    }
+
+    private static void measureWire(List<String> instruments, Random random) throws Exception {
+        final UploadChunkRequest.Builder chunk = UploadChunkRequest.newBuilder();
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            chunk.addPriceRecords(instrumentPriceRecord(instruments.get(i), quote(random)));
+        }
+        final byte[] serializedChunk = chunk.build().toByteArray();
+        System.out.printf("upload chunk of %d records: %d bytes, %d bytes gzipped%n%n",
+            CHUNK_SIZE, serializedChunk.length, gzip(serializedChunk).length);
+
+        System.out.printf("%10s %14s %14s %12s %12s%n", "wire", "upload p50 us", "upload p99 us", "read p50 us",
+            "read p99 us");
+        // the first run only warms up the JIT
+        runWire(instruments, random, "identity", null);
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("payload-compression");
+        try {
+            for (String compression : List.of("identity", "gzip")) {
+                runWire(instruments, random, compression, benchmarkRun);
+            }
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    /**
+     * Runs uploads and reads over the wire, latencies are saved to the benchmark run unless it is {@code null}.
+     */
+    private static void runWire(
+        List<String> instruments,
+        Random random,
+        String compression,
+        BenchmarkRun benchmarkRun) throws Exception {
+
+
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final LastPriceServiceHandler handler = new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build());
+        final boolean gzip = compression.equals("gzip");
+        final Server server = ServerBuilder.forPort(0)
+            .addService(gzip
+                ? ServerInterceptors.intercept(handler, new ResponseCompressionInterceptor(compression))
+                : handler.bindService())
+            .build()
+            .start();
+        final ManagedChannel channel = LastPriceChannels.forTarget("localhost:" + server.getPort());
+        try {
+            final LastPriceClient plainClient = new LastPriceClient(channel);
+            final LastPriceClient client = gzip ? plainClient.withCompression(compression) : plainClient;
+            final Recorder savedUploads =
+                isNull(benchmarkRun) ? new Recorder(3) : benchmarkRun.recorder("upload-" + compression);
+            final Recorder savedReads =
+                isNull(benchmarkRun) ? new Recorder(3) : benchmarkRun.recorder("read-" + compression);
+            final Histogram uploads = new Histogram(3);
+            final long batchRunId = client.startBatchRun().getBatchRunId();
+            for (int i = 0; i < UPLOADED_CHUNKS; i++) {
+                final List<InstrumentPriceRecord> records = new ArrayList<>(CHUNK_SIZE);
+                for (int j = 0; j < CHUNK_SIZE; j++) {
+                    records.add(instrumentPriceRecord(
+                        instruments.get(random.nextInt(instruments.size())), quote(random)
+                    ));
+                }
+                final long start = System.nanoTime();
+                client.uploadPriceRecordsChunk(batchRunId, i, records);
+                final long latency = System.nanoTime() - start;
+                uploads.recordValue(latency);
+                savedUploads.recordValue(latency);
+            }
+            client.completeBatchRun(batchRunId);
+            final Histogram reads = new Histogram(3);
+            for (int i = 0; i < READS; i++) {
+                final String instrument = instruments.get(random.nextInt(instruments.size()));
+                final long start = System.nanoTime();
+                client.requestLastPrice(instrument);
+                final long latency = System.nanoTime() - start;
+                reads.recordValue(latency);
+                savedReads.recordValue(latency);
+            }
+            System.out.printf("%10s %14.1f %14.1f %12.1f %12.1f%n", compression,
+                uploads.getValueAtPercentile(50) / 1000.0, uploads.getValueAtPercentile(99) / 1000.0,
+                reads.getValueAtPercentile(50) / 1000.0, reads.getValueAtPercentile(99) / 1000.0);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Builds a quote payload resembling serialized order book levels: repeated field names, few digits of entropy.
+     */
+    private static byte[] quote(Random random) {
+        final StringBuilder quote = new StringBuilder("{\"levels\":[");
+        for (int level = 0; level < QUOTE_LEVELS; level++) {
+            final int bid = 10_000 + random.nextInt(1_000);
+            quote.append(level == 0 ? "" : ",")
+                .append("{\"venue\":\"").append(random.nextBoolean() ? "XETR" : "XLON")
+                .append("\",\"bid\":").append(bid / 100).append('.').append(bid % 100)
+                .append(",\"ask\":").append((bid + 5) / 100).append('.').append((bid + 5) % 100)
+                .append(",\"bidSize\":").append(100 * (1 + random.nextInt(50)))
+                .append(",\"askSize\":").append(100 * (1 + random.nextInt(50)))
+                .append(",\"currency\":\"EUR\",\"timestamp\":").append(1_600_000_000_000L + random.nextInt(1_000_000))
+                .append('}');
+        }
+        return quote.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static InstrumentPriceRecord instrumentPriceRecord(String instrument, byte[] payload) {
+        return InstrumentPriceRecord.newBuilder()
+            .setInstrument(instrument)
+            .setAsOf(System.currentTimeMillis())
+            .setPayload(ByteString.copyFrom(payload))
+            .build();
+    }
+
+    /**
+     * Copies records, so the heap they retain is attributed to the container they are put into.
+     */
+    private static List<PriceRecord> copy(List<PriceRecord> records) {
+        final List<PriceRecord> copies = new ArrayList<>(records.size());
+        for (PriceRecord priceRecord : records) {
+            copies.add(new PriceRecord(
+                priceRecord.getInstrument(), priceRecord.getAsOf(), priceRecord.getPayload().clone()
+            ));
+        }
+        return copies;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        }
+        return output.toByteArray();
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024);
+    }
+
+}
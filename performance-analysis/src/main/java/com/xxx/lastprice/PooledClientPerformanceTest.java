@@ -0,0 +1,122 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.PooledLastPriceClient;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures last price requests throughput of a single client process for different pool sizes
+ * of {@link PooledLastPriceClient}. The number of calling threads is fixed. Request latencies are saved
+ * as a {@link BenchmarkRun} of the {@code pooled-client} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PooledClientPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 100;
+    private static final int PAYLOAD_SIZE = 64;
+    private static final int CALLERS = Integer.getInteger("callers", 32);
+    private static final long WARM_UP_MS = TimeUnit.SECONDS.toMillis(3);
+    private static final long MEASUREMENT_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final int[] POOL_SIZES = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final Server server = ServerBuilder.forPort(0)
+            .addService(new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+                new PriceRecordContainer(),
+                new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+                instruments,
+                new BatchRunAdmissionControl(1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+            ).build()))
+            .build()
+            .start();
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("pooled-client");
+        try {
+            final String target = "localhost:" + server.getPort();
+            upload(target, instruments);
+            System.out.printf("%10s %10s %20s%n", "pool size", "callers", "requests/s");
+            for (int poolSize : POOL_SIZES) {
+                run(target, instruments, poolSize, benchmarkRun.recorder("read-pool-" + poolSize));
+            }
+        } finally {
+            benchmarkRun.close();
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void upload(String target, List<String> instruments) {
+        try (PooledLastPriceClient client = new PooledLastPriceClient(target, 1)) {
+            final long batchRunId = client.startBatchRun().getBatchRunId();
+            final List<InstrumentPriceRecord> records = new ArrayList<>(instruments.size());
+            for (String instrument : instruments) {
+                records.add(InstrumentPriceRecord.newBuilder()
+                    .setInstrument(instrument)
+                    .setAsOf(1)
+                    .setPayload(ByteString.copyFrom(new byte[PAYLOAD_SIZE]))
+                    .build());
+            }
+            client.uploadPriceRecordsChunk(batchRunId, records);
+            client.completeBatchRun(batchRunId);
+        }
+    }
+
+    private static void run(
+        String target,
+        List<String> instruments,
+        int poolSize,
+        Recorder requestLatencies) throws Exception {
+
+        try (PooledLastPriceClient client = new PooledLastPriceClient(target, poolSize)) {
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicBoolean measuring = new AtomicBoolean(false);
+            final LongAdder requests = new LongAdder();
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                final int firstInstrument = i;
+                threads.add(new Thread(() -> {
+                    int instrument = firstInstrument;
+                    while (running.get()) {
+                        final long start = System.nanoTime();
+                        client.requestLastPrice(instruments.get(instrument++ % INSTRUMENTS_NUMBER));
+                        if (measuring.get()) {
+                            requestLatencies.recordValue(System.nanoTime() - start);
+                            requests.increment();
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            Thread.sleep(WARM_UP_MS);
+            measuring.set(true);
+            Thread.sleep(MEASUREMENT_MS);
+            measuring.set(false);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.printf("%10d %10d %20.0f%n", poolSize, CALLERS, requests.sum() / (MEASUREMENT_MS / 1000.0));
+        }
+    }
+
+}
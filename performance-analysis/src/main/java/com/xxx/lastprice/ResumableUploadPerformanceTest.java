@@ -0,0 +1,171 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.BatchRunJournal;
+import com.xxx.lastprice.domain.BatchRunJournal.JournaledBatchRun;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Measures the cost of journaling accepted chunks for resumable uploads: latency of chunk uploads to the service
+ * without the journal, with the journal written to the page cache and with every chunk forced to the disk.
+ * Then a batch run is interrupted by a restart and the time to recover it from the journal is measured.
+ * Upload latencies are saved as a {@link BenchmarkRun} of the {@code resumable-upload} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ResumableUploadPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 10_000;
+    private static final int CHUNK_SIZE = 1_000;
+    private static final int PAYLOAD_BYTES = 64;
+    private static final int WARM_UP_CHUNKS = 500;
+    private static final int CHUNKS = 2_000;
+    private static final int INTERRUPTED_CHUNKS = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final Path directory = Files.createTempDirectory("batch-run-journal");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("resumable-upload");
+        try {
+            System.out.printf("%10s %14s %14s %10s%n", "journal", "upload p50 us", "upload p99 us", "MB/s");
+            measureUploads(instruments, null, "off", benchmarkRun.recorder("upload-journal-off"));
+            try (BatchRunJournal journal = new BatchRunJournal(directory, false)) {
+                measureUploads(instruments, journal, "no sync", benchmarkRun.recorder("upload-journal-no-sync"));
+            }
+            try (BatchRunJournal journal = new BatchRunJournal(directory, true)) {
+                measureUploads(instruments, journal, "sync", benchmarkRun.recorder("upload-journal-sync"));
+            }
+            System.out.println();
+            measureRestart(instruments, directory);
+        } finally {
+            benchmarkRun.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(ResumableUploadPerformanceTest::delete);
+            }
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void measureUploads(
+        List<String> instruments,
+        BatchRunJournal journal,
+        String mode,
+        Recorder savedUploads) throws Exception {
+
+        final LastPriceServiceImpl service = createService(instruments, journal, 0);
+        final Histogram uploads = new Histogram(3);
+        service.cancelBatchRun(uploadChunks(service, instruments, WARM_UP_CHUNKS, latency -> { }));
+        final long start = System.nanoTime();
+        final long batchRunId = uploadChunks(service, instruments, CHUNKS, latency -> {
+            uploads.recordValue(latency);
+            savedUploads.recordValue(latency);
+        });
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        service.cancelBatchRun(batchRunId);
+        final double megabytes = (double) CHUNKS * CHUNK_SIZE * (PAYLOAD_BYTES + 14 + 8) / (1 << 20);
+        System.out.printf("%10s %14.1f %14.1f %10.0f%n",
+            mode,
+            uploads.getValueAtPercentile(50) / 1000.0,
+            uploads.getValueAtPercentile(99) / 1000.0,
+            megabytes / seconds);
+    }
+
+    private static void measureRestart(List<String> instruments, Path directory) throws Exception {
+        final long batchRunId;
+        try (BatchRunJournal journal = new BatchRunJournal(directory, false)) {
+            final LastPriceServiceImpl service = createService(instruments, journal, 0);
+            batchRunId = uploadChunks(service, instruments, INTERRUPTED_CHUNKS, latency -> { });
+        }
+        long journalBytes = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                journalBytes += Files.size(file);
+            }
+        }
+
+        final long start = System.nanoTime();
+        try (BatchRunJournal journal = new BatchRunJournal(directory, false)) {
+            final SortedMap<Long, JournaledBatchRun> recovered = journal.recover();
+            final long recoveredNanos = System.nanoTime() - start;
+            final LastPriceServiceImpl service = createService(instruments, journal, recovered.lastKey() + 1);
+            service.restoreBatchRuns(recovered.values());
+            final long restoredNanos = System.nanoTime() - start;
+            final long lastChunkSequence = service.resumeBatchRun(batchRunId);
+            System.out.printf("interrupted batch run of %d chunks, journal %.1f MB%n",
+                INTERRUPTED_CHUNKS, journalBytes / (double) (1 << 20));
+            System.out.printf("recovered in %.0f ms, restored in %.0f ms, resumed after chunk %d%n",
+                recoveredNanos / 1e6, restoredNanos / 1e6, lastChunkSequence);
+            service.completeBatchRun(batchRunId);
+        }
+    }
+
+    /**
+     * Uploads sequenced chunks to a new batch run and leaves it active.
+     *
+     * @return id of the batch run
+     */
+    private static long uploadChunks(
+        LastPriceServiceImpl service,
+        List<String> instruments,
+        int chunks,
+        LongConsumer uploadLatencies) throws Exception {
+
+        final long batchRunId = service.startBatchRun();
+        for (int i = 0; i < chunks; i++) {
+            final List<PriceRecord> chunk = new ArrayList<>(CHUNK_SIZE);
+            final int offset = (i * CHUNK_SIZE) % instruments.size();
+            for (int j = 0; j < CHUNK_SIZE; j++) {
+                chunk.add(new PriceRecord(instruments.get(offset + j), i, new byte[PAYLOAD_BYTES]));
+            }
+            final long start = System.nanoTime();
+            service.uploadPriceRecordsChunk(batchRunId, i + 1, chunk);
+            uploadLatencies.accept(System.nanoTime() - start);
+        }
+        return batchRunId;
+    }
+
+    private static LastPriceServiceImpl createService(
+        List<String> instruments,
+        BatchRunJournal journal,
+        long firstBatchRunId) {
+
+        final AtomicLong batchIdSequence = new AtomicLong(firstBatchRunId);
+        return LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        )
+            .batchRunJournal(journal)
+            .build();
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import com.xxx.lastprice.client.ShardedLastPriceClient;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.transport.CompleteBatchRunResponse;
+import com.xxx.lastprice.transport.ConsistentHashRing;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Measures batch runs against clusters of one to several shards running in this JVM over loopback: batch runs
+ * per second, and latency of chunk uploads and completions. The single node is measured with the plain client
+ * and its one-phase completion as the baseline of the routing client and its two-phase completion. Latencies
+ * are saved as a {@link BenchmarkRun} of the {@code sharded-cluster} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ShardedClusterPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 3_000;
+    private static final int CHUNK_SIZE = 1_000;
+    private static final int CHUNKS_PER_BATCH_RUN = 3;
+    private static final int WARM_UP_BATCH_RUNS = 200;
+    private static final int BATCH_RUNS = 500;
+    private static final int[] SHARDS = {1, 2, 3, 4};
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final List<List<InstrumentPriceRecord>> chunks = new ArrayList<>(CHUNKS_PER_BATCH_RUN);
+        for (int i = 0; i < CHUNKS_PER_BATCH_RUN; i++) {
+            chunks.add(instruments.subList(i * CHUNK_SIZE, (i + 1) * CHUNK_SIZE).stream()
+                .map(instrument -> InstrumentPriceRecord.newBuilder()
+                    .setInstrument(instrument)
+                    .setAsOf(1L)
+                    .setPayload(ByteString.copyFrom(new byte[64]))
+                    .build())
+                .collect(Collectors.toList()));
+        }
+        System.out.printf("%8s %10s %12s %14s %14s %14s%n",
+            "shards", "client", "batch runs/s", "upload p50 us", "complete p50", "complete p99");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("sharded-cluster");
+        try {
+            run(instruments, chunks, 1, false, benchmarkRun);
+            for (int shards : SHARDS) {
+                run(instruments, chunks, shards, true, benchmarkRun);
+            }
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void run(
+        List<String> instruments,
+        List<List<InstrumentPriceRecord>> chunks,
+        int shardsNumber,
+        boolean sharded,
+        BenchmarkRun benchmarkRun) throws Exception {
+
+        final List<String> nodes = new ArrayList<>(shardsNumber);
+        for (int i = 0; i < shardsNumber; i++) {
+            nodes.add("node-" + i);
+        }
+        final ConsistentHashRing ring = new ConsistentHashRing(nodes, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        final List<Server> servers = new ArrayList<>(shardsNumber);
+        final Map<String, ManagedChannel> channels = new LinkedHashMap<>();
+        try {
+            for (String node : nodes) {
+                final AtomicLong batchIdSequence = new AtomicLong();
+                final Server server = ServerBuilder.forPort(0)
+                    .addService(new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+                        new PriceRecordContainer(),
+                        new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+                        instruments.stream().filter(instrument -> ring.nodeFor(instrument).equals(node))
+                            .collect(Collectors.toList()),
+                        new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+                    ).build()))
+                    .build()
+                    .start();
+                servers.add(server);
+                channels.put(node, LastPriceChannels.forTarget("localhost:" + server.getPort()));
+            }
+            final BatchRunClient client = sharded
+                ? new ShardedBatchRunClient(
+                    new ShardedLastPriceClient(channels, ConsistentHashRing.DEFAULT_VIRTUAL_NODES)
+                )
+                : new PlainBatchRunClient(new LastPriceClient(channels.values().iterator().next()));
+            final String operationSuffix = (sharded ? "-sharded-" : "-plain-") + shardsNumber;
+            final Recorder savedUploads = benchmarkRun.recorder("upload" + operationSuffix);
+            final Recorder savedCompletions = benchmarkRun.recorder("complete" + operationSuffix);
+            final Histogram uploads = new Histogram(3);
+            final Histogram completions = new Histogram(3);
+            for (int i = 0; i < WARM_UP_BATCH_RUNS; i++) {
+                runBatchRun(client, chunks, latency -> { }, latency -> { });
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < BATCH_RUNS; i++) {
+                runBatchRun(
+                    client,
+                    chunks,
+                    latency -> {
+                        uploads.recordValue(latency);
+                        savedUploads.recordValue(latency);
+                    },
+                    latency -> {
+                        completions.recordValue(latency);
+                        savedCompletions.recordValue(latency);
+                    }
+                );
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%8d %10s %12.0f %14.1f %14.1f %14.1f%n",
+                shardsNumber, sharded ? "sharded" : "plain", BATCH_RUNS / seconds,
+                uploads.getValueAtPercentile(50) / 1000.0,
+                completions.getValueAtPercentile(50) / 1000.0,
+                completions.getValueAtPercentile(99) / 1000.0);
+        } finally {
+            for (ManagedChannel channel : channels.values()) {
+                channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+            for (Server server : servers) {
+                server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static void runBatchRun(
+        BatchRunClient client,
+        List<List<InstrumentPriceRecord>> chunks,
+        LongConsumer uploadLatencies,
+        LongConsumer completionLatencies) {
+
+        final long batchRunId = client.start();
+        for (int i = 0; i < chunks.size(); i++) {
+            final long start = System.nanoTime();
+            client.upload(batchRunId, i + 1, chunks.get(i));
+            uploadLatencies.accept(System.nanoTime() - start);
+        }
+        final long start = System.nanoTime();
+        if (!client.complete(batchRunId)) {
+            throw new IllegalStateException("Batch run " + batchRunId + " was not completed");
+        }
+        completionLatencies.accept(System.nanoTime() - start);
+    }
+
+    private interface BatchRunClient {
+
+        long start();
+
+        void upload(long batchRunId, long chunkSequence, List<InstrumentPriceRecord> priceRecords);
+
+        boolean complete(long batchRunId);
+    }
+
+    private static final class PlainBatchRunClient implements BatchRunClient {
+
+        private final LastPriceClient client;
+
+        private PlainBatchRunClient(LastPriceClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public long start() {
+            return client.startBatchRun().getBatchRunId();
+        }
+
+        @Override
+        public void upload(long batchRunId, long chunkSequence, List<InstrumentPriceRecord> priceRecords) {
+            client.uploadPriceRecordsChunk(batchRunId, chunkSequence, priceRecords);
+        }
+
+        @Override
+        public boolean complete(long batchRunId) {
+            return client.completeBatchRun(batchRunId).getStatus() == CompleteBatchRunResponse.Status.SUCCESS;
+        }
+    }
+
+    private static final class ShardedBatchRunClient implements BatchRunClient {
+
+        private final ShardedLastPriceClient client;
+
+        private ShardedBatchRunClient(ShardedLastPriceClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public long start() {
+            return client.startBatchRun().getBatchRunId();
+        }
+
+        @Override
+        public void upload(long batchRunId, long chunkSequence, List<InstrumentPriceRecord> priceRecords) {
+            client.uploadPriceRecordsChunk(batchRunId, chunkSequence, priceRecords);
+        }
+
+        @Override
+        public boolean complete(long batchRunId) {
+            return client.completeBatchRun(batchRunId).getStatus() == CompleteBatchRunResponse.Status.SUCCESS;
+        }
+    }
+
+}
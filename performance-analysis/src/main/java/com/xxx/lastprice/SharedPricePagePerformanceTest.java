@@ -0,0 +1,144 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.client.SharedPricePageReader;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.SharedPricePageExporter;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures latency of same-host reads from the shared price page while a writer in another JVM keeps
+ * updating the market state. The writer is this class started with the {@code writer} argument.
+ *
+ * Every payload starts with the as-of timestamp of its record, so the reader verifies that
+ * it never observes a torn record. Read latencies are saved as a {@link BenchmarkRun} of the
+ * {@code shared-price-page} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class SharedPricePagePerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 1_000;
+    private static final int PAYLOAD_SIZE = 64;
+    private static final int RECORDS_PER_UPDATE = 10;
+    private static final long WARM_UP_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long MEASUREMENT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    public static void main(String[] args) throws Exception {
+        final Path file = args.length > 1
+            ? Paths.get(args[1])
+            : Paths.get(System.getProperty("java.io.tmpdir"), "last-price-page-perf");
+        if (args.length > 0 && args[0].equals("writer")) {
+            write(file, WARM_UP_MS + MEASUREMENT_MS + TimeUnit.SECONDS.toMillis(1));
+            return;
+        }
+        Files.deleteIfExists(file);
+        final Process writer = new ProcessBuilder(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp", System.getProperty("java.class.path"),
+            SharedPricePagePerformanceTest.class.getName(), "writer", file.toString()
+        ).inheritIO().start();
+        try {
+            read(file);
+        } finally {
+            writer.waitFor();
+        }
+    }
+
+    private static List<String> instruments() {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        return instruments;
+    }
+
+    private static void write(Path file, long durationMs) {
+        final List<String> instruments = instruments();
+        try (SharedPricePageExporter exporter = new SharedPricePageExporter(
+            file, instruments, SharedPricePageExporter.DEFAULT_MAX_INSTRUMENT_LENGTH, PAYLOAD_SIZE)) {
+
+            final PriceRecordContainer marketState = new PriceRecordContainer(exporter);
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long deadline = System.currentTimeMillis() + durationMs;
+            long asOf = 0;
+            long updates = 0;
+            while (System.currentTimeMillis() < deadline) {
+                final List<PriceRecord> update = new ArrayList<>(RECORDS_PER_UPDATE);
+                for (int i = 0; i < RECORDS_PER_UPDATE; i++) {
+                    asOf++;
+                    final byte[] payload = new byte[PAYLOAD_SIZE];
+                    ByteBuffer.wrap(payload).putLong(asOf).putLong(PAYLOAD_SIZE - Long.BYTES, asOf);
+                    update.add(new PriceRecord(instruments.get(random.nextInt(INSTRUMENTS_NUMBER)), asOf, payload));
+                }
+                marketState.updatePriceRecords(update);
+                updates++;
+            }
+            System.out.printf("writer: %d updates of %d records%n", updates, RECORDS_PER_UPDATE);
+        }
+    }
+
+    private static void read(Path file) throws InterruptedException, IOException {
+        SharedPricePageReader reader = null;
+        while (reader == null) {
+            try {
+                reader = new SharedPricePageReader(file);
+            } catch (IllegalStateException e) {
+                Thread.sleep(10);
+            }
+        }
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("shared-price-page");
+        try {
+            final List<String> instruments = instruments();
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final Recorder recorder = benchmarkRun.recorder("read");
+            final long measurementStart = System.currentTimeMillis() + WARM_UP_MS;
+            final long deadline = measurementStart + MEASUREMENT_MS;
+            long now;
+            long reads = 0;
+            while ((now = System.currentTimeMillis()) < deadline) {
+                final String instrument = instruments.get(random.nextInt(INSTRUMENTS_NUMBER));
+                final long start = System.nanoTime();
+                final InstrumentPriceRecord priceRecord = reader.read(instrument);
+                final long latency = System.nanoTime() - start;
+                if (priceRecord != null) {
+                    final ByteBuffer payload = priceRecord.getPayload().asReadOnlyByteBuffer();
+                    if (payload.getLong(0) != priceRecord.getAsOf()
+                        || payload.getLong(PAYLOAD_SIZE - Long.BYTES) != priceRecord.getAsOf()) {
+                        throw new IllegalStateException("Torn read of " + instrument);
+                    }
+                }
+                if (now >= measurementStart) {
+                    recorder.recordValue(latency);
+                    reads++;
+                }
+            }
+            benchmarkRun.close();
+            final Histogram histogram = benchmarkRun.getTotalHistogram("read");
+            System.out.printf("reads: %d, ns p50 %d, p99 %d, p99.9 %d, max %d%n",
+                reads,
+                histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9),
+                histogram.getMaxValue()
+            );
+            System.out.println("Run saved to " + benchmarkRun.getDirectory());
+        } finally {
+            benchmarkRun.close();
+            reader.close();
+        }
+    }
+
+}
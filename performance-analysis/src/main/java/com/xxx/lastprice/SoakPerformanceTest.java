@@ -0,0 +1,487 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import com.xxx.lastprice.domain.BatchRun;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.BatchRunRepository;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import com.xxx.lastprice.transport.UploadChunkResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.StatusRuntimeException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+
+import static java.lang.Integer.getInteger;
+import static java.lang.Long.getLong;
+
+/**
+ * Runs a long mix of completed, cancelled and abandoned batch runs, huge chunks and reads against the service,
+ * with the abandoned batch run clean up job running concurrently with the uploads. Every sample interval it
+ * records heap used after a full collection, live batch runs, bytes held by the admission control, eviction lag
+ * of abandoned batch runs and latency percentiles.
+ *
+ * At the end the samples taken after the warm-up are split into thirds and the test fails, exiting with
+ * status 1, if the mean of the last third of any metric is above the mean of the first third by more than
+ * the allowed growth factor and an absolute floor, i.e. if the metric keeps growing instead of levelling off.
+ * Call latencies are saved as a {@link BenchmarkRun} of the {@code soak} benchmark as well.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class SoakPerformanceTest {
+
+    private static final long DURATION_MINUTES = getLong("soak.duration_minutes", 60);
+    private static final long SAMPLE_INTERVAL_SECONDS = getLong("soak.sample_interval_seconds", 10);
+    private static final int BATCH_RUNS_PER_SECOND = getInteger("soak.batch_runs_per_second", 50);
+    private static final int PRODUCERS = getInteger("soak.producers", 8);
+    private static final int READERS = getInteger("soak.readers", 2);
+    private static final double ABANDONED_SHARE = share("soak.abandoned_share", 0.1);
+    private static final double CANCELLED_SHARE = share("soak.cancelled_share", 0.1);
+    private static final double HUGE_CHUNK_SHARE = share("soak.huge_chunk_share", 0.01);
+    private static final long CLEAN_UP_INTERVAL_MS = getLong("soak.clean_up_interval_ms", 1_000);
+    private static final long ABANDONED_TIMEOUT_MS = getLong("soak.abandoned_timeout_ms", 2_000);
+    private static final double MAX_GROWTH = share("soak.max_growth", 1.5);
+
+    private static final int INSTRUMENTS_NUMBER = 1_000;
+    private static final int MAX_CHUNKS = 5;
+    private static final int CHUNK_SIZE = 500;
+    private static final int HUGE_CHUNK_SIZE = 50_000;
+    private static final int MAX_ACTIVE_BATCH_RUNS = 10_000;
+    private static final double WARM_UP_SHARE = 0.2;
+    private static final long NO_BATCH_RUN = -1;
+
+    private final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+    private final ByteString payload = ByteString.copyFrom(new byte[16]);
+    private final Recorder startLatencies = new Recorder(3);
+    private final Recorder uploadLatencies = new Recorder(3);
+    private final Recorder completeLatencies = new Recorder(3);
+    private final Recorder readLatencies = new Recorder(3);
+    private final Recorder evictionLags = new Recorder(3);
+    private final Recorder savedStartLatencies;
+    private final Recorder savedUploadLatencies;
+    private final Recorder savedCompleteLatencies;
+    private final Recorder savedReadLatencies;
+    private final Map<Long, Long> abandonedAt = new ConcurrentHashMap<>();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong unexpectedlyEvicted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rejectedChunks = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final List<Sample> samples = new ArrayList<>();
+
+    private SoakPerformanceTest(BenchmarkRun benchmarkRun) throws IOException {
+        this.savedStartLatencies = benchmarkRun.recorder("startBatchRun");
+        this.savedUploadLatencies = benchmarkRun.recorder("uploadChunk");
+        this.savedCompleteLatencies = benchmarkRun.recorder("completeBatchRun");
+        this.savedReadLatencies = benchmarkRun.recorder("requestLastPrice");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("soak");
+        final boolean bounded;
+        try {
+            bounded = new SoakPerformanceTest(benchmarkRun).run();
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+        System.exit(bounded ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        final ScheduledExecutorService loadScheduler = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        final ExecutorService readers = Executors.newFixedThreadPool(READERS);
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final BatchRunRepository repository =
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement);
+        final BatchRunAdmissionControl admissionControl = new BatchRunAdmissionControl(
+            MAX_ACTIVE_BATCH_RUNS,
+            Runtime.getRuntime().maxMemory() / 2,
+            Runtime.getRuntime().maxMemory() / 8,
+            100
+        );
+        final Server server = ServerBuilder.forPort(0)
+            .addService(new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+                new PriceRecordContainer(),
+                new EvictionTrackingRepository(repository),
+                instruments,
+                admissionControl
+            )
+                .abandonedBatchRunTimeoutMs(ABANDONED_TIMEOUT_MS)
+                .cleanUpJob(CLEAN_UP_INTERVAL_MS, executorService)
+                .build()))
+            .build()
+            .start();
+        final ManagedChannel channel = LastPriceChannels.forTarget("localhost:" + server.getPort());
+        final ManagedChannel readChannel = LastPriceChannels.forTarget("localhost:" + server.getPort());
+        try {
+            final LastPriceClient client = new LastPriceClient(channel);
+            final LastPriceClient readClient = new LastPriceClient(readChannel);
+            final Semaphore freeProducers = new Semaphore(PRODUCERS);
+            loadScheduler.scheduleAtFixedRate(() -> {
+                // open loop: a batch run which finds every producer busy is skipped rather than queued,
+                // so a slow server shows up as skipped batch runs instead of a growing queue in the harness
+                if (!freeProducers.tryAcquire()) {
+                    skipped.incrementAndGet();
+                    return;
+                }
+                producers.execute(() -> {
+                    try {
+                        runBatch(client, repository);
+                    } finally {
+                        freeProducers.release();
+                    }
+                });
+            }, 0, TimeUnit.SECONDS.toMicros(1) / BATCH_RUNS_PER_SECOND, TimeUnit.MICROSECONDS);
+            for (int i = 0; i < READERS; i++) {
+                readers.execute(() -> read(readClient));
+            }
+
+            System.out.printf("%8s %9s %9s %12s %14s %8s %10s %10s %12s %10s %9s %11s %9s%n",
+                "time s", "heap MB", "live runs", "admitted MB", "evict lag p99", "evicted",
+                "start p99", "upload p99", "complete p99", "read p99", "rejected", "rej chunks", "skipped");
+            final long samplesNumber = TimeUnit.MINUTES.toSeconds(DURATION_MINUTES) / SAMPLE_INTERVAL_SECONDS;
+            for (int i = 1; i <= samplesNumber; i++) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(SAMPLE_INTERVAL_SECONDS));
+                final Sample sample = takeSample(i * SAMPLE_INTERVAL_SECONDS, repository, admissionControl);
+                samples.add(sample);
+                sample.print();
+            }
+        } finally {
+            loadScheduler.shutdownNow();
+            readers.shutdownNow();
+            producers.shutdown();
+            producers.awaitTermination(1, TimeUnit.MINUTES);
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            readChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            executorService.shutdown();
+        }
+        return verify();
+    }
+
+    private void runBatch(LastPriceClient client, BatchRunRepository repository) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        long batchRunId = NO_BATCH_RUN;
+        try {
+            long start = System.nanoTime();
+            final StartBatchRunResponse response = client.startBatchRun();
+            record(System.nanoTime() - start, startLatencies, savedStartLatencies);
+            if (response.getStatus() != StartBatchRunResponse.Status.SUCCESS) {
+                rejected.incrementAndGet();
+                return;
+            }
+            batchRunId = response.getBatchRunId();
+            final int chunks = 1 + random.nextInt(MAX_CHUNKS);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                final int size = random.nextDouble() < HUGE_CHUNK_SHARE ? HUGE_CHUNK_SIZE : CHUNK_SIZE;
+                final List<InstrumentPriceRecord> records = createChunk(size, random);
+                start = System.nanoTime();
+                final UploadChunkResponse uploaded = client.uploadPriceRecordsChunk(batchRunId, records);
+                record(System.nanoTime() - start, uploadLatencies, savedUploadLatencies);
+                if (uploaded.getStatus() != UploadChunkResponse.Status.SUCCESS) {
+                    // a producer would retry the chunk later, the soak gives the batch run up instead
+                    rejectedChunks.incrementAndGet();
+                    if (uploaded.getStatus() != UploadChunkResponse.Status.BATCH_RUN_NOT_FOUND) {
+                        client.cancelBatchRun(batchRunId);
+                    }
+                    return;
+                }
+            }
+            final double outcome = random.nextDouble();
+            if (outcome < ABANDONED_SHARE) {
+                abandonedAt.put(batchRunId, System.currentTimeMillis());
+            } else if (outcome < ABANDONED_SHARE + CANCELLED_SHARE) {
+                client.cancelBatchRun(batchRunId);
+            } else {
+                start = System.nanoTime();
+                client.completeBatchRun(batchRunId);
+                record(System.nanoTime() - start, completeLatencies, savedCompleteLatencies);
+            }
+        } catch (StatusRuntimeException e) {
+            rejected.incrementAndGet();
+            if (batchRunId != NO_BATCH_RUN) {
+                abandonOnFailure(batchRunId, repository);
+            }
+        }
+    }
+
+    /**
+     * Leaves the batch run of a failed call to the clean up job, as if it was abandoned, unless the call
+     * took effect and the batch run is already gone. The batch run is marked first, so the clean up job
+     * evicting it meanwhile does not count it as evicted while still in use.
+     */
+    private void abandonOnFailure(long batchRunId, BatchRunRepository repository) {
+        abandonedAt.put(batchRunId, System.currentTimeMillis());
+        if (repository.get(batchRunId) == null) {
+            abandonedAt.remove(batchRunId);
+        }
+    }
+
+    private void read(LastPriceClient client) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (!Thread.currentThread().isInterrupted()) {
+            final long start = System.nanoTime();
+            try {
+                client.requestLastPrice(instruments.get(random.nextInt(INSTRUMENTS_NUMBER)));
+            } catch (StatusRuntimeException e) {
+                return;
+            }
+            record(System.nanoTime() - start, readLatencies, savedReadLatencies);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records the latency for the samples and for the benchmark run, which keeps its own intervals.
+     */
+    private static void record(long latency, Recorder sampled, Recorder saved) {
+        sampled.recordValue(latency);
+        saved.recordValue(latency);
+    }
+
+    private List<InstrumentPriceRecord> createChunk(int size, Random random) {
+        final long asOf = System.currentTimeMillis();
+        final List<InstrumentPriceRecord> chunk = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            chunk.add(InstrumentPriceRecord.newBuilder()
+                .setInstrument(instruments.get(random.nextInt(INSTRUMENTS_NUMBER)))
+                .setAsOf(asOf)
+                .setPayload(payload)
+                .build());
+        }
+        return chunk;
+    }
+
+    private Sample takeSample(long elapsedSeconds, BatchRunRepository repository, BatchRunAdmissionControl control) {
+        // leaks are judged by what survives a full collection, the pause it causes shows up in max latencies only
+        System.gc();
+        return new Sample(
+            elapsedSeconds,
+            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024.0 * 1024),
+            repository.size(),
+            control.getTotalBytes() / (1024.0 * 1024),
+            Math.max(evictionLags.getIntervalHistogram().getValueAtPercentile(99) / 1000.0, oldestOverdueMs()),
+            evicted.get(),
+            startLatencies.getIntervalHistogram(),
+            uploadLatencies.getIntervalHistogram(),
+            completeLatencies.getIntervalHistogram(),
+            readLatencies.getIntervalHistogram(),
+            rejected.get(),
+            rejectedChunks.get(),
+            skipped.get()
+        );
+    }
+
+    /**
+     * Abandoned batch runs still waiting for eviction count as lagging too, otherwise a stalled clean up job
+     * would look like one with no lag at all.
+     */
+    private double oldestOverdueMs() {
+        final long now = System.currentTimeMillis();
+        return abandonedAt.values().stream()
+            .mapToLong(abandoned -> now - abandoned - ABANDONED_TIMEOUT_MS)
+            .max()
+            .orElse(0);
+    }
+
+    private boolean verify() {
+        final List<Sample> measured = samples.subList((int) (samples.size() * WARM_UP_SHARE), samples.size());
+        if (measured.size() < 6) {
+            System.out.println("Too few samples after the warm-up to judge growth, run the soak for longer");
+            return true;
+        }
+        boolean bounded = checkBounded("heap after GC MB", measured, sample -> sample.heapMb, 64);
+        bounded &= checkBounded("live batch runs", measured, sample -> sample.liveBatchRuns, 50);
+        bounded &= checkBounded("admitted MB", measured, sample -> sample.admittedMb, 64);
+        bounded &= checkBounded("eviction lag p99 ms", measured, sample -> sample.evictionLagP99Ms, 1_000);
+        bounded &= checkBounded("start p99 ms", measured, sample -> sample.startP99Ms, 5);
+        bounded &= checkBounded("upload p99 ms", measured, sample -> sample.uploadP99Ms, 5);
+        bounded &= checkBounded("complete p99 ms", measured, sample -> sample.completeP99Ms, 5);
+        bounded &= checkBounded("read p99 ms", measured, sample -> sample.readP99Ms, 5);
+        if (unexpectedlyEvicted.get() > 0) {
+            System.out.println("FAIL " + unexpectedlyEvicted.get() + " batch runs evicted while still in use");
+            bounded = false;
+        }
+        System.out.println(bounded ? "PASS all metrics bounded" : "FAIL");
+        return bounded;
+    }
+
+    private static boolean checkBounded(
+        String metric,
+        List<Sample> measured,
+        ToDoubleFunction<Sample> value,
+        double floor) {
+
+        final int third = measured.size() / 3;
+        final double early = measured.subList(0, third).stream().mapToDouble(value).average().orElse(0);
+        final double late = measured.subList(measured.size() - third, measured.size()).stream()
+            .mapToDouble(value).average().orElse(0);
+        final boolean grows = late > early * MAX_GROWTH && late - early > floor;
+        System.out.printf("%s %-20s first third %10.1f, last third %10.1f%n",
+            grows ? "FAIL" : "ok  ", metric, early, late);
+        return !grows;
+    }
+
+    private static double share(String property, double defaultValue) {
+        return Double.parseDouble(System.getProperty(property, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Repository measuring how late abandoned batch runs are evicted by the clean up job.
+     */
+    private final class EvictionTrackingRepository implements BatchRunRepository {
+
+        private final BatchRunRepository delegate;
+
+        EvictionTrackingRepository(BatchRunRepository delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public BatchRun create() {
+            return delegate.create();
+        }
+
+        @Override
+        public BatchRun create(long id) {
+            return delegate.create(id);
+        }
+
+        @Override
+        public BatchRun get(long id) {
+            return delegate.get(id);
+        }
+
+        @Override
+        public BatchRun remove(long id) {
+            return delegate.remove(id);
+        }
+
+        @Override
+        public BatchRun update(long id, Consumer<BatchRun> batchRunUpdater) {
+            return delegate.update(id, batchRunUpdater);
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public int removeOutdated(
+            long evictionTime,
+            long preparedEvictionTime,
+            int limit,
+            Consumer<BatchRun> removedBatchRunConsumer) {
+
+            return delegate.removeOutdated(evictionTime, preparedEvictionTime, limit, batchRun -> {
+                final Long abandoned = abandonedAt.remove(batchRun.getId());
+                if (abandoned == null) {
+                    unexpectedlyEvicted.incrementAndGet();
+                } else {
+                    evicted.incrementAndGet();
+                    evictionLags.recordValue(
+                        Math.max(0, System.currentTimeMillis() - abandoned - ABANDONED_TIMEOUT_MS) * 1000
+                    );
+                }
+                removedBatchRunConsumer.accept(batchRun);
+            });
+        }
+
+        @Override
+        public void removeAll() {
+            delegate.removeAll();
+        }
+
+    }
+
+    private static final class Sample {
+
+        private final long elapsedSeconds;
+        private final double heapMb;
+        private final int liveBatchRuns;
+        private final double admittedMb;
+        private final double evictionLagP99Ms;
+        private final long evicted;
+        private final double startP99Ms;
+        private final double uploadP99Ms;
+        private final double completeP99Ms;
+        private final double readP99Ms;
+        private final long rejected;
+        private final long rejectedChunks;
+        private final long skipped;
+
+        Sample(
+            long elapsedSeconds,
+            double heapMb,
+            int liveBatchRuns,
+            double admittedMb,
+            double evictionLagP99Ms,
+            long evicted,
+            Histogram start,
+            Histogram upload,
+            Histogram complete,
+            Histogram read,
+            long rejected,
+            long rejectedChunks,
+            long skipped) {
+
+            this.elapsedSeconds = elapsedSeconds;
+            this.heapMb = heapMb;
+            this.liveBatchRuns = liveBatchRuns;
+            this.admittedMb = admittedMb;
+            this.evictionLagP99Ms = evictionLagP99Ms;
+            this.evicted = evicted;
+            this.startP99Ms = start.getValueAtPercentile(99) / 1e6;
+            this.uploadP99Ms = upload.getValueAtPercentile(99) / 1e6;
+            this.completeP99Ms = complete.getValueAtPercentile(99) / 1e6;
+            this.readP99Ms = read.getValueAtPercentile(99) / 1e6;
+            this.rejected = rejected;
+            this.rejectedChunks = rejectedChunks;
+            this.skipped = skipped;
+        }
+
+        void print() {
+            System.out.printf("%8d %9.1f %9d %12.1f %14.1f %8d %10.1f %10.1f %12.1f %10.1f %9d %11d %9d%n",
+                elapsedSeconds, heapMb, liveBatchRuns, admittedMb, evictionLagP99Ms, evicted,
+                startP99Ms, uploadP99Ms, completeP99Ms, readP99Ms, rejected, rejectedChunks, skipped);
+        }
+
+    }
+
+}
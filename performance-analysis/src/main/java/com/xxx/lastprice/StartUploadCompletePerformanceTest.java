@@ -6,8 +6,9 @@ import com.xxx.lastprice.transport.InstrumentPriceRecord;
 import com.xxx.lastprice.transport.StartBatchRunResponse;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
-import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,11 +26,11 @@ public class StartUploadCompletePerformanceTest {
     private static final Random RANDOM = new Random();
     private static final List<String> INSTRUMENTS = Arrays.asList(SUPPORTED_INSTRUMENTS.split(","));
 
-    private static final Histogram START_BATCH_HISTOGRAM = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
-    private static final Histogram UPLOAD_CHUNK_HISTOGRAM = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
-    private static final Histogram COMPLETE_BATCH_HISTOGRAM = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
+    private static final String START_BATCH = "startBatchRun";
+    private static final String UPLOAD_CHUNK = "uploadChunk";
+    private static final String COMPLETE_BATCH = "completeBatchRun";
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, IOException {
         ManagedChannel channel = ManagedChannelBuilder.forTarget("localhost:50051")
             .usePlaintext()
             .build();
@@ -41,26 +42,29 @@ public class StartUploadCompletePerformanceTest {
                 client.uploadPriceRecordsChunk(response.getBatchRunId(), records);
                 client.completeBatchRun(response.getBatchRunId());
             }
-            START_BATCH_HISTOGRAM.reset();
-            UPLOAD_CHUNK_HISTOGRAM.reset();
-            COMPLETE_BATCH_HISTOGRAM.reset();
+            final BenchmarkRun run = BenchmarkRun.start("start-upload-complete");
+            final Recorder startBatchRecorder = run.recorder(START_BATCH);
+            final Recorder uploadChunkRecorder = run.recorder(UPLOAD_CHUNK);
+            final Recorder completeBatchRecorder = run.recorder(COMPLETE_BATCH);
             for (int i = 0; i < 30000; i++) {
                 final long start = System.nanoTime();
                 final StartBatchRunResponse response = client.startBatchRun();
-                START_BATCH_HISTOGRAM.recordValue(System.nanoTime() - start);
+                startBatchRecorder.recordValue(System.nanoTime() - start);
 
                 final List<InstrumentPriceRecord> records = createChunk();
                 final long uploadStart = System.nanoTime();
                 client.uploadPriceRecordsChunk(response.getBatchRunId(), records);
-                UPLOAD_CHUNK_HISTOGRAM.recordValue(System.nanoTime() - uploadStart);
+                uploadChunkRecorder.recordValue(System.nanoTime() - uploadStart);
 
                 final long completeStart = System.nanoTime();
                 client.completeBatchRun(response.getBatchRunId());
-                COMPLETE_BATCH_HISTOGRAM.recordValue(System.nanoTime() - completeStart);
+                completeBatchRecorder.recordValue(System.nanoTime() - completeStart);
             }
-            START_BATCH_HISTOGRAM.outputPercentileDistribution(System.out, 1000.0);
-            UPLOAD_CHUNK_HISTOGRAM.outputPercentileDistribution(System.out, 1000.0);
-            COMPLETE_BATCH_HISTOGRAM.outputPercentileDistribution(System.out, 1000.0);
+            run.close();
+            run.getTotalHistogram(START_BATCH).outputPercentileDistribution(System.out, 1000.0);
+            run.getTotalHistogram(UPLOAD_CHUNK).outputPercentileDistribution(System.out, 1000.0);
+            run.getTotalHistogram(COMPLETE_BATCH).outputPercentileDistribution(System.out, 1000.0);
+            System.out.println("Run saved to " + run.getDirectory());
         } finally {
             channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
         }
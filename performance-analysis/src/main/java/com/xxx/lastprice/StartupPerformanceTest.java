@@ -0,0 +1,141 @@
+package com.xxx.lastprice;
+
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse;
+import io.grpc.health.v1.HealthGrpc;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the server in a separate JVM with different startup settings and measures the time until the first
+ * successful request after the server reports ready, and the time until p99 of last price requests
+ * settles down to the steady state.
+ *
+ * Time is counted from the process start. The steady state p99 is the p99 of the last measured window,
+ * the server is considered steady since the first window whose p99 is within 20% of it.
+ * Runs with the class data sharing archive need {@code -Dcds.archive} and {@code -Dcds.classpath}
+ * set to the files produced by the {@code :service:server:cdsArchive} task. Read latencies of every mode are
+ * saved as a {@link BenchmarkRun} of the {@code startup} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class StartupPerformanceTest {
+
+    private static final int PORT = 50061;
+    private static final int WARM_UP_ITERATIONS = Integer.getInteger("warmUpIterations", 5000);
+    private static final long WINDOW_MS = 500;
+    private static final int WINDOWS = 40;
+    private static final double STEADY_STATE_TOLERANCE = 1.2;
+
+    public static void main(String[] args) throws Exception {
+        final String cdsArchive = System.getProperty("cds.archive");
+        final String classpath = System.getProperty("cds.classpath") == null
+            ? System.getProperty("java.class.path")
+            // the archive requires its class path as the prefix of the runtime one
+            : System.getProperty("cds.classpath") + ":" + System.getProperty("java.class.path");
+        System.out.printf("%16s %18s %18s %20s %16s%n",
+            "mode", "first request ms", "steady state ms", "steady after ready", "steady p99 us");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("startup");
+        try {
+            run("plain", classpath, List.of("-Xshare:off"), benchmarkRun);
+            run("warm-up", classpath, List.of("-Xshare:off", "-Dservice.warm_up_iterations=" + WARM_UP_ITERATIONS),
+                benchmarkRun);
+            if (cdsArchive != null) {
+                run("cds", classpath, List.of("-XX:SharedArchiveFile=" + cdsArchive, "-Xshare:on"), benchmarkRun);
+                run("cds + warm-up", classpath, List.of(
+                    "-XX:SharedArchiveFile=" + cdsArchive, "-Xshare:on",
+                    "-Dservice.warm_up_iterations=" + WARM_UP_ITERATIONS
+                ), benchmarkRun);
+            }
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void run(
+        String mode,
+        String classpath,
+        List<String> jvmArgs,
+        BenchmarkRun benchmarkRun) throws Exception {
+
+
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-Dservice.port=" + PORT);
+        command.add("-cp");
+        command.add(classpath);
+        command.add("com.xxx.lastprice.server.LastPriceServer");
+        final long startNanos = System.nanoTime();
+        final Process server = new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        final ManagedChannel channel = LastPriceChannels.forTarget("localhost:" + PORT);
+        try {
+            awaitServing(channel);
+            final LastPriceClient client = new LastPriceClient(channel);
+            final Recorder savedReads = benchmarkRun.recorder("read-" + mode.replaceAll("[^a-z]+", "-"));
+            client.requestLastPrice("AIR");
+            final long firstRequestNanos = System.nanoTime() - startNanos;
+
+            final List<Long> windowEndNanos = new ArrayList<>();
+            final List<Long> windowP99s = new ArrayList<>();
+            for (int window = 0; window < WINDOWS; window++) {
+                final Histogram histogram = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
+                final long windowEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WINDOW_MS);
+                long now;
+                while ((now = System.nanoTime()) < windowEnd) {
+                    client.requestLastPrice("AIR");
+                    final long latency = System.nanoTime() - now;
+                    histogram.recordValue(latency);
+                    savedReads.recordValue(latency);
+                }
+                windowEndNanos.add(System.nanoTime() - startNanos);
+                windowP99s.add(histogram.getValueAtPercentile(99));
+            }
+            final long steadyP99 = windowP99s.get(WINDOWS - 1);
+            int steadyWindow = WINDOWS - 1;
+            while (steadyWindow > 0 && windowP99s.get(steadyWindow - 1) <= steadyP99 * STEADY_STATE_TOLERANCE) {
+                steadyWindow--;
+            }
+            System.out.printf("%16s %18d %18d %20d %16.1f%n",
+                mode,
+                TimeUnit.NANOSECONDS.toMillis(firstRequestNanos),
+                TimeUnit.NANOSECONDS.toMillis(windowEndNanos.get(steadyWindow)),
+                TimeUnit.NANOSECONDS.toMillis(windowEndNanos.get(steadyWindow) - firstRequestNanos),
+                steadyP99 / 1000.0
+            );
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    private static void awaitServing(ManagedChannel channel) throws InterruptedException {
+        final HealthGrpc.HealthBlockingStub health = HealthGrpc.newBlockingStub(channel);
+        while (true) {
+            try {
+                final HealthCheckResponse response = health.check(HealthCheckRequest.getDefaultInstance());
+                if (response.getStatus() == HealthCheckResponse.ServingStatus.SERVING) {
+                    return;
+                }
+            } catch (StatusRuntimeException e) {
+                // not listening yet
+            }
+            Thread.sleep(1);
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.server.TrafficCaptureFile;
+import com.xxx.lastprice.server.TrafficCaptureInterceptor;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cost of the traffic capture by running the same bursty mix of reads and batch runs
+ * against a server with and without the capture, then replays the captured traffic against a fresh
+ * server at maximum, real time and double speed. Read latencies with and without the capture are saved as
+ * a {@link BenchmarkRun} of the {@code traffic-capture} benchmark, the replays save their own runs.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class TrafficCapturePerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 1_000;
+    private static final int READERS = 4;
+    private static final long READ_MEAN_PAUSE_US = 1_000;
+    private static final int PRODUCERS = 2;
+    private static final int MAX_CHUNKS = 8;
+    private static final int MIN_CHUNK_SIZE = 200;
+    private static final int MAX_CHUNK_SIZE = 2_000;
+    private static final int MIN_PAYLOAD = 32;
+    private static final int MAX_PAYLOAD = 256;
+    private static final long BATCH_RUN_MEAN_PAUSE_MS = 200;
+    private static final double CANCELLED_SHARE = 0.1;
+    // replays faster than real time overlap more batch runs than the producers ever had
+    private static final int MAX_ACTIVE_BATCH_RUNS = 100;
+    private static final int CAPTURE_BUFFER_BYTES = 1024 * 1024;
+    private static final long MEASUREMENT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final Path captureFile = Files.createTempFile("last-price-capture", ".bin");
+        try {
+            System.out.printf("%8s %10s %10s %10s %16s %10s %10s%n",
+                "capture", "p50 us", "p99 us", "reads/s", "bulk records/s", "captured", "dropped");
+            // the first run only warms up the JIT
+            runTraffic(instruments, null, new Recorder(3));
+            final BenchmarkRun benchmarkRun = BenchmarkRun.start("traffic-capture");
+            try {
+                runTraffic(instruments, null, benchmarkRun.recorder("read-capture-off"));
+                runTraffic(instruments, captureFile, benchmarkRun.recorder("read-capture-on"));
+            } finally {
+                benchmarkRun.close();
+            }
+            System.out.println("Run saved to " + benchmarkRun.getDirectory());
+
+            final List<TrafficCaptureFile.CapturedCall> calls = TrafficCaptureFile.read(captureFile);
+            System.out.println();
+            // the maximum speed replay goes first, so the replay code is compiled for the timed ones
+            for (String speed : List.of("max", "1", "2")) {
+                final ServerRun server = startServer(instruments, null);
+                try {
+                    new TrafficReplay(calls, instruments, TrafficReplay.parseSpeed(speed))
+                        .run("localhost:" + server.server.getPort());
+                } finally {
+                    server.stop();
+                }
+                System.out.println();
+            }
+        } finally {
+            Files.deleteIfExists(captureFile);
+        }
+    }
+
+    private static void runTraffic(
+        List<String> instruments,
+        Path captureFile,
+        Recorder savedReadLatencies) throws Exception {
+
+        final ServerRun serverRun = startServer(instruments, captureFile);
+        final ManagedChannel channel = LastPriceChannels.forTarget("localhost:" + serverRun.server.getPort());
+        final ManagedChannel readChannel = LastPriceChannels.forTarget("localhost:" + serverRun.server.getPort());
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong bulkRecords = new AtomicLong();
+        final Recorder readLatencies = new Recorder(3);
+        final List<Thread> threads = new ArrayList<>();
+        try {
+            final LastPriceClient client = new LastPriceClient(channel);
+            final LastPriceClient readClient = new LastPriceClient(readChannel);
+            for (int i = 0; i < PRODUCERS; i++) {
+                final Random random = new Random(i);
+                threads.add(new Thread(() -> {
+                    while (running.get()) {
+                        final long batchRunId = client.startBatchRun().getBatchRunId();
+                        final int chunks = 1 + random.nextInt(MAX_CHUNKS);
+                        for (int chunk = 0; chunk < chunks && running.get(); chunk++) {
+                            final List<InstrumentPriceRecord> records = createChunk(instruments, random);
+                            client.uploadPriceRecordsChunk(batchRunId, records);
+                            bulkRecords.addAndGet(records.size());
+                        }
+                        if (random.nextDouble() < CANCELLED_SHARE) {
+                            client.cancelBatchRun(batchRunId);
+                        } else {
+                            client.completeBatchRun(batchRunId);
+                        }
+                        pause(exponential(random, TimeUnit.MILLISECONDS.toNanos(BATCH_RUN_MEAN_PAUSE_MS)));
+                    }
+                }));
+            }
+            for (int i = 0; i < READERS; i++) {
+                final Random random = new Random(PRODUCERS + i);
+                threads.add(new Thread(() -> {
+                    while (running.get()) {
+                        final long start = System.nanoTime();
+                        readClient.requestLastPrice(instruments.get(random.nextInt(INSTRUMENTS_NUMBER)));
+                        final long latency = System.nanoTime() - start;
+                        readLatencies.recordValue(latency);
+                        savedReadLatencies.recordValue(latency);
+                        pause(exponential(random, TimeUnit.MICROSECONDS.toNanos(READ_MEAN_PAUSE_US)));
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            Thread.sleep(MEASUREMENT_MS);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            final Histogram histogram = readLatencies.getIntervalHistogram();
+            serverRun.stop();
+            System.out.printf("%8s %10.1f %10.1f %10.0f %16.0f %10s %10s%n",
+                captureFile == null ? "off" : "on",
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getTotalCount() / (MEASUREMENT_MS / 1000.0),
+                bulkRecords.get() / (MEASUREMENT_MS / 1000.0),
+                captureFile == null ? "-" : String.valueOf(TrafficCaptureFile.read(captureFile).size()),
+                captureFile == null ? "-" : String.valueOf(serverRun.capture.getDroppedCount())
+            );
+        } finally {
+            running.set(false);
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            readChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            serverRun.stop();
+        }
+    }
+
+    private static ServerRun startServer(List<String> instruments, Path captureFile) throws Exception {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final LastPriceServiceHandler handler = new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(MAX_ACTIVE_BATCH_RUNS, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build());
+        final TrafficCaptureInterceptor capture =
+            captureFile == null ? null : new TrafficCaptureInterceptor(captureFile, CAPTURE_BUFFER_BYTES);
+        final Server server = ServerBuilder.forPort(0)
+            .addService(capture == null ? handler.bindService() : ServerInterceptors.intercept(handler, capture))
+            .build()
+            .start();
+        return new ServerRun(server, capture);
+    }
+
+    private static List<InstrumentPriceRecord> createChunk(List<String> instruments, Random random) {
+        final int size = MIN_CHUNK_SIZE + random.nextInt(MAX_CHUNK_SIZE - MIN_CHUNK_SIZE);
+        final ByteString payload =
+            ByteString.copyFrom(new byte[MIN_PAYLOAD + random.nextInt(MAX_PAYLOAD - MIN_PAYLOAD)]);
+        final long asOf = System.currentTimeMillis();
+        final List<InstrumentPriceRecord> chunk = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            chunk.add(InstrumentPriceRecord.newBuilder()
+                .setInstrument(instruments.get(random.nextInt(instruments.size())))
+                .setAsOf(asOf)
+                .setPayload(payload)
+                .build());
+        }
+        return chunk;
+    }
+
+    private static long exponential(Random random, long meanNanos) {
+        return (long) (-Math.log(1 - random.nextDouble()) * meanNanos);
+    }
+
+    private static void pause(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class ServerRun {
+
+        private final Server server;
+        private final TrafficCaptureInterceptor capture;
+        private boolean stopped;
+
+        ServerRun(Server server, TrafficCaptureInterceptor capture) {
+            this.server = server;
+            this.capture = capture;
+        }
+
+        void stop() throws InterruptedException {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            if (capture != null) {
+                capture.close();
+            }
+        }
+
+    }
+
+}
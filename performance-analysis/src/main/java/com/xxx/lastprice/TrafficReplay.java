@@ -0,0 +1,430 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.server.ServerConfiguration;
+import com.xxx.lastprice.server.TrafficCaptureFile;
+import com.xxx.lastprice.server.TrafficCaptureFile.CapturedCall;
+import com.xxx.lastprice.transport.CancelBatchRunRequest;
+import com.xxx.lastprice.transport.CancelBatchRunResponse;
+import com.xxx.lastprice.transport.ChangesSinceRequest;
+import com.xxx.lastprice.transport.CommitBatchRunRequest;
+import com.xxx.lastprice.transport.CommitBatchRunResponse;
+import com.xxx.lastprice.transport.CompleteBatchRunRequest;
+import com.xxx.lastprice.transport.CompleteBatchRunResponse;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.MarketChangesChunk;
+import com.xxx.lastprice.transport.PrepareBatchRunRequest;
+import com.xxx.lastprice.transport.PrepareBatchRunResponse;
+import com.xxx.lastprice.transport.PriceAsOfRequest;
+import com.xxx.lastprice.transport.PriceAsOfResponse;
+import com.xxx.lastprice.transport.ResumeBatchRunRequest;
+import com.xxx.lastprice.transport.ResumeBatchRunResponse;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import com.xxx.lastprice.transport.UploadChunkRequest;
+import com.xxx.lastprice.transport.UploadChunkResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.stub.StreamObserver;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Re-issues traffic recorded by {@link com.xxx.lastprice.server.TrafficCaptureInterceptor} against a server
+ * and reports latency histograms per method next to the latencies seen when the traffic was captured.
+ *
+ * Calls are issued open loop at their captured start times divided by the speed factor, so bursts and
+ * idle gaps are kept. Calls of a batch run keep their order: uploads and resumes wait for the replayed start,
+ * the prepare, completion, commit or cancellation waits for all uploads and the prepare issued before it.
+ * Calls of every captured connection
+ * go over their own channel. At maximum speed calls are issued back to back with no more calls in flight
+ * than the captured peak concurrency.
+ *
+ * Captured latencies are measured on the server and replayed ones on the client, so the latter include
+ * the network and the client itself.
+ *
+ * Captures hold no instruments or payloads, so reads cycle through the given instruments and uploaded
+ * records get payloads sized to match the captured request size.
+ *
+ * Usage: {@code TrafficReplay <capture file> <target> [speed factor | max]...}, the speed defaults to 1.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class TrafficReplay {
+
+    private static final int MAX_CHANNELS = 16;
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long COMPLETION_TIMEOUT_MINUTES = 10;
+
+    private final List<CapturedCall> calls;
+    private final List<String> instruments;
+    private final double speed;
+    private final Map<String, Recorder> latencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> errors = new HashMap<>();
+    private final Histogram lag = new Histogram(3);
+    private final Map<Long, CompletableFuture<Long>> startedBatchRuns = new HashMap<>();
+    private final Map<Long, List<CompletableFuture<?>>> batchRunCalls = new HashMap<>();
+    private final Map<Integer, LastPriceGrpc.LastPriceStub> stubs = new HashMap<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final Map<Integer, ByteString> payloads = new ConcurrentHashMap<>();
+    private final AtomicInteger nextInstrument = new AtomicInteger();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: TrafficReplay <capture file> <target> [speed factor | max]...");
+            System.exit(1);
+        }
+        final List<CapturedCall> calls = TrafficCaptureFile.read(Paths.get(args[0]));
+        final List<String> instruments = Arrays.asList(ServerConfiguration.SUPPORTED_INSTRUMENTS.split(","));
+        final List<String> speeds = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : List.of("1");
+        for (String speed : speeds) {
+            new TrafficReplay(calls, instruments, parseSpeed(speed)).run(args[1]);
+        }
+    }
+
+    /**
+     * Parses speed factor given as a number or {@code max}.
+     *
+     * @param speed speed factor
+     * @return speed factor, {@link Double#POSITIVE_INFINITY} for the maximum speed
+     */
+    public static double parseSpeed(String speed) {
+        return "max".equalsIgnoreCase(speed) ? Double.POSITIVE_INFINITY : Double.parseDouble(speed);
+    }
+
+    /**
+     * Creates replay of the given calls.
+     *
+     * @param calls captured calls ordered by their start time
+     * @param instruments instruments supported by the target server
+     * @param speed speed factor, {@link Double#POSITIVE_INFINITY} for the maximum speed
+     */
+    public TrafficReplay(List<CapturedCall> calls, List<String> instruments, double speed) {
+        this.calls = calls;
+        this.instruments = instruments;
+        this.speed = speed;
+        for (String method : TrafficCaptureFile.METHODS) {
+            errors.put(method, new AtomicLong());
+        }
+    }
+
+    /**
+     * Replays the calls against the given target, waits for all of them to finish and prints the report.
+     * Latencies are saved as a {@link BenchmarkRun} of the {@code traffic-replay-<speed>} benchmark.
+     *
+     * @param target server target as accepted by {@link LastPriceChannels#forTarget(String)}
+     * @throws InterruptedException if interrupted while waiting for the calls
+     * @throws IOException if the benchmark run cannot be saved
+     */
+    public void run(String target) throws InterruptedException, IOException {
+        final boolean maxSpeed = Double.isInfinite(speed);
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("traffic-replay-" + (maxSpeed ? "max" : speed + "x"));
+        for (CapturedCall call : calls) {
+            if (!latencies.containsKey(call.getMethod())) {
+                latencies.put(call.getMethod(), benchmarkRun.recorder(shortName(call.getMethod())));
+            }
+        }
+        final Semaphore inFlight = new Semaphore(maxSpeed ? peakConcurrency() : Integer.MAX_VALUE);
+        final List<CompletableFuture<?>> pending = new ArrayList<>(calls.size());
+        try {
+            final long replayStartNanos = System.nanoTime();
+            for (CapturedCall call : calls) {
+                if (maxSpeed) {
+                    inFlight.acquire();
+                } else {
+                    final long dueNanos = replayStartNanos + (long) (call.getStartNanos() / speed);
+                    waitUntil(dueNanos);
+                    lag.recordValue(Math.max(0, System.nanoTime() - dueNanos));
+                }
+                final CompletableFuture<?> replayed = replay(call, stub(target, call.getConnection()));
+                replayed.whenComplete((result, throwable) -> inFlight.release());
+                pending.add(replayed);
+            }
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                    .get(COMPLETION_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+            } catch (Exception e) {
+                // failed calls are already counted as errors
+            }
+            final long elapsedNanos = System.nanoTime() - replayStartNanos;
+            benchmarkRun.close();
+            report(elapsedNanos, benchmarkRun);
+        } finally {
+            benchmarkRun.close();
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private CompletableFuture<?> replay(CapturedCall call, LastPriceGrpc.LastPriceStub stub) {
+        final String method = call.getMethod();
+        if (method.equals(LastPriceGrpc.getRequestLastPriceMethod().getFullMethodName())) {
+            final LastPriceRequest request = LastPriceRequest.newBuilder().setInstrument(nextInstrument()).build();
+            return this.<LastPriceResponse>measure(method, observer -> stub.requestLastPrice(request, observer));
+        }
+        if (method.equals(LastPriceGrpc.getRequestPriceAsOfMethod().getFullMethodName())) {
+            final PriceAsOfRequest request = PriceAsOfRequest.newBuilder()
+                .setInstrument(nextInstrument())
+                .setTimestamp(System.currentTimeMillis())
+                .build();
+            return this.<PriceAsOfResponse>measure(method, observer -> stub.requestPriceAsOf(request, observer));
+        }
+        if (method.equals(LastPriceGrpc.getChangesSinceMethod().getFullMethodName())) {
+            // the consumer version is not captured, so the whole market state is streamed
+            final ChangesSinceRequest request = ChangesSinceRequest.newBuilder().setVersion(0).build();
+            return this.<MarketChangesChunk>measure(method, observer -> stub.changesSince(request, observer));
+        }
+        if (method.equals(LastPriceGrpc.getStartBatchRunMethod().getFullMethodName())) {
+            final CompletableFuture<StartBatchRunResponse> started =
+                measure(method, observer -> stub.startBatchRun(Empty.getDefaultInstance(), observer));
+            if (call.getBatchRunId() != TrafficCaptureFile.NO_BATCH_RUN) {
+                startedBatchRuns.put(call.getBatchRunId(), started.thenApply(response -> {
+                    if (response.getStatus() != StartBatchRunResponse.Status.SUCCESS) {
+                        throw new IllegalStateException("Batch run was not started: " + response.getStatus());
+                    }
+                    return response.getBatchRunId();
+                }));
+            }
+            return started;
+        }
+        final CompletableFuture<Long> batchRunId = startedBatchRuns.get(call.getBatchRunId());
+        if (batchRunId == null) {
+            // the batch run was started before the capture or its start failed when captured
+            skipped.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+        final List<CompletableFuture<?>> previousCalls =
+            batchRunCalls.computeIfAbsent(call.getBatchRunId(), id -> new ArrayList<>());
+        if (method.equals(LastPriceGrpc.getUploadChunkMethod().getFullMethodName())) {
+            final CompletableFuture<?> uploaded = afterDependencies(batchRunId, List.of(), id -> {
+                final UploadChunkRequest request = createChunk(id, call);
+                return this.<UploadChunkResponse>measure(method, observer -> stub.uploadChunk(request, observer));
+            });
+            previousCalls.add(uploaded);
+            return uploaded;
+        }
+        if (method.equals(LastPriceGrpc.getResumeBatchRunMethod().getFullMethodName())) {
+            return afterDependencies(batchRunId, List.of(), id -> {
+                final ResumeBatchRunRequest request = ResumeBatchRunRequest.newBuilder().setBatchRunId(id).build();
+                return this.<ResumeBatchRunResponse>measure(
+                    method,
+                    observer -> stub.resumeBatchRun(request, observer)
+                );
+            });
+        }
+        final List<CompletableFuture<?>> issuedCalls = List.copyOf(previousCalls);
+        if (method.equals(LastPriceGrpc.getPrepareBatchRunMethod().getFullMethodName())) {
+            final CompletableFuture<?> prepared = afterDependencies(batchRunId, issuedCalls, id -> {
+                final PrepareBatchRunRequest request = PrepareBatchRunRequest.newBuilder().setBatchRunId(id).build();
+                return this.<PrepareBatchRunResponse>measure(
+                    method,
+                    observer -> stub.prepareBatchRun(request, observer)
+                );
+            });
+            // the commit or cancellation deciding on the prepared batch run waits for the prepare
+            previousCalls.add(prepared);
+            return prepared;
+        }
+        if (method.equals(LastPriceGrpc.getCommitBatchRunMethod().getFullMethodName())) {
+            return afterDependencies(batchRunId, issuedCalls, id -> {
+                final CommitBatchRunRequest request = CommitBatchRunRequest.newBuilder().setBatchRunId(id).build();
+                return this.<CommitBatchRunResponse>measure(method, observer -> stub.commitBatchRun(request, observer));
+            });
+        }
+        if (method.equals(LastPriceGrpc.getCompleteBatchRunMethod().getFullMethodName())) {
+            return afterDependencies(batchRunId, issuedCalls, id -> {
+                final CompleteBatchRunRequest request = CompleteBatchRunRequest.newBuilder().setBatchRunId(id).build();
+                return this.<CompleteBatchRunResponse>measure(
+                    method,
+                    observer -> stub.completeBatchRun(request, observer)
+                );
+            });
+        }
+        return afterDependencies(batchRunId, issuedCalls, id -> {
+            final CancelBatchRunRequest request = CancelBatchRunRequest.newBuilder().setBatchRunId(id).build();
+            return this.<CancelBatchRunResponse>measure(method, observer -> stub.cancelBatchRun(request, observer));
+        });
+    }
+
+    /**
+     * Issues call once the batch run is started and the given calls are finished, the call is skipped
+     * if the batch run could not be started.
+     */
+    private <T> CompletableFuture<T> afterDependencies(
+        CompletableFuture<Long> batchRunId,
+        List<CompletableFuture<?>> previousCalls,
+        LongFunction<CompletableFuture<T>> call) {
+
+        // a failed upload does not hold back the completion, just like it did not for the captured producer
+        final CompletableFuture<Void> previous = CompletableFuture
+            .allOf(previousCalls.toArray(new CompletableFuture<?>[0]))
+            .handle((result, throwable) -> null);
+        return batchRunId.thenCombine(previous, (id, ignored) -> id)
+            .thenCompose(call::apply)
+            .exceptionally(throwable -> {
+                skipped.incrementAndGet();
+                return null;
+            });
+    }
+
+    private <T> CompletableFuture<T> measure(String method, Consumer<StreamObserver<T>> call) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long startNanos = System.nanoTime();
+        call.accept(new StreamObserver<>() {
+
+            private T first;
+
+            @Override
+            public void onNext(T value) {
+                if (first == null) {
+                    first = value;
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                errors.get(method).incrementAndGet();
+                result.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                latencies.get(method).recordValue(System.nanoTime() - startNanos);
+                result.complete(first);
+            }
+        });
+        return result;
+    }
+
+    private UploadChunkRequest createChunk(long batchRunId, CapturedCall call) {
+        final UploadChunkRequest.Builder chunk = UploadChunkRequest.newBuilder().setBatchRunId(batchRunId);
+        if (call.getRecordCount() == 0) {
+            return chunk.build();
+        }
+        final long asOf = System.currentTimeMillis();
+        for (int i = 0; i < call.getRecordCount(); i++) {
+            final String instrument = nextInstrument();
+            chunk.addPriceRecords(InstrumentPriceRecord.newBuilder()
+                .setInstrument(instrument)
+                .setAsOf(asOf)
+                .setPayload(payload(call, instrument)));
+        }
+        return chunk.build();
+    }
+
+    /**
+     * Returns payload making the serialized record about as big as an average record of the captured chunk.
+     */
+    private ByteString payload(CapturedCall call, String instrument) {
+        // field tags, lengths and the varint of asOf take about 12 bytes per record
+        final int size = Math.max(0, call.getRequestBytes() / call.getRecordCount() - instrument.length() - 12);
+        return payloads.computeIfAbsent(size, length -> ByteString.copyFrom(new byte[length]));
+    }
+
+    private String nextInstrument() {
+        return instruments.get(Math.floorMod(nextInstrument.getAndIncrement(), instruments.size()));
+    }
+
+    private LastPriceGrpc.LastPriceStub stub(String target, int connection) {
+        return stubs.computeIfAbsent(connection, key -> {
+            if (channels.size() < MAX_CHANNELS) {
+                final ManagedChannel channel = LastPriceChannels.forTarget(target);
+                channels.add(channel);
+                return LastPriceGrpc.newStub(channel);
+            }
+            // connections beyond the limit share channels
+            return LastPriceGrpc.newStub(channels.get(Math.floorMod(key, MAX_CHANNELS)));
+        });
+    }
+
+    private int peakConcurrency() {
+        final long[] events = new long[calls.size() * 2];
+        for (int i = 0; i < calls.size(); i++) {
+            final CapturedCall call = calls.get(i);
+            // the lowest bit marks call start, so a call ending when another starts is counted first
+            events[2 * i] = (call.getStartNanos() << 1) | 1;
+            events[2 * i + 1] = (call.getStartNanos() + call.getDurationNanos()) << 1;
+        }
+        Arrays.sort(events);
+        int concurrency = 0;
+        int peak = 1;
+        for (long event : events) {
+            concurrency += (event & 1) == 1 ? 1 : -1;
+            peak = Math.max(peak, concurrency);
+        }
+        return peak;
+    }
+
+    private static String shortName(String method) {
+        return method.substring(method.indexOf('/') + 1);
+    }
+
+    private static void waitUntil(long dueNanos) {
+        long remaining;
+        while ((remaining = dueNanos - System.nanoTime()) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void report(long elapsedNanos, BenchmarkRun benchmarkRun) {
+        final long capturedSpanNanos = calls.isEmpty() ? 0 : calls.get(calls.size() - 1).getStartNanos();
+        System.out.printf("speed %s: %d calls replayed in %.1f s, captured over %.1f s, %d skipped, "
+                + "issue lag p99 %.1f us%n",
+            Double.isInfinite(speed) ? "max (concurrency " + peakConcurrency() + ")" : speed + "x",
+            calls.size(),
+            elapsedNanos / 1e9,
+            capturedSpanNanos / 1e9,
+            skipped.get(),
+            lag.getValueAtPercentile(99) / 1000.0
+        );
+        System.out.printf("%18s %8s %7s %16s %16s %10s %10s %10s %10s%n", "method", "calls", "errors",
+            "captured p50 us", "captured p99 us", "p50 us", "p99 us", "p99.9 us", "max us");
+        final Map<String, Histogram> captured = new HashMap<>();
+        for (CapturedCall call : calls) {
+            captured.computeIfAbsent(call.getMethod(), method -> new Histogram(3)).recordValue(call.getDurationNanos());
+        }
+        latencies.keySet().forEach(method -> {
+            final Histogram capturedHistogram = captured.get(method);
+            final Histogram histogram = benchmarkRun.getTotalHistogram(shortName(method));
+            System.out.printf("%18s %8d %7d %16.1f %16.1f %10.1f %10.1f %10.1f %10.1f%n",
+                shortName(method),
+                histogram.getTotalCount(),
+                errors.get(method).get(),
+                capturedHistogram.getValueAtPercentile(50) / 1000.0,
+                capturedHistogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0
+            );
+        });
+    }
+
+}
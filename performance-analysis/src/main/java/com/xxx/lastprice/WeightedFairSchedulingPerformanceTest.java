@@ -0,0 +1,162 @@
+package com.xxx.lastprice;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.client.LastPriceChannels;
+import com.xxx.lastprice.client.LastPriceClient;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.domain.WeightedFairScheduler;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.server.WriteCallSchedulingInterceptor;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures batch run latency of a small interactive producer while bulk producers keep uploading big chunks,
+ * with write calls running as they come and with the weighted fair write scheduler. Interactive batch run
+ * latencies are saved as a {@link BenchmarkRun} of the {@code weighted-fair-scheduling} benchmark.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class WeightedFairSchedulingPerformanceTest {
+
+    private static final int INSTRUMENTS_NUMBER = 1_000;
+    private static final int BULK_PRODUCERS = 8;
+    private static final int BULK_CHUNKS = 10;
+    private static final int BULK_CHUNK_SIZE = 5_000;
+    private static final int INTERACTIVE_CHUNK_SIZE = 10;
+    private static final int SCHEDULER_CONCURRENCY = 2;
+    private static final long WARM_UP_MS = TimeUnit.SECONDS.toMillis(3);
+    private static final long MEASUREMENT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    public static void main(String[] args) throws Exception {
+        final List<String> instruments = new ArrayList<>(INSTRUMENTS_NUMBER);
+        for (int i = 0; i < INSTRUMENTS_NUMBER; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        System.out.printf("%10s %10s %10s %10s %10s %16s%n",
+            "mode", "p50 ms", "p99 ms", "max ms", "batches", "bulk records/s");
+        final BenchmarkRun benchmarkRun = BenchmarkRun.start("weighted-fair-scheduling");
+        try {
+            run("unfair", instruments, false, benchmarkRun.recorder("interactive-batch-run-unfair"));
+            run("fair", instruments, true, benchmarkRun.recorder("interactive-batch-run-fair"));
+        } finally {
+            benchmarkRun.close();
+        }
+        System.out.println("Run saved to " + benchmarkRun.getDirectory());
+    }
+
+    private static void run(
+        String mode,
+        List<String> instruments,
+        boolean scheduled,
+        Recorder savedLatencies) throws Exception {
+
+        final ExecutorService writeExecutorService = Executors.newFixedThreadPool(SCHEDULER_CONCURRENCY);
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final LastPriceServiceHandler handler = new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(BULK_PRODUCERS + 1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build());
+        final ServerBuilder<?> serverBuilder = ServerBuilder.forPort(0);
+        if (scheduled) {
+            final WeightedFairScheduler scheduler =
+                new WeightedFairScheduler(writeExecutorService, SCHEDULER_CONCURRENCY);
+            scheduler.registerClass("bulk", 1, 1);
+            scheduler.registerClass("interactive", 8, 1);
+            serverBuilder.addService(ServerInterceptors.intercept(handler, new WriteCallSchedulingInterceptor(scheduler)));
+        } else {
+            serverBuilder.addService(handler);
+        }
+        final Server server = serverBuilder.build().start();
+        final ManagedChannel channel = LastPriceChannels.forTarget("localhost:" + server.getPort());
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean measuring = new AtomicBoolean(false);
+        final AtomicLong bulkRecords = new AtomicLong();
+        final List<Thread> bulkProducers = new ArrayList<>();
+        try {
+            final List<InstrumentPriceRecord> bulkChunk = createChunk(instruments, BULK_CHUNK_SIZE);
+            for (int i = 0; i < BULK_PRODUCERS; i++) {
+                bulkProducers.add(new Thread(() -> {
+                    final LastPriceClient client = new LastPriceClient(channel, "bulk");
+                    while (running.get()) {
+                        final long batchRunId = client.startBatchRun().getBatchRunId();
+                        for (int chunk = 0; chunk < BULK_CHUNKS && running.get(); chunk++) {
+                            client.uploadPriceRecordsChunk(batchRunId, bulkChunk);
+                            if (measuring.get()) {
+                                bulkRecords.addAndGet(BULK_CHUNK_SIZE);
+                            }
+                        }
+                        client.completeBatchRun(batchRunId);
+                    }
+                }));
+            }
+            bulkProducers.forEach(Thread::start);
+            final LastPriceClient client = new LastPriceClient(channel, "interactive");
+            final List<InstrumentPriceRecord> interactiveChunk = createChunk(instruments, INTERACTIVE_CHUNK_SIZE);
+            final Histogram histogram = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+            final long measurementStart = System.currentTimeMillis() + WARM_UP_MS;
+            final long measurementEnd = measurementStart + MEASUREMENT_MS;
+            long now;
+            while ((now = System.currentTimeMillis()) < measurementEnd) {
+                measuring.set(now >= measurementStart);
+                final long start = System.nanoTime();
+                final long batchRunId = client.startBatchRun().getBatchRunId();
+                client.uploadPriceRecordsChunk(batchRunId, interactiveChunk);
+                client.completeBatchRun(batchRunId);
+                if (now >= measurementStart) {
+                    final long latency = System.nanoTime() - start;
+                    histogram.recordValue(latency);
+                    savedLatencies.recordValue(latency);
+                }
+            }
+            measuring.set(false);
+            System.out.printf("%10s %10.1f %10.1f %10.1f %10d %16.0f%n",
+                mode,
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getMaxValue() / 1e6,
+                histogram.getTotalCount(),
+                bulkRecords.get() / (MEASUREMENT_MS / 1000.0)
+            );
+        } finally {
+            running.set(false);
+            for (Thread producer : bulkProducers) {
+                producer.join();
+            }
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            writeExecutorService.shutdown();
+        }
+    }
+
+    private static List<InstrumentPriceRecord> createChunk(List<String> instruments, int size) {
+        final List<InstrumentPriceRecord> chunk = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            chunk.add(InstrumentPriceRecord.newBuilder()
+                .setInstrument(instruments.get(i % instruments.size()))
+                .setAsOf(i)
+                .setPayload(ByteString.copyFrom(new byte[16]))
+                .build());
+        }
+        return chunk;
+    }
+
+}
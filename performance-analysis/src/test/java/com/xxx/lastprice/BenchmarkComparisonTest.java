@@ -0,0 +1,54 @@
+package com.xxx.lastprice;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BenchmarkComparisonTest {
+
+    private static final double TOLERANCE = 1e-6;
+
+    @Test
+    public void shouldComputePValueOfSeparatedSamples() {
+        // U = 0, mean 12.5, variance 25 * 11 / 12
+        final double[] first = {1, 2, 3, 4, 5};
+        final double[] second = {6, 7, 8, 9, 10};
+
+        assertThat(BenchmarkComparison.mannWhitneyPValue(first, second), closeTo(0.0121858, TOLERANCE));
+        assertThat(BenchmarkComparison.mannWhitneyPValue(second, first), closeTo(0.0121858, TOLERANCE));
+    }
+
+    @Test
+    public void shouldCorrectVarianceForTies() {
+        // U = 3 counting ties as halves, variance 35.86 with tie correction and 39 without it,
+        // which would give p = 0.0202
+        final double[] first = {1, 2, 2, 3, 3, 3};
+        final double[] second = {3, 3, 4, 4, 5, 5};
+
+        assertThat(BenchmarkComparison.mannWhitneyPValue(first, second), closeTo(0.0154669, TOLERANCE));
+        assertThat(BenchmarkComparison.mannWhitneyPValue(second, first), closeTo(0.0154669, TOLERANCE));
+    }
+
+    @Test
+    public void shouldNotFindDifferenceWithoutEvidence() {
+        assertThat(
+            BenchmarkComparison.mannWhitneyPValue(new double[]{10, 20, 30}, new double[]{10, 20, 30}),
+            closeTo(1.0, TOLERANCE)
+        );
+        assertThat(BenchmarkComparison.mannWhitneyPValue(new double[]{7, 7, 7}, new double[]{7, 7}), is(1.0));
+        assertThat(BenchmarkComparison.mannWhitneyPValue(new double[0], new double[]{1, 2}), is(1.0));
+    }
+
+    @Test
+    public void shouldLeaveChangeAgainstZeroBaselineUndefined() {
+        assertThat(BenchmarkComparison.change(10, 12), closeTo(0.2, TOLERANCE));
+        assertThat(BenchmarkComparison.change(0, 0), is(0.0));
+        assertThat(Double.isNaN(BenchmarkComparison.change(0, 12)), is(true));
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.xxx.lastprice.client;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads last prices with hedging: if the first request has not been answered within the hedge delay,
+ * a backup request is sent to the next channel, which is expected to lead to a replica, and the first
+ * successful answer wins while the other request is cancelled. With a single channel the backup request
+ * goes to the same server over the same connection.
+ *
+ * Every request carries the deadline, so servers drop requests which expired before being processed.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class HedgedLastPriceReader {
+
+    private final List<LastPriceGrpc.LastPriceFutureStub> stubs;
+    private final ScheduledExecutorService scheduler;
+    private final long hedgeDelayUs;
+    private final long deadlineUs;
+    private final AtomicInteger nextPrimary = new AtomicInteger();
+
+    /**
+     * Creates reader.
+     *
+     * @param channels channels to the server replicas, primary requests are spread over them round-robin
+     * @param scheduler scheduler to send backup requests with
+     * @param hedgeDelayUs delay after which the backup request is sent, in microseconds
+     * @param deadlineUs deadline of every request, in microseconds
+     */
+    public HedgedLastPriceReader(
+        List<? extends Channel> channels,
+        ScheduledExecutorService scheduler,
+        long hedgeDelayUs,
+        long deadlineUs) {
+
+        if (channels.isEmpty()) {
+            throw new IllegalArgumentException("At least one channel is required");
+        }
+        this.stubs = new ArrayList<>(channels.size());
+        channels.forEach(channel -> stubs.add(LastPriceGrpc.newFutureStub(channel)));
+        this.scheduler = scheduler;
+        this.hedgeDelayUs = hedgeDelayUs;
+        this.deadlineUs = deadlineUs;
+    }
+
+    /**
+     * Requests last price of the given instrument.
+     *
+     * @param instrument instrument to request the price for
+     * @return the first successful response
+     * @throws StatusRuntimeException if both requests failed or the deadline expired
+     */
+    public LastPriceResponse requestLastPrice(String instrument) {
+        final LastPriceRequest request = LastPriceRequest.newBuilder().setInstrument(instrument).build();
+        final int primary = Math.floorMod(nextPrimary.getAndIncrement(), stubs.size());
+        final Hedge hedge = new Hedge(request, stubs.get((primary + 1) % stubs.size()));
+        hedge.send(stubs.get(primary));
+        final ScheduledFuture<?> backup = scheduler.schedule(hedge::sendBackup, hedgeDelayUs, TimeUnit.MICROSECONDS);
+        try {
+            return hedge.result.get();
+        } catch (ExecutionException e) {
+            throw Status.fromThrowable(e.getCause()).asRuntimeException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withCause(e).asRuntimeException();
+        } finally {
+            backup.cancel(false);
+            hedge.cancel();
+        }
+    }
+
+    /**
+     * Requests of a single hedged read. A failed primary request triggers the backup one at once,
+     * the result fails only when both requests have failed.
+     */
+    private final class Hedge {
+
+        private final CompletableFuture<LastPriceResponse> result = new CompletableFuture<>();
+        private final List<ListenableFuture<LastPriceResponse>> calls = new ArrayList<>(2);
+        private final LastPriceRequest request;
+        private final LastPriceGrpc.LastPriceFutureStub backupStub;
+
+        Hedge(LastPriceRequest request, LastPriceGrpc.LastPriceFutureStub backupStub) {
+            this.request = request;
+            this.backupStub = backupStub;
+        }
+
+        synchronized void sendBackup() {
+            if (calls.size() < 2) {
+                send(backupStub);
+            }
+        }
+
+        synchronized void send(LastPriceGrpc.LastPriceFutureStub stub) {
+            if (result.isDone()) {
+                return;
+            }
+            final ListenableFuture<LastPriceResponse> call =
+                stub.withDeadlineAfter(deadlineUs, TimeUnit.MICROSECONDS).requestLastPrice(request);
+            calls.add(call);
+            Futures.addCallback(call, new FutureCallback<>() {
+                @Override
+                public void onSuccess(LastPriceResponse response) {
+                    result.complete(response);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    onCallFailed(t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        synchronized void cancel() {
+            calls.forEach(call -> call.cancel(true));
+        }
+
+        private synchronized void onCallFailed(Throwable t) {
+            if (calls.size() < 2) {
+                send(backupStub);
+            } else if (calls.stream().allMatch(ListenableFuture::isDone)) {
+                result.completeExceptionally(t);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.xxx.lastprice.client;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Creates channels to the last price service for {@link LastPriceClient}.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class LastPriceChannels {
+
+    /**
+     * Prefix of targets addressing the server by its Unix domain socket path, e.g. {@code unix:/tmp/last-price.sock}.
+     */
+    public static final String DOMAIN_SOCKET_SCHEME = "unix:";
+
+    private LastPriceChannels() {
+    }
+
+    /**
+     * Creates plaintext channel to the given target. Targets starting with {@link #DOMAIN_SOCKET_SCHEME}
+     * connect to the server Unix domain socket through the native epoll transport, which is only available
+     * on Linux. All other targets are resolved by gRPC as usual, e.g. {@code localhost:50051}.
+     *
+     * @param target server target
+     * @return channel, the caller is responsible for shutting it down
+     */
+    public static ManagedChannel forTarget(String target) {
+        if (target.startsWith(DOMAIN_SOCKET_SCHEME)) {
+            return NettyChannelBuilder
+                .forAddress(new DomainSocketAddress(target.substring(DOMAIN_SOCKET_SCHEME.length())))
+                .eventLoopGroup(DomainSocketEventLoopGroupHolder.INSTANCE)
+                .channelType(EpollDomainSocketChannel.class)
+                .usePlaintext()
+                .build();
+        }
+        return ManagedChannelBuilder.forTarget(target)
+            .usePlaintext()
+            .build();
+    }
+
+    /**
+     * Event loop group shared by all domain socket channels. Channels do not shut down event loop groups
+     * provided to them, so the group is created lazily with daemon threads and lives as long as the JVM.
+     */
+    private static final class DomainSocketEventLoopGroupHolder {
+
+        private static final EventLoopGroup INSTANCE =
+            new EpollEventLoopGroup(0, new DefaultThreadFactory("last-price-uds", true));
+
+    }
+
+}
@@ -3,18 +3,29 @@ package com.xxx.lastprice.client;
 import com.google.protobuf.Empty;
 import com.xxx.lastprice.transport.CancelBatchRunRequest;
 import com.xxx.lastprice.transport.CancelBatchRunResponse;
+import com.xxx.lastprice.transport.ChangesSinceRequest;
 import com.xxx.lastprice.transport.CompleteBatchRunRequest;
 import com.xxx.lastprice.transport.CompleteBatchRunResponse;
 import com.xxx.lastprice.transport.InstrumentPriceRecord;
 import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceHeaders;
 import com.xxx.lastprice.transport.LastPriceRequest;
 import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.MarketChangesChunk;
+import com.xxx.lastprice.transport.PriceAsOfRequest;
+import com.xxx.lastprice.transport.PriceAsOfResponse;
+import com.xxx.lastprice.transport.ResumeBatchRunRequest;
+import com.xxx.lastprice.transport.ResumeBatchRunResponse;
 import com.xxx.lastprice.transport.StartBatchRunResponse;
 import com.xxx.lastprice.transport.UploadChunkRequest;
 import com.xxx.lastprice.transport.UploadChunkResponse;
 import io.grpc.Channel;
+import io.grpc.Metadata;
+import io.grpc.stub.MetadataUtils;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -28,16 +39,99 @@ public class LastPriceClient {
         this.blockingStub = LastPriceGrpc.newBlockingStub(channel);
     }
 
+    /**
+     * Creates client tagging all its calls with the given producer class, so the server schedules
+     * its writes fairly with writes of other producer classes.
+     *
+     * @param channel channel to the server
+     * @param producerClass producer class as configured on the server
+     */
+    public LastPriceClient(Channel channel, String producerClass) {
+        final Metadata headers = new Metadata();
+        headers.put(LastPriceHeaders.PRODUCER_CLASS, producerClass);
+        this.blockingStub = MetadataUtils.attachHeaders(LastPriceGrpc.newBlockingStub(channel), headers);
+    }
+
+    private LastPriceClient(LastPriceGrpc.LastPriceBlockingStub blockingStub) {
+        this.blockingStub = blockingStub;
+    }
+
+    /**
+     * Returns client compressing request messages with the given compressor, e.g. {@code gzip}. Compressed
+     * responses are accepted by any client, the server compresses them if configured to.
+     *
+     * @param compressorName name of a compressor of the channel compressor registry
+     * @return client sharing the channel and headers of this one
+     */
+    public LastPriceClient withCompression(String compressorName) {
+        return new LastPriceClient(blockingStub.withCompression(compressorName));
+    }
+
     public LastPriceResponse requestLastPrice(String instrument) {
         return blockingStub.requestLastPrice(LastPriceRequest.newBuilder().setInstrument(instrument).build());
     }
 
+    /**
+     * Requests last price with the given deadline, which is propagated to the server, so the request
+     * is dropped there if it expires before being processed.
+     *
+     * @param instrument instrument to request the price for
+     * @param timeout deadline of the request relative to now
+     * @param unit unit of the timeout
+     * @return last price response
+     * @throws io.grpc.StatusRuntimeException with {@link io.grpc.Status.Code#DEADLINE_EXCEEDED} if the deadline expired
+     */
+    public LastPriceResponse requestLastPrice(String instrument, long timeout, TimeUnit unit) {
+        return blockingStub.withDeadlineAfter(timeout, unit)
+            .requestLastPrice(LastPriceRequest.newBuilder().setInstrument(instrument).build());
+    }
+
+    public PriceAsOfResponse requestPriceAsOf(String instrument, long timestamp) {
+        return blockingStub.requestPriceAsOf(
+            PriceAsOfRequest.newBuilder().setInstrument(instrument).setTimestamp(timestamp).build()
+        );
+    }
+
+    /**
+     * Requests prices changed after the given market state version. If the first chunk is marked as snapshot
+     * the stream carries the full market state. All chunks carry the epoch and the version to pass
+     * to the next request.
+     *
+     * @param epoch market state epoch of the version, zero if the caller has no state yet
+     * @param version market state version the caller is in sync with, zero if it has no state yet
+     * @return chunks of changed prices
+     */
+    public Iterator<MarketChangesChunk> changesSince(long epoch, long version) {
+        return blockingStub.changesSince(
+            ChangesSinceRequest.newBuilder().setEpoch(epoch).setVersion(version).build()
+        );
+    }
+
     public StartBatchRunResponse startBatchRun() {
         return blockingStub.startBatchRun(Empty.newBuilder().build());
     }
 
     public UploadChunkResponse uploadPriceRecordsChunk(long batchRunId, Collection<InstrumentPriceRecord> priceRecords) {
-        final UploadChunkRequest.Builder builder = UploadChunkRequest.newBuilder().setBatchRunId(batchRunId);
+        return uploadPriceRecordsChunk(batchRunId, 0, priceRecords);
+    }
+
+    /**
+     * Uploads chunk with the given sequence number. Retrying the upload with the same sequence number is safe,
+     * chunks of one batch run can be uploaded concurrently from several clients.
+     *
+     * @param batchRunId batch run to upload records to
+     * @param chunkSequence sequence number of the chunk unique within the batch run
+     * @param priceRecords records to upload
+     * @return upload response
+     */
+    public UploadChunkResponse uploadPriceRecordsChunk(
+        long batchRunId,
+        long chunkSequence,
+        Collection<InstrumentPriceRecord> priceRecords) {
+
+        final UploadChunkRequest.Builder builder = UploadChunkRequest.newBuilder()
+            .setBatchRunId(batchRunId)
+            .setChunkSequence(chunkSequence);
         priceRecords.forEach(builder::addPriceRecords);
         return blockingStub.uploadChunk(builder.build());
     }
@@ -50,4 +144,15 @@ public class LastPriceClient {
         return blockingStub.completeBatchRun(CompleteBatchRunRequest.newBuilder().setBatchRunId(batchRunId).build());
     }
 
+    /**
+     * Requests the last chunk accepted by the batch run, so the upload interrupted by a lost connection
+     * or a restart of the server continues from the next chunk instead of starting over.
+     *
+     * @param batchRunId batch run to resume
+     * @return resume response holding sequence number of the last accepted chunk
+     */
+    public ResumeBatchRunResponse resumeBatchRun(long batchRunId) {
+        return blockingStub.resumeBatchRun(ResumeBatchRunRequest.newBuilder().setBatchRunId(batchRunId).build());
+    }
+
 }
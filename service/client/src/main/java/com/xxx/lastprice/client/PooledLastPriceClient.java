@@ -0,0 +1,166 @@
+package com.xxx.lastprice.client;
+
+import com.xxx.lastprice.transport.CancelBatchRunResponse;
+import com.xxx.lastprice.transport.CompleteBatchRunResponse;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.MarketChangesChunk;
+import com.xxx.lastprice.transport.PriceAsOfResponse;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import com.xxx.lastprice.transport.UploadChunkResponse;
+import io.grpc.ManagedChannel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+/**
+ * Client spreading calls over several channels, each of them being a separate HTTP/2 connection.
+ * Calls which are not bound to a batch run go to the channel with the least outstanding calls,
+ * calls of a batch run always go to the same channel chosen by the batch run id, so they are
+ * sent in the order they are issued.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PooledLastPriceClient implements AutoCloseable {
+
+    private final List<ManagedChannel> channels;
+    private final List<LastPriceClient> clients;
+    private final AtomicIntegerArray outstandingCalls;
+    private final AtomicInteger nextScanStart = new AtomicInteger();
+
+    /**
+     * Creates pool of channels to the given target.
+     *
+     * @param target server target as accepted by {@link LastPriceChannels#forTarget(String)}
+     * @param poolSize number of channels
+     */
+    public PooledLastPriceClient(String target, int poolSize) {
+        this(createChannels(target, poolSize));
+    }
+
+    /**
+     * Creates pool of the given channels, the pool takes them over and shuts them down on close.
+     *
+     * @param channels channels of the pool
+     */
+    PooledLastPriceClient(List<ManagedChannel> channels) {
+        this.channels = List.copyOf(channels);
+        this.clients = new ArrayList<>(channels.size());
+        channels.forEach(channel -> clients.add(new LastPriceClient(channel)));
+        this.outstandingCalls = new AtomicIntegerArray(channels.size());
+    }
+
+    public LastPriceResponse requestLastPrice(String instrument) {
+        return callLeastLoaded(client -> client.requestLastPrice(instrument));
+    }
+
+    public PriceAsOfResponse requestPriceAsOf(String instrument, long timestamp) {
+        return callLeastLoaded(client -> client.requestPriceAsOf(instrument, timestamp));
+    }
+
+    /**
+     * Requests prices changed after the given market state version,
+     * see {@link LastPriceClient#changesSince(long, long)}.
+     * The stream is not accounted as outstanding call, it is expected to be consumed quickly.
+     *
+     * @param epoch market state epoch of the version, zero if the caller has no state yet
+     * @param version market state version the caller is in sync with, zero if it has no state yet
+     * @return chunks of changed prices
+     */
+    public Iterator<MarketChangesChunk> changesSince(long epoch, long version) {
+        return callLeastLoaded(client -> client.changesSince(epoch, version));
+    }
+
+    public StartBatchRunResponse startBatchRun() {
+        return callLeastLoaded(LastPriceClient::startBatchRun);
+    }
+
+    public UploadChunkResponse uploadPriceRecordsChunk(long batchRunId, Collection<InstrumentPriceRecord> priceRecords) {
+        return call(batchRunIndex(batchRunId), client -> client.uploadPriceRecordsChunk(batchRunId, priceRecords));
+    }
+
+    public UploadChunkResponse uploadPriceRecordsChunk(
+        long batchRunId,
+        long chunkSequence,
+        Collection<InstrumentPriceRecord> priceRecords) {
+
+        return call(
+            batchRunIndex(batchRunId),
+            client -> client.uploadPriceRecordsChunk(batchRunId, chunkSequence, priceRecords)
+        );
+    }
+
+    public CancelBatchRunResponse cancelBatchRun(long batchRunId) {
+        return call(batchRunIndex(batchRunId), client -> client.cancelBatchRun(batchRunId));
+    }
+
+    public CompleteBatchRunResponse completeBatchRun(long batchRunId) {
+        return call(batchRunIndex(batchRunId), client -> client.completeBatchRun(batchRunId));
+    }
+
+    /**
+     * Shuts all channels down waiting for outstanding calls to finish. If the calling thread is interrupted
+     * while waiting, outstanding calls are cancelled and the interrupt flag is restored.
+     */
+    @Override
+    public void close() {
+        channels.forEach(ManagedChannel::shutdown);
+        try {
+            for (ManagedChannel channel : channels) {
+                channel.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            channels.forEach(ManagedChannel::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<ManagedChannel> createChannels(String target, int poolSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Pool size has to be positive: " + poolSize);
+        }
+        final List<ManagedChannel> channels = new ArrayList<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            channels.add(LastPriceChannels.forTarget(target));
+        }
+        return channels;
+    }
+
+    private int batchRunIndex(long batchRunId) {
+        return (int) Math.floorMod(batchRunId, (long) clients.size());
+    }
+
+    private <T> T callLeastLoaded(Function<LastPriceClient, T> call) {
+        // the scan is racy, concurrent callers may pick the same channel which only slightly skews the balance;
+        // starting it from the next channel every time makes ties resolve round-robin
+        final int size = clients.size();
+        final int scanStart = Math.floorMod(nextScanStart.getAndIncrement(), size);
+        int index = scanStart;
+        int minOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            final int candidate = (scanStart + i) % size;
+            final int outstanding = outstandingCalls.get(candidate);
+            if (outstanding < minOutstanding) {
+                minOutstanding = outstanding;
+                index = candidate;
+            }
+        }
+        return call(index, call);
+    }
+
+    private <T> T call(int index, Function<LastPriceClient, T> call) {
+        outstandingCalls.incrementAndGet(index);
+        try {
+            return call.apply(clients.get(index));
+        } finally {
+            outstandingCalls.decrementAndGet(index);
+        }
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.xxx.lastprice.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Empty;
+import com.xxx.lastprice.transport.CancelBatchRunRequest;
+import com.xxx.lastprice.transport.CancelBatchRunResponse;
+import com.xxx.lastprice.transport.CommitBatchRunRequest;
+import com.xxx.lastprice.transport.CommitBatchRunResponse;
+import com.xxx.lastprice.transport.CompleteBatchRunResponse;
+import com.xxx.lastprice.transport.ConsistentHashRing;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.PrepareBatchRunRequest;
+import com.xxx.lastprice.transport.PrepareBatchRunResponse;
+import com.xxx.lastprice.transport.PriceAsOfResponse;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import com.xxx.lastprice.transport.UploadChunkRequest;
+import com.xxx.lastprice.transport.UploadChunkResponse;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Client of a cluster whose instruments are partitioned across servers by a {@link ConsistentHashRing}.
+ * Reads go to the server owning the instrument. A batch run of this client is a batch run on every shard:
+ * chunks are split by the owning shard and the parts are uploaded in parallel.
+ *
+ * The client coordinates batch run completion with two-phase commit: the batch run is prepared on all shards,
+ * which closes it for uploads and keeps it from being published, and committed on all of them only if every
+ * shard prepared it. Otherwise it is cancelled everywhere, so the batch run is published on all shards or on none.
+ * Commits are issued in parallel and are not synchronised between shards, a reader of instruments of different
+ * shards may observe the batch run published on one shard shortly before the other.
+ *
+ * Once every shard prepared the batch run, the commit is retried with backoff on every shard until the shard
+ * answers. Shards keep a prepared batch run for {@code service.prepared_batch_run_timeout_ms}, much longer than
+ * the abandoned batch run timeout, so a shard which is slow or restarting with the journal on still commits it.
+ * The commit decision is kept in memory only. A prepared batch run the coordinator never commits, e.g. because
+ * it crashed in between, is evicted by the shards once the prepared batch run timeout passes.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ShardedLastPriceClient {
+
+    private static final long INITIAL_COMMIT_BACKOFF_MS = 10;
+    private static final long MAX_COMMIT_BACKOFF_MS = 1_000;
+
+    private static final UploadChunkResponse BATCH_RUN_NOT_FOUND_UPLOAD_CHUNK =
+        UploadChunkResponse.newBuilder().setStatus(UploadChunkResponse.Status.BATCH_RUN_NOT_FOUND).build();
+    private static final CompleteBatchRunResponse BATCH_RUN_NOT_FOUND_COMPLETE_BATCH =
+        CompleteBatchRunResponse.newBuilder().setStatus(CompleteBatchRunResponse.Status.BATCH_RUN_NOT_FOUND).build();
+    private static final CancelBatchRunResponse BATCH_RUN_NOT_FOUND_CANCEL_BATCH =
+        CancelBatchRunResponse.newBuilder().setStatus(CancelBatchRunResponse.Status.BATCH_RUN_NOT_FOUND).build();
+
+    private final ConsistentHashRing ring;
+    private final List<Shard> shards;
+    private final Map<String, Shard> shardsByNode;
+    private final Map<Long, long[]> shardBatchRunIds = new ConcurrentHashMap<>();
+    private final AtomicLong batchRunIdSequence = new AtomicLong();
+
+    /**
+     * Creates client.
+     *
+     * @param nodeChannels channels to the cluster nodes by the node names the servers are configured with
+     * @param virtualNodes number of virtual nodes per node on the hash ring, as configured on the servers
+     */
+    public ShardedLastPriceClient(Map<String, ? extends Channel> nodeChannels, int virtualNodes) {
+        this.ring = new ConsistentHashRing(nodeChannels.keySet(), virtualNodes);
+        this.shards = new ArrayList<>(nodeChannels.size());
+        this.shardsByNode = new HashMap<>();
+        for (String node : ring.getNodes()) {
+            final Shard shard = new Shard(shards.size(), nodeChannels.get(node));
+            shards.add(shard);
+            shardsByNode.put(node, shard);
+        }
+    }
+
+    public LastPriceResponse requestLastPrice(String instrument) {
+        return shardOf(instrument).client.requestLastPrice(instrument);
+    }
+
+    public PriceAsOfResponse requestPriceAsOf(String instrument, long timestamp) {
+        return shardOf(instrument).client.requestPriceAsOf(instrument, timestamp);
+    }
+
+    /**
+     * Starts batch run on all shards. If any shard refuses to start it, the batch run is cancelled
+     * on the others and the refusal is returned.
+     *
+     * @return response carrying id of the batch run of this client
+     */
+    public StartBatchRunResponse startBatchRun() {
+        final List<ListenableFuture<StartBatchRunResponse>> calls = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            calls.add(shard.stub.startBatchRun(Empty.getDefaultInstance()));
+        }
+        final long[] batchRunIds = new long[shards.size()];
+        StartBatchRunResponse refusal = null;
+        StatusRuntimeException failure = null;
+        for (int i = 0; i < calls.size(); i++) {
+            try {
+                final StartBatchRunResponse response = await(calls.get(i));
+                if (response.getStatus() == StartBatchRunResponse.Status.SUCCESS) {
+                    batchRunIds[i] = response.getBatchRunId();
+                    continue;
+                }
+                refusal = isNull(refusal) ? response : refusal;
+            } catch (StatusRuntimeException e) {
+                failure = isNull(failure) ? e : failure;
+            }
+            batchRunIds[i] = -1;
+        }
+        if (isNull(refusal) && isNull(failure)) {
+            final long batchRunId = batchRunIdSequence.getAndIncrement();
+            shardBatchRunIds.put(batchRunId, batchRunIds);
+            return StartBatchRunResponse.newBuilder()
+                .setStatus(StartBatchRunResponse.Status.SUCCESS)
+                .setBatchRunId(batchRunId)
+                .build();
+        }
+        cancelQuietly(batchRunIds);
+        if (!isNull(failure)) {
+            throw failure;
+        }
+        return refusal;
+    }
+
+    public UploadChunkResponse uploadPriceRecordsChunk(
+        long batchRunId,
+        Collection<InstrumentPriceRecord> priceRecords) {
+
+        return uploadPriceRecordsChunk(batchRunId, 0, priceRecords);
+    }
+
+    /**
+     * Uploads chunk split by the owning shards, every part is uploaded with the sequence number of the chunk,
+     * so retrying the whole chunk is safe.
+     *
+     * @param batchRunId batch run of this client to upload records to
+     * @param chunkSequence sequence number of the chunk unique within the batch run
+     * @param priceRecords records to upload
+     * @return the first unsuccessful response of the shards, or a successful one
+     */
+    public UploadChunkResponse uploadPriceRecordsChunk(
+        long batchRunId,
+        long chunkSequence,
+        Collection<InstrumentPriceRecord> priceRecords) {
+
+        final long[] batchRunIds = shardBatchRunIds.get(batchRunId);
+        if (isNull(batchRunIds)) {
+            return BATCH_RUN_NOT_FOUND_UPLOAD_CHUNK;
+        }
+        final UploadChunkRequest.Builder[] parts = new UploadChunkRequest.Builder[shards.size()];
+        for (InstrumentPriceRecord priceRecord : priceRecords) {
+            final int shard = shardOf(priceRecord.getInstrument()).index;
+            if (isNull(parts[shard])) {
+                parts[shard] = UploadChunkRequest.newBuilder()
+                    .setBatchRunId(batchRunIds[shard])
+                    .setChunkSequence(chunkSequence);
+            }
+            parts[shard].addPriceRecords(priceRecord);
+        }
+        final List<ListenableFuture<UploadChunkResponse>> calls = new ArrayList<>(shards.size());
+        for (int i = 0; i < parts.length; i++) {
+            if (!isNull(parts[i])) {
+                calls.add(shards.get(i).stub.uploadChunk(parts[i].build()));
+            }
+        }
+        UploadChunkResponse result = null;
+        for (ListenableFuture<UploadChunkResponse> call : calls) {
+            final UploadChunkResponse response = await(call);
+            if (isNull(result) || result.getStatus() == UploadChunkResponse.Status.SUCCESS) {
+                result = response;
+            }
+        }
+        return isNull(result) ? UploadChunkResponse.getDefaultInstance() : result;
+    }
+
+    /**
+     * Cancels batch run on all shards.
+     *
+     * @param batchRunId batch run of this client to cancel
+     * @return cancel response, not found only if the batch run is unknown to this client
+     */
+    public CancelBatchRunResponse cancelBatchRun(long batchRunId) {
+        final long[] batchRunIds = shardBatchRunIds.remove(batchRunId);
+        if (isNull(batchRunIds)) {
+            return BATCH_RUN_NOT_FOUND_CANCEL_BATCH;
+        }
+        cancelQuietly(batchRunIds);
+        return CancelBatchRunResponse.getDefaultInstance();
+    }
+
+    /**
+     * Completes batch run on all shards with two-phase commit. If a shard does not prepare the batch run,
+     * e.g. because it was evicted there as abandoned, the batch run is cancelled on all shards.
+     *
+     * @param batchRunId batch run of this client to complete
+     * @return successful response if the batch run was committed on all shards, not found if it was cancelled
+     * @throws StatusRuntimeException if a shard failed in the prepare phase, the batch run is cancelled then,
+     *                                or if the thread was interrupted while retrying the commit
+     * @throws IllegalStateException if a shard lost the prepared batch run, e.g. it restarted without the journal
+     *                               or the commit was retried longer than the prepared batch run timeout,
+     *                               which leaves it published on the other shards
+     */
+    public CompleteBatchRunResponse completeBatchRun(long batchRunId) {
+        final long[] batchRunIds = shardBatchRunIds.remove(batchRunId);
+        if (isNull(batchRunIds)) {
+            return BATCH_RUN_NOT_FOUND_COMPLETE_BATCH;
+        }
+        if (!prepare(batchRunIds)) {
+            return BATCH_RUN_NOT_FOUND_COMPLETE_BATCH;
+        }
+        commit(batchRunIds);
+        return CompleteBatchRunResponse.getDefaultInstance();
+    }
+
+    private boolean prepare(long[] batchRunIds) {
+        final List<ListenableFuture<PrepareBatchRunResponse>> calls = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            calls.add(shard.stub.prepareBatchRun(
+                PrepareBatchRunRequest.newBuilder().setBatchRunId(batchRunIds[shard.index]).build()
+            ));
+        }
+        boolean prepared = true;
+        StatusRuntimeException failure = null;
+        for (ListenableFuture<PrepareBatchRunResponse> call : calls) {
+            try {
+                prepared &= await(call).getStatus() == PrepareBatchRunResponse.Status.SUCCESS;
+            } catch (StatusRuntimeException e) {
+                failure = isNull(failure) ? e : failure;
+            }
+        }
+        if (prepared && isNull(failure)) {
+            return true;
+        }
+        cancelQuietly(batchRunIds);
+        if (!isNull(failure)) {
+            throw failure;
+        }
+        return false;
+    }
+
+    /**
+     * Commits prepared batch run on all shards, retrying shards which failed with backoff until they answer.
+     * A shard answering not found to a retry is considered committed, as the failed attempt may have been applied.
+     */
+    private void commit(long[] batchRunIds) {
+        final List<Shard> pending = new ArrayList<>(shards);
+        final List<String> lostOn = new ArrayList<>();
+        long backoffMs = INITIAL_COMMIT_BACKOFF_MS;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                pause(backoffMs);
+                backoffMs = Math.min(2 * backoffMs, MAX_COMMIT_BACKOFF_MS);
+            }
+            final List<ListenableFuture<CommitBatchRunResponse>> calls = new ArrayList<>(pending.size());
+            for (Shard shard : pending) {
+                calls.add(shard.stub.commitBatchRun(
+                    CommitBatchRunRequest.newBuilder().setBatchRunId(batchRunIds[shard.index]).build()
+                ));
+            }
+            final List<Shard> failed = new ArrayList<>();
+            for (int i = 0; i < calls.size(); i++) {
+                try {
+                    if (await(calls.get(i)).getStatus() != CommitBatchRunResponse.Status.SUCCESS && attempt == 0) {
+                        lostOn.add(ring.getNodes().get(pending.get(i).index));
+                    }
+                } catch (StatusRuntimeException e) {
+                    failed.add(pending.get(i));
+                }
+            }
+            pending.retainAll(failed);
+        }
+        if (!lostOn.isEmpty()) {
+            throw new IllegalStateException("Prepared batch run was lost on shards " + lostOn
+                + ", it is published on the others");
+        }
+    }
+
+    private void cancelQuietly(long[] batchRunIds) {
+        final List<ListenableFuture<CancelBatchRunResponse>> calls = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            if (batchRunIds[shard.index] >= 0) {
+                calls.add(shard.stub.cancelBatchRun(
+                    CancelBatchRunRequest.newBuilder().setBatchRunId(batchRunIds[shard.index]).build()
+                ));
+            }
+        }
+        for (ListenableFuture<CancelBatchRunResponse> call : calls) {
+            try {
+                await(call);
+            } catch (StatusRuntimeException e) {
+                // the batch run is evicted as abandoned by the shard eventually
+            }
+        }
+    }
+
+    private Shard shardOf(String instrument) {
+        return shardsByNode.get(ring.nodeFor(instrument));
+    }
+
+    private static void pause(long pauseMs) {
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("Interrupted before the commit reached all shards")
+                .withCause(e)
+                .asRuntimeException();
+        }
+    }
+
+    private static <T> T await(ListenableFuture<T> call) {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            throw Status.fromThrowable(e.getCause()).asRuntimeException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withCause(e).asRuntimeException();
+        }
+    }
+
+    private static final class Shard {
+
+        private final int index;
+        private final LastPriceClient client;
+        private final LastPriceGrpc.LastPriceFutureStub stub;
+
+        private Shard(int index, Channel channel) {
+            this.index = index;
+            this.client = new LastPriceClient(channel);
+            this.stub = LastPriceGrpc.newFutureStub(channel);
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.xxx.lastprice.client;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.xxx.lastprice.transport.SharedPricePageLayout.AS_OF_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.COMPRESSED_PAYLOAD_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.INSTRUMENT_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.INSTRUMENT_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.LAYOUT_VERSION;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.LAYOUT_VERSION_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAGIC;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAGIC_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAX_INSTRUMENT_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAX_PAYLOAD_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.PAYLOAD_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SEQUENCE_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SLOTS_COUNT_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SLOT_SIZE_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.payloadOffset;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.slotOffset;
+
+/**
+ * Reads last prices from the page exported by the server on the same host, without any RPC or syscall.
+ * A slot is read optimistically and the read is retried if the writer updated the slot meanwhile.
+ * The retries are bounded, a slot the writer does not finish updating in time, e.g. because the server
+ * was descheduled or died in the middle of the update, is reported as missing, so the caller falls back to RPC.
+ * Compressed payloads are copied as they are and inflated once the copy is known to be consistent.
+ *
+ * Instances are thread safe. The page has to be reopened after the server restart.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class SharedPricePageReader implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_READ_ATTEMPTS = 1_000;
+
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    private final MappedByteBuffer mappedPage;
+    private final UnsafeBuffer page;
+    private final Map<String, Integer> slotOffsets;
+    private final int payloadOffset;
+    private final int maxPayloadLength;
+    private final int maxReadAttempts;
+
+    /**
+     * Maps the page exported by the server.
+     *
+     * @param file page file
+     * @throws IllegalStateException if the page is not initialised yet or has unsupported layout
+     */
+    public SharedPricePageReader(Path file) {
+        this(file, DEFAULT_MAX_READ_ATTEMPTS);
+    }
+
+    /**
+     * Maps the page exported by the server.
+     *
+     * @param file page file
+     * @param maxReadAttempts number of attempts to read a slot consistently before giving up on it
+     * @throws IllegalStateException if the page is not initialised yet or has unsupported layout
+     */
+    public SharedPricePageReader(Path file, int maxReadAttempts) {
+        if (maxReadAttempts <= 0) {
+            throw new IllegalArgumentException("Max read attempts has to be positive: " + maxReadAttempts);
+        }
+        this.maxReadAttempts = maxReadAttempts;
+        this.mappedPage = IoUtil.mapExistingFile(file.toFile(), FileChannel.MapMode.READ_ONLY, "shared price page");
+        this.page = new UnsafeBuffer(mappedPage);
+        if (page.getIntVolatile(MAGIC_OFFSET) != MAGIC || page.getInt(LAYOUT_VERSION_OFFSET) != LAYOUT_VERSION) {
+            IoUtil.unmap(mappedPage);
+            throw new IllegalStateException("Shared price page is not initialised or has unsupported layout: " + file);
+        }
+        final int slotsCount = page.getInt(SLOTS_COUNT_OFFSET);
+        final int slotSize = page.getInt(SLOT_SIZE_OFFSET);
+        final Map<String, Integer> offsets = new HashMap<>();
+        for (int i = 0; i < slotsCount; i++) {
+            final int slotOffset = (int) slotOffset(i, slotSize);
+            final byte[] instrument = new byte[page.getInt(slotOffset + INSTRUMENT_LENGTH_OFFSET)];
+            page.getBytes(slotOffset + INSTRUMENT_OFFSET, instrument);
+            offsets.put(new String(instrument, StandardCharsets.US_ASCII), slotOffset);
+        }
+        this.slotOffsets = Map.copyOf(offsets);
+        this.payloadOffset = payloadOffset(page.getInt(MAX_INSTRUMENT_LENGTH_OFFSET));
+        this.maxPayloadLength = page.getInt(MAX_PAYLOAD_LENGTH_OFFSET);
+    }
+
+    /**
+     * Reads the last price of the given instrument.
+     *
+     * @param instrument instrument to read the price for
+     * @return last price record or {@code null} if the instrument is not exported, has no price yet,
+     *         its payload does not fit into the page or the slot was not read consistently
+     *         in {@code maxReadAttempts}, then the price has to be requested from the server
+     */
+    public InstrumentPriceRecord read(String instrument) {
+        final Integer slotOffset = slotOffsets.get(instrument);
+        if (slotOffset == null) {
+            return null;
+        }
+        for (int attempt = 0; attempt < maxReadAttempts; attempt++) {
+            final long sequence = page.getLongVolatile(slotOffset + SEQUENCE_OFFSET);
+            if ((sequence & 1) == 1) {
+                Thread.onSpinWait();
+                continue;
+            }
+            final long asOf = page.getLong(slotOffset + AS_OF_OFFSET);
+            final int payloadLength = page.getInt(slotOffset + PAYLOAD_LENGTH_OFFSET);
+            final int compressedPayloadLength = page.getInt(slotOffset + COMPRESSED_PAYLOAD_LENGTH_OFFSET);
+            final int storedPayloadLength = compressedPayloadLength > 0 ? compressedPayloadLength : payloadLength;
+            final byte[] payload = storedPayloadLength > 0 && storedPayloadLength <= maxPayloadLength
+                ? new byte[storedPayloadLength]
+                : null;
+            if (payload != null) {
+                page.getBytes(slotOffset + payloadOffset, payload);
+            }
+            // slot data must be read before the sequence is checked again
+            VarHandle.loadLoadFence();
+            if (page.getLongVolatile(slotOffset + SEQUENCE_OFFSET) != sequence) {
+                continue;
+            }
+            if (payloadLength < 0) {
+                return null;
+            }
+            return InstrumentPriceRecord.newBuilder()
+                .setInstrument(instrument)
+                .setAsOf(asOf)
+                .setPayload(payload == null ? ByteString.EMPTY : UnsafeByteOperations.unsafeWrap(
+                    compressedPayloadLength > 0 ? inflate(payload, payloadLength) : payload
+                ))
+                .build();
+        }
+        return null;
+    }
+
+    private byte[] inflate(byte[] compressedPayload, int payloadLength) {
+        final Inflater inflater = inflaters.get();
+        final byte[] payload = new byte[payloadLength];
+        try {
+            inflater.setInput(compressedPayload);
+            int length = 0;
+            while (length < payloadLength) {
+                final int inflated = inflater.inflate(payload, length, payloadLength - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Compressed payload is truncated");
+                }
+                length += inflated;
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed payload is corrupted", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        IoUtil.unmap(mappedPage);
+    }
+
+}
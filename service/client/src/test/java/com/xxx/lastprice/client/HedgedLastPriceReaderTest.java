@@ -0,0 +1,171 @@
+package com.xxx.lastprice.client;
+
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class HedgedLastPriceReaderTest {
+
+    private static final String AAPL = "AAPL";
+    private static final long LONG_DELAY_US = TimeUnit.SECONDS.toMicros(10);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdownNow();
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        for (Server server : servers) {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shouldNotSendBackupIfPrimaryAnswersInTime() throws IOException {
+        final Replica primary = new Replica(Behaviour.ANSWER, 1L);
+        final Replica backup = new Replica(Behaviour.ANSWER, 2L);
+        final HedgedLastPriceReader reader = createReader(LONG_DELAY_US, LONG_DELAY_US, primary, backup);
+
+        final LastPriceResponse response = reader.requestLastPrice(AAPL);
+
+        assertThat(response.getPriceRecord().getAsOf(), is(1L));
+        assertThat(primary.calls.get(), is(1));
+        assertThat(backup.calls.get(), is(0));
+    }
+
+    @Test
+    public void shouldTakeBackupAnswerAndCancelSlowPrimary() throws Exception {
+        final Replica primary = new Replica(Behaviour.HANG, 1L);
+        final Replica backup = new Replica(Behaviour.ANSWER, 2L);
+        final HedgedLastPriceReader reader = createReader(1_000, LONG_DELAY_US, primary, backup);
+
+        final LastPriceResponse response = reader.requestLastPrice(AAPL);
+
+        assertThat(response.getPriceRecord().getAsOf(), is(2L));
+        assertThat(primary.cancelled.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(backup.calls.get(), is(1));
+    }
+
+    @Test
+    public void shouldSendBackupAtOnceIfPrimaryFails() throws IOException {
+        final Replica primary = new Replica(Behaviour.FAIL, 1L);
+        final Replica backup = new Replica(Behaviour.ANSWER, 2L);
+        final HedgedLastPriceReader reader = createReader(LONG_DELAY_US, LONG_DELAY_US, primary, backup);
+
+        final LastPriceResponse response = reader.requestLastPrice(AAPL);
+
+        assertThat(response.getPriceRecord().getAsOf(), is(2L));
+        assertThat(primary.calls.get(), is(1));
+    }
+
+    @Test
+    public void shouldFailOnlyWhenBothRequestsFailed() throws IOException {
+        final Replica primary = new Replica(Behaviour.FAIL, 1L);
+        final Replica backup = new Replica(Behaviour.FAIL, 2L);
+        final HedgedLastPriceReader reader = createReader(LONG_DELAY_US, LONG_DELAY_US, primary, backup);
+
+        final StatusRuntimeException e =
+            assertThrows(StatusRuntimeException.class, () -> reader.requestLastPrice(AAPL));
+
+        assertThat(e.getStatus().getCode(), is(Status.Code.UNAVAILABLE));
+        assertThat(primary.calls.get(), is(1));
+        assertThat(backup.calls.get(), is(1));
+    }
+
+    @Test
+    public void shouldFailWithDeadlineIfNoReplicaAnswers() throws IOException {
+        final Replica primary = new Replica(Behaviour.HANG, 1L);
+        final Replica backup = new Replica(Behaviour.HANG, 2L);
+        final HedgedLastPriceReader reader = createReader(1_000, 50_000, primary, backup);
+
+        final StatusRuntimeException e =
+            assertThrows(StatusRuntimeException.class, () -> reader.requestLastPrice(AAPL));
+
+        assertThat(e.getStatus().getCode(), is(Status.Code.DEADLINE_EXCEEDED));
+    }
+
+    private HedgedLastPriceReader createReader(long hedgeDelayUs, long deadlineUs, Replica... replicas)
+        throws IOException {
+
+        for (Replica replica : replicas) {
+            final String serverName = InProcessServerBuilder.generateName();
+            servers.add(InProcessServerBuilder.forName(serverName).addService(replica).build().start());
+            channels.add(InProcessChannelBuilder.forName(serverName).build());
+        }
+        // the first request goes to the first channel
+        return new HedgedLastPriceReader(channels, scheduler, hedgeDelayUs, deadlineUs);
+    }
+
+    private enum Behaviour {
+        ANSWER, FAIL, HANG
+    }
+
+    private static final class Replica extends LastPriceGrpc.LastPriceImplBase {
+
+        private final Behaviour behaviour;
+        private final long asOf;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+
+        private Replica(Behaviour behaviour, long asOf) {
+            this.behaviour = behaviour;
+            this.asOf = asOf;
+        }
+
+        @Override
+        public void requestLastPrice(LastPriceRequest request, StreamObserver<LastPriceResponse> responseObserver) {
+            calls.incrementAndGet();
+            switch (behaviour) {
+                case ANSWER:
+                    responseObserver.onNext(LastPriceResponse.newBuilder()
+                        .setPriceRecord(InstrumentPriceRecord.newBuilder()
+                            .setInstrument(request.getInstrument())
+                            .setAsOf(asOf))
+                        .build());
+                    responseObserver.onCompleted();
+                    break;
+                case FAIL:
+                    responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                    break;
+                case HANG:
+                    ((ServerCallStreamObserver<LastPriceResponse>) responseObserver)
+                        .setOnCancelHandler(cancelled::countDown);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown behaviour: " + behaviour);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.xxx.lastprice.client;
+
+import com.xxx.lastprice.transport.CancelBatchRunRequest;
+import com.xxx.lastprice.transport.CancelBatchRunResponse;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PooledLastPriceClientTest {
+
+    private static final String BLOCKING_INSTRUMENT = "BLOCKING";
+    private static final int POOL_SIZE = 2;
+
+    private final List<RecordingServer> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final CountDownLatch blockingCallReceived = new CountDownLatch(1);
+    private final CountDownLatch blockingCallReleased = new CountDownLatch(1);
+    private PooledLastPriceClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            final String serverName = InProcessServerBuilder.generateName();
+            final RecordingServer server = new RecordingServer();
+            server.server = InProcessServerBuilder.forName(serverName).addService(server).build().start();
+            servers.add(server);
+            channels.add(InProcessChannelBuilder.forName(serverName).build());
+        }
+        client = new PooledLastPriceClient(channels);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        blockingCallReleased.countDown();
+        client.close();
+        for (RecordingServer server : servers) {
+            server.server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shouldSendCallsOfBatchRunToTheSameChannel() {
+        for (long batchRunId = 0; batchRunId < 4; batchRunId++) {
+            client.cancelBatchRun(batchRunId);
+            client.cancelBatchRun(batchRunId);
+        }
+
+        assertThat(servers.get(0).calls, contains("cancel 0", "cancel 0", "cancel 2", "cancel 2"));
+        assertThat(servers.get(1).calls, contains("cancel 1", "cancel 1", "cancel 3", "cancel 3"));
+    }
+
+    @Test
+    public void shouldSendCallsToLeastLoadedChannel() throws Exception {
+        final Thread blockedCaller = new Thread(() -> client.requestLastPrice(BLOCKING_INSTRUMENT));
+        blockedCaller.start();
+        assertThat(blockingCallReceived.await(5, TimeUnit.SECONDS), is(true));
+
+        // round-robin alone would send one of them to the loaded channel
+        client.requestLastPrice("AAPL");
+        client.requestLastPrice("AAPL");
+        client.requestLastPrice("AAPL");
+        blockingCallReleased.countDown();
+        blockedCaller.join();
+
+        final int loaded = servers.get(0).calls.contains("price " + BLOCKING_INSTRUMENT) ? 0 : 1;
+        assertThat(servers.get(loaded).calls, contains("price " + BLOCKING_INSTRUMENT));
+        assertThat(servers.get(1 - loaded).calls, everyItem(is("price AAPL")));
+        assertThat(servers.get(1 - loaded).calls.size(), is(3));
+    }
+
+    @Test
+    public void shouldRestoreInterruptFlagWhenInterruptedOnClose() {
+        Thread.currentThread().interrupt();
+
+        client.close();
+
+        assertThat(Thread.interrupted(), is(true));
+        assertThat(channels.stream().allMatch(ManagedChannel::isShutdown), is(true));
+        assertThat(servers.get(0).calls, is(empty()));
+    }
+
+    private final class RecordingServer extends LastPriceGrpc.LastPriceImplBase {
+
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+        private Server server;
+
+        @Override
+        public void requestLastPrice(LastPriceRequest request, StreamObserver<LastPriceResponse> responseObserver) {
+            calls.add("price " + request.getInstrument());
+            if (request.getInstrument().equals(BLOCKING_INSTRUMENT)) {
+                blockingCallReceived.countDown();
+                try {
+                    blockingCallReleased.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            responseObserver.onNext(LastPriceResponse.newBuilder()
+                .setStatus(LastPriceResponse.Status.PRICE_NOT_AVAILABLE)
+                .build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void cancelBatchRun(
+            CancelBatchRunRequest request,
+            StreamObserver<CancelBatchRunResponse> responseObserver) {
+
+            calls.add("cancel " + request.getBatchRunId());
+            responseObserver.onNext(CancelBatchRunResponse.newBuilder().build());
+            responseObserver.onCompleted();
+        }
+    }
+
+}
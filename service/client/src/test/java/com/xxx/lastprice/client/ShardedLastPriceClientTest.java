@@ -0,0 +1,213 @@
+package com.xxx.lastprice.client;
+
+import com.google.protobuf.ByteString;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.LastPriceServiceHandler;
+import com.xxx.lastprice.transport.CompleteBatchRunResponse;
+import com.xxx.lastprice.transport.ConsistentHashRing;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.UploadChunkResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Runs a cluster of three in-process servers.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ShardedLastPriceClientTest {
+
+    private static final List<String> NODES = List.of("node-a", "node-b", "node-c");
+    private static final int VIRTUAL_NODES = 64;
+
+    private final ConsistentHashRing ring = new ConsistentHashRing(NODES, VIRTUAL_NODES);
+    private final List<String> instruments = new ArrayList<>();
+    private final List<Server> servers = new ArrayList<>();
+    private final Map<String, ManagedChannel> channels = new LinkedHashMap<>();
+    private final Map<String, AtomicInteger> failingCommits = new HashMap<>();
+    private ShardedLastPriceClient client;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        for (int i = 0; i < 30; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        for (String node : NODES) {
+            final String serverName = InProcessServerBuilder.generateName();
+            final AtomicLong batchIdSequence = new AtomicLong();
+            final AtomicInteger nodeFailingCommits = new AtomicInteger();
+            failingCommits.put(node, nodeFailingCommits);
+            final LastPriceServiceHandler handler = new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+                new PriceRecordContainer(),
+                new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+                instruments.stream().filter(instrument -> ring.nodeFor(instrument).equals(node))
+                    .collect(Collectors.toList()),
+                new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+            ).build());
+            servers.add(InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(ServerInterceptors.intercept(handler, new FailingCommitInterceptor(nodeFailingCommits)))
+                .build()
+                .start());
+            channels.put(node, InProcessChannelBuilder.forName(serverName).directExecutor().build());
+        }
+        client = new ShardedLastPriceClient(channels, VIRTUAL_NODES);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        for (ManagedChannel channel : channels.values()) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        for (Server server : servers) {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void shouldRouteChunksAndReadsToOwningShards() {
+        final long batchRunId = client.startBatchRun().getBatchRunId();
+        final UploadChunkResponse uploaded = client.uploadPriceRecordsChunk(batchRunId, 1, priceRecords(1L));
+
+        assertThat(uploaded.getStatus(), is(UploadChunkResponse.Status.SUCCESS));
+        assertThat(client.requestLastPrice(instruments.get(0)).getStatus(),
+            is(LastPriceResponse.Status.PRICE_NOT_AVAILABLE));
+        assertThat(client.completeBatchRun(batchRunId).getStatus(), is(CompleteBatchRunResponse.Status.SUCCESS));
+        for (String instrument : instruments) {
+            assertThat(client.requestLastPrice(instrument).getStatus(), is(LastPriceResponse.Status.SUCCESS));
+            // every shard accepts only the instruments it owns
+            for (String node : NODES) {
+                final LastPriceResponse response = new LastPriceClient(channels.get(node)).requestLastPrice(instrument);
+                assertThat(response.getStatus() == LastPriceResponse.Status.SUCCESS,
+                    is(ring.nodeFor(instrument).equals(node)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldCancelBatchRunOnAllShardsIfOneCannotPrepareIt() {
+        final long batchRunId = client.startBatchRun().getBatchRunId();
+        client.uploadPriceRecordsChunk(batchRunId, 1, priceRecords(1L));
+        // every shard started its first batch run, losing it on one shard models its eviction as abandoned
+        new LastPriceClient(channels.get("node-b")).cancelBatchRun(0);
+
+        final CompleteBatchRunResponse completed = client.completeBatchRun(batchRunId);
+
+        assertThat(completed.getStatus(), is(CompleteBatchRunResponse.Status.BATCH_RUN_NOT_FOUND));
+        for (String instrument : instruments) {
+            assertThat(client.requestLastPrice(instrument).getStatus(),
+                is(LastPriceResponse.Status.PRICE_NOT_AVAILABLE));
+        }
+        for (ManagedChannel channel : channels.values()) {
+            assertThat(new LastPriceClient(channel).completeBatchRun(0).getStatus(),
+                is(CompleteBatchRunResponse.Status.BATCH_RUN_NOT_FOUND));
+        }
+    }
+
+    @Test
+    public void shouldRetryCommitUntilShardAcceptsIt() {
+        final long batchRunId = client.startBatchRun().getBatchRunId();
+        client.uploadPriceRecordsChunk(batchRunId, 1, priceRecords(1L));
+        failingCommits.get("node-b").set(5);
+
+        final CompleteBatchRunResponse completed = client.completeBatchRun(batchRunId);
+
+        assertThat(completed.getStatus(), is(CompleteBatchRunResponse.Status.SUCCESS));
+        assertThat(failingCommits.get("node-b").get(), is(0));
+        for (String instrument : instruments) {
+            assertThat(client.requestLastPrice(instrument).getStatus(), is(LastPriceResponse.Status.SUCCESS));
+        }
+    }
+
+    @Test
+    public void shouldSpreadInstrumentsEvenlyAndMoveOnlyTakenOverOnes() {
+        final Map<String, Integer> shares = new HashMap<>();
+        final List<String> manyInstruments = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            manyInstruments.add("TICKER_" + i);
+            shares.merge(ring.nodeFor(manyInstruments.get(i)), 1, Integer::sum);
+        }
+        final ConsistentHashRing grownRing = new ConsistentHashRing(
+            List.of("node-c", "node-d", "node-b", "node-a"), VIRTUAL_NODES
+        );
+
+        assertThat(shares.values(), everyItem(greaterThan(8_000)));
+        assertThat(shares.values(), everyItem(lessThan(12_000)));
+        for (String instrument : manyInstruments) {
+            final String node = grownRing.nodeFor(instrument);
+            if (!node.equals("node-d")) {
+                assertThat(node, is(ring.nodeFor(instrument)));
+            }
+        }
+    }
+
+    private List<InstrumentPriceRecord> priceRecords(long asOf) {
+        return instruments.stream()
+            .map(instrument -> InstrumentPriceRecord.newBuilder()
+                .setInstrument(instrument)
+                .setAsOf(asOf)
+                .setPayload(ByteString.copyFromUtf8(instrument))
+                .build())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Fails the given number of commits as unavailable, modelling a shard which is slow to come back.
+     */
+    private static final class FailingCommitInterceptor implements ServerInterceptor {
+
+        private final AtomicInteger failingCommits;
+
+        private FailingCommitInterceptor(AtomicInteger failingCommits) {
+            this.failingCommits = failingCommits;
+        }
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call,
+            Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+
+            if (call.getMethodDescriptor().equals(LastPriceGrpc.getCommitBatchRunMethod())
+                && failingCommits.getAndUpdate(failing -> Math.max(0, failing - 1)) > 0) {
+                call.close(Status.UNAVAILABLE, new Metadata());
+                return new ServerCall.Listener<>() { };
+            }
+            return next.startCall(call, headers);
+        }
+    }
+
+}
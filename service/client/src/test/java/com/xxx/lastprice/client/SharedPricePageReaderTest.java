@@ -0,0 +1,131 @@
+package com.xxx.lastprice.client;
+
+import com.xxx.lastprice.domain.PayloadCompressor;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.server.SharedPricePageExporter;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SEQUENCE_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SLOT_SIZE_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.slotOffset;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class SharedPricePageReaderTest {
+
+    private static final String AAPL = "AAPL";
+    private static final String AMZN = "AMZN";
+    private static final int MAX_PAYLOAD_LENGTH = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void shouldReadExportedPlainAndCompressedPayloads() {
+        final Path file = directory.resolve("prices.page");
+        final byte[] compressiblePayload = new byte[200];
+        final byte[] tooLargePayload = new byte[MAX_PAYLOAD_LENGTH + 1];
+        new Random(1).nextBytes(tooLargePayload);
+        try (SharedPricePageExporter exporter = createExporter(file);
+             SharedPricePageReader reader = new SharedPricePageReader(file)) {
+
+            assertThat(reader.read(AAPL), is(nullValue()));
+            exporter.onPriceRecordUpdated(new PriceRecord(AAPL, 1L, new byte[]{1, 2, 3}), 1L);
+            exporter.onPriceRecordUpdated(
+                new PayloadCompressor(64, 0).compress(new PriceRecord(AMZN, 2L, compressiblePayload)), 2L
+            );
+
+            final InstrumentPriceRecord plainRecord = reader.read(AAPL);
+            assertThat(plainRecord.getAsOf(), is(1L));
+            assertThat(plainRecord.getPayload().toByteArray(), is(new byte[]{1, 2, 3}));
+            final InstrumentPriceRecord compressedRecord = reader.read(AMZN);
+            assertThat(compressedRecord.getAsOf(), is(2L));
+            assertThat(compressedRecord.getPayload().toByteArray(), is(compressiblePayload));
+            exporter.onPriceRecordUpdated(new PriceRecord(AAPL, 3L, tooLargePayload), 3L);
+            assertThat(reader.read(AAPL), is(nullValue()));
+            assertThat(reader.read("UNKNOWN"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void shouldGiveUpOnSlotLockedByWriter() {
+        final Path file = directory.resolve("prices.page");
+        try (SharedPricePageExporter exporter = createExporter(file);
+             SharedPricePageReader reader = new SharedPricePageReader(file, 100)) {
+
+            exporter.onPriceRecordUpdated(new PriceRecord(AAPL, 1L, new byte[]{1}), 1L);
+            final MappedByteBuffer mappedPage =
+                IoUtil.mapExistingFile(file.toFile(), FileChannel.MapMode.READ_WRITE, "shared price page");
+            try {
+                // a writer which died in the middle of the update leaves the sequence odd
+                final UnsafeBuffer page = new UnsafeBuffer(mappedPage);
+                final int slotOffset = (int) slotOffset(0, page.getInt(SLOT_SIZE_OFFSET));
+                page.putLongVolatile(slotOffset + SEQUENCE_OFFSET, page.getLong(slotOffset + SEQUENCE_OFFSET) + 1);
+
+                assertThat(reader.read(AAPL), is(nullValue()));
+            } finally {
+                IoUtil.unmap(mappedPage);
+            }
+        }
+    }
+
+    @Test
+    public void shouldNeverReturnTornRecords() throws Exception {
+        final Path file = directory.resolve("prices.page");
+        try (SharedPricePageExporter exporter = createExporter(file);
+             SharedPricePageReader reader = new SharedPricePageReader(file)) {
+
+            final AtomicBoolean stopped = new AtomicBoolean();
+            final Thread writer = new Thread(() -> {
+                final byte[] payload = new byte[MAX_PAYLOAD_LENGTH];
+                for (long asOf = 1; !stopped.get(); asOf++) {
+                    // every payload is filled with the low byte of its asOf, so a torn copy mixes two values
+                    Arrays.fill(payload, (byte) asOf);
+                    exporter.onPriceRecordUpdated(new PriceRecord(AAPL, asOf, payload.clone()), asOf);
+                }
+            });
+            writer.start();
+            int consistentReads = 0;
+            try {
+                for (int i = 0; i < 100_000; i++) {
+                    final InstrumentPriceRecord priceRecord = reader.read(AAPL);
+                    if (priceRecord == null) {
+                        continue;
+                    }
+                    final byte[] expectedPayload = new byte[MAX_PAYLOAD_LENGTH];
+                    Arrays.fill(expectedPayload, (byte) priceRecord.getAsOf());
+                    assertThat(priceRecord.getPayload().toByteArray(), is(expectedPayload));
+                    consistentReads++;
+                }
+            } finally {
+                stopped.set(true);
+                writer.join();
+            }
+            assertThat(consistentReads, greaterThan(0));
+        }
+    }
+
+    private static SharedPricePageExporter createExporter(Path file) {
+        return new SharedPricePageExporter(
+            file, List.of(AAPL, AMZN), SharedPricePageExporter.DEFAULT_MAX_INSTRUMENT_LENGTH, MAX_PAYLOAD_LENGTH
+        );
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.xxx.lastprice.domain;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the latest known {@code asOf} value per instrument of the market state.
+ * Reads are lock free, so the watermarks can be checked on every upload without touching
+ * the market state lock. A watermark never gets ahead of the market state: it is advanced by the
+ * market state itself once a record is accepted.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class AsOfWatermarks implements PriceRecordListener {
+
+    private final Map<String, Integer> instrumentIndexes;
+    private final AtomicLongArray watermarks;
+
+    public AsOfWatermarks(Collection<String> instruments) {
+        final Map<String, Integer> indexes = new HashMap<>();
+        for (String instrument : instruments) {
+            indexes.putIfAbsent(instrument, indexes.size());
+        }
+        this.instrumentIndexes = Map.copyOf(indexes);
+        this.watermarks = new AtomicLongArray(indexes.size());
+        for (int i = 0; i < indexes.size(); i++) {
+            watermarks.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPriceRecordUpdated(PriceRecord priceRecord, long version) {
+        final Integer index = instrumentIndexes.get(priceRecord.getInstrument());
+        if (!isNull(index)) {
+            watermarks.accumulateAndGet(index, priceRecord.getAsOf(), Math::max);
+        }
+    }
+
+    /**
+     * Checks if the market state already has newer price for the instrument of the given record.
+     *
+     * @param priceRecord price record to check
+     * @return {@code true} if the record can not get into the market state any more
+     */
+    public boolean isSuperseded(PriceRecord priceRecord) {
+        final Integer index = instrumentIndexes.get(priceRecord.getInstrument());
+        return !isNull(index) && priceRecord.getAsOf() < watermarks.get(index);
+    }
+
+    /**
+     * Drops records which are already superseded in the market state.
+     *
+     * @param priceRecords records to filter
+     * @return the same collection if nothing was dropped, otherwise new collection with the rest records
+     */
+    public Collection<PriceRecord> filterSuperseded(Collection<PriceRecord> priceRecords) {
+        if (priceRecords.stream().noneMatch(this::isSuperseded)) {
+            return priceRecords;
+        }
+        return priceRecords.stream()
+            .filter(priceRecord -> !isSuperseded(priceRecord))
+            .collect(toList());
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.xxx.lastprice.domain;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking view of {@link LastPriceService}. Calls return futures completed with {@link ServiceResult}s,
+ * requests rejected by the service complete normally with the matching status instead of throwing
+ * {@link LastPriceServiceException}s. A future completes exceptionally only on unexpected failures.
+ *
+ * Futures may be completed on the calling thread or on a thread of the engine behind the service,
+ * dependent actions should not block.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ * @see LastPriceService#async()
+ */
+public interface AsyncLastPriceService {
+
+    /**
+     * Finds last price of the given instrument.
+     *
+     * @param instrument instrument to find price of
+     * @return the last price, {@code null} value if there is no price yet
+     * @see LastPriceService#findLastPrice(String)
+     */
+    CompletableFuture<ServiceResult<PriceRecord>> findLastPrice(String instrument);
+
+    /**
+     * Finds the latest price of the given instrument as of the given moment.
+     *
+     * @param instrument instrument to find price of
+     * @param timestamp moment of time to find the price as of
+     * @return the price, {@code null} value if there is no price as of the moment
+     * @see LastPriceService#findPriceAsOf(String, long)
+     */
+    CompletableFuture<ServiceResult<PriceRecord>> findPriceAsOf(String instrument, long timestamp);
+
+    /**
+     * @see LastPriceService#findChangesSince(long, long)
+     */
+    CompletableFuture<MarketChanges> findChangesSince(long epoch, long version);
+
+    /**
+     * @return id of the started batch run
+     * @see LastPriceService#startBatchRun()
+     */
+    CompletableFuture<ServiceResult<Long>> startBatchRun();
+
+    /**
+     * @see LastPriceService#uploadPriceRecordsChunk(long, long, Collection)
+     */
+    CompletableFuture<ServiceResult<Void>> uploadPriceRecordsChunk(
+        long batchRunId,
+        long chunkSequence,
+        Collection<PriceRecord> priceRecords
+    );
+
+    /**
+     * @see LastPriceService#cancelBatchRun(long)
+     */
+    CompletableFuture<ServiceResult<Void>> cancelBatchRun(long batchRunId);
+
+    /**
+     * @see LastPriceService#completeBatchRun(long)
+     */
+    CompletableFuture<ServiceResult<Void>> completeBatchRun(long batchRunId);
+
+    /**
+     * @see LastPriceService#prepareBatchRun(long)
+     */
+    CompletableFuture<ServiceResult<Void>> prepareBatchRun(long batchRunId);
+
+    /**
+     * @see LastPriceService#commitBatchRun(long)
+     */
+    CompletableFuture<ServiceResult<Void>> commitBatchRun(long batchRunId);
+
+    /**
+     * @return sequence number up to which all chunks of the batch run were accepted
+     * @see LastPriceService#resumeBatchRun(long)
+     */
+    CompletableFuture<ServiceResult<Long>> resumeBatchRun(long batchRunId);
+
+}
@@ -0,0 +1,117 @@
+package com.xxx.lastprice.domain;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Asynchronous view of a synchronous service, calls are made on the calling thread and return completed futures.
+ * Service exceptions are caught and turned into result statuses.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+class AsyncLastPriceServiceAdapter implements AsyncLastPriceService {
+
+    private final LastPriceService service;
+
+    AsyncLastPriceServiceAdapter(LastPriceService service) {
+        this.service = service;
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<PriceRecord>> findLastPrice(String instrument) {
+        try {
+            return completedFuture(ServiceResult.success(service.findLastPrice(instrument).orElse(null)));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<PriceRecord>> findPriceAsOf(String instrument, long timestamp) {
+        try {
+            return completedFuture(ServiceResult.success(service.findPriceAsOf(instrument, timestamp).orElse(null)));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<MarketChanges> findChangesSince(long epoch, long version) {
+        return completedFuture(service.findChangesSince(epoch, version));
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Long>> startBatchRun() {
+        try {
+            return completedFuture(ServiceResult.success(service.startBatchRun()));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Void>> uploadPriceRecordsChunk(
+        long batchRunId,
+        long chunkSequence,
+        Collection<PriceRecord> priceRecords) {
+
+        try {
+            service.uploadPriceRecordsChunk(batchRunId, chunkSequence, priceRecords);
+            return completedFuture(ServiceResult.success(null));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Void>> cancelBatchRun(long batchRunId) {
+        try {
+            service.cancelBatchRun(batchRunId);
+            return completedFuture(ServiceResult.success(null));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Void>> completeBatchRun(long batchRunId) {
+        try {
+            service.completeBatchRun(batchRunId);
+            return completedFuture(ServiceResult.success(null));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Void>> prepareBatchRun(long batchRunId) {
+        try {
+            service.prepareBatchRun(batchRunId);
+            return completedFuture(ServiceResult.success(null));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Void>> commitBatchRun(long batchRunId) {
+        try {
+            service.commitBatchRun(batchRunId);
+            return completedFuture(ServiceResult.success(null));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Long>> resumeBatchRun(long batchRunId) {
+        try {
+            return completedFuture(ServiceResult.success(service.resumeBatchRun(batchRunId)));
+        } catch (LastPriceServiceException e) {
+            return completedFuture(ServiceResult.failure(e));
+        }
+    }
+
+}
@@ -1,18 +1,272 @@
 package com.xxx.lastprice.domain;
 
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.xxx.lastprice.domain.LastPriceService.UNSEQUENCED_CHUNK;
+import static java.util.Objects.isNull;
+
 /**
+ * Price records uploaded within a batch run.
+ *
+ * Chunks are applied concurrently: every record is reduced into a concurrent map keeping the record with
+ * the latest {@code asOf} per instrument, so chunks can be applied in any order and by any number of threads.
+ * Records of the same instrument with equal {@code asOf} uploaded concurrently are resolved in favour of
+ * the one applied last. Spilling batch runs apply chunks one at a time under the container write lock.
+ *
  * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
  */
 public class BatchRun extends PriceRecordContainer {
 
     private final long id;
 
+    /**
+     * Bytes reserved for this batch run in the {@link BatchRunAdmissionControl}.
+     */
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private final SpillingPriceRecordMap spillingRecords;
+    private final ConcurrentMap<String, PriceRecord> concurrentRecords;
+    private final LongAdder concurrentSizeInBytes = new LongAdder();
+
+    /**
+     * Sequence numbers of the chunks applied to this batch run.
+     */
+    private final Set<Long> appliedChunks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Chunks being applied by their sequence numbers, completed once the chunk is applied or failed to apply.
+     */
+    private final ConcurrentMap<Long, CompletableFuture<Void>> applyingChunks = new ConcurrentHashMap<>();
+
+    /**
+     * Highest sequence number up to which all chunks were applied, advanced lazily when requested.
+     */
+    private long acceptedChunkSequence = UNSEQUENCED_CHUNK;
+
+    private volatile long lastUpdateTimestamp;
+
+    /**
+     * Set once the batch run is closed for uploads and waits to be committed.
+     */
+    private volatile boolean prepared;
+
     public BatchRun(long id) {
+        this(id, null);
+    }
+
+    /**
+     * Creates batch run which moves its records to a memory-mapped file in the given directory
+     * as soon as their estimated size crosses the given threshold.
+     *
+     * @param id batch run identifier
+     * @param spillThresholdBytes size of records in bytes to keep on heap
+     * @param spillDirectory directory to create spill file in
+     */
+    public BatchRun(long id, long spillThresholdBytes, Path spillDirectory) {
+        this(id, new SpillingPriceRecordMap(spillThresholdBytes, spillDirectory));
+    }
+
+    BatchRun(long id, SpillingPriceRecordMap spillingRecords) {
+        this(id, spillingRecords, isNull(spillingRecords) ? new ConcurrentHashMap<>() : null);
+    }
+
+    private BatchRun(
+        long id,
+        SpillingPriceRecordMap spillingRecords,
+        ConcurrentMap<String, PriceRecord> concurrentRecords) {
+
+        super(new ReentrantReadWriteLock(), isNull(spillingRecords) ? concurrentRecords : spillingRecords);
         this.id = id;
+        this.spillingRecords = spillingRecords;
+        this.concurrentRecords = concurrentRecords;
     }
 
     public long getId() {
         return id;
     }
 
+    /**
+     * Applies chunk with the given sequence number unless a chunk with the same sequence number
+     * was applied already, so retried chunks are not accounted twice.
+     *
+     * @param chunkSequence sequence number of the chunk within the batch run,
+     *                      {@link LastPriceService#UNSEQUENCED_CHUNK} to apply the chunk unconditionally
+     * @param priceRecords records of the chunk
+     * @return change of the estimated batch run size in bytes, zero for an already applied chunk
+     */
+    public long updatePriceRecords(long chunkSequence, Collection<PriceRecord> priceRecords) {
+        return updatePriceRecords(chunkSequence, priceRecords, () -> { });
+    }
+
+    /**
+     * Applies chunk with the given sequence number unless a chunk with the same sequence number
+     * was applied already. A chunk with the same sequence number being applied concurrently is waited for:
+     * if it is applied this call returns without applying the chunk again, if it fails this call applies it.
+     * Only a chunk applied without failure counts as applied.
+     *
+     * @param chunkSequence sequence number of the chunk within the batch run,
+     *                      {@link LastPriceService#UNSEQUENCED_CHUNK} to apply the chunk unconditionally
+     * @param priceRecords records of the chunk
+     * @param beforeApply action run right before the chunk is applied by this call, e.g. to journal the chunk,
+     *                    it is not run for an already applied chunk
+     * @return change of the estimated batch run size in bytes, zero for an already applied chunk
+     */
+    public long updatePriceRecords(long chunkSequence, Collection<PriceRecord> priceRecords, Runnable beforeApply) {
+        if (chunkSequence == UNSEQUENCED_CHUNK) {
+            beforeApply.run();
+            return updatePriceRecords(priceRecords);
+        }
+        while (!appliedChunks.contains(chunkSequence)) {
+            final CompletableFuture<Void> application = new CompletableFuture<>();
+            final CompletableFuture<Void> concurrentApplication =
+                applyingChunks.putIfAbsent(chunkSequence, application);
+            if (isNull(concurrentApplication)) {
+                return applyChunk(chunkSequence, priceRecords, beforeApply, application);
+            }
+            try {
+                concurrentApplication.join();
+                return 0;
+            } catch (CompletionException e) {
+                // the concurrent attempt failed and did not count, the chunk is applied by this call instead
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Unlike other containers the update is not atomic for readers, which is fine as batch run records
+     * are read only after it left the repository. For a spilling batch run only change of the heap footprint
+     * is reported, records moved to the spill file do not occupy heap.
+     */
+    @Override
+    public long updatePriceRecords(Collection<PriceRecord> priceRecords) {
+        if (isNull(spillingRecords)) {
+            long sizeDelta = 0;
+            for (PriceRecord priceRecord : priceRecords) {
+                sizeDelta += reducePriceRecord(priceRecord);
+            }
+            concurrentSizeInBytes.add(sizeDelta);
+            return sizeDelta;
+        }
+        final long heapSizeBefore = spillingRecords.getHeapSizeInBytes();
+        super.updatePriceRecords(priceRecords);
+        return spillingRecords.getHeapSizeInBytes() - heapSizeBefore;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return isNull(spillingRecords) ? concurrentSizeInBytes.sum() : super.getSizeInBytes();
+    }
+
+    /**
+     * Releases resources held outside of heap. Has to be called once the batch run
+     * left the repository and its records were merged or discarded.
+     */
+    public void release() {
+        if (!isNull(spillingRecords)) {
+            spillingRecords.release();
+        }
+    }
+
+    /**
+     * Checks if a chunk with the given sequence number was applied already.
+     *
+     * @param chunkSequence sequence number of the chunk
+     * @return {@code true} if the chunk was applied, always {@code false} for unsequenced chunks
+     */
+    public boolean isChunkApplied(long chunkSequence) {
+        return chunkSequence != UNSEQUENCED_CHUNK && appliedChunks.contains(chunkSequence);
+    }
+
+    /**
+     * Returns the highest sequence number such that chunks with all sequence numbers from one to it were applied,
+     * the producer resuming the upload can continue from the next one.
+     *
+     * @return sequence number of the last contiguously applied chunk, {@link LastPriceService#UNSEQUENCED_CHUNK}
+     *         if the first chunk was not applied
+     */
+    public synchronized long getAcceptedChunkSequence() {
+        while (appliedChunks.contains(acceptedChunkSequence + 1)) {
+            acceptedChunkSequence++;
+        }
+        return acceptedChunkSequence;
+    }
+
+    /**
+     * Closes the batch run for uploads, it is kept in the repository until committed or cancelled.
+     */
+    public void prepare() {
+        prepared = true;
+    }
+
+    public boolean isPrepared() {
+        return prepared;
+    }
+
+    AtomicLong getReservedBytes() {
+        return reservedBytes;
+    }
+
+    long getLastUpdateTimestamp() {
+        return lastUpdateTimestamp;
+    }
+
+    void setLastUpdateTimestamp(long lastUpdateTimestamp) {
+        this.lastUpdateTimestamp = lastUpdateTimestamp;
+    }
+
+    private long applyChunk(
+        long chunkSequence,
+        Collection<PriceRecord> priceRecords,
+        Runnable beforeApply,
+        CompletableFuture<Void> application) {
+
+        // the chunk could be applied between the check and the registration of this application
+        if (appliedChunks.contains(chunkSequence)) {
+            applyingChunks.remove(chunkSequence);
+            application.complete(null);
+            return 0;
+        }
+        try {
+            beforeApply.run();
+            final long sizeDelta = updatePriceRecords(priceRecords);
+            // marked applied before the application is unregistered, so no later call applies it again
+            appliedChunks.add(chunkSequence);
+            applyingChunks.remove(chunkSequence);
+            application.complete(null);
+            return sizeDelta;
+        } catch (RuntimeException e) {
+            // reduction is idempotent, the retried chunk may safely be applied on top of a partially applied one
+            applyingChunks.remove(chunkSequence);
+            application.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private long reducePriceRecord(PriceRecord priceRecord) {
+        while (true) {
+            final PriceRecord existingRecord = concurrentRecords.putIfAbsent(priceRecord.getInstrument(), priceRecord);
+            if (isNull(existingRecord)) {
+                return priceRecord.getSizeInBytes();
+            }
+            if (priceRecord.getAsOf() < existingRecord.getAsOf()) {
+                return 0;
+            }
+            if (concurrentRecords.replace(priceRecord.getInstrument(), existingRecord, priceRecord)) {
+                return priceRecord.getSizeInBytes() - existingRecord.getSizeInBytes();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,144 @@
+package com.xxx.lastprice.domain;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for batch runs. Tracks the number of active batch runs and the estimated
+ * number of bytes held by each of them and by all of them in total.
+ *
+ * All limits are exact: reservations are made with CAS loops before the memory is used,
+ * so concurrent callers can never push the counters over the configured caps.
+ * Reserved bytes of a batch run are given back when the batch run leaves the repository.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BatchRunAdmissionControl {
+
+    /**
+     * Estimated footprint of an empty batch run, reserved when the batch run is admitted.
+     */
+    public static final long BATCH_RUN_OVERHEAD_BYTES = 512;
+
+    private final int maxActiveBatchRuns;
+    private final long maxTotalBytes;
+    private final long maxBatchRunBytes;
+    private final long retryAfterMs;
+
+    private final AtomicInteger activeBatchRuns = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public BatchRunAdmissionControl(int maxActiveBatchRuns, long maxTotalBytes, long maxBatchRunBytes, long retryAfterMs) {
+        this.maxActiveBatchRuns = maxActiveBatchRuns;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxBatchRunBytes = maxBatchRunBytes;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Tries to admit one more batch run.
+     *
+     * @return {@code true} if batch run was admitted, {@code false} if the number of active batch runs is at its limit
+     */
+    public boolean tryAdmitBatchRun() {
+        int current;
+        do {
+            current = activeBatchRuns.get();
+            if (current >= maxActiveBatchRuns) {
+                return false;
+            }
+        } while (!activeBatchRuns.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Tries to reserve memory required by the empty batch run. Has to be called after the batch run is admitted.
+     *
+     * @return {@code true} if memory was reserved
+     */
+    public boolean tryReserveBatchRunOverhead() {
+        return tryReserve(totalBytes, BATCH_RUN_OVERHEAD_BYTES, maxTotalBytes);
+    }
+
+    /**
+     * Gives back admission acquired with {@link #tryAdmitBatchRun()} if the batch run was not created after all.
+     */
+    public void cancelAdmission() {
+        activeBatchRuns.decrementAndGet();
+    }
+
+    /**
+     * Tries to reserve the given number of bytes for the batch run.
+     *
+     * @param batchRun batch run to reserve memory for
+     * @param bytes number of bytes to reserve
+     * @return {@code true} if memory was reserved, {@code false} if per batch run or total budget would be exceeded
+     */
+    public boolean tryReserve(BatchRun batchRun, long bytes) {
+        if (!tryReserve(batchRun.getReservedBytes(), bytes, maxBatchRunBytes)) {
+            return false;
+        }
+        if (!tryReserve(totalBytes, bytes, maxTotalBytes)) {
+            batchRun.getReservedBytes().addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back part of the memory reserved for the batch run, for example when the reservation
+     * turned out to be bigger than actual growth of the batch run. Never releases more than
+     * is still reserved for the batch run, so it is safe to call after the batch run was released.
+     *
+     * @param batchRun batch run to release memory of
+     * @param bytes number of bytes to release
+     */
+    public void release(BatchRun batchRun, long bytes) {
+        final AtomicLong reservedBytes = batchRun.getReservedBytes();
+        long current;
+        long released;
+        do {
+            current = reservedBytes.get();
+            released = Math.min(current, bytes);
+        } while (!reservedBytes.compareAndSet(current, current - released));
+        totalBytes.addAndGet(-released);
+    }
+
+    /**
+     * Releases all resources held by the batch run which left the repository.
+     *
+     * @param batchRun removed batch run
+     */
+    public void releaseBatchRun(BatchRun batchRun) {
+        totalBytes.addAndGet(-(batchRun.getReservedBytes().getAndSet(0) + BATCH_RUN_OVERHEAD_BYTES));
+        activeBatchRuns.decrementAndGet();
+    }
+
+    public int getMaxActiveBatchRuns() {
+        return maxActiveBatchRuns;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    public int getActiveBatchRuns() {
+        return activeBatchRuns.get();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    private static boolean tryReserve(AtomicLong counter, long bytes, long limit) {
+        long current;
+        do {
+            current = counter.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+}
@@ -0,0 +1,415 @@
+package com.xxx.lastprice.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Append-only journal of the chunks accepted by batch runs, one file per batch run, which lets producers resume
+ * uploads of batch runs after the server restarted.
+ *
+ * A chunk is appended before it is applied to its batch run, so every acknowledged chunk is in the journal,
+ * and the journal file is deleted once the batch run leaves the repository. The file starts with a header
+ * followed by chunk entries:
+ * <pre>
+ * header:  magic (int) | version (int) | batch run id (long)
+ * entry:   body length (int) | CRC32 of the body (int) | chunk sequence (long) | records count (int)
+ *          | records: instrument length (int) | instrument (UTF-8) | asOf (long) | payload length (int)
+ *            | stored payload length (int) | stored payload
+ * </pre>
+ * Payloads are journaled the way the batch run keeps them, see {@link PriceRecord#getStoredPayload()}, so compressed
+ * payloads are not inflated to be journaled.
+ * Prepared batch runs are marked by an entry without records with the {@link #PREPARED} sequence. An entry cut
+ * short by a crash fails its checksum and is truncated together with anything after it on recovery.
+ * Numbers are big-endian.
+ *
+ * With syncing enabled the journal is forced to the storage device by {@link #sync(long)} before the chunk
+ * is acknowledged, otherwise the journal survives a crash of the process but not of the host. Appends do not force
+ * the file, as they are made under the lock of the batch run repository.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BatchRunJournal implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchRunJournal.class);
+
+    static final int MAGIC = 0x4C50424A;
+    static final int VERSION = 2;
+    static final int HEADER_LENGTH = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    static final int ENTRY_HEADER_LENGTH = Integer.BYTES + Integer.BYTES;
+
+    /**
+     * Sequence of the entry marking the batch run prepared.
+     */
+    static final long PREPARED = -1;
+
+    private static final String FILE_PREFIX = "batch-run-";
+    private static final String FILE_SUFFIX = ".journal";
+
+    private final Path directory;
+    private final boolean sync;
+    private final Map<Long, FileChannel> files = new ConcurrentHashMap<>();
+
+    /**
+     * Creates journal.
+     *
+     * @param directory directory of the journal files, created if it does not exist
+     * @param sync force every append to the storage device
+     */
+    public BatchRunJournal(Path directory, boolean sync) {
+        this.directory = directory;
+        this.sync = sync;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates journal file of a new batch run.
+     *
+     * @param batchRunId id of the batch run
+     */
+    public void create(long batchRunId) {
+        try {
+            final FileChannel file = FileChannel.open(
+                file(batchRunId),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            );
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).putLong(batchRunId).flip();
+            write(file, header);
+            files.put(batchRunId, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends chunk to the journal of the batch run.
+     *
+     * @param batchRunId id of the batch run
+     * @param chunkSequence sequence number of the chunk
+     * @param priceRecords records of the chunk
+     */
+    public void append(long batchRunId, long chunkSequence, Collection<PriceRecord> priceRecords) {
+        int bodyLength = Long.BYTES + Integer.BYTES;
+        final List<byte[]> instruments = new ArrayList<>(priceRecords.size());
+        for (PriceRecord priceRecord : priceRecords) {
+            final byte[] instrument = priceRecord.getInstrument().getBytes(StandardCharsets.UTF_8);
+            instruments.add(instrument);
+            bodyLength += Integer.BYTES + instrument.length + Long.BYTES + Integer.BYTES + Integer.BYTES
+                + priceRecord.getStoredPayload().length;
+        }
+        final ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_LENGTH + bodyLength);
+        entry.position(ENTRY_HEADER_LENGTH);
+        entry.putLong(chunkSequence).putInt(priceRecords.size());
+        int i = 0;
+        for (PriceRecord priceRecord : priceRecords) {
+            final byte[] instrument = instruments.get(i++);
+            final byte[] payload = priceRecord.getStoredPayload();
+            entry.putInt(instrument.length).put(instrument).putLong(priceRecord.getAsOf())
+                .putInt(priceRecord.getPayloadLength()).putInt(payload.length).put(payload);
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(entry.array(), ENTRY_HEADER_LENGTH, bodyLength);
+        entry.putInt(0, bodyLength).putInt(Integer.BYTES, (int) checksum.getValue()).flip();
+        final FileChannel file = files.get(batchRunId);
+        if (isNull(file)) {
+            throw new IllegalStateException("Batch run " + batchRunId + " has no journal");
+        }
+        try {
+            // entries of concurrently uploaded chunks must not interleave
+            synchronized (file) {
+                write(file, entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Forces entries appended to the journal of the batch run to the storage device if syncing is enabled.
+     * One call covers entries of all chunks appended before it, so concurrent uploads share the device flushes.
+     * Does nothing if the batch run has already left the repository and its journal was deleted.
+     *
+     * @param batchRunId id of the batch run
+     */
+    public void sync(long batchRunId) {
+        if (!sync) {
+            return;
+        }
+        final FileChannel file = files.get(batchRunId);
+        if (isNull(file)) {
+            return;
+        }
+        try {
+            file.force(false);
+        } catch (ClosedChannelException e) {
+            // deleted concurrently, the batch run does not need its journal any more
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Marks the batch run prepared, so it is recovered prepared.
+     *
+     * @param batchRunId id of the batch run
+     */
+    public void markPrepared(long batchRunId) {
+        append(batchRunId, PREPARED, List.of());
+    }
+
+    /**
+     * Deletes journal of the batch run, does nothing if there is none. A failure is only logged, as the batch run
+     * has already left the repository, a journal left behind is recovered after a restart and evicted as abandoned.
+     *
+     * @param batchRunId id of the batch run
+     */
+    public void delete(long batchRunId) {
+        final FileChannel file = files.remove(batchRunId);
+        try {
+            if (!isNull(file)) {
+                file.close();
+            }
+            Files.deleteIfExists(file(batchRunId));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete journal of batch run " + batchRunId, e);
+        }
+    }
+
+    /**
+     * Reads all journal files of the directory and keeps them open for appends. Entries cut short or corrupted
+     * are truncated together with anything after them, files which are not valid journals are skipped.
+     *
+     * @return journaled batch runs by their ids
+     */
+    public SortedMap<Long, JournaledBatchRun> recover() {
+        final SortedMap<Long, JournaledBatchRun> batchRuns = new TreeMap<>();
+        final String glob = FILE_PREFIX + "*" + FILE_SUFFIX;
+        try (DirectoryStream<Path> journalFiles = Files.newDirectoryStream(directory, glob)) {
+            for (Path journalFile : journalFiles) {
+                final JournaledBatchRun batchRun = recover(journalFile);
+                if (!isNull(batchRun)) {
+                    batchRuns.put(batchRun.getBatchRunId(), batchRun);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return batchRuns;
+    }
+
+    /**
+     * Closes journal files without deleting them.
+     */
+    @Override
+    public void close() {
+        for (Long batchRunId : files.keySet()) {
+            try {
+                files.remove(batchRunId).close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close journal of batch run " + batchRunId, e);
+            }
+        }
+    }
+
+    private JournaledBatchRun recover(Path journalFile) throws IOException {
+        final FileChannel file = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        if (!read(file, header, 0) || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            LOGGER.warn("Skipping " + journalFile + ", it is not a batch run journal of version " + VERSION);
+            file.close();
+            return null;
+        }
+        final JournaledBatchRun batchRun = new JournaledBatchRun(header.getLong(), file);
+        // entries are validated here and decoded only when restored, so a large journal is not held in memory
+        long position = HEADER_LENGTH;
+        ByteBuffer entry;
+        while (!isNull(entry = readEntry(file, position))) {
+            if (entry.getLong() == PREPARED) {
+                batchRun.prepared = true;
+            } else {
+                batchRun.chunksCount++;
+            }
+            position += ENTRY_HEADER_LENGTH + entry.limit();
+        }
+        if (position < file.size()) {
+            LOGGER.warn("Truncating torn tail of " + journalFile + " at " + position);
+            file.truncate(position);
+        }
+        file.position(position);
+        batchRun.length = position;
+        files.put(batchRun.getBatchRunId(), file);
+        return batchRun;
+    }
+
+    /**
+     * Reads body of the entry at the given position.
+     *
+     * @return body of the entry, {@code null} if the entry is cut short or corrupted
+     */
+    private static ByteBuffer readEntry(FileChannel file, long position) throws IOException {
+        final ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+        if (!read(file, entryHeader, position)) {
+            return null;
+        }
+        final int bodyLength = entryHeader.getInt();
+        final int expectedChecksum = entryHeader.getInt();
+        if (bodyLength < Long.BYTES + Integer.BYTES
+            || bodyLength > file.size() - position - ENTRY_HEADER_LENGTH) {
+            return null;
+        }
+        final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        if (!read(file, body, position + ENTRY_HEADER_LENGTH)) {
+            return null;
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(body.array(), 0, bodyLength);
+        return (int) checksum.getValue() == expectedChecksum ? body : null;
+    }
+
+    private static JournaledChunk decodeChunk(ByteBuffer body) {
+        final long chunkSequence = body.getLong();
+        final int count = body.getInt();
+        final List<PriceRecord> priceRecords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final byte[] instrument = new byte[body.getInt()];
+            body.get(instrument);
+            final long asOf = body.getLong();
+            final int payloadLength = body.getInt();
+            final byte[] payload = new byte[body.getInt()];
+            body.get(payload);
+            priceRecords.add(PayloadCompressor.restore(
+                new String(instrument, StandardCharsets.UTF_8), asOf, payload, payloadLength
+            ));
+        }
+        return new JournaledChunk(chunkSequence, priceRecords);
+    }
+
+    /**
+     * Fills the buffer from the given position and flips it.
+     *
+     * @return {@code false} if the file ended before the buffer was filled
+     */
+    private static boolean read(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private Path file(long batchRunId) {
+        return directory.resolve(FILE_PREFIX + batchRunId + FILE_SUFFIX);
+    }
+
+    private static void write(FileChannel file, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+    }
+
+    /**
+     * Batch run found in the journal. Its chunks are read from the journal file on demand.
+     */
+    public static final class JournaledBatchRun {
+
+        private final long batchRunId;
+        private final FileChannel file;
+        private long length;
+        private int chunksCount;
+        private boolean prepared;
+
+        JournaledBatchRun(long batchRunId, FileChannel file) {
+            this.batchRunId = batchRunId;
+            this.file = file;
+        }
+
+        public long getBatchRunId() {
+            return batchRunId;
+        }
+
+        public int getChunksCount() {
+            return chunksCount;
+        }
+
+        public boolean isPrepared() {
+            return prepared;
+        }
+
+        /**
+         * Reads recovered chunks in the order they were accepted, has to be called before the journal
+         * of the batch run is deleted.
+         *
+         * @param chunkConsumer consumer of the chunks
+         */
+        public void forEachChunk(Consumer<JournaledChunk> chunkConsumer) {
+            try {
+                long position = HEADER_LENGTH;
+                while (position < length) {
+                    final ByteBuffer entry = readEntry(file, position);
+                    if (isNull(entry)) {
+                        throw new IllegalStateException("Journal of batch run " + batchRunId + " changed");
+                    }
+                    position += ENTRY_HEADER_LENGTH + entry.limit();
+                    if (entry.getLong(0) != PREPARED) {
+                        chunkConsumer.accept(decodeChunk(entry));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Chunk read from a batch run journal.
+     */
+    public static final class JournaledChunk {
+
+        private final long chunkSequence;
+        private final List<PriceRecord> priceRecords;
+
+        JournaledChunk(long chunkSequence, List<PriceRecord> priceRecords) {
+            this.chunkSequence = chunkSequence;
+            this.priceRecords = priceRecords;
+        }
+
+        public long getChunkSequence() {
+            return chunkSequence;
+        }
+
+        public List<PriceRecord> getPriceRecords() {
+            return priceRecords;
+        }
+    }
+
+}
@@ -16,6 +16,15 @@ public interface BatchRunRepository {
      */
     BatchRun create();
 
+    /**
+     * Creates batch run with the given id, used to restore batch runs recovered after a restart.
+     *
+     * @param id identifier of the batch run, must not be in use and must not be produced by the id sequence
+     * @return created batch run
+     * @throws IllegalStateException if a batch run with the given id exists
+     */
+    BatchRun create(long id);
+
     /**
      * Retrieves existing batch run.
      *
@@ -33,7 +42,8 @@ public interface BatchRunRepository {
     BatchRun remove(long id);
 
     /**
-     * Updates batch run with the given id.
+     * Updates batch run with the given id. Updaters of the same batch run may run concurrently,
+     * the batch run is not removed from the repository while an updater runs.
      *
      * @param batchRunUpdater batch run to save
      * @return new state of the batch run or {@code null} if there was not a batch run found
@@ -47,14 +57,44 @@ public interface BatchRunRepository {
      */
     int size();
 
+    /**
+     * Removes batch runs which were updated more than specified time ago, prepared batch runs are removed
+     * after their own eviction time.
+     *
+     * @param evictionTime records eviction time
+     * @param preparedEvictionTime eviction time of prepared batch runs, which wait for their commit
+     * @param limit maximum number of records to delete
+     * @param removedBatchRunConsumer consumer to be notified about every removed batch run
+     * @return number of removed records
+     */
+    int removeOutdated(
+        long evictionTime,
+        long preparedEvictionTime,
+        int limit,
+        Consumer<BatchRun> removedBatchRunConsumer);
+
     /**
      * Removes batch runs which were updated more than specified time ago.
      *
      * @param evictionTime records eviction time
      * @param limit maximum number of records to delete
+     * @param removedBatchRunConsumer consumer to be notified about every removed batch run
      * @return number of removed records
      */
-    int removeOutdated(long evictionTime, int limit);
+    default int removeOutdated(long evictionTime, int limit, Consumer<BatchRun> removedBatchRunConsumer) {
+        return removeOutdated(evictionTime, evictionTime, limit, removedBatchRunConsumer);
+    }
+
+    /**
+     * Removes batch runs which were updated more than specified time ago.
+     *
+     * @param evictionTime records eviction time
+     * @param limit maximum number of records to delete
+     * @return number of removed records
+     */
+    default int removeOutdated(long evictionTime, int limit) {
+        return removeOutdated(evictionTime, limit, batchRun -> { });
+    }
 
     /**
      * Removes batch runs which were updated more than specified time ago.
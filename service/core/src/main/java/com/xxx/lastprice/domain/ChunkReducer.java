@@ -0,0 +1,180 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Ingest stage of uploaded chunks: checks that all instruments are supported and reduces the chunk to the latest
+ * record of every instrument before the chunk is applied to its batch run, so the batch run is updated only with
+ * the records it would retain. Of several records of an instrument with the same asOf the last one is kept,
+ * as the batch run would do. Chunks of at least the parallel threshold are split and reduced on a fork/join pool.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ChunkReducer {
+
+    /**
+     * Number of records below which a chunk is reduced on the calling thread, smaller chunks are reduced faster
+     * than a task is handed over to the pool.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16_384;
+
+    /**
+     * Minimal number of records reduced by a single fork/join task.
+     */
+    static final int MIN_SLICE_SIZE = 2_048;
+
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates reducer.
+     *
+     * @param parallelThreshold number of records from which chunks are reduced in parallel
+     * @param pool pool to reduce large chunks on
+     */
+    public ChunkReducer(int parallelThreshold, ForkJoinPool pool) {
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Reduces chunk to the latest record of every instrument.
+     *
+     * @param priceRecords records of the chunk
+     * @param supportedInstruments instruments accepted by the service
+     * @return the latest records of the chunk instruments, the given collection if it has no duplicates
+     * @throws WrongInstrumentException if an instrument of the chunk is not supported
+     */
+    public Collection<PriceRecord> reduce(Collection<PriceRecord> priceRecords, Set<String> supportedInstruments)
+        throws WrongInstrumentException {
+
+        final Reduction reduction;
+        if (priceRecords.size() < parallelThreshold || pool.getParallelism() == 1) {
+            reduction = new Reduction(priceRecords.size());
+            for (PriceRecord priceRecord : priceRecords) {
+                if (!reduction.add(priceRecord, supportedInstruments)) {
+                    break;
+                }
+            }
+        } else {
+            final List<PriceRecord> records = priceRecords instanceof List && priceRecords instanceof RandomAccess
+                ? (List<PriceRecord>) priceRecords
+                : new ArrayList<>(priceRecords);
+            final int sliceSize = Math.max(MIN_SLICE_SIZE, records.size() / (pool.getParallelism() * 4));
+            reduction = pool.invoke(new ReduceTask(records, 0, records.size(), sliceSize, supportedInstruments));
+        }
+        if (!isNull(reduction.wrongInstrument)) {
+            throw new WrongInstrumentException(reduction.wrongInstrument);
+        }
+        return reduction.latestRecords.size() == priceRecords.size() ? priceRecords : reduction.latestRecords.values();
+    }
+
+    /**
+     * Latest records of a part of the chunk.
+     */
+    private static final class Reduction {
+
+        private final Map<String, PriceRecord> latestRecords;
+        private String wrongInstrument;
+
+        private Reduction(int expectedSize) {
+            this.latestRecords = new HashMap<>((int) (expectedSize / 0.75f) + 1);
+        }
+
+        /**
+         * @return {@code false} if the instrument of the record is not supported
+         */
+        private boolean add(PriceRecord priceRecord, Set<String> supportedInstruments) {
+            if (!supportedInstruments.contains(priceRecord.getInstrument())) {
+                wrongInstrument = priceRecord.getInstrument();
+                return false;
+            }
+            latestRecords.merge(priceRecord.getInstrument(), priceRecord, Reduction::later);
+            return true;
+        }
+
+        /**
+         * Merges reduction of the part of the chunk following this one.
+         */
+        private Reduction mergeFollowing(Reduction following) {
+            if (!isNull(wrongInstrument)) {
+                return this;
+            }
+            if (!isNull(following.wrongInstrument)) {
+                return following;
+            }
+            if (latestRecords.size() >= following.latestRecords.size()) {
+                following.latestRecords.values().forEach(
+                    priceRecord -> latestRecords.merge(priceRecord.getInstrument(), priceRecord, Reduction::later)
+                );
+                return this;
+            }
+            // records of this part replace the following ones only if strictly newer
+            latestRecords.values()
+                .forEach(priceRecord -> following.latestRecords.merge(
+                    priceRecord.getInstrument(), priceRecord, (existing, preceding) -> later(preceding, existing)
+                ));
+            return following;
+        }
+
+        private static PriceRecord later(PriceRecord preceding, PriceRecord following) {
+            return following.getAsOf() >= preceding.getAsOf() ? following : preceding;
+        }
+    }
+
+    private static final class ReduceTask extends RecursiveTask<Reduction> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<PriceRecord> records;
+        private final int from;
+        private final int to;
+        private final int sliceSize;
+        private final Set<String> supportedInstruments;
+
+        private ReduceTask(
+            List<PriceRecord> records,
+            int from,
+            int to,
+            int sliceSize,
+            Set<String> supportedInstruments) {
+
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.sliceSize = sliceSize;
+            this.supportedInstruments = supportedInstruments;
+        }
+
+        @Override
+        protected Reduction compute() {
+            if (to - from <= sliceSize) {
+                final Reduction reduction = new Reduction(to - from);
+                for (int i = from; i < to; i++) {
+                    if (!reduction.add(records.get(i), supportedInstruments)) {
+                        break;
+                    }
+                }
+                return reduction;
+            }
+            final int middle = (from + to) >>> 1;
+            final ReduceTask following = new ReduceTask(records, middle, to, sliceSize, supportedInstruments);
+            following.fork();
+            final ReduceTask preceding = new ReduceTask(records, from, middle, sliceSize, supportedInstruments);
+            return preceding.compute().mergeFollowing(following.join());
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.xxx.lastprice.domain;
+
+/**
+ * Price record keeping its payload compressed by {@link PayloadCompressor}, the payload is inflated on read.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+final class CompressedPriceRecord extends PriceRecord {
+
+    /**
+     * Estimated heap overhead of the fields added to the record.
+     */
+    static final int COMPRESSION_OVERHEAD_BYTES = 16;
+
+    private final int uncompressedLength;
+    private final PayloadCompressor compressor;
+
+    // racy on purpose, a lost increment only delays admission to the cache
+    private int reads;
+
+    CompressedPriceRecord(
+        String instrument,
+        long asOf,
+        byte[] compressedPayload,
+        int uncompressedLength,
+        PayloadCompressor compressor) {
+
+        super(instrument, asOf, compressedPayload);
+        this.uncompressedLength = uncompressedLength;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public byte[] getPayload() {
+        return compressor.decompress(this);
+    }
+
+    @Override
+    public int getPayloadLength() {
+        return uncompressedLength;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return super.getSizeInBytes() + COMPRESSION_OVERHEAD_BYTES;
+    }
+
+    int recordRead() {
+        return ++reads;
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.xxx.lastprice.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Completion stage which publishes batch runs completed close together as a single market state update.
+ *
+ * Completing threads enqueue their batch runs and compete for the publisher lock. The thread which gets the lock
+ * drains all pending batch runs and merges them into the market state in one pass under a single
+ * write lock acquisition, keeping the latest record per instrument. Threads whose batch runs were published by another
+ * thread return as soon as they get the publisher lock, so every completion returns only after its records
+ * are visible to readers.
+ *
+ * Records of different batch runs with the same {@code asOf} are resolved in favour of the batch run completed
+ * later, as if batch runs were merged one by one.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class GroupCommitCompletionStage {
+
+    private final PriceRecordContainer marketState;
+    private final long lingerNanos;
+
+    private final ReentrantLock publisherLock = new ReentrantLock();
+    private final Queue<PendingCompletion> pendingCompletions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates completion stage.
+     *
+     * @param marketState market state to publish batch runs to
+     * @param lingerMicros time the publisher waits for more completions before draining the queue,
+     *                     zero to publish everything which was enqueued so far immediately
+     */
+    public GroupCommitCompletionStage(PriceRecordContainer marketState, long lingerMicros) {
+        this.marketState = marketState;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+    }
+
+    /**
+     * Publishes records of the given batch run to the market state, possibly together
+     * with batch runs completed concurrently.
+     *
+     * @param batchRun removed from the repository batch run to publish
+     */
+    public void complete(BatchRun batchRun) {
+        final PendingCompletion completion = new PendingCompletion(batchRun);
+        pendingCompletions.add(completion);
+        publisherLock.lock();
+        try {
+            if (!completion.published) {
+                if (lingerNanos > 0) {
+                    LockSupport.parkNanos(lingerNanos);
+                }
+                publishPendingCompletions();
+            }
+        } finally {
+            publisherLock.unlock();
+        }
+        if (!isNull(completion.failure)) {
+            throw completion.failure;
+        }
+    }
+
+    private void publishPendingCompletions() {
+        final List<PendingCompletion> completions = new ArrayList<>();
+        PendingCompletion completion;
+        while (!isNull(completion = pendingCompletions.poll())) {
+            completions.add(completion);
+        }
+        try {
+            marketState.mergeAllFrom(completions.stream().map(pending -> pending.batchRun).collect(toList()));
+        } catch (RuntimeException e) {
+            completions.forEach(pending -> pending.failure = e);
+        }
+        completions.forEach(pending -> pending.published = true);
+    }
+
+    /**
+     * Batch run waiting to be published. Fields are guarded by the publisher lock.
+     */
+    private static final class PendingCompletion {
+
+        private final BatchRun batchRun;
+        private boolean published;
+        private RuntimeException failure;
+
+        private PendingCompletion(BatchRun batchRun) {
+            this.batchRun = batchRun;
+        }
+    }
+
+}
@@ -8,6 +8,7 @@ import java.util.PriorityQueue;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
+import java.util.function.LongFunction;
 import java.util.function.LongSupplier;
 
 import static java.util.Comparator.comparingLong;
@@ -16,7 +17,9 @@ import static java.util.Objects.isNull;
 /**
  * Thread safe implementation of batch run repository.
  * To synchronise access simple read/write locking strategy is used.
- * Only one thread is allowed to write at a moment, multiple readers are allowed.
+ * Only one thread is allowed to create or remove batch runs at a moment, multiple readers are allowed.
+ * Batch runs are updated under the read lock, so chunks of one or several batch runs are applied in parallel,
+ * and their last update times are moved forward in the clean up queue lazily when it is inspected.
  *
  * For high contended environments the parallelism level can be increased for write operations
  * distributing batch runs to separate buckets and use read/write lock on a bucket level.
@@ -34,15 +37,25 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
     private final PriorityQueue<CleanUpEntity> cleanUpQueue;
 
     private LongSupplier batchIdSequence;
+    private final LongFunction<BatchRun> batchRunFactory;
 
     public InMemoryBatchRunRepository(EpochClock epochClock, LongSupplier batchIdSequence) {
+        this(epochClock, batchIdSequence, BatchRun::new);
+    }
+
+    public InMemoryBatchRunRepository(
+        EpochClock epochClock,
+        LongSupplier batchIdSequence,
+        LongFunction<BatchRun> batchRunFactory) {
+
         this(
             epochClock,
             new ReentrantReadWriteLock(),
             new HashMap<>(),
             new HashMap<>(),
             new PriorityQueue<>(comparingLong(CleanUpEntity::getLastUpdateTimestamp)),
-            batchIdSequence
+            batchIdSequence,
+            batchRunFactory
         );
     }
 
@@ -53,7 +66,8 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
         Map<Long, BatchRun> batchRuns,
         Map<Long, CleanUpEntity> cleanUpEntities,
         PriorityQueue<CleanUpEntity> cleanUpQueue,
-        LongSupplier batchIdSequence) {
+        LongSupplier batchIdSequence,
+        LongFunction<BatchRun> batchRunFactory) {
 
         this.epochClock = epochClock;
         this.lock = lock;
@@ -61,6 +75,7 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
         this.cleanUpEntities = cleanUpEntities;
         this.cleanUpQueue = cleanUpQueue;
         this.batchIdSequence = batchIdSequence;
+        this.batchRunFactory = batchRunFactory;
     }
 
     /**
@@ -68,15 +83,25 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
      */
     @Override
     public BatchRun create() {
-        lock.writeLock().lock();
+        LastPriceEvents.lock(lock.writeLock(), this, true);
         try {
-            final long id = batchIdSequence.getAsLong();
-            final BatchRun batchRun = new BatchRun(id);
-            final CleanUpEntity cleanUpEntity = new CleanUpEntity(batchRun, epochClock.time());
-            batchRuns.put(id, batchRun);
-            cleanUpEntities.put(id, cleanUpEntity);
-            cleanUpQueue.add(cleanUpEntity);
-            return batchRun;
+            return unsafeCreate(batchIdSequence.getAsLong());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BatchRun create(long id) {
+        LastPriceEvents.lock(lock.writeLock(), this, true);
+        try {
+            if (batchRuns.containsKey(id)) {
+                throw new IllegalStateException("Batch run " + id + " exists already");
+            }
+            return unsafeCreate(id);
         } finally {
             lock.writeLock().unlock();
         }
@@ -87,7 +112,7 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
      */
     @Override
     public BatchRun get(long id) {
-        lock.readLock().lock();
+        LastPriceEvents.lock(lock.readLock(), this, false);
         try {
             return batchRuns.get(id);
         } finally {
@@ -100,7 +125,7 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
      */
     @Override
     public BatchRun remove(long id) {
-        lock.writeLock().lock();
+        LastPriceEvents.lock(lock.writeLock(), this, true);
         try {
             return unsafeRemove(id);
         } finally {
@@ -113,17 +138,17 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
      */
     @Override
     public BatchRun update(long id, Consumer<BatchRun> batchRunUpdater) {
-        lock.writeLock().lock();
+        LastPriceEvents.lock(lock.readLock(), this, false);
         try {
             final BatchRun batchRun = batchRuns.get(id);
             if (isNull(batchRun)) {
                 return null;
             }
             batchRunUpdater.accept(batchRun);
-            unsafeSave(batchRun);
+            batchRun.setLastUpdateTimestamp(epochClock.time());
             return batchRun;
         } finally {
-            lock.writeLock().unlock();
+            lock.readLock().unlock();
         }
     }
 
@@ -132,7 +157,7 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
      */
     @Override
     public int size() {
-        lock.readLock().lock();
+        LastPriceEvents.lock(lock.readLock(), this, false);
         try {
             return batchRuns.size();
         } finally {
@@ -144,17 +169,35 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
      * {@inheritDoc}
      */
     @Override
-    public int removeOutdated(long evictionTime, int limit) {
-        lock.writeLock().lock();
+    public int removeOutdated(
+        long evictionTime,
+        long preparedEvictionTime,
+        int limit,
+        Consumer<BatchRun> removedBatchRunConsumer) {
+
+        LastPriceEvents.lock(lock.writeLock(), this, true);
         try {
-            final long lastAllowedMoment = epochClock.time() - evictionTime;
+            final long now = epochClock.time();
+            final long lastAllowedMoment = now - evictionTime;
+            final long lastAllowedPreparedMoment = now - preparedEvictionTime;
             int removedCounter = 0;
             while (removedCounter < limit && !cleanUpQueue.isEmpty()) {
                 final CleanUpEntity cleanUpEntity = cleanUpQueue.peek();
                 if (lastAllowedMoment < cleanUpEntity.lastUpdateTimestamp) {
                     break;
                 }
-                unsafeRemove(cleanUpEntity.batchRun.getId());
+                final BatchRun batchRun = cleanUpEntity.batchRun;
+                final long lastUpdateTimestamp = batchRun.getLastUpdateTimestamp();
+                final boolean prepared = batchRun.isPrepared();
+                if ((prepared ? lastAllowedPreparedMoment : lastAllowedMoment) < lastUpdateTimestamp) {
+                    // prepared batch run is queued as if updated later, so it comes up once its own time passed
+                    unsafeReschedule(
+                        cleanUpEntity,
+                        prepared ? lastUpdateTimestamp + preparedEvictionTime - evictionTime : lastUpdateTimestamp
+                    );
+                    continue;
+                }
+                removedBatchRunConsumer.accept(unsafeRemove(batchRun.getId()));
                 removedCounter++;
             }
             return removedCounter;
@@ -168,7 +211,7 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
      */
     @Override
     public void removeAll() {
-        lock.writeLock().lock();
+        LastPriceEvents.lock(lock.writeLock(), this, true);
         try {
             while (!cleanUpQueue.isEmpty()) {
                 unsafeRemove(cleanUpQueue.poll().batchRun.getId());
@@ -178,15 +221,22 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
         }
     }
 
-    private void unsafeSave(BatchRun batchRun) {
-        batchRuns.put(batchRun.getId(), batchRun);
-        final CleanUpEntity oldCleanUpEntity = cleanUpEntities.remove(batchRun.getId());
-        if (null != oldCleanUpEntity) {
-            cleanUpQueue.remove(oldCleanUpEntity);
-        }
-        final CleanUpEntity cleanUpEntity = new CleanUpEntity(batchRun, epochClock.time());
-        cleanUpEntities.put(batchRun.getId(), cleanUpEntity);
+    private void unsafeReschedule(CleanUpEntity cleanUpEntity, long lastUpdateTimestamp) {
+        cleanUpQueue.poll();
+        final CleanUpEntity rescheduledCleanUpEntity = new CleanUpEntity(cleanUpEntity.batchRun, lastUpdateTimestamp);
+        cleanUpEntities.put(cleanUpEntity.batchRun.getId(), rescheduledCleanUpEntity);
+        cleanUpQueue.add(rescheduledCleanUpEntity);
+    }
+
+    private BatchRun unsafeCreate(long id) {
+        final BatchRun batchRun = batchRunFactory.apply(id);
+        final long now = epochClock.time();
+        batchRun.setLastUpdateTimestamp(now);
+        final CleanUpEntity cleanUpEntity = new CleanUpEntity(batchRun, now);
+        batchRuns.put(id, batchRun);
+        cleanUpEntities.put(id, cleanUpEntity);
         cleanUpQueue.add(cleanUpEntity);
+        return batchRun;
     }
 
     private BatchRun unsafeRemove(long id) {
@@ -199,6 +249,7 @@ public class InMemoryBatchRunRepository implements BatchRunRepository {
 
     /**
      * Entity to track batch runs last update times. Used to remove abandoned batch runs.
+     * Prepared batch runs are tracked with the last update time shifted by the difference of eviction times.
      */
     static final class CleanUpEntity {
 
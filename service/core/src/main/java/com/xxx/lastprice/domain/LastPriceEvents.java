@@ -0,0 +1,157 @@
+package com.xxx.lastprice.domain;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.Collection;
+import java.util.StringJoiner;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Flight recorder events of the service, so latency spikes in a recording can be tied to batch runs
+ * and lock contention. Events are enabled and given thresholds by the {@code lastprice.jfc} settings
+ * of the server.
+ *
+ * Events are committed by the thread doing the work. With the recorder off, or an event disabled,
+ * creating and committing an event is eliminated by the JIT compiler, so instrumentation stays in place.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class LastPriceEvents {
+
+    private static final String CATEGORY = "Last Price";
+
+    private LastPriceEvents() {
+    }
+
+    /**
+     * Locks the given lock, committing a {@link LockWaitEvent} if it took longer than the event threshold.
+     *
+     * @param lock lock to acquire
+     * @param owner object guarded by the lock
+     * @param write {@code true} if the lock is the write one
+     */
+    static void lock(Lock lock, Object owner, boolean write) {
+        final LockWaitEvent event = new LockWaitEvent();
+        if (!event.isEnabled()) {
+            lock.lock();
+            return;
+        }
+        event.begin();
+        lock.lock();
+        event.end();
+        if (event.shouldCommit()) {
+            event.owner = owner.getClass().getSimpleName();
+            event.write = write;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns identifiers of batch runs among the given containers.
+     *
+     * @param containers merged containers
+     * @return comma separated identifiers
+     */
+    static String batchRunIds(Collection<? extends PriceRecordContainer> containers) {
+        final StringJoiner ids = new StringJoiner(",");
+        for (PriceRecordContainer container : containers) {
+            if (container instanceof BatchRun) {
+                ids.add(String.valueOf(((BatchRun) container).getId()));
+            }
+        }
+        return ids.toString();
+    }
+
+    @Name("com.xxx.lastprice.BatchRunStart")
+    @Label("Batch Run Start")
+    @Category({CATEGORY, "Batch Run"})
+    @StackTrace(false)
+    public static final class BatchRunStartEvent extends Event {
+
+        @Label("Batch Run Id")
+        long batchRunId;
+
+    }
+
+    @Name("com.xxx.lastprice.ChunkUpload")
+    @Label("Chunk Upload")
+    @Description("Chunk of price records applied to a batch run")
+    @Category({CATEGORY, "Batch Run"})
+    @StackTrace(false)
+    public static final class ChunkUploadEvent extends Event {
+
+        @Label("Batch Run Id")
+        long batchRunId;
+
+        @Label("Chunk Sequence")
+        long chunkSequence;
+
+        @Label("Records")
+        int records;
+
+        @Label("Retained Records")
+        @Description("Records left after dropping the ones superseded by the market state")
+        int retainedRecords;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+    }
+
+    @Name("com.xxx.lastprice.CompletionMerge")
+    @Label("Completion Merge")
+    @Description("Merge of completed batch runs into the market state, including the wait for its write lock")
+    @Category({CATEGORY, "Batch Run"})
+    @StackTrace(false)
+    public static final class CompletionMergeEvent extends Event {
+
+        @Label("Batch Run Ids")
+        String batchRunIds;
+
+        @Label("Applied Records")
+        @Description("Records which replaced the price of their instrument in the market state")
+        long appliedRecords;
+
+        @Label("Stale Records")
+        @Description("Records rejected as older than the market state")
+        long staleRecords;
+
+    }
+
+    @Name("com.xxx.lastprice.EvictionPass")
+    @Label("Eviction Pass")
+    @Description("Clean up pass removing abandoned batch runs")
+    @Category({CATEGORY, "Batch Run"})
+    @StackTrace(false)
+    public static final class EvictionPassEvent extends Event {
+
+        @Label("Evicted Batch Runs")
+        int evicted;
+
+        @Label("Active Batch Runs")
+        int active;
+
+    }
+
+    @Name("com.xxx.lastprice.LockWait")
+    @Label("Lock Wait")
+    @Description("Wait for a read or write lock of the market state, a batch run or the batch run repository")
+    @Category({CATEGORY, "Locks"})
+    public static final class LockWaitEvent extends Event {
+
+        @Label("Owner")
+        String owner;
+
+        @Label("Write Lock")
+        boolean write;
+
+    }
+
+}
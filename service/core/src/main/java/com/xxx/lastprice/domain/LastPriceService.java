@@ -1,6 +1,9 @@
 package com.xxx.lastprice.domain;
 
 import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
+import com.xxx.lastprice.domain.LastPriceServiceException.MemoryBudgetExceededException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceEvictedException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceHistoryDisabledException;
 import com.xxx.lastprice.domain.LastPriceServiceException.TooManyActiveBatchRunsException;
 import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
 
@@ -14,6 +17,11 @@ import java.util.Optional;
  */
 public interface LastPriceService {
 
+    /**
+     * Sequence number of a chunk which is applied regardless of the chunks applied before.
+     */
+    long UNSEQUENCED_CHUNK = 0;
+
     /**
      * Retrieves last price record for the given instrument.
      *
@@ -23,13 +31,37 @@ public interface LastPriceService {
      */
     Optional<PriceRecord> findLastPrice(String instrument) throws WrongInstrumentException;
 
+    /**
+     * Retrieves the latest price record for the given instrument with {@code asOf} not after the given timestamp.
+     *
+     * @param instrument to retrieve record for
+     * @param timestamp point in time to retrieve the price at
+     * @return price record or empty if the price history has no record that old
+     * @throws WrongInstrumentException if given instrument is not supported
+     * @throws PriceHistoryDisabledException if the service does not keep price history
+     * @throws PriceEvictedException if the price history had the record but its payload was overwritten
+     */
+    Optional<PriceRecord> findPriceAsOf(String instrument, long timestamp)
+        throws WrongInstrumentException, PriceHistoryDisabledException, PriceEvictedException;
+
+    /**
+     * Retrieves market state changes made after the given version. Falls back to the full market state
+     * when the changes are not retained any more, the version is unknown or belongs to another epoch.
+     *
+     * @param epoch market state epoch the version belongs to, as returned by the previous call
+     * @param version market state version the consumer is in sync with, as returned by the previous call
+     * @return changed instruments records or the full snapshot together with the current market state version
+     */
+    MarketChanges findChangesSince(long epoch, long version);
+
     /**
      * Starts new batch run.
      *
      * @return id of the started batch run
      * @throws TooManyActiveBatchRunsException if there are too many active batch runs
+     * @throws MemoryBudgetExceededException if batch runs memory budget is exhausted
      */
-    long startBatchRun() throws TooManyActiveBatchRunsException;
+    long startBatchRun() throws TooManyActiveBatchRunsException, MemoryBudgetExceededException;
 
     /**
      * Uploads given collection of price records to the batch with the given id
@@ -38,9 +70,27 @@ public interface LastPriceService {
      * @param priceRecords records to upload
      * @throws BatchNotFoundException if batch with the given id was not found
      * @throws WrongInstrumentException if given instrument is not supported
+     * @throws MemoryBudgetExceededException if the chunk does not fit into the batch run or total memory budget
+     */
+    default void uploadPriceRecordsChunk(long batchRunId, Collection<PriceRecord> priceRecords)
+        throws BatchNotFoundException, WrongInstrumentException, MemoryBudgetExceededException {
+        uploadPriceRecordsChunk(batchRunId, UNSEQUENCED_CHUNK, priceRecords);
+    }
+
+    /**
+     * Uploads given collection of price records to the batch with the given id. Chunks of the same batch run
+     * may be uploaded concurrently and in any order, a chunk with already applied sequence number is ignored.
+     *
+     * @param batchRunId batch id to upload records to
+     * @param chunkSequence sequence number of the chunk unique within the batch run,
+     *                      {@link #UNSEQUENCED_CHUNK} to apply the chunk unconditionally
+     * @param priceRecords records to upload
+     * @throws BatchNotFoundException if batch with the given id was not found or was already prepared
+     * @throws WrongInstrumentException if given instrument is not supported
+     * @throws MemoryBudgetExceededException if the chunk does not fit into the batch run or total memory budget
      */
-    void uploadPriceRecordsChunk(long batchRunId, Collection<PriceRecord> priceRecords)
-        throws BatchNotFoundException, WrongInstrumentException;
+    void uploadPriceRecordsChunk(long batchRunId, long chunkSequence, Collection<PriceRecord> priceRecords)
+        throws BatchNotFoundException, WrongInstrumentException, MemoryBudgetExceededException;
 
     /**
      * Cancels batch run with the given id.
@@ -58,4 +108,44 @@ public interface LastPriceService {
      */
     void completeBatchRun(long batchRunId) throws BatchNotFoundException;
 
+    /**
+     * Prepares batch run with the given id to be committed, the first phase of a completion coordinated
+     * across several services. A prepared batch run accepts no more chunks and is kept until it is committed
+     * or cancelled, or evicted as abandoned if neither happens. Preparing a prepared batch run has no effect.
+     *
+     * @param batchRunId id of the batch run to prepare
+     * @throws BatchNotFoundException if batch with the given id was not found
+     */
+    void prepareBatchRun(long batchRunId) throws BatchNotFoundException;
+
+    /**
+     * Commits prepared batch run with the given id, publishing its records like {@link #completeBatchRun(long)}.
+     *
+     * @param batchRunId id of the prepared batch run to commit
+     * @throws BatchNotFoundException if batch with the given id was not found or was not prepared
+     */
+    void commitBatchRun(long batchRunId) throws BatchNotFoundException;
+
+    /**
+     * Resumes upload of the batch run with the given id, after the producer lost its connection
+     * or the service was restarted. The producer continues with the chunk following the returned one,
+     * chunks it uploaded after that were not applied yet or may be uploaded again.
+     *
+     * @param batchRunId id of the batch run to resume
+     * @return sequence number up to which all chunks of the batch run were accepted,
+     *         {@link #UNSEQUENCED_CHUNK} if the first chunk was not
+     * @throws BatchNotFoundException if batch with the given id was not found
+     */
+    long resumeBatchRun(long batchRunId) throws BatchNotFoundException;
+
+    /**
+     * Returns non-blocking view of the service. By default calls are made on the calling thread,
+     * services backed by an asynchronous engine complete the returned futures from it.
+     *
+     * @return asynchronous view of the service
+     */
+    default AsyncLastPriceService async() {
+        return new AsyncLastPriceServiceAdapter(this);
+    }
+
 }
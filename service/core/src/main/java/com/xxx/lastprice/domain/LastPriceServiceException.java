@@ -1,12 +1,15 @@
 package com.xxx.lastprice.domain;
 
 /**
+ * Exceptions are thrown on regular paths, like requests for unknown instruments or evicted batch runs,
+ * so they do not capture stack traces.
+ *
  * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
  */
 public abstract class LastPriceServiceException extends Exception {
 
     protected LastPriceServiceException(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 
     public static final class WrongInstrumentException extends LastPriceServiceException {
@@ -37,6 +40,20 @@ public abstract class LastPriceServiceException extends Exception {
         }
     }
 
+    public static final class MemoryBudgetExceededException extends LastPriceServiceException {
+
+        private final long retryAfterMs;
+
+        protected MemoryBudgetExceededException(long retryAfterMs) {
+            super("Batch runs memory budget exceeded, retry after ms: " + retryAfterMs);
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public long getRetryAfterMs() {
+            return retryAfterMs;
+        }
+    }
+
     public static final class BatchNotFoundException extends LastPriceServiceException {
 
         private final long batchId;
@@ -51,4 +68,25 @@ public abstract class LastPriceServiceException extends Exception {
         }
     }
 
+    public static final class PriceHistoryDisabledException extends LastPriceServiceException {
+
+        protected PriceHistoryDisabledException() {
+            super("Price history is not kept by the service");
+        }
+    }
+
+    public static final class PriceEvictedException extends LastPriceServiceException {
+
+        private final String instrument;
+
+        protected PriceEvictedException(String instrument) {
+            super("Price was evicted from the price history, instrument: " + instrument);
+            this.instrument = instrument;
+        }
+
+        public String getInstrument() {
+            return instrument;
+        }
+    }
+
 }
@@ -1,42 +1,105 @@
 package com.xxx.lastprice.domain;
 
+import com.xxx.lastprice.domain.BatchRunJournal.JournaledBatchRun;
+import com.xxx.lastprice.domain.LastPriceEvents.BatchRunStartEvent;
+import com.xxx.lastprice.domain.LastPriceEvents.ChunkUploadEvent;
+import com.xxx.lastprice.domain.LastPriceEvents.EvictionPassEvent;
 import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
+import com.xxx.lastprice.domain.LastPriceServiceException.MemoryBudgetExceededException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceEvictedException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceHistoryDisabledException;
 import com.xxx.lastprice.domain.LastPriceServiceException.TooManyActiveBatchRunsException;
 import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.Objects.isNull;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 /**
  * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
  */
 public class LastPriceServiceImpl implements LastPriceService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(LastPriceServiceImpl.class);
+
     private final PriceRecordContainer marketState;
     private final BatchRunRepository batchRunRepository;
     private final Set<String> supportedInstruments;
-    private final int maxActiveBatchRunsTarget;
+    private final BatchRunAdmissionControl admissionControl;
+    private final AsOfWatermarks asOfWatermarks;
+    private final GroupCommitCompletionStage completionStage;
+    private final PriceHistory priceHistory;
+    private final MarketChangeJournal changeJournal;
+    private final PayloadCompressor payloadCompressor;
+    private final BatchRunJournal batchRunJournal;
+    private final ChunkReducer chunkReducer;
+    private final long abandonedBatchRunTimeout;
+    private final long preparedBatchRunTimeout;
+    private final long epoch;
+
+    /**
+     * Time after the last update when batch run is considered abandoned, unless set on the builder.
+     */
+    public static final long DEFAULT_ABANDONED_BATCH_RUN_TIMEOUT_MS = 60_000;
+
+    /**
+     * Time after the prepare when prepared batch run is considered abandoned, unless set on the builder.
+     */
+    public static final long DEFAULT_PREPARED_BATCH_RUN_TIMEOUT_MS = 600_000;
+
+    // size of an applied chunk for a batch run which is not found or prepared
+    private static final long BATCH_RUN_NOT_FOUND = -1;
+
+    private LastPriceServiceImpl(Builder builder) {
+        this.marketState = builder.marketState;
+        this.batchRunRepository = builder.batchRunRepository;
+        this.supportedInstruments = Set.copyOf(builder.supportedInstruments);
+        this.admissionControl = builder.admissionControl;
+        this.asOfWatermarks = builder.asOfWatermarks;
+        this.completionStage = builder.completionStage;
+        this.priceHistory = builder.priceHistory;
+        this.changeJournal = builder.changeJournal;
+        this.payloadCompressor = builder.payloadCompressor;
+        this.batchRunJournal = builder.batchRunJournal;
+        this.chunkReducer = builder.chunkReducer;
+        this.abandonedBatchRunTimeout = builder.abandonedBatchRunTimeoutMs;
+        this.preparedBatchRunTimeout = builder.preparedBatchRunTimeoutMs;
+        // never zero, which is what consumers without any state send
+        this.epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        if (builder.batchRunsCleanUpIntervalMs > 0) {
+            startCleanUpJob(builder.executorService, builder.batchRunsCleanUpIntervalMs);
+        }
+    }
 
-    public LastPriceServiceImpl(
+    /**
+     * Starts building service, optional features which are not set on the builder are off.
+     *
+     * @param marketState container of the latest prices
+     * @param batchRunRepository repository of active batch runs
+     * @param supportedInstruments instruments accepted by the service
+     * @param admissionControl admission control for new batch runs and uploaded chunks
+     * @return builder of the service
+     */
+    public static Builder builder(
         PriceRecordContainer marketState,
         BatchRunRepository batchRunRepository,
         Collection<String> supportedInstruments,
-        int maxActiveBatchRunsTarget,
-        long batchRunsCleanUpIntervalMs,
-        long abandonedBatchRunTimeout,
-        ScheduledExecutorService executorService) {
+        BatchRunAdmissionControl admissionControl) {
 
-        this.marketState = marketState;
-        this.batchRunRepository = batchRunRepository;
-        this.supportedInstruments = Set.copyOf(supportedInstruments);
-        this.maxActiveBatchRunsTarget = maxActiveBatchRunsTarget;
-        startCleanUpJob(executorService, abandonedBatchRunTimeout, batchRunsCleanUpIntervalMs);
+        return new Builder(marketState, batchRunRepository, supportedInstruments, admissionControl);
     }
 
     @Override
@@ -45,43 +108,427 @@ public class LastPriceServiceImpl implements LastPriceService {
         return ofNullable(marketState.getPriceRecord(instrument));
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Last prices are looked up and batch run commands are applied directly, without an exception
+     * for unsupported instruments or batch runs which are not found.
+     */
+    @Override
+    public AsyncLastPriceService async() {
+        return new AsyncView();
+    }
+
     @Override
-    public long startBatchRun() throws TooManyActiveBatchRunsException {
-        if (batchRunRepository.size() >= maxActiveBatchRunsTarget) {
-            throw new TooManyActiveBatchRunsException(maxActiveBatchRunsTarget);
+    public Optional<PriceRecord> findPriceAsOf(String instrument, long timestamp)
+        throws WrongInstrumentException, PriceHistoryDisabledException, PriceEvictedException {
+        checkInstrumentSupported(instrument);
+        if (isNull(priceHistory)) {
+            throw new PriceHistoryDisabledException();
         }
-        // In high contended environment we can get here in several threads even if number
-        // of batch runs is (maxActiveBatchRunsTarget - 1), in such case eventually we will have
-        // size of the repository more then maxActiveBatchRunsTarget.
-        // It is not critical for our service.
-        return batchRunRepository.create().getId();
+        return ofNullable(priceHistory.findPriceAsOf(instrument, timestamp));
     }
 
     @Override
-    public void uploadPriceRecordsChunk(long batchRunId, Collection<PriceRecord> priceRecords)
-        throws BatchNotFoundException, WrongInstrumentException {
-        final Optional<PriceRecord> priceRecord = priceRecords.stream()
-            .filter(record -> !supportedInstruments.contains(record.getInstrument()))
-            .findAny();
-        if (priceRecord.isPresent()) {
-            throw new WrongInstrumentException(priceRecord.get().getInstrument());
-        }
-        final BatchRun updatedBatchRun = batchRunRepository.update(batchRunId, batchRun -> {
-            batchRun.updatePriceRecords(priceRecords);
+    public MarketChanges findChangesSince(long epoch, long version) {
+        return marketState.readConsistently(() -> {
+            final long currentVersion = marketState.getVersion();
+            // versions start over with every start of the service, so a version of another epoch tells nothing
+            final Set<String> changedInstruments =
+                epoch == this.epoch ? findChangedInstruments(version, currentVersion) : null;
+            final List<PriceRecord> priceRecords = new ArrayList<>();
+            if (isNull(changedInstruments)) {
+                marketState.readAll(priceRecords::add);
+                return new MarketChanges(this.epoch, currentVersion, true, priceRecords);
+            }
+            for (String instrument : changedInstruments) {
+                priceRecords.add(marketState.getPriceRecord(instrument));
+            }
+            return new MarketChanges(this.epoch, currentVersion, false, priceRecords);
         });
-        checkBatchRunFound(batchRunId, updatedBatchRun);
+    }
+
+    @Override
+    public long startBatchRun() throws TooManyActiveBatchRunsException, MemoryBudgetExceededException {
+        if (!admissionControl.tryAdmitBatchRun()) {
+            throw new TooManyActiveBatchRunsException(admissionControl.getMaxActiveBatchRuns());
+        }
+        if (!admissionControl.tryReserveBatchRunOverhead()) {
+            admissionControl.cancelAdmission();
+            throw new MemoryBudgetExceededException(admissionControl.getRetryAfterMs());
+        }
+        final BatchRun batchRun = batchRunRepository.create();
+        final long batchRunId = batchRun.getId();
+        if (!isNull(batchRunJournal)) {
+            try {
+                batchRunJournal.create(batchRunId);
+            } catch (RuntimeException e) {
+                batchRunRepository.remove(batchRunId);
+                releaseBatchRun(batchRun);
+                throw e;
+            }
+        }
+        final BatchRunStartEvent event = new BatchRunStartEvent();
+        if (event.shouldCommit()) {
+            event.batchRunId = batchRunId;
+            event.commit();
+        }
+        return batchRunId;
+    }
+
+    @Override
+    public void uploadPriceRecordsChunk(long batchRunId, long chunkSequence, Collection<PriceRecord> uploadedRecords)
+        throws BatchNotFoundException, WrongInstrumentException, MemoryBudgetExceededException {
+        checkBatchRunFound(batchRunId, uploadChunk(batchRunId, chunkSequence, uploadedRecords));
+    }
+
+    /**
+     * Uploads chunk like {@link #uploadPriceRecordsChunk(long, long, Collection)}, but tells a batch run
+     * which is not found by the result.
+     *
+     * @return {@code false} if the batch run is not found or prepared
+     */
+    private boolean uploadChunk(long batchRunId, long chunkSequence, Collection<PriceRecord> uploadedRecords)
+        throws WrongInstrumentException, MemoryBudgetExceededException {
+        final ChunkUploadEvent event = new ChunkUploadEvent();
+        event.begin();
+        final Collection<PriceRecord> priceRecords = prepareChunk(uploadedRecords);
+        final long chunkSizeInBytes = tryApplyChunk(batchRunId, chunkSequence, priceRecords);
+        if (chunkSizeInBytes == BATCH_RUN_NOT_FOUND) {
+            return false;
+        }
+        // forced outside of the repository lock, but before the chunk is acknowledged
+        syncJournal(batchRunId);
+        event.end();
+        if (event.shouldCommit()) {
+            event.batchRunId = batchRunId;
+            event.chunkSequence = chunkSequence;
+            event.records = uploadedRecords.size();
+            event.retainedRecords = priceRecords.size();
+            event.bytes = chunkSizeInBytes;
+            event.commit();
+        }
+        return true;
+    }
+
+    /**
+     * Turns uploaded records into the records to apply: checks instruments, drops records replaced within the chunk
+     * or superseded by the market state and compresses payloads. Touches no batch run, so it may run on any thread.
+     *
+     * @param uploadedRecords uploaded records
+     * @return records to apply with {@link #applyChunk(long, long, Collection)}
+     * @throws WrongInstrumentException if a record is of an unsupported instrument
+     */
+    Collection<PriceRecord> prepareChunk(Collection<PriceRecord> uploadedRecords) throws WrongInstrumentException {
+        final Collection<PriceRecord> latestRecords;
+        if (isNull(chunkReducer)) {
+            for (PriceRecord priceRecord : uploadedRecords) {
+                checkInstrumentSupported(priceRecord.getInstrument());
+            }
+            latestRecords = uploadedRecords;
+        } else {
+            // replaced records are dropped before anything below copies, journals or merges them
+            latestRecords = chunkReducer.reduce(uploadedRecords, supportedInstruments);
+        }
+        // records older than the market state would be rejected on merge anyway, merge still checks them
+        // as watermarks can only lag behind the market state
+        final Collection<PriceRecord> retainedRecords =
+            isNull(asOfWatermarks) ? latestRecords : asOfWatermarks.filterSuperseded(latestRecords);
+        // compressed before the reservation, so the budget accounts for the bytes actually retained
+        return isNull(payloadCompressor) ? retainedRecords : payloadCompressor.compress(retainedRecords);
+    }
+
+    /**
+     * Recreates record of a prepared chunk copied as its stored payload and payload length.
+     *
+     * @param instrument instrument of the record
+     * @param asOf asOf of the record
+     * @param storedPayload stored payload of the record
+     * @param payloadLength payload length of the record
+     * @return record to apply, compressed by the compressor of this service if it was compressed
+     */
+    PriceRecord restorePreparedRecord(String instrument, long asOf, byte[] storedPayload, int payloadLength) {
+        return isNull(payloadCompressor)
+            ? new PriceRecord(instrument, asOf, storedPayload)
+            : payloadCompressor.restoreOwned(instrument, asOf, storedPayload, payloadLength);
+    }
+
+    /**
+     * Reserves memory for the prepared chunk, journals it and applies it to the batch run. The journal
+     * is not forced, the caller has to {@link #syncJournal(long)} before acknowledging the chunk.
+     *
+     * @param batchRunId batch run to apply the chunk to
+     * @param chunkSequence sequence number of the chunk
+     * @param priceRecords records returned by {@link #prepareChunk(Collection)}
+     * @return size of the chunk in bytes
+     * @throws BatchNotFoundException if the batch run is not found or prepared
+     * @throws MemoryBudgetExceededException if the chunk does not fit into the memory budget
+     */
+    long applyChunk(long batchRunId, long chunkSequence, Collection<PriceRecord> priceRecords)
+        throws BatchNotFoundException, MemoryBudgetExceededException {
+
+        final long chunkSizeInBytes = tryApplyChunk(batchRunId, chunkSequence, priceRecords);
+        if (chunkSizeInBytes == BATCH_RUN_NOT_FOUND) {
+            throw new BatchNotFoundException(batchRunId);
+        }
+        return chunkSizeInBytes;
+    }
+
+    private long tryApplyChunk(long batchRunId, long chunkSequence, Collection<PriceRecord> priceRecords)
+        throws MemoryBudgetExceededException {
+
+        long chunkSizeInBytes = 0;
+        for (PriceRecord priceRecord : priceRecords) {
+            chunkSizeInBytes += priceRecord.getSizeInBytes();
+        }
+        final BatchRun batchRun = batchRunRepository.get(batchRunId);
+        // a chunk racing with the prepare may still be applied, the commit waits for it
+        if (isNull(batchRun) || batchRun.isPrepared()) {
+            return BATCH_RUN_NOT_FOUND;
+        }
+        if (!admissionControl.tryReserve(batchRun, chunkSizeInBytes)) {
+            throw new MemoryBudgetExceededException(admissionControl.getRetryAfterMs());
+        }
+        // reservation is made for the whole chunk, give back what was not retained by the batch run:
+        // records replaced by the newer ones, records rejected as outdated and duplicated chunks
+        final long reservedBytes = chunkSizeInBytes;
+        // set once the batch run took the reservation over, until then it is given back on any failure
+        final AtomicBoolean reservationSettled = new AtomicBoolean();
+        final BatchRun updatedBatchRun;
+        try {
+            updatedBatchRun = batchRunRepository.update(batchRunId, batchRunToUpdate -> {
+                // journaled before it is applied, so every acknowledged chunk is restored after a restart,
+                // a retry of the chunk returns only once the chunk was journaled and applied
+                final long sizeDelta = batchRunToUpdate.updatePriceRecords(chunkSequence, priceRecords, () -> {
+                    if (!isNull(batchRunJournal)) {
+                        batchRunJournal.append(batchRunId, chunkSequence, priceRecords);
+                    }
+                });
+                reservationSettled.set(true);
+                admissionControl.release(batchRunToUpdate, reservedBytes - sizeDelta);
+            });
+        } finally {
+            if (!reservationSettled.get()) {
+                // update failed or batch run was removed concurrently, reservation can be still held by it
+                admissionControl.release(batchRun, reservedBytes);
+            }
+        }
+        return isNull(updatedBatchRun) ? BATCH_RUN_NOT_FOUND : chunkSizeInBytes;
+    }
+
+    /**
+     * Forces chunks journaled for the batch run to the storage device, if the journal is kept and synced.
+     *
+     * @param batchRunId batch run whose chunks to force
+     */
+    void syncJournal(long batchRunId) {
+        if (!isNull(batchRunJournal)) {
+            batchRunJournal.sync(batchRunId);
+        }
+    }
+
+    /**
+     * Tells whether applied chunks have to be forced with {@link #syncJournal(long)} before they are acknowledged.
+     *
+     * @return {@code true} if the batch run journal is kept
+     */
+    boolean isJournaled() {
+        return !isNull(batchRunJournal);
     }
 
     @Override
     public void cancelBatchRun(long batchRunId) throws BatchNotFoundException {
-        checkBatchRunFound(batchRunId, batchRunRepository.remove(batchRunId));
+        checkBatchRunFound(batchRunId, cancel(batchRunId));
+    }
+
+    private boolean cancel(long batchRunId) {
+        final BatchRun batchRun = batchRunRepository.remove(batchRunId);
+        if (isNull(batchRun)) {
+            return false;
+        }
+        releaseBatchRun(batchRun);
+        return true;
     }
 
     @Override
     public void completeBatchRun(long batchRunId) throws BatchNotFoundException {
+        checkBatchRunFound(batchRunId, complete(batchRunId));
+    }
+
+    private boolean complete(long batchRunId) {
         final BatchRun batchRun = batchRunRepository.remove(batchRunId);
+        if (isNull(batchRun)) {
+            return false;
+        }
+        publish(batchRun);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The prepare counts as an update. A prepared batch run is evicted only after the prepared batch run timeout,
+     * so a participant keeps the batch run it voted for while the coordinator retries its commit.
+     */
+    @Override
+    public void prepareBatchRun(long batchRunId) throws BatchNotFoundException {
+        checkBatchRunFound(batchRunId, prepare(batchRunId));
+    }
+
+    private boolean prepare(long batchRunId) {
+        final BatchRun batchRun = batchRunRepository.update(batchRunId, batchRunToPrepare -> {
+            if (!isNull(batchRunJournal) && !batchRunToPrepare.isPrepared()) {
+                batchRunJournal.markPrepared(batchRunId);
+            }
+            batchRunToPrepare.prepare();
+        });
+        if (isNull(batchRun)) {
+            return false;
+        }
+        syncJournal(batchRunId);
+        return true;
+    }
+
+    @Override
+    public void commitBatchRun(long batchRunId) throws BatchNotFoundException {
+        checkBatchRunFound(batchRunId, commit(batchRunId));
+    }
+
+    private boolean commit(long batchRunId) {
+        final BatchRun preparedBatchRun = batchRunRepository.get(batchRunId);
+        if (isNull(preparedBatchRun) || !preparedBatchRun.isPrepared()) {
+            return false;
+        }
+        // the removal waits for chunks which were being applied when the batch run was prepared
+        final BatchRun batchRun = batchRunRepository.remove(batchRunId);
+        if (isNull(batchRun)) {
+            return false;
+        }
+        publish(batchRun);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The resume counts as an update, so the abandoned batch run timeout starts over.
+     */
+    @Override
+    public long resumeBatchRun(long batchRunId) throws BatchNotFoundException {
+        final BatchRun batchRun = resume(batchRunId);
         checkBatchRunFound(batchRunId, batchRun);
-        batchRun.mergeTo(marketState);
+        return batchRun.getAcceptedChunkSequence();
+    }
+
+    private BatchRun resume(long batchRunId) {
+        return batchRunRepository.update(batchRunId, batchRunToResume -> { });
+    }
+
+    /**
+     * Restores batch runs recovered from the journal, has to be called before the service accepts requests.
+     * Recovered chunks are applied as they were journaled, without checks and transformations of uploads.
+     * Batch runs which are not admitted or do not fit into the memory budget any more are dropped
+     * together with their journals.
+     *
+     * @param batchRuns batch runs recovered from the journal
+     * @return number of restored batch runs
+     */
+    public int restoreBatchRuns(Collection<JournaledBatchRun> batchRuns) {
+        int restored = 0;
+        for (JournaledBatchRun journaledBatchRun : batchRuns) {
+            final long batchRunId = journaledBatchRun.getBatchRunId();
+            if (!admissionControl.tryAdmitBatchRun()) {
+                LOGGER.warn("Dropping recovered batch run " + batchRunId + ", too many active batch runs");
+                batchRunJournal.delete(batchRunId);
+                continue;
+            }
+            if (!admissionControl.tryReserveBatchRunOverhead()) {
+                admissionControl.cancelAdmission();
+                LOGGER.warn("Dropping recovered batch run " + batchRunId + ", memory budget exceeded");
+                batchRunJournal.delete(batchRunId);
+                continue;
+            }
+            final BatchRun batchRun = batchRunRepository.create(batchRunId);
+            if (restoreChunks(batchRun, journaledBatchRun)) {
+                restored++;
+            } else {
+                LOGGER.warn("Dropping recovered batch run " + batchRunId + ", memory budget exceeded");
+                releaseBatchRun(batchRunRepository.remove(batchRunId));
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Removes batch runs which were not updated longer than the abandoned batch run timeout,
+     * or the prepared batch run timeout for prepared ones, and releases their resources.
+     *
+     * @return number of removed batch runs
+     */
+    public int removeAbandonedBatchRuns() {
+        final EvictionPassEvent event = new EvictionPassEvent();
+        event.begin();
+        final int evicted =
+            batchRunRepository.removeOutdated(
+                abandonedBatchRunTimeout, preparedBatchRunTimeout, Integer.MAX_VALUE, this::releaseBatchRun
+            );
+        event.end();
+        if (event.shouldCommit()) {
+            event.evicted = evicted;
+            event.active = batchRunRepository.size();
+            event.commit();
+        }
+        return evicted;
+    }
+
+    private void publish(BatchRun batchRun) {
+        try {
+            if (isNull(completionStage)) {
+                batchRun.mergeTo(marketState);
+            } else {
+                completionStage.complete(batchRun);
+            }
+        } finally {
+            releaseBatchRun(batchRun);
+        }
+    }
+
+    private boolean restoreChunks(BatchRun batchRun, JournaledBatchRun journaledBatchRun) {
+        final AtomicBoolean fits = new AtomicBoolean(true);
+        journaledBatchRun.forEachChunk(chunk -> {
+            long chunkSizeInBytes = 0;
+            for (PriceRecord priceRecord : chunk.getPriceRecords()) {
+                chunkSizeInBytes += priceRecord.getSizeInBytes();
+            }
+            if (!fits.get() || !admissionControl.tryReserve(batchRun, chunkSizeInBytes)) {
+                fits.set(false);
+                return;
+            }
+            final long sizeDelta = batchRun.updatePriceRecords(chunk.getChunkSequence(), chunk.getPriceRecords());
+            admissionControl.release(batchRun, chunkSizeInBytes - sizeDelta);
+        });
+        if (journaledBatchRun.isPrepared()) {
+            batchRun.prepare();
+        }
+        return fits.get();
+    }
+
+    private void releaseBatchRun(BatchRun batchRun) {
+        admissionControl.releaseBatchRun(batchRun);
+        batchRun.release();
+        if (!isNull(batchRunJournal)) {
+            batchRunJournal.delete(batchRun.getId());
+        }
+    }
+
+    private Set<String> findChangedInstruments(long version, long currentVersion) {
+        if (version == currentVersion) {
+            return Set.of();
+        }
+        if (version > currentVersion || isNull(changeJournal)) {
+            return null;
+        }
+        return changeJournal.findChangedSince(version);
     }
 
     private void checkInstrumentSupported(String instrument) throws WrongInstrumentException {
@@ -96,30 +543,216 @@ public class LastPriceServiceImpl implements LastPriceService {
         }
     }
 
-    private void startCleanUpJob(
-        ScheduledExecutorService executorService,
-        long abandonedBatchRunTimeout,
-        long batchRunsCleanUpIntervalMs) {
+    private void checkBatchRunFound(long batchRunId, boolean found) throws BatchNotFoundException {
+        if (!found) {
+            throw new BatchNotFoundException(batchRunId);
+        }
+    }
 
+    private void startCleanUpJob(ScheduledExecutorService executorService, long batchRunsCleanUpIntervalMs) {
         executorService.scheduleWithFixedDelay(
-            new AbandonedBatchRunCleanUpJob(abandonedBatchRunTimeout),
+            this::removeAbandonedBatchRuns,
             batchRunsCleanUpIntervalMs,
             batchRunsCleanUpIntervalMs,
             TimeUnit.MILLISECONDS
         );
     }
 
-    private final class AbandonedBatchRunCleanUpJob implements Runnable {
+    /**
+     * Asynchronous view which answers lookups of unsupported instruments and commands of batch runs
+     * which are not found with statuses, rather than catching exceptions of the blocking calls.
+     */
+    private final class AsyncView extends AsyncLastPriceServiceAdapter {
+
+        private AsyncView() {
+            super(LastPriceServiceImpl.this);
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<PriceRecord>> findLastPrice(String instrument) {
+            return completedFuture(
+                supportedInstruments.contains(instrument)
+                    ? ServiceResult.success(marketState.getPriceRecord(instrument))
+                    : ServiceResult.wrongInstrument()
+            );
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> uploadPriceRecordsChunk(
+            long batchRunId,
+            long chunkSequence,
+            Collection<PriceRecord> priceRecords) {
+
+            try {
+                return completedFuture(toResult(uploadChunk(batchRunId, chunkSequence, priceRecords)));
+            } catch (LastPriceServiceException e) {
+                return completedFuture(ServiceResult.failure(e));
+            }
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> cancelBatchRun(long batchRunId) {
+            return completedFuture(toResult(cancel(batchRunId)));
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> completeBatchRun(long batchRunId) {
+            return completedFuture(toResult(complete(batchRunId)));
+        }
 
-        private final long abandonedBatchRunTimeout;
+        @Override
+        public CompletableFuture<ServiceResult<Void>> prepareBatchRun(long batchRunId) {
+            return completedFuture(toResult(prepare(batchRunId)));
+        }
 
-        private AbandonedBatchRunCleanUpJob(long abandonedBatchRunTimeout) {
-            this.abandonedBatchRunTimeout = abandonedBatchRunTimeout;
+        @Override
+        public CompletableFuture<ServiceResult<Void>> commitBatchRun(long batchRunId) {
+            return completedFuture(toResult(commit(batchRunId)));
         }
 
         @Override
-        public void run() {
-            LastPriceServiceImpl.this.batchRunRepository.removeOutdated(abandonedBatchRunTimeout);
+        public CompletableFuture<ServiceResult<Long>> resumeBatchRun(long batchRunId) {
+            final BatchRun batchRun = resume(batchRunId);
+            return completedFuture(
+                isNull(batchRun)
+                    ? ServiceResult.batchRunNotFound()
+                    : ServiceResult.success(batchRun.getAcceptedChunkSequence())
+            );
+        }
+
+        private ServiceResult<Void> toResult(boolean found) {
+            return found ? ServiceResult.success(null) : ServiceResult.batchRunNotFound();
+        }
+    }
+
+    /**
+     * Builder of {@link LastPriceServiceImpl}.
+     */
+    public static final class Builder {
+
+        private final PriceRecordContainer marketState;
+        private final BatchRunRepository batchRunRepository;
+        private final Collection<String> supportedInstruments;
+        private final BatchRunAdmissionControl admissionControl;
+        private AsOfWatermarks asOfWatermarks;
+        private GroupCommitCompletionStage completionStage;
+        private PriceHistory priceHistory;
+        private MarketChangeJournal changeJournal;
+        private PayloadCompressor payloadCompressor;
+        private BatchRunJournal batchRunJournal;
+        private ChunkReducer chunkReducer;
+        private long batchRunsCleanUpIntervalMs;
+        private ScheduledExecutorService executorService;
+        private long abandonedBatchRunTimeoutMs = DEFAULT_ABANDONED_BATCH_RUN_TIMEOUT_MS;
+        private long preparedBatchRunTimeoutMs = DEFAULT_PREPARED_BATCH_RUN_TIMEOUT_MS;
+
+        private Builder(
+            PriceRecordContainer marketState,
+            BatchRunRepository batchRunRepository,
+            Collection<String> supportedInstruments,
+            BatchRunAdmissionControl admissionControl) {
+
+            this.marketState = marketState;
+            this.batchRunRepository = batchRunRepository;
+            this.supportedInstruments = supportedInstruments;
+            this.admissionControl = admissionControl;
+        }
+
+        /**
+         * @param asOfWatermarks watermarks of the market state to drop superseded records on upload,
+         *                       {@code null} to keep all uploaded records until completion
+         */
+        public Builder asOfWatermarks(AsOfWatermarks asOfWatermarks) {
+            this.asOfWatermarks = asOfWatermarks;
+            return this;
+        }
+
+        /**
+         * @param completionStage stage to publish concurrently completed batch runs together,
+         *                        {@code null} to merge every batch run separately
+         */
+        public Builder completionStage(GroupCommitCompletionStage completionStage) {
+            this.completionStage = completionStage;
+            return this;
+        }
+
+        /**
+         * @param priceHistory history of the market state prices fed by the market state,
+         *                     {@code null} if the history is not kept
+         */
+        public Builder priceHistory(PriceHistory priceHistory) {
+            this.priceHistory = priceHistory;
+            return this;
+        }
+
+        /**
+         * @param changeJournal journal of the market state changes fed by the market state,
+         *                      {@code null} to always answer changes requests with a full snapshot
+         */
+        public Builder changeJournal(MarketChangeJournal changeJournal) {
+            this.changeJournal = changeJournal;
+            return this;
+        }
+
+        /**
+         * @param payloadCompressor compressor of payloads kept in batch runs and the market state,
+         *                          {@code null} to keep payloads as uploaded
+         */
+        public Builder payloadCompressor(PayloadCompressor payloadCompressor) {
+            this.payloadCompressor = payloadCompressor;
+            return this;
+        }
+
+        /**
+         * @param batchRunJournal journal of the accepted chunks to restore batch runs after a restart,
+         *                        {@code null} to keep batch runs only in memory
+         */
+        public Builder batchRunJournal(BatchRunJournal batchRunJournal) {
+            this.batchRunJournal = batchRunJournal;
+            return this;
+        }
+
+        /**
+         * @param chunkReducer reducer of uploaded chunks to the latest record of every instrument outside the
+         *                     batch run lock, {@code null} to apply chunks as uploaded
+         */
+        public Builder chunkReducer(ChunkReducer chunkReducer) {
+            this.chunkReducer = chunkReducer;
+            return this;
+        }
+
+        /**
+         * Schedules clean up of abandoned batch runs, without it clean up is left
+         * to {@link #removeAbandonedBatchRuns()} callers.
+         *
+         * @param batchRunsCleanUpIntervalMs interval between clean up passes, zero to not schedule them
+         * @param executorService executor to run clean up job with
+         */
+        public Builder cleanUpJob(long batchRunsCleanUpIntervalMs, ScheduledExecutorService executorService) {
+            this.batchRunsCleanUpIntervalMs = batchRunsCleanUpIntervalMs;
+            this.executorService = executorService;
+            return this;
+        }
+
+        /**
+         * @param abandonedBatchRunTimeoutMs time after the last update when batch run is considered abandoned
+         */
+        public Builder abandonedBatchRunTimeoutMs(long abandonedBatchRunTimeoutMs) {
+            this.abandonedBatchRunTimeoutMs = abandonedBatchRunTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param preparedBatchRunTimeoutMs time after the prepare when prepared batch run is considered abandoned,
+         *                                  it has to cover the commit retries of the coordinator
+         */
+        public Builder preparedBatchRunTimeoutMs(long preparedBatchRunTimeoutMs) {
+            this.preparedBatchRunTimeoutMs = preparedBatchRunTimeoutMs;
+            return this;
+        }
+
+        public LastPriceServiceImpl build() {
+            return new LastPriceServiceImpl(this);
         }
     }
 
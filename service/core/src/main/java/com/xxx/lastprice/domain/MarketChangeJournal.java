@@ -0,0 +1,85 @@
+package com.xxx.lastprice.domain;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded journal of market state changes: a ring of instruments updated by every market state version.
+ * Lets consumers mirroring the market state catch up with work proportional to the number of changes.
+ *
+ * Updates of a striped market state may append their entries out of version order, so the journal
+ * remembers the highest version among overwritten entries: every change after that version is still retained.
+ * Versions handed out to consumers are read while no update is in progress, so every entry of a version
+ * up to a handed out one precedes entries of later versions and the journal is scanned from its newest
+ * entry back to the first entry not newer than the requested version.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class MarketChangeJournal implements PriceRecordListener {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final long[] versions;
+    private final String[] instruments;
+    private long entriesCount;
+    private long evictedVersion;
+
+    /**
+     * Creates journal.
+     *
+     * @param capacity maximum number of retained instrument changes
+     */
+    public MarketChangeJournal(int capacity) {
+        this.versions = new long[capacity];
+        this.instruments = new String[capacity];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPriceRecordUpdated(PriceRecord priceRecord, long version) {
+        lock.writeLock().lock();
+        try {
+            final int slot = (int) (entriesCount % versions.length);
+            if (entriesCount >= versions.length) {
+                evictedVersion = Math.max(evictedVersion, versions[slot]);
+            }
+            versions[slot] = version;
+            instruments[slot] = priceRecord.getInstrument();
+            entriesCount++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Collects instruments changed after the given version.
+     *
+     * @param version version the consumer is in sync with, read consistently with the market state
+     * @return changed instruments or {@code null} if some of the changes are not retained any more
+     */
+    public Set<String> findChangedSince(long version) {
+        lock.readLock().lock();
+        try {
+            if (version < evictedVersion) {
+                return null;
+            }
+            final Set<String> changedInstruments = new HashSet<>();
+            final long oldestEntry = Math.max(0, entriesCount - versions.length);
+            for (long entry = entriesCount - 1; entry >= oldestEntry; entry--) {
+                final int slot = (int) (entry % versions.length);
+                if (versions[slot] <= version) {
+                    break;
+                }
+                changedInstruments.add(instruments[slot]);
+            }
+            return changedInstruments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.xxx.lastprice.domain;
+
+import java.util.Collection;
+
+/**
+ * Market state changes after a version known to a consumer.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class MarketChanges {
+
+    private final long epoch;
+    private final long version;
+    private final boolean snapshot;
+    private final Collection<PriceRecord> priceRecords;
+
+    public MarketChanges(long epoch, long version, boolean snapshot, Collection<PriceRecord> priceRecords) {
+        this.epoch = epoch;
+        this.version = version;
+        this.snapshot = snapshot;
+        this.priceRecords = priceRecords;
+    }
+
+    /**
+     * Returns epoch of the market state the version belongs to. Versions start over with every start
+     * of the service, versions of different epochs are not comparable.
+     *
+     * @return market state epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns market state version the changes bring the consumer to.
+     *
+     * @return market state version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Tells whether the records are the full market state which replaces everything the consumer had.
+     *
+     * @return {@code true} for a full snapshot, {@code false} for the changed instruments only
+     */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public Collection<PriceRecord> getPriceRecords() {
+        return priceRecords;
+    }
+
+}
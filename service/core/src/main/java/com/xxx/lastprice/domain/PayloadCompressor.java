@@ -0,0 +1,206 @@
+package com.xxx.lastprice.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses payloads of price records kept in batch runs and the market state with raw deflate at the fastest level,
+ * which trades some ratio for the compression cost staying well below the cost of receiving the record.
+ *
+ * Compressed records inflate their payload on every {@link PriceRecord#getPayload()}. Payloads read often are kept
+ * uncompressed in a small direct-mapped cache indexed by instrument: a record is admitted on its second read,
+ * so a single full scan does not wipe out hot instruments, and a newer record of an instrument evicts the older one.
+ * Records replaced in the market state drop out of the cache the same way, so the cache retains at most one payload
+ * per slot.
+ *
+ * Deflaters and inflaters are kept per thread, the compressor is thread safe.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PayloadCompressor {
+
+    private static final int CACHE_ADMISSION_READS = 2;
+
+    /**
+     * Inflates payloads of records restored from stores, which are new instances on every read
+     * and never get admitted to a cache.
+     */
+    private static final PayloadCompressor RESTORED_RECORDS_COMPRESSOR = new PayloadCompressor(Integer.MAX_VALUE, 0);
+
+    private final ThreadLocal<Codec> codecs = ThreadLocal.withInitial(Codec::new);
+    private final int minPayloadBytes;
+    private final CacheEntry[] cache;
+
+    /**
+     * Creates compressor.
+     *
+     * @param minPayloadBytes payloads shorter than this are stored as is, compressing them saves too little
+     * @param cacheSlots number of uncompressed payloads cached for hot reads, zero disables the cache
+     */
+    public PayloadCompressor(int minPayloadBytes, int cacheSlots) {
+        this.minPayloadBytes = Math.max(1, minPayloadBytes);
+        this.cache = new CacheEntry[cacheSlots];
+    }
+
+    /**
+     * Returns records with compressed payloads. Records which are already compressed, too short
+     * or incompressible are returned as they are.
+     *
+     * @param priceRecords records to compress
+     * @return records to store
+     */
+    public Collection<PriceRecord> compress(Collection<PriceRecord> priceRecords) {
+        final List<PriceRecord> compressedRecords = new ArrayList<>(priceRecords.size());
+        for (PriceRecord priceRecord : priceRecords) {
+            compressedRecords.add(compress(priceRecord));
+        }
+        return compressedRecords;
+    }
+
+    /**
+     * Returns record with compressed payload, or the given record if it is already compressed, too short
+     * or incompressible.
+     *
+     * @param priceRecord record to compress
+     * @return record to store
+     */
+    public PriceRecord compress(PriceRecord priceRecord) {
+        if (priceRecord instanceof CompressedPriceRecord) {
+            return priceRecord;
+        }
+        final byte[] payload = priceRecord.getPayload();
+        if (payload.length < minPayloadBytes) {
+            return priceRecord;
+        }
+        final byte[] compressedPayload = codecs.get().deflate(payload);
+        if (compressedPayload == null) {
+            return priceRecord;
+        }
+        return new CompressedPriceRecord(
+            priceRecord.getInstrument(), priceRecord.getAsOf(), compressedPayload, payload.length, this
+        );
+    }
+
+    /**
+     * Recreates record copied to a store as its {@link PriceRecord#getStoredPayload()} and
+     * {@link PriceRecord#getPayloadLength()}. Compressed payloads are always shorter than the uncompressed ones,
+     * so the lengths tell whether the payload is compressed, and it stays compressed until it is read.
+     *
+     * @param instrument instrument of the record
+     * @param asOf asOf of the record
+     * @param storedPayload stored payload of the record
+     * @param payloadLength payload length of the record
+     * @return restored record
+     */
+    static PriceRecord restore(String instrument, long asOf, byte[] storedPayload, int payloadLength) {
+        if (storedPayload.length == payloadLength) {
+            return new PriceRecord(instrument, asOf, storedPayload);
+        }
+        return new CompressedPriceRecord(instrument, asOf, storedPayload, payloadLength, RESTORED_RECORDS_COMPRESSOR);
+    }
+
+    /**
+     * Recreates record copied as its {@link PriceRecord#getStoredPayload()} and {@link PriceRecord#getPayloadLength()}
+     * like {@link #restore(String, long, byte[], int)}, but for a copy which takes the place of the original record,
+     * e.g. when passed between threads, so its payload is cached by this compressor.
+     *
+     * @param instrument instrument of the record
+     * @param asOf asOf of the record
+     * @param storedPayload stored payload of the record
+     * @param payloadLength payload length of the record
+     * @return restored record
+     */
+    PriceRecord restoreOwned(String instrument, long asOf, byte[] storedPayload, int payloadLength) {
+        if (storedPayload.length == payloadLength) {
+            return new PriceRecord(instrument, asOf, storedPayload);
+        }
+        return new CompressedPriceRecord(instrument, asOf, storedPayload, payloadLength, this);
+    }
+
+    /**
+     * Returns uncompressed payload of the given record, from the cache if the record is hot.
+     *
+     * @param priceRecord compressed record
+     * @return uncompressed payload, must not be modified
+     */
+    byte[] decompress(CompressedPriceRecord priceRecord) {
+        if (cache.length == 0) {
+            return codecs.get().inflate(priceRecord.getStoredPayload(), priceRecord.getPayloadLength());
+        }
+        // spread higher bits like HashMap does, hashes of similar tickers differ in low bits only
+        final int hash = priceRecord.getInstrument().hashCode();
+        final int slot = Math.floorMod(hash ^ (hash >>> 16), cache.length);
+        // entries are immutable, so a racy read sees either a complete entry or a stale one, which is a miss
+        final CacheEntry entry = cache[slot];
+        if (entry != null && entry.priceRecord == priceRecord) {
+            return entry.payload;
+        }
+        final byte[] payload =
+            codecs.get().inflate(priceRecord.getStoredPayload(), priceRecord.getPayloadLength());
+        if (priceRecord.recordRead() >= CACHE_ADMISSION_READS) {
+            cache[slot] = new CacheEntry(priceRecord, payload);
+        }
+        return payload;
+    }
+
+    private static final class CacheEntry {
+
+        private final CompressedPriceRecord priceRecord;
+        private final byte[] payload;
+
+        private CacheEntry(CompressedPriceRecord priceRecord, byte[] payload) {
+            this.priceRecord = priceRecord;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Codec {
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private final Inflater inflater = new Inflater(true);
+        private byte[] buffer = new byte[0];
+
+        /**
+         * Returns compressed payload, or {@code null} if it does not get shorter.
+         */
+        byte[] deflate(byte[] payload) {
+            if (buffer.length < payload.length) {
+                buffer = new byte[payload.length];
+            }
+            try {
+                deflater.setInput(payload);
+                deflater.finish();
+                final int length = deflater.deflate(buffer, 0, payload.length - 1);
+                return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+            } finally {
+                deflater.reset();
+            }
+        }
+
+        byte[] inflate(byte[] compressedPayload, int uncompressedLength) {
+            final byte[] payload = new byte[uncompressedLength];
+            try {
+                inflater.setInput(compressedPayload);
+                int length = 0;
+                while (length < uncompressedLength) {
+                    final int inflated = inflater.inflate(payload, length, uncompressedLength - length);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IllegalStateException("Compressed payload is truncated");
+                    }
+                    length += inflated;
+                }
+                return payload;
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Compressed payload is corrupted", e);
+            } finally {
+                inflater.reset();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceEvictedException;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Bounded history of the market state prices per instrument.
+ *
+ * Every instrument keeps a ring of its most recent accepted records: {@code asOf} values and payload
+ * addresses in primitive arrays, payloads in an off-heap buffer of fixed size which is overwritten cyclically.
+ * Payloads are kept the way the market state records keep them, compressed ones are inflated when a looked up
+ * record is read, never on the market state update.
+ * A record stays in the history until it is pushed out of the ring or its payload is overwritten.
+ * Payloads of different sizes share the buffer, so a buffer smaller than {@code depth} payloads may overwrite
+ * the payload of a record still in the ring, such a record is reported as evicted rather than missing.
+ * Accepted records of an instrument never go back in time, so the ring is ordered by {@code asOf}
+ * and is searched with a binary search.
+ *
+ * The history is fed by the market state as a {@link PriceRecordListener}, it does not take part
+ * in the last price lookups.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PriceHistory implements PriceRecordListener {
+
+    private final Map<String, InstrumentHistory> histories;
+
+    /**
+     * Creates history.
+     *
+     * @param instruments instruments to keep history for
+     * @param depth maximum number of records kept per instrument
+     * @param payloadBytes size of the off-heap payloads buffer per instrument
+     */
+    public PriceHistory(Collection<String> instruments, int depth, int payloadBytes) {
+        final Map<String, InstrumentHistory> instrumentHistories = new HashMap<>();
+        for (String instrument : instruments) {
+            instrumentHistories.putIfAbsent(instrument, new InstrumentHistory(depth, payloadBytes));
+        }
+        this.histories = Map.copyOf(instrumentHistories);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPriceRecordUpdated(PriceRecord priceRecord, long version) {
+        final InstrumentHistory history = histories.get(priceRecord.getInstrument());
+        if (!isNull(history)) {
+            history.append(priceRecord);
+        }
+    }
+
+    /**
+     * Finds the latest price record of the instrument with {@code asOf} not after the given timestamp.
+     *
+     * @param instrument instrument to look up
+     * @param timestamp point in time to look up the price at
+     * @return price record or {@code null} if the history has no record that old
+     * @throws PriceEvictedException if the record is in the ring but its payload was overwritten
+     *                               or did not fit the payloads buffer
+     */
+    public PriceRecord findPriceAsOf(String instrument, long timestamp) throws PriceEvictedException {
+        final InstrumentHistory history = histories.get(instrument);
+        return isNull(history) ? null : history.find(instrument, timestamp);
+    }
+
+    /**
+     * History of a single instrument. Appends are serialised by the market state lock,
+     * the own lock separates them from lookups.
+     */
+    private static final class InstrumentHistory {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final long[] asOfs;
+        private final long[] payloadPositions;
+        private final int[] payloadLengths;
+        private final int[] storedPayloadLengths;
+        private final UnsafeBuffer payloads;
+
+        private long recordsCount;
+        private long payloadsTail;
+
+        private InstrumentHistory(int depth, int payloadBytes) {
+            this.asOfs = new long[depth];
+            this.payloadPositions = new long[depth];
+            this.payloadLengths = new int[depth];
+            this.storedPayloadLengths = new int[depth];
+            this.payloads = new UnsafeBuffer(ByteBuffer.allocateDirect(payloadBytes));
+        }
+
+        private void append(PriceRecord priceRecord) {
+            final byte[] payload = priceRecord.getStoredPayload();
+            lock.writeLock().lock();
+            try {
+                final int slot = (int) (recordsCount % asOfs.length);
+                asOfs[slot] = priceRecord.getAsOf();
+                payloadLengths[slot] = priceRecord.getPayloadLength();
+                storedPayloadLengths[slot] = payload.length;
+                if (payload.length > payloads.capacity()) {
+                    // does not fit at all, the record is kept as a gap in the history
+                    payloadPositions[slot] = Long.MIN_VALUE;
+                } else {
+                    long position = payloadsTail;
+                    if (position % payloads.capacity() + payload.length > payloads.capacity()) {
+                        position += payloads.capacity() - position % payloads.capacity();
+                    }
+                    payloads.putBytes((int) (position % payloads.capacity()), payload);
+                    payloadPositions[slot] = position;
+                    payloadsTail = position + payload.length;
+                }
+                recordsCount++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private PriceRecord find(String instrument, long timestamp) throws PriceEvictedException {
+            lock.readLock().lock();
+            try {
+                long low = Math.max(0, recordsCount - asOfs.length);
+                long high = recordsCount - 1;
+                long found = -1;
+                while (low <= high) {
+                    final long middle = (low + high) >>> 1;
+                    if (asOfs[(int) (middle % asOfs.length)] <= timestamp) {
+                        found = middle;
+                        low = middle + 1;
+                    } else {
+                        high = middle - 1;
+                    }
+                }
+                if (found < 0) {
+                    return null;
+                }
+                final int slot = (int) (found % asOfs.length);
+                // payloads written after this one may have wrapped over it
+                if (payloadPositions[slot] < payloadsTail - payloads.capacity()) {
+                    throw new PriceEvictedException(instrument);
+                }
+                final byte[] payload = new byte[storedPayloadLengths[slot]];
+                payloads.getBytes((int) (payloadPositions[slot] % payloads.capacity()), payload);
+                return PayloadCompressor.restore(instrument, asOfs[slot], payload, payloadLengths[slot]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+}
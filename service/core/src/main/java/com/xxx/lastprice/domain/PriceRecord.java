@@ -7,6 +7,11 @@ package com.xxx.lastprice.domain;
  */
 public class PriceRecord {
 
+    /**
+     * Estimated heap overhead of a record: object header, fields and the payload array header.
+     */
+    public static final int RECORD_OVERHEAD_BYTES = 48;
+
     private final String instrument;
     private final long asOf;
     private final byte[] payload;
@@ -28,4 +33,33 @@ public class PriceRecord {
     public byte[] getPayload() {
         return payload;
     }
+
+    /**
+     * Returns payload the way the record keeps it, which is compressed for records compressed
+     * by {@link PayloadCompressor}. Stores copying the record use it together with {@link #getPayloadLength()},
+     * so the payload is inflated only when it is read.
+     *
+     * @return stored payload, must not be modified
+     */
+    public final byte[] getStoredPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns length of the payload returned by {@link #getPayload()} without inflating it.
+     *
+     * @return payload length in bytes
+     */
+    public int getPayloadLength() {
+        return payload.length;
+    }
+
+    /**
+     * Estimates number of heap bytes retained by this record.
+     *
+     * @return estimated record size in bytes
+     */
+    public long getSizeInBytes() {
+        return RECORD_OVERHEAD_BYTES + instrument.length() + payload.length;
+    }
 }
@@ -1,11 +1,15 @@
 package com.xxx.lastprice.domain;
 
+import com.xxx.lastprice.domain.LastPriceEvents.CompletionMergeEvent;
+
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static java.util.Objects.isNull;
 
@@ -20,14 +24,34 @@ public class PriceRecordContainer {
 
     private final ReadWriteLock lock;
     private final Map<String, PriceRecord> records;
+    private final PriceRecordListener listener;
+
+    private long sizeInBytes;
+    private long version;
+    private long appliedRecords;
+    private long staleRecords;
 
     public PriceRecordContainer() {
-        this(new ReentrantReadWriteLock(), new HashMap<>());
+        this(PriceRecordListener.NO_OP);
+    }
+
+    /**
+     * Creates container notifying the given listener about every accepted record.
+     *
+     * @param listener listener of accepted records
+     */
+    public PriceRecordContainer(PriceRecordListener listener) {
+        this(new ReentrantReadWriteLock(), new HashMap<>(), listener);
     }
 
     protected PriceRecordContainer(ReadWriteLock lock, Map<String, PriceRecord> records) {
+        this(lock, records, PriceRecordListener.NO_OP);
+    }
+
+    protected PriceRecordContainer(ReadWriteLock lock, Map<String, PriceRecord> records, PriceRecordListener listener) {
         this.lock = lock;
         this.records = records;
+        this.listener = listener;
     }
 
     /**
@@ -37,7 +61,7 @@ public class PriceRecordContainer {
      * @return price record
      */
     public PriceRecord getPriceRecord(String instrument) {
-        lock.readLock().lock();
+        lockRead();
         try {
             return records.get(instrument);
         } finally {
@@ -50,23 +74,74 @@ public class PriceRecordContainer {
      * ensures nobody can read intermediate state.
      *
      * @param priceRecords actual prices records info to update internal state
+     * @return change of the estimated container size in bytes caused by the update
      */
-    public void updatePriceRecords(Collection<PriceRecord> priceRecords) {
-        lock.writeLock().lock();
+    public long updatePriceRecords(Collection<PriceRecord> priceRecords) {
+        lockWrite();
         try {
-            priceRecords.forEach(this::unsafeUpdatePriceRecord);
+            version++;
+            long sizeDelta = 0;
+            for (PriceRecord priceRecord : priceRecords) {
+                sizeDelta += unsafeUpdatePriceRecord(priceRecord, version);
+            }
+            return sizeDelta;
         } finally {
             lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Returns estimated number of bytes retained by the records of this container.
+     *
+     * @return estimated size in bytes
+     */
+    public long getSizeInBytes() {
+        lockRead();
+        try {
+            return sizeInBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns version of the container, it is incremented by every update and merge.
+     *
+     * @return number of updates applied to the container so far
+     */
+    public long getVersion() {
+        lockRead();
+        try {
+            return version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs the given reader while no update of the container is in progress, so everything the reader
+     * observes through this container including its version belongs to the same state.
+     *
+     * @param reader reader to run
+     * @param <T> type of the read result
+     * @return result of the reader
+     */
+    public <T> T readConsistently(Supplier<T> reader) {
+        lockRead();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
      * Feeds all registered records to the given consumer.
      *
      * @param reader to consume records
      */
     public void readAll(Consumer<PriceRecord> reader) {
-        lock.readLock().lock();
+        lockRead();
         try {
             records.values().forEach(reader);
         } finally {
@@ -82,19 +157,93 @@ public class PriceRecordContainer {
      * @param other price record container to write records to
      */
     public void mergeTo(PriceRecordContainer other) {
-        other.lock.writeLock().lock();
+        other.mergeFrom(this);
+    }
+
+    /**
+     * Updates this container with all records of the given container under the write lock of this container.
+     *
+     * @param other price record container to read records from
+     */
+    protected void mergeFrom(PriceRecordContainer other) {
+        mergeAllFrom(List.of(other));
+    }
+
+    /**
+     * Updates this container with records of all given containers under a single write lock acquisition,
+     * so readers see the result of all merges at once. Containers are applied in the given order.
+     *
+     * @param others price record containers to read records from
+     */
+    public void mergeAllFrom(Collection<? extends PriceRecordContainer> others) {
+        final CompletionMergeEvent event = new CompletionMergeEvent();
+        event.begin();
+        lockWrite();
         try {
-            readAll(other::unsafeUpdatePriceRecord);
+            final long appliedBefore = appliedRecords;
+            final long staleBefore = staleRecords;
+            final long mergeVersion = ++version;
+            others.forEach(other -> other.readAll(priceRecord -> unsafeUpdatePriceRecord(priceRecord, mergeVersion)));
+            event.appliedRecords = appliedRecords - appliedBefore;
+            event.staleRecords = staleRecords - staleBefore;
         } finally {
-            other.lock.writeLock().unlock();
+            lock.writeLock().unlock();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.batchRunIds = LastPriceEvents.batchRunIds(others);
+            event.commit();
         }
     }
 
-    private void unsafeUpdatePriceRecord(PriceRecord priceRecord) {
+    ReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Returns number of records rejected as older than the ones in the container so far,
+     * the caller has to hold the lock.
+     *
+     * @return number of rejected records
+     */
+    long unsafeGetStaleRecords() {
+        return staleRecords;
+    }
+
+    private void lockRead() {
+        LastPriceEvents.lock(lock.readLock(), this, false);
+    }
+
+    private void lockWrite() {
+        LastPriceEvents.lock(lock.writeLock(), this, true);
+    }
+
+    /**
+     * Applies the given record without locking, the caller has to hold the write lock.
+     *
+     * @param priceRecord record to apply
+     * @param updateVersion version of the update the record belongs to
+     * @return change of the estimated container size in bytes
+     */
+    long unsafeUpdatePriceRecord(PriceRecord priceRecord, long updateVersion) {
         final PriceRecord existingRecord = records.get(priceRecord.getInstrument());
-        if (isNull(existingRecord) || priceRecord.getAsOf() >= existingRecord.getAsOf()) {
+        if (isNull(existingRecord)) {
+            records.put(priceRecord.getInstrument(), priceRecord);
+            listener.onPriceRecordUpdated(priceRecord, updateVersion);
+            appliedRecords++;
+            sizeInBytes += priceRecord.getSizeInBytes();
+            return priceRecord.getSizeInBytes();
+        }
+        if (priceRecord.getAsOf() >= existingRecord.getAsOf()) {
             records.put(priceRecord.getInstrument(), priceRecord);
+            listener.onPriceRecordUpdated(priceRecord, updateVersion);
+            appliedRecords++;
+            final long sizeDelta = priceRecord.getSizeInBytes() - existingRecord.getSizeInBytes();
+            sizeInBytes += sizeDelta;
+            return sizeDelta;
         }
+        staleRecords++;
+        return 0;
     }
 
 }
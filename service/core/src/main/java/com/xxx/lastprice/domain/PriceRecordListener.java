@@ -0,0 +1,36 @@
+package com.xxx.lastprice.domain;
+
+/**
+ * Listener to be notified about price records accepted by a {@link PriceRecordContainer}.
+ * Is called while the container write lock is held, implementations have to be fast and must not block.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+@FunctionalInterface
+public interface PriceRecordListener {
+
+    PriceRecordListener NO_OP = (priceRecord, version) -> { };
+
+    /**
+     * Notifies that the given price record became the latest one for its instrument
+     * within the container update of the given version.
+     *
+     * @param priceRecord accepted price record
+     * @param version version of the container update
+     */
+    void onPriceRecordUpdated(PriceRecord priceRecord, long version);
+
+    /**
+     * Returns listener notifying this listener and then the given one.
+     *
+     * @param next listener to notify after this one
+     * @return composed listener
+     */
+    default PriceRecordListener andThen(PriceRecordListener next) {
+        return (priceRecord, version) -> {
+            onPriceRecordUpdated(priceRecord, version);
+            next.onPriceRecordUpdated(priceRecord, version);
+        };
+    }
+
+}
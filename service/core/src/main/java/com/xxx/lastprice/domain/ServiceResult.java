@@ -0,0 +1,129 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
+import com.xxx.lastprice.domain.LastPriceServiceException.MemoryBudgetExceededException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceEvictedException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceHistoryDisabledException;
+import com.xxx.lastprice.domain.LastPriceServiceException.TooManyActiveBatchRunsException;
+import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
+
+/**
+ * Result of an {@link AsyncLastPriceService} call: a value or the status of a rejected request in place
+ * of a {@link LastPriceServiceException}. Results without a value or a retry hint are shared instances.
+ *
+ * @param <T> type of the value
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class ServiceResult<T> {
+
+    public enum Status {
+        SUCCESS,
+        WRONG_INSTRUMENT,
+        PRICE_HISTORY_DISABLED,
+        PRICE_EVICTED,
+        TOO_MANY_ACTIVE_BATCH_RUNS,
+        MEMORY_BUDGET_EXCEEDED,
+        BATCH_RUN_NOT_FOUND
+    }
+
+    private static final ServiceResult<?> EMPTY = new ServiceResult<>(Status.SUCCESS, null, 0);
+    private static final ServiceResult<?> WRONG_INSTRUMENT = new ServiceResult<>(Status.WRONG_INSTRUMENT, null, 0);
+    private static final ServiceResult<?> PRICE_HISTORY_DISABLED =
+        new ServiceResult<>(Status.PRICE_HISTORY_DISABLED, null, 0);
+    private static final ServiceResult<?> PRICE_EVICTED = new ServiceResult<>(Status.PRICE_EVICTED, null, 0);
+    private static final ServiceResult<?> TOO_MANY_ACTIVE_BATCH_RUNS =
+        new ServiceResult<>(Status.TOO_MANY_ACTIVE_BATCH_RUNS, null, 0);
+    private static final ServiceResult<?> BATCH_RUN_NOT_FOUND =
+        new ServiceResult<>(Status.BATCH_RUN_NOT_FOUND, null, 0);
+
+    private final Status status;
+    private final T value;
+    private final long retryAfterMs;
+
+    private ServiceResult(Status status, T value, long retryAfterMs) {
+        this.status = status;
+        this.value = value;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Returns successful result.
+     *
+     * @param value value of the result, {@code null} for calls without a value or if nothing was found
+     * @return successful result
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ServiceResult<T> success(T value) {
+        return value == null ? (ServiceResult<T>) EMPTY : new ServiceResult<>(Status.SUCCESS, value, 0);
+    }
+
+    /**
+     * Returns result of a call for an instrument the service does not support.
+     *
+     * @return shared result with {@link Status#WRONG_INSTRUMENT} status
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ServiceResult<T> wrongInstrument() {
+        return (ServiceResult<T>) WRONG_INSTRUMENT;
+    }
+
+    /**
+     * Returns result of a call for a batch run which was not found.
+     *
+     * @return shared result with {@link Status#BATCH_RUN_NOT_FOUND} status
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ServiceResult<T> batchRunNotFound() {
+        return (ServiceResult<T>) BATCH_RUN_NOT_FOUND;
+    }
+
+    /**
+     * Returns result of a call rejected with the given exception.
+     *
+     * @param exception exception the call was rejected with
+     * @return result with the status matching the exception
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ServiceResult<T> failure(LastPriceServiceException exception) {
+        if (exception instanceof WrongInstrumentException) {
+            return wrongInstrument();
+        }
+        if (exception instanceof BatchNotFoundException) {
+            return batchRunNotFound();
+        }
+        if (exception instanceof MemoryBudgetExceededException) {
+            return new ServiceResult<>(
+                Status.MEMORY_BUDGET_EXCEEDED, null, ((MemoryBudgetExceededException) exception).getRetryAfterMs()
+            );
+        }
+        if (exception instanceof TooManyActiveBatchRunsException) {
+            return (ServiceResult<T>) TOO_MANY_ACTIVE_BATCH_RUNS;
+        }
+        if (exception instanceof PriceHistoryDisabledException) {
+            return (ServiceResult<T>) PRICE_HISTORY_DISABLED;
+        }
+        if (exception instanceof PriceEvictedException) {
+            return (ServiceResult<T>) PRICE_EVICTED;
+        }
+        throw new IllegalArgumentException("Unknown service exception", exception);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return value of a successful result, {@code null} if there is none
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return hint when to try again, set for {@link Status#MEMORY_BUDGET_EXCEEDED} status
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+}
@@ -0,0 +1,617 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceEvents.ChunkUploadEvent;
+import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
+import com.xxx.lastprice.domain.LastPriceServiceException.MemoryBudgetExceededException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceEvictedException;
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceHistoryDisabledException;
+import com.xxx.lastprice.domain.LastPriceServiceException.TooManyActiveBatchRunsException;
+import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableArrayBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.collections.Long2ObjectHashMap;
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Service which applies all batch run and market state mutations on a single writer thread.
+ *
+ * Calling threads encode commands into a many-to-one ring buffer and wait for their results.
+ * The writer thread reads commands in the order they were written, applies them to the delegate
+ * service and completes the callers. Abandoned batch runs are evicted by the writer thread as well,
+ * so the delegate state is never mutated concurrently and the command sequence fully defines it.
+ * Last price reads go directly to the delegate, which serves them from the published market state.
+ *
+ * Chunks which do not fit into a single ring buffer message are split into several parts,
+ * the writer thread collects all parts of a chunk and applies them at once. Calling threads check,
+ * reduce and compress chunks before encoding them, so the writer thread only reserves memory,
+ * journals and applies them. Journaled chunks are forced once per batch run for all the commands
+ * read in one duty cycle, their callers are completed after that, so a single fsync is shared by
+ * the uploads queued behind it.
+ *
+ * Commands are not kept once applied, the service state is restored from the batch run journal
+ * and the market change journal only, there is no replay of the command sequence.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class SingleWriterLastPriceService implements LastPriceService, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SingleWriterLastPriceService.class);
+
+    static final int START_BATCH_RUN = 1;
+    static final int UPLOAD_CHUNK = 2;
+    static final int CANCEL_BATCH_RUN = 3;
+    static final int COMPLETE_BATCH_RUN = 4;
+    static final int PREPARE_BATCH_RUN = 5;
+    static final int COMMIT_BATCH_RUN = 6;
+    static final int RESUME_BATCH_RUN = 7;
+
+    private static final int CORRELATION_ID_OFFSET = 0;
+    private static final int BATCH_RUN_ID_OFFSET = CORRELATION_ID_OFFSET + Long.BYTES;
+    private static final int CHUNK_SEQUENCE_OFFSET = BATCH_RUN_ID_OFFSET + Long.BYTES;
+    private static final int LAST_PART_OFFSET = CHUNK_SEQUENCE_OFFSET + Long.BYTES;
+    private static final int RECORDS_COUNT_OFFSET = LAST_PART_OFFSET + Integer.BYTES;
+    private static final int RECORDS_OFFSET = RECORDS_COUNT_OFFSET + Integer.BYTES;
+
+    private static final int COMMANDS_LIMIT = 64;
+
+    private static final ThreadLocal<ExpandableArrayBuffer> ENCODING_BUFFER =
+        ThreadLocal.withInitial(() -> new ExpandableArrayBuffer(4096));
+
+    private final LastPriceServiceImpl delegate;
+    private final RingBuffer commands;
+    private final Map<Long, CompletableFuture<Object>> pendingResults = new ConcurrentHashMap<>();
+    private final AgentRunner writerRunner;
+    private final AsyncView asyncService;
+    private volatile boolean closed;
+
+    /**
+     * Creates service and starts its writer thread.
+     *
+     * @param delegate service to apply commands to, must not run its own clean up job
+     * @param ringBufferCapacity capacity of the commands ring buffer in bytes, has to be a power of two
+     * @param epochClock clock to schedule eviction of abandoned batch runs
+     * @param batchRunsCleanUpIntervalMs interval between clean up passes for abandoned batch runs
+     */
+    public SingleWriterLastPriceService(
+        LastPriceServiceImpl delegate,
+        int ringBufferCapacity,
+        EpochClock epochClock,
+        long batchRunsCleanUpIntervalMs) {
+
+        this.delegate = delegate;
+        this.commands = new ManyToOneRingBuffer(new UnsafeBuffer(
+            ByteBuffer.allocateDirect(ringBufferCapacity + RingBufferDescriptor.TRAILER_LENGTH)
+        ));
+        this.writerRunner = new AgentRunner(
+            new BackoffIdleStrategy(1, 10, TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1)),
+            throwable -> LOGGER.error("Batch runs writer failure", throwable),
+            null,
+            new Writer(epochClock, batchRunsCleanUpIntervalMs)
+        );
+        this.asyncService = new AsyncView();
+        AgentRunner.startOnThread(writerRunner);
+    }
+
+    @Override
+    public Optional<PriceRecord> findLastPrice(String instrument) throws WrongInstrumentException {
+        return delegate.findLastPrice(instrument);
+    }
+
+    @Override
+    public Optional<PriceRecord> findPriceAsOf(String instrument, long timestamp)
+        throws WrongInstrumentException, PriceHistoryDisabledException, PriceEvictedException {
+        return delegate.findPriceAsOf(instrument, timestamp);
+    }
+
+    @Override
+    public MarketChanges findChangesSince(long epoch, long version) {
+        return delegate.findChangesSince(epoch, version);
+    }
+
+    @Override
+    public long startBatchRun() throws TooManyActiveBatchRunsException, MemoryBudgetExceededException {
+        try {
+            return (Long) await(sendStartBatchRun());
+        } catch (TooManyActiveBatchRunsException | MemoryBudgetExceededException e) {
+            throw e;
+        } catch (LastPriceServiceException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void uploadPriceRecordsChunk(long batchRunId, long chunkSequence, Collection<PriceRecord> priceRecords)
+        throws BatchNotFoundException, WrongInstrumentException, MemoryBudgetExceededException {
+
+        try {
+            await(sendChunk(batchRunId, chunkSequence, priceRecords));
+        } catch (BatchNotFoundException | WrongInstrumentException | MemoryBudgetExceededException e) {
+            throw e;
+        } catch (LastPriceServiceException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void cancelBatchRun(long batchRunId) throws BatchNotFoundException {
+        awaitBatchRunCommand(CANCEL_BATCH_RUN, batchRunId);
+    }
+
+    @Override
+    public void completeBatchRun(long batchRunId) throws BatchNotFoundException {
+        awaitBatchRunCommand(COMPLETE_BATCH_RUN, batchRunId);
+    }
+
+    @Override
+    public void prepareBatchRun(long batchRunId) throws BatchNotFoundException {
+        awaitBatchRunCommand(PREPARE_BATCH_RUN, batchRunId);
+    }
+
+    @Override
+    public void commitBatchRun(long batchRunId) throws BatchNotFoundException {
+        awaitBatchRunCommand(COMMIT_BATCH_RUN, batchRunId);
+    }
+
+    @Override
+    public long resumeBatchRun(long batchRunId) throws BatchNotFoundException {
+        return (Long) awaitBatchRunCommand(RESUME_BATCH_RUN, batchRunId);
+    }
+
+    /**
+     * Returns view of the service which does not wait for the writer thread, the returned futures
+     * of batch run commands are completed by it once the commands are applied.
+     *
+     * @return asynchronous view of the service
+     */
+    @Override
+    public AsyncLastPriceService async() {
+        return asyncService;
+    }
+
+    /**
+     * Stops the writer thread. Commands which were not applied yet are discarded and their callers
+     * are completed with {@link IllegalStateException}, as are the commands sent after the service is closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writerRunner.close();
+        pendingResults.keySet().forEach(this::failClosed);
+    }
+
+    private Object awaitBatchRunCommand(int command, long batchRunId) throws BatchNotFoundException {
+        try {
+            return await(sendBatchRunCommand(command, batchRunId));
+        } catch (BatchNotFoundException e) {
+            throw e;
+        } catch (LastPriceServiceException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CompletableFuture<Object> sendStartBatchRun() {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final ExpandableArrayBuffer buffer = ENCODING_BUFFER.get();
+        buffer.putLong(CORRELATION_ID_OFFSET, register(result));
+        send(START_BATCH_RUN, buffer, BATCH_RUN_ID_OFFSET);
+        return result;
+    }
+
+    private CompletableFuture<Object> sendChunk(
+        long batchRunId,
+        long chunkSequence,
+        Collection<PriceRecord> uploadedRecords) {
+
+        final ChunkUploadEvent event = new ChunkUploadEvent();
+        event.begin();
+        final Collection<PriceRecord> priceRecords;
+        try {
+            // reduced on the calling thread, the writer thread is left with the batch run update only
+            priceRecords = delegate.prepareChunk(uploadedRecords);
+        } catch (WrongInstrumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // a record failing the check after the first part was sent would leave the chunk half collected
+        for (PriceRecord priceRecord : priceRecords) {
+            if (RECORDS_OFFSET + encodedLength(priceRecord) > commands.maxMsgLength()) {
+                throw new IllegalArgumentException("Price record of " + priceRecord.getInstrument()
+                    + " does not fit into the commands ring buffer of " + commands.maxMsgLength() + " bytes message");
+            }
+        }
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final long correlationId = register(result);
+        final ExpandableArrayBuffer buffer = ENCODING_BUFFER.get();
+        int length = RECORDS_OFFSET;
+        int count = 0;
+        for (PriceRecord priceRecord : priceRecords) {
+            final int recordLength = encodedLength(priceRecord);
+            if (length + recordLength > commands.maxMsgLength()) {
+                sendChunkPart(buffer, correlationId, batchRunId, chunkSequence, false, count, length);
+                length = RECORDS_OFFSET;
+                count = 0;
+            }
+            length = encode(buffer, length, priceRecord);
+            count++;
+        }
+        sendChunkPart(buffer, correlationId, batchRunId, chunkSequence, true, count, length);
+        // the writer completes the upload with the chunk size in bytes
+        return result.thenApply(chunkSizeInBytes -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.batchRunId = batchRunId;
+                event.chunkSequence = chunkSequence;
+                event.records = uploadedRecords.size();
+                event.retainedRecords = priceRecords.size();
+                event.bytes = (Long) chunkSizeInBytes;
+                event.commit();
+            }
+            return null;
+        });
+    }
+
+    private CompletableFuture<Object> sendBatchRunCommand(int command, long batchRunId) {
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final ExpandableArrayBuffer buffer = ENCODING_BUFFER.get();
+        buffer.putLong(CORRELATION_ID_OFFSET, register(result));
+        buffer.putLong(BATCH_RUN_ID_OFFSET, batchRunId);
+        send(command, buffer, CHUNK_SEQUENCE_OFFSET);
+        return result;
+    }
+
+    private void sendChunkPart(
+        MutableDirectBuffer buffer,
+        long correlationId,
+        long batchRunId,
+        long chunkSequence,
+        boolean lastPart,
+        int count,
+        int length) {
+
+        buffer.putLong(CORRELATION_ID_OFFSET, correlationId);
+        buffer.putLong(BATCH_RUN_ID_OFFSET, batchRunId);
+        buffer.putLong(CHUNK_SEQUENCE_OFFSET, chunkSequence);
+        buffer.putInt(LAST_PART_OFFSET, lastPart ? 1 : 0);
+        buffer.putInt(RECORDS_COUNT_OFFSET, count);
+        send(UPLOAD_CHUNK, buffer, length);
+    }
+
+    /**
+     * Registers the caller awaiting result of the command, the caller is failed at once if the service
+     * is closed. The flag is checked after the registration, so either the check or the close sees it.
+     */
+    private long register(CompletableFuture<Object> result) {
+        final long correlationId = commands.nextCorrelationId();
+        pendingResults.put(correlationId, result);
+        if (closed) {
+            failClosed(correlationId);
+        }
+        return correlationId;
+    }
+
+    private void failClosed(long correlationId) {
+        final CompletableFuture<Object> result = pendingResults.remove(correlationId);
+        if (!isNull(result)) {
+            result.completeExceptionally(new IllegalStateException("Service is closed"));
+        }
+    }
+
+    private void send(int command, DirectBuffer buffer, int length) {
+        // the writer does not drain the ring buffer once closed, its callers are failed by close
+        while (!commands.write(command, buffer, 0, length) && !closed) {
+            Thread.yield();
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> result) throws LastPriceServiceException {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof LastPriceServiceException) {
+                throw (LastPriceServiceException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Turns service exceptions the command was completed with into result statuses.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<ServiceResult<T>> toResult(CompletableFuture<Object> result) {
+        final CompletableFuture<ServiceResult<T>> serviceResult = new CompletableFuture<>();
+        result.whenComplete((value, throwable) -> {
+            // dependent stages, like the completed upload, pass the failure wrapped
+            final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (isNull(cause)) {
+                serviceResult.complete(ServiceResult.success((T) value));
+            } else if (cause instanceof LastPriceServiceException) {
+                serviceResult.complete(ServiceResult.failure((LastPriceServiceException) cause));
+            } else {
+                serviceResult.completeExceptionally(cause);
+            }
+        });
+        return serviceResult;
+    }
+
+    private static int encodedLength(PriceRecord priceRecord) {
+        return Integer.BYTES + priceRecord.getInstrument().length() * 3 + Long.BYTES + Integer.BYTES + Integer.BYTES
+            + priceRecord.getStoredPayload().length;
+    }
+
+    /**
+     * Encodes record as it is stored, compressed records are passed to the writer thread without inflating them.
+     */
+    private static int encode(MutableDirectBuffer buffer, int offset, PriceRecord priceRecord) {
+        final byte[] storedPayload = priceRecord.getStoredPayload();
+        int position = offset;
+        position += buffer.putStringUtf8(position, priceRecord.getInstrument());
+        buffer.putLong(position, priceRecord.getAsOf());
+        position += Long.BYTES;
+        buffer.putInt(position, priceRecord.getPayloadLength());
+        position += Integer.BYTES;
+        buffer.putInt(position, storedPayload.length);
+        position += Integer.BYTES;
+        buffer.putBytes(position, storedPayload);
+        return position + storedPayload.length;
+    }
+
+    /**
+     * Non-blocking view, reads are served by the delegate view, batch run commands are completed
+     * by the writer thread.
+     */
+    private final class AsyncView implements AsyncLastPriceService {
+
+        private final AsyncLastPriceService delegateAsync = delegate.async();
+
+        @Override
+        public CompletableFuture<ServiceResult<PriceRecord>> findLastPrice(String instrument) {
+            return delegateAsync.findLastPrice(instrument);
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<PriceRecord>> findPriceAsOf(String instrument, long timestamp) {
+            return delegateAsync.findPriceAsOf(instrument, timestamp);
+        }
+
+        @Override
+        public CompletableFuture<MarketChanges> findChangesSince(long epoch, long version) {
+            return delegateAsync.findChangesSince(epoch, version);
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Long>> startBatchRun() {
+            return toResult(sendStartBatchRun());
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> uploadPriceRecordsChunk(
+            long batchRunId,
+            long chunkSequence,
+            Collection<PriceRecord> priceRecords) {
+
+            try {
+                return toResult(sendChunk(batchRunId, chunkSequence, priceRecords));
+            } catch (IllegalArgumentException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> cancelBatchRun(long batchRunId) {
+            return toResult(sendBatchRunCommand(CANCEL_BATCH_RUN, batchRunId));
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> completeBatchRun(long batchRunId) {
+            return toResult(sendBatchRunCommand(COMPLETE_BATCH_RUN, batchRunId));
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> prepareBatchRun(long batchRunId) {
+            return toResult(sendBatchRunCommand(PREPARE_BATCH_RUN, batchRunId));
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Void>> commitBatchRun(long batchRunId) {
+            return toResult(sendBatchRunCommand(COMMIT_BATCH_RUN, batchRunId));
+        }
+
+        @Override
+        public CompletableFuture<ServiceResult<Long>> resumeBatchRun(long batchRunId) {
+            return toResult(sendBatchRunCommand(RESUME_BATCH_RUN, batchRunId));
+        }
+    }
+
+    /**
+     * Agent of the writer thread, owns the delegate state.
+     */
+    private final class Writer implements Agent {
+
+        private final EpochClock epochClock;
+        private final long batchRunsCleanUpIntervalMs;
+        private final Long2ObjectHashMap<List<PriceRecord>> pendingChunks = new Long2ObjectHashMap<>();
+        // applied uploads by batch run, acknowledged once their journal is forced
+        private final Long2ObjectHashMap<List<AppliedUpload>> unsyncedUploads = new Long2ObjectHashMap<>();
+        private long nextCleanUpTime;
+
+        private Writer(EpochClock epochClock, long batchRunsCleanUpIntervalMs) {
+            this.epochClock = epochClock;
+            this.batchRunsCleanUpIntervalMs = batchRunsCleanUpIntervalMs;
+            this.nextCleanUpTime = epochClock.time() + batchRunsCleanUpIntervalMs;
+        }
+
+        @Override
+        public int doWork() {
+            int workCount = commands.read(this::onCommand, COMMANDS_LIMIT);
+            syncJournal();
+            final long now = epochClock.time();
+            if (now >= nextCleanUpTime) {
+                nextCleanUpTime = now + batchRunsCleanUpIntervalMs;
+                workCount += delegate.removeAbandonedBatchRuns();
+            }
+            return workCount;
+        }
+
+        @Override
+        public void onClose() {
+            // applied uploads are not pending any more, so they are acknowledged rather than failed by close
+            syncJournal();
+        }
+
+        @Override
+        public String roleName() {
+            return "batch-runs-writer";
+        }
+
+        private void onCommand(int command, MutableDirectBuffer buffer, int offset, int length) {
+            final long correlationId = buffer.getLong(offset + CORRELATION_ID_OFFSET);
+            if (command == UPLOAD_CHUNK && !collectChunkPart(correlationId, buffer, offset)) {
+                return;
+            }
+            final CompletableFuture<Object> result = pendingResults.remove(correlationId);
+            if (isNull(result)) {
+                // the caller was already failed by the closing service
+                pendingChunks.remove(correlationId);
+                return;
+            }
+            if (command != UPLOAD_CHUNK) {
+                // acknowledged uploads precede the commands read after them, as they were applied
+                syncJournal();
+            }
+            try {
+                final Object value = apply(command, correlationId, buffer, offset);
+                if (command == UPLOAD_CHUNK && delegate.isJournaled()) {
+                    final long batchRunId = buffer.getLong(offset + BATCH_RUN_ID_OFFSET);
+                    unsyncedUploads.computeIfAbsent(batchRunId, id -> new ArrayList<>())
+                        .add(new AppliedUpload(result, (Long) value));
+                } else {
+                    result.complete(value);
+                }
+            } catch (LastPriceServiceException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Forces the journal once per batch run with applied uploads and completes their callers.
+         */
+        private void syncJournal() {
+            if (unsyncedUploads.isEmpty()) {
+                return;
+            }
+            final Long2ObjectHashMap<List<AppliedUpload>>.EntryIterator entries =
+                unsyncedUploads.entrySet().iterator();
+            while (entries.hasNext()) {
+                entries.next();
+                final List<AppliedUpload> uploads = entries.getValue();
+                try {
+                    delegate.syncJournal(entries.getLongKey());
+                    uploads.forEach(upload -> upload.result.complete(upload.chunkSizeInBytes));
+                } catch (RuntimeException e) {
+                    uploads.forEach(upload -> upload.result.completeExceptionally(e));
+                }
+            }
+            unsyncedUploads.clear();
+        }
+
+        private Object apply(int command, long correlationId, DirectBuffer buffer, int offset)
+            throws LastPriceServiceException {
+
+            switch (command) {
+                case START_BATCH_RUN:
+                    return delegate.startBatchRun();
+                case UPLOAD_CHUNK:
+                    return delegate.applyChunk(
+                        buffer.getLong(offset + BATCH_RUN_ID_OFFSET),
+                        buffer.getLong(offset + CHUNK_SEQUENCE_OFFSET),
+                        pendingChunks.remove(correlationId)
+                    );
+                case CANCEL_BATCH_RUN:
+                    delegate.cancelBatchRun(buffer.getLong(offset + BATCH_RUN_ID_OFFSET));
+                    return null;
+                case COMPLETE_BATCH_RUN:
+                    delegate.completeBatchRun(buffer.getLong(offset + BATCH_RUN_ID_OFFSET));
+                    return null;
+                case PREPARE_BATCH_RUN:
+                    delegate.prepareBatchRun(buffer.getLong(offset + BATCH_RUN_ID_OFFSET));
+                    return null;
+                case COMMIT_BATCH_RUN:
+                    delegate.commitBatchRun(buffer.getLong(offset + BATCH_RUN_ID_OFFSET));
+                    return null;
+                case RESUME_BATCH_RUN:
+                    return delegate.resumeBatchRun(buffer.getLong(offset + BATCH_RUN_ID_OFFSET));
+                default:
+                    throw new IllegalStateException("Unknown command: " + command);
+            }
+        }
+
+        /**
+         * Decodes chunk part and adds its records to the pending chunk.
+         *
+         * @return {@code true} if it was the last part of the chunk
+         */
+        private boolean collectChunkPart(long correlationId, MutableDirectBuffer buffer, int offset) {
+            List<PriceRecord> priceRecords = pendingChunks.get(correlationId);
+            final int count = buffer.getInt(offset + RECORDS_COUNT_OFFSET);
+            if (isNull(priceRecords)) {
+                priceRecords = new ArrayList<>(count);
+                pendingChunks.put(correlationId, priceRecords);
+            }
+            int position = offset + RECORDS_OFFSET;
+            for (int i = 0; i < count; i++) {
+                final String instrument = buffer.getStringUtf8(position);
+                position += Integer.BYTES + buffer.getInt(position);
+                final long asOf = buffer.getLong(position);
+                position += Long.BYTES;
+                final int payloadLength = buffer.getInt(position);
+                position += Integer.BYTES;
+                final byte[] storedPayload = new byte[buffer.getInt(position)];
+                position += Integer.BYTES;
+                buffer.getBytes(position, storedPayload);
+                position += storedPayload.length;
+                priceRecords.add(delegate.restorePreparedRecord(instrument, asOf, storedPayload, payloadLength));
+            }
+            return buffer.getInt(offset + LAST_PART_OFFSET) == 1;
+        }
+    }
+
+    /**
+     * Upload applied by the writer thread, which waits for its journal to be forced.
+     */
+    private static final class AppliedUpload {
+
+        private final CompletableFuture<Object> result;
+        private final long chunkSizeInBytes;
+
+        private AppliedUpload(CompletableFuture<Object> result, long chunkSizeInBytes) {
+            this.result = result;
+            this.chunkSizeInBytes = chunkSizeInBytes;
+        }
+    }
+
+}
@@ -0,0 +1,343 @@
+package com.xxx.lastprice.domain;
+
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Price records map which keeps records on heap until their estimated size crosses the configured threshold.
+ * After that all records are moved to a memory-mapped temporary file and only an index of
+ * record addresses and stored payload lengths stays on heap. The map still holds a single record per instrument.
+ *
+ * Records are appended to the file, a record replacing an existing one of the same size is written in place.
+ * Records replaced by appended ones leave dead bytes behind, once there are more dead bytes than live ones
+ * and at least a segment of them, live records are copied into a new file and the old one is deleted.
+ * Payloads are written the way the records keep them, compressed payloads are not inflated on the way.
+ * Records read from the file are materialised into new {@link PriceRecord} instances. Once the map is spilled
+ * {@link #put} does not materialise the replaced record and returns {@code null}, the owning container
+ * reads the existing record before replacing it anyway.
+ *
+ * The spill file is not accounted by the {@link BatchRunAdmissionControl}, only the heap index is. Compaction
+ * keeps dead bytes below the live ones or a segment, so the file does not grow beyond twice the size
+ * of the live records plus two segments, and there is at most one live record per supported instrument.
+ *
+ * This class is not thread safe, access has to be synchronised by the owning {@link PriceRecordContainer}.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+class SpillingPriceRecordMap extends AbstractMap<String, PriceRecord> {
+
+    /**
+     * Size of the file regions mapped at once.
+     */
+    static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Estimated heap footprint of an index entry, the instrument length is added on top.
+     */
+    static final int INDEX_ENTRY_OVERHEAD_BYTES = 72;
+
+    private static final int AS_OF_OFFSET = 0;
+    private static final int PAYLOAD_LENGTH_OFFSET = AS_OF_OFFSET + Long.BYTES;
+    private static final int STORED_PAYLOAD_LENGTH_OFFSET = PAYLOAD_LENGTH_OFFSET + Integer.BYTES;
+    private static final int PAYLOAD_OFFSET = STORED_PAYLOAD_LENGTH_OFFSET + Integer.BYTES;
+
+    private final long spillThresholdBytes;
+    private final Path spillDirectory;
+    private final int segmentSize;
+
+    private Map<String, PriceRecord> heapRecords = new HashMap<>();
+    private long heapSizeInBytes;
+
+    private Map<String, SpilledRecord> spilledRecords;
+    private Path spillFile;
+    private FileChannel spillFileChannel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<UnsafeBuffer> segmentBuffers = new ArrayList<>();
+    private long nextSegmentPosition;
+    private int tailOffset;
+    private long appendedBytes;
+    private long liveBytes;
+
+    SpillingPriceRecordMap(long spillThresholdBytes, Path spillDirectory) {
+        this(spillThresholdBytes, spillDirectory, SEGMENT_SIZE);
+    }
+
+    SpillingPriceRecordMap(long spillThresholdBytes, Path spillDirectory, int segmentSize) {
+        this.spillThresholdBytes = spillThresholdBytes;
+        this.spillDirectory = spillDirectory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Returns estimated number of heap bytes retained by the map.
+     *
+     * @return heap size in bytes
+     */
+    long getHeapSizeInBytes() {
+        return heapSizeInBytes;
+    }
+
+    boolean isSpilled() {
+        return !isNull(spilledRecords);
+    }
+
+    /**
+     * Returns number of bytes appended to the current spill file, including bytes of replaced records.
+     *
+     * @return spill file bytes
+     */
+    long getSpilledBytes() {
+        return appendedBytes;
+    }
+
+    @Override
+    public PriceRecord get(Object instrument) {
+        if (!isSpilled()) {
+            return heapRecords.get(instrument);
+        }
+        final SpilledRecord spilledRecord = spilledRecords.get(instrument);
+        return isNull(spilledRecord) ? null : readRecord((String) instrument, spilledRecord.address);
+    }
+
+    @Override
+    public PriceRecord put(String instrument, PriceRecord priceRecord) {
+        if (!isSpilled()) {
+            final PriceRecord oldRecord = heapRecords.put(instrument, priceRecord);
+            heapSizeInBytes += priceRecord.getSizeInBytes() - (isNull(oldRecord) ? 0 : oldRecord.getSizeInBytes());
+            if (heapSizeInBytes > spillThresholdBytes) {
+                spill();
+            }
+            return oldRecord;
+        }
+        final SpilledRecord spilledRecord = spilledRecords.get(instrument);
+        if (isNull(spilledRecord)) {
+            spilledRecords.put(instrument, appendRecord(priceRecord));
+            heapSizeInBytes += indexEntrySize(instrument);
+            return null;
+        }
+        final int storedPayloadLength = priceRecord.getStoredPayload().length;
+        if (spilledRecord.storedPayloadLength == storedPayloadLength) {
+            writeRecord(spilledRecord.address, priceRecord);
+            return null;
+        }
+        liveBytes -= PAYLOAD_OFFSET + spilledRecord.storedPayloadLength;
+        spilledRecord.address = allocateRecord(PAYLOAD_OFFSET + storedPayloadLength);
+        spilledRecord.storedPayloadLength = storedPayloadLength;
+        writeRecord(spilledRecord.address, priceRecord);
+        final long deadBytes = appendedBytes - liveBytes;
+        if (deadBytes > liveBytes && deadBytes >= segmentSize) {
+            compact();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object instrument) {
+        return isSpilled() ? spilledRecords.containsKey(instrument) : heapRecords.containsKey(instrument);
+    }
+
+    @Override
+    public int size() {
+        return isSpilled() ? spilledRecords.size() : heapRecords.size();
+    }
+
+    @Override
+    public Set<Entry<String, PriceRecord>> entrySet() {
+        if (!isSpilled()) {
+            return heapRecords.entrySet();
+        }
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, PriceRecord>> iterator() {
+                final Iterator<Entry<String, SpilledRecord>> entries = spilledRecords.entrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, PriceRecord> next() {
+                        final Entry<String, SpilledRecord> entry = entries.next();
+                        return new SimpleImmutableEntry<>(
+                            entry.getKey(), readRecord(entry.getKey(), entry.getValue().address)
+                        );
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return spilledRecords.size();
+            }
+        };
+    }
+
+    /**
+     * Unmaps and deletes the spill file if the map was spilled.
+     */
+    void release() {
+        if (!isSpilled()) {
+            return;
+        }
+        segmentBuffers.clear();
+        spilledRecords.clear();
+        heapSizeInBytes = 0;
+        deleteSpillFile(segments, spillFileChannel, spillFile);
+    }
+
+    private void spill() {
+        createSpillFile();
+        spilledRecords = new HashMap<>();
+        heapSizeInBytes = 0;
+        heapRecords.forEach((instrument, priceRecord) -> {
+            spilledRecords.put(instrument, appendRecord(priceRecord));
+            heapSizeInBytes += indexEntrySize(instrument);
+        });
+        heapRecords = null;
+    }
+
+    /**
+     * Copies live records into a new spill file and deletes the old one.
+     */
+    private void compact() {
+        final List<MappedByteBuffer> oldSegments = new ArrayList<>(segments);
+        final List<UnsafeBuffer> oldSegmentBuffers = new ArrayList<>(segmentBuffers);
+        final FileChannel oldSpillFileChannel = spillFileChannel;
+        final Path oldSpillFile = spillFile;
+        segments.clear();
+        segmentBuffers.clear();
+        nextSegmentPosition = 0;
+        appendedBytes = 0;
+        liveBytes = 0;
+        createSpillFile();
+        for (SpilledRecord spilledRecord : spilledRecords.values()) {
+            final UnsafeBuffer oldSegmentBuffer = oldSegmentBuffers.get((int) (spilledRecord.address >>> 32));
+            final int oldOffset = (int) spilledRecord.address;
+            final int recordLength = PAYLOAD_OFFSET + spilledRecord.storedPayloadLength;
+            final long newAddress = allocateRecord(recordLength);
+            segmentBuffer(newAddress).putBytes((int) newAddress, oldSegmentBuffer, oldOffset, recordLength);
+            spilledRecord.address = newAddress;
+        }
+        deleteSpillFile(oldSegments, oldSpillFileChannel, oldSpillFile);
+    }
+
+    private void createSpillFile() {
+        try {
+            spillFile = Files.createTempFile(spillDirectory, "batch-run-", ".spill");
+            spillFileChannel = new RandomAccessFile(spillFile.toFile(), "rw").getChannel();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteSpillFile(List<MappedByteBuffer> fileSegments, FileChannel fileChannel, Path file) {
+        fileSegments.forEach(IoUtil::unmap);
+        fileSegments.clear();
+        try {
+            fileChannel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SpilledRecord appendRecord(PriceRecord priceRecord) {
+        final int storedPayloadLength = priceRecord.getStoredPayload().length;
+        final long address = allocateRecord(PAYLOAD_OFFSET + storedPayloadLength);
+        writeRecord(address, priceRecord);
+        return new SpilledRecord(address, storedPayloadLength);
+    }
+
+    private long allocateRecord(int recordLength) {
+        if (segments.isEmpty() || tailOffset + recordLength > segments.get(segments.size() - 1).capacity()) {
+            mapSegment(Math.max(segmentSize, recordLength));
+        }
+        final long address = ((long) (segments.size() - 1) << 32) | tailOffset;
+        tailOffset += recordLength;
+        appendedBytes += recordLength;
+        liveBytes += recordLength;
+        return address;
+    }
+
+    private void mapSegment(int mappedSize) {
+        try {
+            final MappedByteBuffer segment =
+                spillFileChannel.map(FileChannel.MapMode.READ_WRITE, nextSegmentPosition, mappedSize);
+            segments.add(segment);
+            segmentBuffers.add(new UnsafeBuffer(segment));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        nextSegmentPosition += mappedSize;
+        tailOffset = 0;
+    }
+
+    private void writeRecord(long address, PriceRecord priceRecord) {
+        final UnsafeBuffer segmentBuffer = segmentBuffer(address);
+        final int offset = (int) address;
+        segmentBuffer.putLong(offset + AS_OF_OFFSET, priceRecord.getAsOf());
+        segmentBuffer.putInt(offset + PAYLOAD_LENGTH_OFFSET, priceRecord.getPayloadLength());
+        segmentBuffer.putInt(offset + STORED_PAYLOAD_LENGTH_OFFSET, priceRecord.getStoredPayload().length);
+        segmentBuffer.putBytes(offset + PAYLOAD_OFFSET, priceRecord.getStoredPayload());
+    }
+
+    private PriceRecord readRecord(String instrument, long address) {
+        final UnsafeBuffer segmentBuffer = segmentBuffer(address);
+        final int offset = (int) address;
+        final byte[] storedPayload = new byte[segmentBuffer.getInt(offset + STORED_PAYLOAD_LENGTH_OFFSET)];
+        segmentBuffer.getBytes(offset + PAYLOAD_OFFSET, storedPayload);
+        return PayloadCompressor.restore(
+            instrument,
+            segmentBuffer.getLong(offset + AS_OF_OFFSET),
+            storedPayload,
+            segmentBuffer.getInt(offset + PAYLOAD_LENGTH_OFFSET)
+        );
+    }
+
+    private UnsafeBuffer segmentBuffer(long address) {
+        return segmentBuffers.get((int) (address >>> 32));
+    }
+
+    private static long indexEntrySize(String instrument) {
+        return INDEX_ENTRY_OVERHEAD_BYTES + instrument.length();
+    }
+
+    /**
+     * Index entry of a spilled record, the stored payload length is kept to replace and compact records
+     * without reading them from the file.
+     */
+    private static final class SpilledRecord {
+
+        /**
+         * Segment index in the high and offset within the segment in the low 32 bits.
+         */
+        private long address;
+        private int storedPayloadLength;
+
+        private SpilledRecord(long address, int storedPayloadLength) {
+            this.address = address;
+            this.storedPayloadLength = storedPayloadLength;
+        }
+
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceEvents.CompletionMergeEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Price records container partitioned by instrument into stripes with a read/write lock each.
+ *
+ * An update locks only the stripes its records belong to, always in ascending stripe order, applies
+ * all records and releases the locks afterwards. Updates touching disjoint stripes run in parallel,
+ * while readers never see an update applied partially: a single record read locks its stripe, reading
+ * all records locks every stripe. Every update takes the next commit version while its stripes are locked,
+ * so updates of disjoint stripes may finish out of version order; readers needing the version consistent
+ * with the records read them through {@link #readConsistently(Supplier)}. An update without records
+ * does not take a version.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class StripedPriceRecordContainer extends PriceRecordContainer {
+
+    private final PriceRecordContainer[] stripes;
+    private final AtomicLong version = new AtomicLong();
+
+    public StripedPriceRecordContainer(int stripesNumber) {
+        this(stripesNumber, PriceRecordListener.NO_OP);
+    }
+
+    /**
+     * Creates container notifying the given listener about every accepted record.
+     *
+     * @param stripesNumber number of stripes to partition instruments into
+     * @param listener listener of accepted records, is called concurrently for records of different stripes
+     */
+    public StripedPriceRecordContainer(int stripesNumber, PriceRecordListener listener) {
+        // records, locks and listeners belong to the stripes, the parent state is never touched
+        super(null, null, PriceRecordListener.NO_OP);
+        this.stripes = new PriceRecordContainer[stripesNumber];
+        for (int i = 0; i < stripesNumber; i++) {
+            stripes[i] = new PriceRecordContainer(listener);
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns index of the stripe the given instrument belongs to. Producers owning instruments
+     * of different stripes complete their batch runs in parallel.
+     *
+     * @param instrument instrument to locate
+     * @return stripe index
+     */
+    public int getStripeIndex(String instrument) {
+        // spread higher bits like HashMap does, low bits of short tickers hashes are poorly distributed
+        final int hash = instrument.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    @Override
+    public PriceRecord getPriceRecord(String instrument) {
+        return stripes[getStripeIndex(instrument)].getPriceRecord(instrument);
+    }
+
+    @Override
+    public long updatePriceRecords(Collection<PriceRecord> priceRecords) {
+        return applyStriped(groupByStripe(priceRecords), null);
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long sizeInBytes = 0;
+        for (PriceRecordContainer stripe : stripes) {
+            sizeInBytes += stripe.getSizeInBytes();
+        }
+        return sizeInBytes;
+    }
+
+    @Override
+    public <T> T readConsistently(Supplier<T> reader) {
+        for (PriceRecordContainer stripe : stripes) {
+            LastPriceEvents.lock(stripe.getLock().readLock(), this, false);
+        }
+        try {
+            return reader.get();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].getLock().readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void readAll(Consumer<PriceRecord> reader) {
+        readConsistently(() -> {
+            for (PriceRecordContainer stripe : stripes) {
+                stripe.readAll(reader);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    protected void mergeFrom(PriceRecordContainer other) {
+        mergeAllFrom(List.of(other));
+    }
+
+    @Override
+    public void mergeAllFrom(Collection<? extends PriceRecordContainer> others) {
+        final CompletionMergeEvent event = new CompletionMergeEvent();
+        event.begin();
+        final List<List<PriceRecord>> stripedRecords = emptyStripedRecords();
+        others.forEach(other -> other.readAll(priceRecord -> addToStripe(stripedRecords, priceRecord)));
+        applyStriped(stripedRecords, event);
+        event.end();
+        if (event.shouldCommit()) {
+            event.batchRunIds = LastPriceEvents.batchRunIds(others);
+            event.commit();
+        }
+    }
+
+    /**
+     * Applies records to their stripes.
+     *
+     * @param stripedRecords records grouped by stripe
+     * @param event merge event to fill with the merge outcome, {@code null} for plain updates
+     * @return change of the estimated container size in bytes
+     */
+    private long applyStriped(List<List<PriceRecord>> stripedRecords, CompletionMergeEvent event) {
+        if (stripedRecords.stream().allMatch(List::isEmpty)) {
+            return 0;
+        }
+        for (int i = 0; i < stripes.length; i++) {
+            if (!stripedRecords.get(i).isEmpty()) {
+                LastPriceEvents.lock(stripes[i].getLock().writeLock(), this, true);
+            }
+        }
+        try {
+            final long updateVersion = version.incrementAndGet();
+            long sizeDelta = 0;
+            for (int i = 0; i < stripes.length; i++) {
+                final long staleBefore = stripes[i].unsafeGetStaleRecords();
+                for (PriceRecord priceRecord : stripedRecords.get(i)) {
+                    sizeDelta += stripes[i].unsafeUpdatePriceRecord(priceRecord, updateVersion);
+                }
+                if (!isNull(event)) {
+                    final long staleRecords = stripes[i].unsafeGetStaleRecords() - staleBefore;
+                    event.appliedRecords += stripedRecords.get(i).size() - staleRecords;
+                    event.staleRecords += staleRecords;
+                }
+            }
+            return sizeDelta;
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                if (!stripedRecords.get(i).isEmpty()) {
+                    stripes[i].getLock().writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private List<List<PriceRecord>> groupByStripe(Collection<PriceRecord> priceRecords) {
+        final List<List<PriceRecord>> stripedRecords = emptyStripedRecords();
+        priceRecords.forEach(priceRecord -> addToStripe(stripedRecords, priceRecord));
+        return stripedRecords;
+    }
+
+    private List<List<PriceRecord>> emptyStripedRecords() {
+        final List<List<PriceRecord>> stripedRecords = new ArrayList<>(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            stripedRecords.add(new ArrayList<>());
+        }
+        return stripedRecords;
+    }
+
+    private void addToStripe(List<List<PriceRecord>> stripedRecords, PriceRecord priceRecord) {
+        stripedRecords.get(getStripeIndex(priceRecord.getInstrument())).add(priceRecord);
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.xxx.lastprice.domain;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Schedules tasks of several producer classes on a shared executor using start-time fair queueing.
+ * Every class has its own queue, weight and concurrency limit. A class gets a share of dispatches
+ * proportional to its weight while it has queued tasks, so a class flooding the scheduler delays
+ * other classes only by its fair share and never by the whole length of its queue.
+ *
+ * A task holds its slot until it calls the release callback it is given, which lets tasks finishing
+ * asynchronously keep the slot until they are actually done.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class WeightedFairScheduler {
+
+    /**
+     * Class of tasks submitted without class or with a class which is not registered.
+     */
+    public static final String DEFAULT_CLASS = "default";
+
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final Map<String, ProducerClass> classes = new HashMap<>();
+
+    private int inFlight;
+    private double virtualTime;
+
+    /**
+     * Creates scheduler with the default class only.
+     *
+     * @param executor executor to run dispatched tasks on
+     * @param maxConcurrency maximum number of tasks of all classes holding their slots at the same time
+     */
+    public WeightedFairScheduler(Executor executor, int maxConcurrency) {
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        classes.put(DEFAULT_CLASS, new ProducerClass(DEFAULT_CLASS, 1, maxConcurrency));
+    }
+
+    /**
+     * Registers producer class or replaces settings of the default one.
+     *
+     * @param name name of the class
+     * @param weight relative share of dispatches the class gets while it has queued tasks
+     * @param maxConcurrency maximum number of tasks of the class holding their slots at the same time
+     */
+    public synchronized void registerClass(String name, int weight, int maxConcurrency) {
+        if (weight <= 0 || maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Weight and concurrency of class " + name + " have to be positive");
+        }
+        classes.put(name, new ProducerClass(name, weight, maxConcurrency));
+    }
+
+    /**
+     * Queues task of the given class. The task has to call the given release callback once it is done,
+     * calling it more than once has no effect.
+     *
+     * @param className producer class of the task, {@code null} or unknown class falls back to {@link #DEFAULT_CLASS}
+     * @param task task to run
+     */
+    public void execute(String className, Consumer<Runnable> task) {
+        final List<Runnable> dispatched;
+        synchronized (this) {
+            ProducerClass producerClass = isNull(className) ? null : classes.get(className);
+            if (isNull(producerClass)) {
+                producerClass = classes.get(DEFAULT_CLASS);
+            }
+            if (producerClass.queue.isEmpty() && producerClass.inFlight == 0) {
+                // idle class must not bank credit for the time it was not competing
+                producerClass.virtualStart = Math.max(producerClass.virtualStart, virtualTime);
+            }
+            producerClass.queue.add(new QueuedTask(producerClass, task, System.nanoTime()));
+            dispatched = dispatch();
+        }
+        dispatched.forEach(executor::execute);
+    }
+
+    /**
+     * Returns snapshot of per class statistics.
+     *
+     * @return statistics of all registered classes
+     */
+    public synchronized Collection<ClassStats> getStats() {
+        final List<ClassStats> stats = new ArrayList<>(classes.size());
+        classes.values().forEach(producerClass -> stats.add(new ClassStats(
+            producerClass.name,
+            producerClass.queue.size(),
+            producerClass.inFlight,
+            producerClass.dispatched,
+            producerClass.totalWaitNanos,
+            producerClass.maxWaitNanos
+        )));
+        return stats;
+    }
+
+    private void release(ProducerClass producerClass) {
+        final List<Runnable> dispatched;
+        synchronized (this) {
+            producerClass.inFlight--;
+            inFlight--;
+            dispatched = dispatch();
+        }
+        dispatched.forEach(executor::execute);
+    }
+
+    /**
+     * Picks tasks to run while there are free slots. Has to be called holding the scheduler monitor,
+     * the returned tasks are handed to the executor outside of it.
+     */
+    private List<Runnable> dispatch() {
+        List<Runnable> dispatched = List.of();
+        while (inFlight < maxConcurrency) {
+            ProducerClass next = null;
+            for (ProducerClass producerClass : classes.values()) {
+                if (!producerClass.queue.isEmpty() && producerClass.inFlight < producerClass.maxConcurrency
+                    && (isNull(next) || producerClass.virtualStart < next.virtualStart)) {
+                    next = producerClass;
+                }
+            }
+            if (isNull(next)) {
+                break;
+            }
+            final QueuedTask queuedTask = next.queue.poll();
+            virtualTime = next.virtualStart;
+            next.virtualStart += 1.0 / next.weight;
+            next.inFlight++;
+            inFlight++;
+            next.dispatched++;
+            final long waitNanos = System.nanoTime() - queuedTask.enqueuedNanos;
+            next.totalWaitNanos += waitNanos;
+            next.maxWaitNanos = Math.max(next.maxWaitNanos, waitNanos);
+            if (dispatched.isEmpty()) {
+                dispatched = new ArrayList<>();
+            }
+            dispatched.add(queuedTask);
+        }
+        return dispatched;
+    }
+
+    private static final class ProducerClass {
+
+        private final String name;
+        private final int weight;
+        private final int maxConcurrency;
+        private final Queue<QueuedTask> queue = new ArrayDeque<>();
+
+        private int inFlight;
+        private double virtualStart;
+        private long dispatched;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        ProducerClass(String name, int weight, int maxConcurrency) {
+            this.name = name;
+            this.weight = weight;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+    }
+
+    private final class QueuedTask implements Runnable {
+
+        private final ProducerClass producerClass;
+        private final Consumer<Runnable> task;
+        private final long enqueuedNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        QueuedTask(ProducerClass producerClass, Consumer<Runnable> task, long enqueuedNanos) {
+            this.producerClass = producerClass;
+            this.task = task;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.accept(this::release);
+            } catch (RuntimeException | Error e) {
+                release();
+                throw e;
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                WeightedFairScheduler.this.release(producerClass);
+            }
+        }
+
+    }
+
+    /**
+     * Statistics of a producer class.
+     */
+    public static final class ClassStats {
+
+        private final String name;
+        private final int queueDepth;
+        private final int inFlight;
+        private final long dispatched;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        ClassStats(String name, int queueDepth, int inFlight, long dispatched, long totalWaitNanos, long maxWaitNanos) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.inFlight = inFlight;
+            this.dispatched = dispatched;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getDispatched() {
+            return dispatched;
+        }
+
+        /**
+         * Returns mean time dispatched tasks spent in the queue.
+         *
+         * @return mean wait time in nanoseconds, zero if nothing was dispatched yet
+         */
+        public long getMeanWaitNanos() {
+            return dispatched == 0 ? 0 : totalWaitNanos / dispatched;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{queueDepth=" + queueDepth + ", inFlight=" + inFlight + ", dispatched=" + dispatched
+                + ", meanWaitUs=" + getMeanWaitNanos() / 1000 + ", maxWaitUs=" + maxWaitNanos / 1000 + '}';
+        }
+
+    }
+
+}
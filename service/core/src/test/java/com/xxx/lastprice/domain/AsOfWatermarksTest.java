@@ -0,0 +1,43 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class AsOfWatermarksTest {
+
+    private static final String AAPL = "AAPL";
+    private static final String AMZN = "AMZN";
+
+    private final AsOfWatermarks asOfWatermarks = new AsOfWatermarks(List.of(AAPL, AMZN));
+    private final PriceRecordContainer marketState = new PriceRecordContainer(asOfWatermarks);
+
+    @Test
+    public void shouldFilterRecordsSupersededInMarketState() {
+        marketState.updatePriceRecords(List.of(new PriceRecord(AAPL, 10L, new byte[1])));
+        final PriceRecord stale = new PriceRecord(AAPL, 9L, new byte[1]);
+        final PriceRecord sameAsOf = new PriceRecord(AAPL, 10L, new byte[1]);
+        final PriceRecord unknownInMarket = new PriceRecord(AMZN, 1L, new byte[1]);
+        assertThat(asOfWatermarks.isSuperseded(stale), is(true));
+        assertThat(
+            asOfWatermarks.filterSuperseded(List.of(stale, sameAsOf, unknownInMarket)),
+            contains(sameAsOf, unknownInMarket)
+        );
+    }
+
+    @Test
+    public void shouldReturnSameCollectionIfNothingSuperseded() {
+        final Collection<PriceRecord> records = List.of(new PriceRecord(AAPL, 1L, new byte[1]));
+        assertThat(asOfWatermarks.filterSuperseded(records), sameInstance(records));
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.Test;
+
+import static com.xxx.lastprice.domain.BatchRunAdmissionControl.BATCH_RUN_OVERHEAD_BYTES;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BatchRunAdmissionControlTest {
+
+    private final BatchRunAdmissionControl admissionControl =
+        new BatchRunAdmissionControl(2, BATCH_RUN_OVERHEAD_BYTES + 1000, 600, 100);
+
+    @Test
+    public void shouldLimitNumberOfActiveBatchRuns() {
+        assertThat(admissionControl.tryAdmitBatchRun(), is(true));
+        assertThat(admissionControl.tryAdmitBatchRun(), is(true));
+        assertThat(admissionControl.tryAdmitBatchRun(), is(false));
+        admissionControl.cancelAdmission();
+        assertThat(admissionControl.tryAdmitBatchRun(), is(true));
+        assertThat(admissionControl.getActiveBatchRuns(), is(2));
+    }
+
+    @Test
+    public void shouldLimitBatchRunAndTotalBytes() {
+        final BatchRun first = new BatchRun(1L);
+        final BatchRun second = new BatchRun(2L);
+        assertThat(admissionControl.tryReserveBatchRunOverhead(), is(true));
+        assertThat(admissionControl.tryReserve(first, 601), is(false));
+        assertThat(admissionControl.tryReserve(first, 600), is(true));
+        assertThat(admissionControl.tryReserve(second, 401), is(false));
+        assertThat(second.getReservedBytes().get(), is(0L));
+        assertThat(admissionControl.tryReserve(second, 400), is(true));
+        assertThat(admissionControl.getTotalBytes(), is(BATCH_RUN_OVERHEAD_BYTES + 1000));
+    }
+
+    @Test
+    public void shouldNotReleaseMoreThanReserved() {
+        final BatchRun batchRun = new BatchRun(1L);
+        assertThat(admissionControl.tryAdmitBatchRun(), is(true));
+        assertThat(admissionControl.tryReserveBatchRunOverhead(), is(true));
+        assertThat(admissionControl.tryReserve(batchRun, 300), is(true));
+        admissionControl.releaseBatchRun(batchRun);
+        admissionControl.release(batchRun, 300);
+        assertThat(admissionControl.getTotalBytes(), is(0L));
+        assertThat(admissionControl.getActiveBatchRuns(), is(0));
+    }
+
+}
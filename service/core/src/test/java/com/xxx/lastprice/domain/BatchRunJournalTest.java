@@ -0,0 +1,176 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.BatchRunJournal.JournaledBatchRun;
+import com.xxx.lastprice.domain.BatchRunJournal.JournaledChunk;
+import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BatchRunJournalTest {
+
+    private static final List<String> INSTRUMENTS = List.of("AIR", "TEAM", "NEE");
+
+    @TempDir
+    Path journalDirectory;
+
+    @Test
+    public void shouldRecoverJournaledChunksAndPreparedState() {
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, false)) {
+            journal.create(3L);
+            journal.append(3L, 1L, List.of(new PriceRecord("AIR", 10L, new byte[]{1, 2})));
+            journal.append(3L, 2L, List.of(new PriceRecord("TEAM", 20L, new byte[0])));
+            journal.create(5L);
+            journal.markPrepared(5L);
+        }
+
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, false)) {
+            final SortedMap<Long, JournaledBatchRun> batchRuns = journal.recover();
+
+            assertThat(batchRuns.keySet(), contains(3L, 5L));
+            final JournaledBatchRun batchRun = batchRuns.get(3L);
+            assertThat(batchRun.isPrepared(), is(false));
+            assertThat(batchRun.getChunksCount(), is(2));
+            final List<JournaledChunk> chunks = new ArrayList<>();
+            batchRun.forEachChunk(chunks::add);
+            assertThat(chunks.get(0).getChunkSequence(), is(1L));
+            final PriceRecord priceRecord = chunks.get(0).getPriceRecords().get(0);
+            assertThat(priceRecord.getInstrument(), is("AIR"));
+            assertThat(priceRecord.getAsOf(), is(10L));
+            assertThat(priceRecord.getPayload(), is(new byte[]{1, 2}));
+            assertThat(chunks.get(1).getChunkSequence(), is(2L));
+            assertThat(chunks.get(1).getPriceRecords().get(0).getInstrument(), is("TEAM"));
+            assertThat(batchRuns.get(5L).isPrepared(), is(true));
+            assertThat(batchRuns.get(5L).getChunksCount(), is(0));
+        }
+    }
+
+    @Test
+    public void shouldJournalCompressedPayloadsAsStored() {
+        final byte[] payload = new byte[1024];
+        final PriceRecord compressedRecord = new PayloadCompressor(64, 0).compress(new PriceRecord("AIR", 1L, payload));
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, true)) {
+            journal.create(1L);
+            journal.append(1L, 1L, List.of(compressedRecord));
+            journal.sync(1L);
+        }
+
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, true)) {
+            final List<JournaledChunk> chunks = new ArrayList<>();
+            journal.recover().get(1L).forEachChunk(chunks::add);
+
+            final PriceRecord priceRecord = chunks.get(0).getPriceRecords().get(0);
+            assertThat(priceRecord.getStoredPayload(), is(compressedRecord.getStoredPayload()));
+            assertThat(priceRecord.getPayloadLength(), is(payload.length));
+            assertThat(priceRecord.getPayload(), is(payload));
+        }
+    }
+
+    @Test
+    public void shouldTruncateTornTailAndKeepAppending() throws IOException {
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, true)) {
+            journal.create(1L);
+            journal.append(1L, 1L, List.of(new PriceRecord("AIR", 10L, new byte[16])));
+            journal.append(1L, 2L, List.of(new PriceRecord("NEE", 20L, new byte[16])));
+        }
+        final Path journalFile = journalDirectory.resolve("batch-run-1.journal");
+        final long sizeWithTwoChunks = Files.size(journalFile);
+        // a crash in the middle of the second append
+        try (FileChannel file = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            file.truncate(sizeWithTwoChunks - 5);
+        }
+
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, true)) {
+            assertThat(journal.recover().get(1L).getChunksCount(), is(1));
+            journal.append(1L, 2L, List.of(new PriceRecord("NEE", 20L, new byte[16])));
+        }
+
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, true)) {
+            assertThat(journal.recover().get(1L).getChunksCount(), is(2));
+            assertThat(Files.size(journalFile), is(sizeWithTwoChunks));
+        }
+    }
+
+    @Test
+    public void shouldDeleteJournalOnceBatchRunLeftRepository() throws Exception {
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, false)) {
+            final LastPriceServiceImpl service = createService(new PriceRecordContainer(), journal, 0);
+            final long completed = service.startBatchRun();
+            service.uploadPriceRecordsChunk(completed, 1L, List.of(new PriceRecord("AIR", 1L, new byte[0])));
+            final long cancelled = service.startBatchRun();
+
+            service.completeBatchRun(completed);
+            service.cancelBatchRun(cancelled);
+
+            assertThat(journal.recover().isEmpty(), is(true));
+        }
+        try (var journalFiles = Files.list(journalDirectory)) {
+            assertThat(journalFiles.count(), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldResumeBatchRunAfterRestart() throws Exception {
+        final long batchRunId;
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, false)) {
+            final LastPriceServiceImpl service = createService(new PriceRecordContainer(), journal, 0);
+            batchRunId = service.startBatchRun();
+            service.uploadPriceRecordsChunk(batchRunId, 1L, List.of(new PriceRecord("AIR", 1L, new byte[]{1})));
+            service.uploadPriceRecordsChunk(batchRunId, 3L, List.of(new PriceRecord("NEE", 1L, new byte[]{3})));
+            service.uploadPriceRecordsChunk(batchRunId, 1L, List.of(new PriceRecord("AIR", 1L, new byte[]{1})));
+
+            assertThat(service.resumeBatchRun(batchRunId), is(1L));
+        }
+
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, false)) {
+            final SortedMap<Long, JournaledBatchRun> recovered = journal.recover();
+            final LastPriceServiceImpl service = createService(marketState, journal, recovered.lastKey() + 1);
+
+            assertThat(service.restoreBatchRuns(recovered.values()), is(1));
+            assertThat(service.resumeBatchRun(batchRunId), is(1L));
+            service.uploadPriceRecordsChunk(batchRunId, 2L, List.of(new PriceRecord("TEAM", 1L, new byte[]{2})));
+            assertThat(service.resumeBatchRun(batchRunId), is(3L));
+            assertThat(service.startBatchRun(), is(batchRunId + 1));
+            service.completeBatchRun(batchRunId);
+            assertThrows(BatchNotFoundException.class, () -> service.resumeBatchRun(batchRunId));
+        }
+        for (String instrument : INSTRUMENTS) {
+            assertThat(marketState.getPriceRecord(instrument).getAsOf(), is(1L));
+        }
+    }
+
+    private static LastPriceServiceImpl createService(
+        PriceRecordContainer marketState,
+        BatchRunJournal journal,
+        long firstBatchRunId) {
+
+        final AtomicLong batchIdSequence = new AtomicLong(firstBatchRunId);
+        return LastPriceServiceImpl.builder(
+            marketState,
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            INSTRUMENTS,
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        )
+            .batchRunJournal(journal)
+            .build();
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class BatchRunTest {
+
+    private static final String AAPL = "AAPL";
+    private static final String AMZN = "AMZN";
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    public void shouldSpillRecordsAndKeepLatestOnes() throws IOException {
+        final BatchRun batchRun = new BatchRun(1L, 100, spillDirectory);
+        final long firstDelta = batchRun.updatePriceRecords(List.of(new PriceRecord(AAPL, 1L, new byte[10])));
+        assertThat(Files.list(spillDirectory).count(), is(0L));
+        final long secondDelta = batchRun.updatePriceRecords(List.of(
+            new PriceRecord(AMZN, 2L, new byte[100]),
+            new PriceRecord(AAPL, 3L, new byte[] {1, 2, 3}),
+            new PriceRecord(AAPL, 2L, new byte[5])
+        ));
+        assertThat(Files.list(spillDirectory).count(), is(1L));
+        assertThat(firstDelta + secondDelta, is(2L * (SpillingPriceRecordMap.INDEX_ENTRY_OVERHEAD_BYTES + AAPL.length())));
+
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        marketState.updatePriceRecords(List.of(new PriceRecord(AMZN, 5L, new byte[1])));
+        batchRun.mergeTo(marketState);
+        assertThat(marketState.getPriceRecord(AAPL).getAsOf(), is(3L));
+        assertThat(marketState.getPriceRecord(AAPL).getPayload(), equalTo(new byte[] {1, 2, 3}));
+        assertThat(marketState.getPriceRecord(AMZN).getAsOf(), is(5L));
+
+        batchRun.release();
+        assertThat(Files.list(spillDirectory).count(), is(0L));
+    }
+
+    @Test
+    public void shouldCompactSpillFileFullOfReplacedRecords() throws IOException {
+        final int segmentSize = 4096;
+        final SpillingPriceRecordMap spillingRecords = new SpillingPriceRecordMap(0, spillDirectory, segmentSize);
+        final BatchRun batchRun = new BatchRun(1L, spillingRecords);
+        batchRun.updatePriceRecords(List.of(new PriceRecord(AMZN, 1L, new byte[] {7})));
+        for (int i = 0; i < 1000; i++) {
+            batchRun.updatePriceRecords(List.of(new PriceRecord(AAPL, i, new byte[100 + i % 2])));
+            assertThat(spillingRecords.getSpilledBytes(), lessThan(2L * segmentSize));
+        }
+        assertThat(Files.list(spillDirectory).count(), is(1L));
+
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        batchRun.mergeTo(marketState);
+        assertThat(marketState.getPriceRecord(AAPL).getAsOf(), is(999L));
+        assertThat(marketState.getPriceRecord(AAPL).getPayload().length, is(101));
+        assertThat(marketState.getPriceRecord(AMZN).getPayload(), equalTo(new byte[] {7}));
+
+        batchRun.release();
+        assertThat(Files.list(spillDirectory).count(), is(0L));
+    }
+
+    @Test
+    public void shouldOverwriteSpilledRecordOfSameStoredLength() {
+        final SpillingPriceRecordMap spillingRecords = new SpillingPriceRecordMap(0, spillDirectory, 4096);
+        final BatchRun batchRun = new BatchRun(1L, spillingRecords);
+        batchRun.updatePriceRecords(List.of(new PriceRecord(AAPL, 1L, new byte[] {1, 2})));
+        final long spilledBytes = spillingRecords.getSpilledBytes();
+
+        batchRun.updatePriceRecords(List.of(new PriceRecord(AAPL, 2L, new byte[] {3, 4})));
+        assertThat(spillingRecords.getSpilledBytes(), is(spilledBytes));
+        assertThat(batchRun.getPriceRecord(AAPL).getPayload(), equalTo(new byte[] {3, 4}));
+
+        batchRun.updatePriceRecords(List.of(new PriceRecord(AAPL, 3L, new byte[] {5, 6, 7})));
+        assertThat(spillingRecords.getSpilledBytes(), is(2 * spilledBytes + 1));
+        assertThat(batchRun.getPriceRecord(AAPL).getPayload(), equalTo(new byte[] {5, 6, 7}));
+        batchRun.release();
+    }
+
+    @Test
+    public void shouldIgnoreAlreadyAppliedChunk() {
+        final BatchRun batchRun = new BatchRun(1L);
+        final List<PriceRecord> chunk = List.of(new PriceRecord(AAPL, 1L, new byte[10]));
+        assertThat(batchRun.updatePriceRecords(2L, chunk), is(chunk.get(0).getSizeInBytes()));
+        assertThat(batchRun.updatePriceRecords(2L, chunk), is(0L));
+        assertThat(batchRun.updatePriceRecords(1L, List.of(new PriceRecord(AAPL, 2L, new byte[10]))), is(0L));
+        assertThat(batchRun.getPriceRecord(AAPL).getAsOf(), is(2L));
+        assertThat(batchRun.getSizeInBytes(), is(chunk.get(0).getSizeInBytes()));
+    }
+
+    @Test
+    public void shouldApplyRetriedChunkIfConcurrentAttemptFails() throws Exception {
+        final BatchRun batchRun = new BatchRun(1L);
+        final List<PriceRecord> chunk = List.of(new PriceRecord(AAPL, 1L, new byte[10]));
+        final CountDownLatch firstAttemptStarted = new CountDownLatch(1);
+        final CountDownLatch firstAttemptReleased = new CountDownLatch(1);
+        final AtomicInteger journaledChunks = new AtomicInteger();
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Runnable failingJournal = () -> {
+                firstAttemptStarted.countDown();
+                awaitUninterruptibly(firstAttemptReleased);
+                throw new IllegalStateException("Journal failure");
+            };
+            final Future<Long> firstAttempt =
+                executorService.submit(() -> batchRun.updatePriceRecords(1L, chunk, failingJournal));
+            assertThat(firstAttemptStarted.await(5, TimeUnit.SECONDS), is(true));
+            final Future<Long> retry =
+                executorService.submit(() -> batchRun.updatePriceRecords(1L, chunk, journaledChunks::incrementAndGet));
+
+            // the retry is not acknowledged while the first attempt may still fail
+            assertThrows(TimeoutException.class, () -> retry.get(100, TimeUnit.MILLISECONDS));
+            assertThat(batchRun.isChunkApplied(1L), is(false));
+            firstAttemptReleased.countDown();
+
+            final ExecutionException e = assertThrows(ExecutionException.class, firstAttempt::get);
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+            assertThat(retry.get(5, TimeUnit.SECONDS), is(chunk.get(0).getSizeInBytes()));
+        } finally {
+            firstAttemptReleased.countDown();
+            executorService.shutdown();
+        }
+        assertThat(journaledChunks.get(), is(1));
+        assertThat(batchRun.isChunkApplied(1L), is(true));
+        assertThat(batchRun.getAcceptedChunkSequence(), is(1L));
+        assertThat(batchRun.getPriceRecord(AAPL).getAsOf(), is(1L));
+    }
+
+    @Test
+    public void shouldAcknowledgeRetriedChunkOnlyOnceConcurrentAttemptApplied() throws Exception {
+        final BatchRun batchRun = new BatchRun(1L);
+        final List<PriceRecord> chunk = List.of(new PriceRecord(AAPL, 1L, new byte[10]));
+        final CountDownLatch firstAttemptStarted = new CountDownLatch(1);
+        final CountDownLatch firstAttemptReleased = new CountDownLatch(1);
+        final AtomicInteger journaledChunks = new AtomicInteger();
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Runnable slowJournal = () -> {
+                firstAttemptStarted.countDown();
+                awaitUninterruptibly(firstAttemptReleased);
+                journaledChunks.incrementAndGet();
+            };
+            final Future<Long> firstAttempt =
+                executorService.submit(() -> batchRun.updatePriceRecords(1L, chunk, slowJournal));
+            assertThat(firstAttemptStarted.await(5, TimeUnit.SECONDS), is(true));
+            final Future<Long> retry =
+                executorService.submit(() -> batchRun.updatePriceRecords(1L, chunk, journaledChunks::incrementAndGet));
+
+            assertThrows(TimeoutException.class, () -> retry.get(100, TimeUnit.MILLISECONDS));
+            firstAttemptReleased.countDown();
+
+            assertThat(firstAttempt.get(5, TimeUnit.SECONDS), is(chunk.get(0).getSizeInBytes()));
+            assertThat(retry.get(5, TimeUnit.SECONDS), is(0L));
+        } finally {
+            firstAttemptReleased.countDown();
+            executorService.shutdown();
+        }
+        assertThat(journaledChunks.get(), is(1));
+        assertThat(batchRun.getSizeInBytes(), is(chunk.get(0).getSizeInBytes()));
+    }
+
+    @Test
+    public void shouldKeepLatestRecordsOfChunksAppliedConcurrently() throws Exception {
+        final BatchRun batchRun = new BatchRun(1L);
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> uploads = new ArrayList<>();
+            for (int producer = 0; producer < 4; producer++) {
+                final int firstAsOf = producer;
+                uploads.add(executorService.submit(() -> {
+                    for (long asOf = firstAsOf; asOf < 10_000; asOf += 4) {
+                        batchRun.updatePriceRecords(asOf + 1, List.of(
+                            new PriceRecord(AAPL, asOf, new byte[1]), new PriceRecord(AMZN, -asOf, new byte[1])
+                        ));
+                    }
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertThat(batchRun.getPriceRecord(AAPL).getAsOf(), is(9999L));
+        assertThat(batchRun.getPriceRecord(AMZN).getAsOf(), is(0L));
+        assertThat(batchRun.getSizeInBytes(), is(2L * new PriceRecord(AAPL, 0L, new byte[1]).getSizeInBytes()));
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ChunkReducerTest {
+
+    private static final String AAPL = "AAPL";
+    private static final String MSFT = "MSFT";
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldKeepLatestAndLastOfEqualRecords() throws Exception {
+        final ChunkReducer reducer = new ChunkReducer(ChunkReducer.DEFAULT_PARALLEL_THRESHOLD, pool);
+        final PriceRecord aaplLatest = new PriceRecord(AAPL, 3L, new byte[0]);
+        final PriceRecord msftFirst = new PriceRecord(MSFT, 2L, new byte[0]);
+        final PriceRecord msftLast = new PriceRecord(MSFT, 2L, new byte[0]);
+
+        final Collection<PriceRecord> latestRecords = reducer.reduce(
+            List.of(new PriceRecord(AAPL, 1L, new byte[0]), aaplLatest, msftFirst,
+                new PriceRecord(AAPL, 2L, new byte[0]), msftLast),
+            Set.of(AAPL, MSFT)
+        );
+
+        assertThat(latestRecords, containsInAnyOrder(sameInstance(aaplLatest), sameInstance(msftLast)));
+    }
+
+    @Test
+    public void shouldReturnChunkWithoutDuplicatesAsIs() throws Exception {
+        final ChunkReducer reducer = new ChunkReducer(ChunkReducer.DEFAULT_PARALLEL_THRESHOLD, pool);
+        final List<PriceRecord> chunk = List.of(new PriceRecord(AAPL, 1L, new byte[0]),
+            new PriceRecord(MSFT, 1L, new byte[0]));
+
+        assertThat(reducer.reduce(chunk, Set.of(AAPL, MSFT)), sameInstance(chunk));
+    }
+
+    @Test
+    public void shouldReduceLargeChunksInParallelAsSequentially() throws Exception {
+        final Random random = new Random(1);
+        final Set<String> instruments = new HashSet<>();
+        for (int i = 0; i < 5_000; i++) {
+            instruments.add("INSTRUMENT_" + i);
+        }
+        final List<String> instrumentsList = new ArrayList<>(instruments);
+        final List<PriceRecord> chunk = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            chunk.add(new PriceRecord(
+                instrumentsList.get(random.nextInt(instrumentsList.size())), random.nextInt(10), new byte[0]
+            ));
+        }
+
+        final Collection<PriceRecord> sequential = new ChunkReducer(Integer.MAX_VALUE, pool).reduce(chunk, instruments);
+        final Collection<PriceRecord> parallel = new ChunkReducer(1, pool).reduce(chunk, instruments);
+
+        final Map<String, PriceRecord> expected = new HashMap<>();
+        sequential.forEach(priceRecord -> expected.put(priceRecord.getInstrument(), priceRecord));
+        assertThat(parallel.size(), is(expected.size()));
+        for (PriceRecord priceRecord : parallel) {
+            assertThat(priceRecord, sameInstance(expected.get(priceRecord.getInstrument())));
+        }
+    }
+
+    @Test
+    public void shouldRejectUnsupportedInstrument() {
+        final List<PriceRecord> chunk = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            chunk.add(new PriceRecord(i == 7_000 ? MSFT : AAPL, i, new byte[0]));
+        }
+
+        assertThrows(WrongInstrumentException.class, () -> new ChunkReducer(1, pool).reduce(chunk, Set.of(AAPL)));
+        assertThrows(
+            WrongInstrumentException.class,
+            () -> new ChunkReducer(Integer.MAX_VALUE, pool).reduce(chunk, Set.of(AAPL))
+        );
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class GroupCommitCompletionStageTest {
+
+    private static final String AAPL = "AAPL";
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void shouldReturnOnlyOnceRecordsOfBatchRunAreVisible() throws Exception {
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        final GroupCommitCompletionStage completionStage = new GroupCommitCompletionStage(marketState, 200);
+        final int threads = 8;
+        final int batchRunsPerThread = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger invisibleRecords = new AtomicInteger();
+        final List<Future<?>> completions = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            final int threadId = thread;
+            completions.add(executorService.submit(() -> {
+                start.await();
+                for (int i = 0; i < batchRunsPerThread; i++) {
+                    final String instrument = "INSTRUMENT_" + threadId + "_" + i;
+                    completionStage.complete(batchRun(threadId * batchRunsPerThread + i, instrument, i, 1));
+                    if (marketState.getPriceRecord(instrument) == null) {
+                        invisibleRecords.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> completion : completions) {
+            completion.get(10, TimeUnit.SECONDS);
+        }
+
+        assertThat(invisibleRecords.get(), is(0));
+    }
+
+    @Test
+    public void shouldResolveEqualAsOfInFavourOfLaterCompletionWithinGroup() throws Exception {
+        final BlockingMarketState marketState = new BlockingMarketState(null);
+        final GroupCommitCompletionStage completionStage = new GroupCommitCompletionStage(marketState, 0);
+
+        final Future<?> first =
+            completeWhileFirstMergeIsBlocked(completionStage, marketState, batchRun(1L, AAPL, 1, 1));
+        final Future<?> second = submitAndAwaitQueued(completionStage, batchRun(2L, AAPL, 2, 2));
+        final Future<?> third = submitAndAwaitQueued(completionStage, batchRun(3L, AAPL, 2, 3));
+        marketState.releaseFirstMerge.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        third.get(10, TimeUnit.SECONDS);
+
+        // both later completions were merged by a single publisher in the order they were enqueued
+        assertThat(marketState.mergeSizes, contains(1, 2));
+        assertThat(marketState.getPriceRecord(AAPL).getAsOf(), is(2L));
+        assertThat(marketState.getPriceRecord(AAPL).getPayload()[0], is((byte) 3));
+    }
+
+    @Test
+    public void shouldFailEveryCompletionOfFailedGroup() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("Merge failed");
+        final BlockingMarketState marketState = new BlockingMarketState(failure);
+        final GroupCommitCompletionStage completionStage = new GroupCommitCompletionStage(marketState, 0);
+
+        final Future<?> first =
+            completeWhileFirstMergeIsBlocked(completionStage, marketState, batchRun(1L, AAPL, 1, 1));
+        final Future<?> second = submitAndAwaitQueued(completionStage, batchRun(2L, AAPL, 2, 2));
+        final Future<?> third = submitAndAwaitQueued(completionStage, batchRun(3L, "AMZN", 2, 3));
+        marketState.releaseFirstMerge.countDown();
+        first.get(10, TimeUnit.SECONDS);
+
+        for (Future<?> completion : List.of(second, third)) {
+            final ExecutionException e = assertThrows(ExecutionException.class,
+                () -> completion.get(10, TimeUnit.SECONDS));
+            assertThat(e.getCause(), sameInstance(failure));
+        }
+        assertThat(marketState.mergeSizes, contains(1, 2));
+        assertThat(marketState.getPriceRecord(AAPL).getAsOf(), is(1L));
+
+        // the stage stays usable after a failed group
+        marketState.failure = null;
+        completionStage.complete(batchRun(4L, "AMZN", 4, 4));
+        assertThat(marketState.getPriceRecord("AMZN"), notNullValue());
+    }
+
+    private Future<?> completeWhileFirstMergeIsBlocked(
+        GroupCommitCompletionStage completionStage,
+        BlockingMarketState marketState,
+        BatchRun batchRun) throws InterruptedException {
+
+        final Future<?> completion = executorService.submit(() -> completionStage.complete(batchRun));
+        assertThat(marketState.firstMergeEntered.await(10, TimeUnit.SECONDS), is(true));
+        return completion;
+    }
+
+    /**
+     * Completes the batch run on another thread and waits until the thread blocks on the publisher lock,
+     * so its batch run is queued behind the ones submitted before.
+     */
+    private Future<?> submitAndAwaitQueued(GroupCommitCompletionStage completionStage, BatchRun batchRun)
+        throws InterruptedException {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread[] completingThread = new Thread[1];
+        final Future<?> completion = executorService.submit(() -> {
+            completingThread[0] = Thread.currentThread();
+            started.countDown();
+            completionStage.complete(batchRun);
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (completingThread[0].getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(completingThread[0].getState(), is(Thread.State.WAITING));
+        return completion;
+    }
+
+    private static BatchRun batchRun(long id, String instrument, long asOf, int payload) {
+        final BatchRun batchRun = new BatchRun(id);
+        batchRun.updatePriceRecords(List.of(new PriceRecord(instrument, asOf, new byte[]{(byte) payload})));
+        return batchRun;
+    }
+
+    /**
+     * Market state whose first merge waits to be released, so the following completions queue up.
+     * Merges after the first one fail with the given failure, if any.
+     */
+    private static final class BlockingMarketState extends PriceRecordContainer {
+
+        private final CountDownLatch firstMergeEntered = new CountDownLatch(1);
+        private final CountDownLatch releaseFirstMerge = new CountDownLatch(1);
+        private final List<Integer> mergeSizes = new CopyOnWriteArrayList<>();
+        private volatile RuntimeException failure;
+
+        private BlockingMarketState(RuntimeException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public void mergeAllFrom(Collection<? extends PriceRecordContainer> others) {
+            mergeSizes.add(others.size());
+            if (mergeSizes.size() == 1) {
+                firstMergeEntered.countDown();
+                try {
+                    releaseFirstMerge.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else if (failure != null) {
+                throw failure;
+            }
+            super.mergeAllFrom(others);
+        }
+    }
+
+}
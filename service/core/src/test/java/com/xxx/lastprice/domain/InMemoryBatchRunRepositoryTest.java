@@ -7,7 +7,9 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.concurrent.locks.Lock;
@@ -38,7 +40,7 @@ public class InMemoryBatchRunRepositoryTest {
         new PriorityQueue<>(comparingLong(CleanUpEntity::getLastUpdateTimestamp));
 
     private final InMemoryBatchRunRepository repository = new InMemoryBatchRunRepository(
-        epochClock, readWriteLock, batchRuns, cleanUpEntities, cleanUpQueue, batchIdSequence
+        epochClock, readWriteLock, batchRuns, cleanUpEntities, cleanUpQueue, batchIdSequence, BatchRun::new
     );
 
     @BeforeEach
@@ -76,4 +78,42 @@ public class InMemoryBatchRunRepositoryTest {
         inOrder.verify(readLock).unlock();
     }
 
+    @Test
+    public void shouldKeepBatchRunUpdatedSinceItWasQueuedForCleanUp() {
+        when(batchIdSequence.getAsLong()).thenReturn(1L, 2L);
+        when(epochClock.time()).thenReturn(100L, 100L, 200L, 250L);
+        final BatchRun updatedBatchRun = repository.create();
+        final BatchRun abandonedBatchRun = repository.create();
+        repository.update(updatedBatchRun.getId(), batchRun -> { });
+
+        final List<BatchRun> removedBatchRuns = new ArrayList<>();
+        assertThat(repository.removeOutdated(100L, Integer.MAX_VALUE, removedBatchRuns::add), Matchers.is(1));
+        assertThat(removedBatchRuns, contains(abandonedBatchRun));
+        assertThat(batchRuns.values(), contains(updatedBatchRun));
+        assertThat(cleanUpQueue, contains(new CleanUpEntity(updatedBatchRun, 200L)));
+        assertThat(cleanUpQueue.peek().getLastUpdateTimestamp(), Matchers.is(200L));
+    }
+
+    @Test
+    public void shouldKeepPreparedBatchRunUntilItsOwnEvictionTime() {
+        when(batchIdSequence.getAsLong()).thenReturn(1L, 2L);
+        when(epochClock.time()).thenReturn(100L);
+        final BatchRun preparedBatchRun = repository.create();
+        final BatchRun abandonedBatchRun = repository.create();
+        preparedBatchRun.prepare();
+
+        final List<BatchRun> removedBatchRuns = new ArrayList<>();
+        when(epochClock.time()).thenReturn(300L);
+        assertThat(repository.removeOutdated(100L, 1000L, Integer.MAX_VALUE, removedBatchRuns::add), Matchers.is(1));
+        assertThat(removedBatchRuns, contains(abandonedBatchRun));
+        assertThat(cleanUpQueue.peek().getLastUpdateTimestamp(), Matchers.is(1000L));
+
+        when(epochClock.time()).thenReturn(1099L);
+        assertThat(repository.removeOutdated(100L, 1000L, Integer.MAX_VALUE, removedBatchRuns::add), Matchers.is(0));
+        when(epochClock.time()).thenReturn(1100L);
+        assertThat(repository.removeOutdated(100L, 1000L, Integer.MAX_VALUE, removedBatchRuns::add), Matchers.is(1));
+        assertThat(removedBatchRuns, contains(abandonedBatchRun, preparedBatchRun));
+        assertThat(cleanUpQueue.isEmpty(), Matchers.is(true));
+    }
+
 }
@@ -0,0 +1,130 @@
+package com.xxx.lastprice.domain;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class LastPriceEventsTest {
+
+    private static final String AAPL = "AAPL";
+    private static final String MSFT = "MSFT";
+    private static final long ABANDONED_TIMEOUT = 1_000L;
+
+    private final Recording recording = new Recording();
+    private Path recordingFile;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        recording.close();
+        if (recordingFile != null) {
+            Files.deleteIfExists(recordingFile);
+        }
+    }
+
+    @Test
+    public void shouldRecordBatchRunLifecycle() throws Exception {
+        final AtomicLong time = new AtomicLong();
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        marketState.updatePriceRecords(List.of(new PriceRecord(AAPL, 5L, new byte[1])));
+        final LastPriceServiceImpl service = LastPriceServiceImpl.builder(
+            marketState,
+            new InMemoryBatchRunRepository(time::get, batchIdSequence::getAndIncrement),
+            List.of(AAPL, MSFT),
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        )
+            .abandonedBatchRunTimeoutMs(ABANDONED_TIMEOUT)
+            .build();
+        recording.enable(LastPriceEvents.BatchRunStartEvent.class);
+        recording.enable(LastPriceEvents.ChunkUploadEvent.class);
+        recording.enable(LastPriceEvents.CompletionMergeEvent.class);
+        recording.enable(LastPriceEvents.EvictionPassEvent.class);
+        recording.start();
+
+        final long completedId = service.startBatchRun();
+        service.uploadPriceRecordsChunk(
+            completedId, 0, List.of(new PriceRecord(AAPL, 1L, new byte[1]), new PriceRecord(MSFT, 1L, new byte[1]))
+        );
+        service.completeBatchRun(completedId);
+        final long abandonedId = service.startBatchRun();
+        time.addAndGet(ABANDONED_TIMEOUT + 1);
+        service.removeAbandonedBatchRuns();
+
+        final List<RecordedEvent> events = stopRecording();
+        assertThat(longValues(events, "com.xxx.lastprice.BatchRunStart", "batchRunId"),
+            contains(completedId, abandonedId));
+        final RecordedEvent upload = single(events, "com.xxx.lastprice.ChunkUpload");
+        assertThat(upload.getLong("batchRunId"), is(completedId));
+        assertThat(upload.getInt("records"), is(2));
+        final RecordedEvent merge = single(events, "com.xxx.lastprice.CompletionMerge");
+        assertThat(merge.getString("batchRunIds"), is(String.valueOf(completedId)));
+        assertThat(merge.getLong("appliedRecords"), is(1L));
+        assertThat(merge.getLong("staleRecords"), is(1L));
+        final RecordedEvent eviction = single(events, "com.xxx.lastprice.EvictionPass");
+        assertThat(eviction.getInt("evicted"), is(1));
+        assertThat(eviction.getInt("active"), is(0));
+    }
+
+    @Test
+    public void shouldRecordLockWaitsOverThreshold() throws Exception {
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        recording.enable(LastPriceEvents.LockWaitEvent.class).withThreshold(Duration.ofMillis(10));
+        recording.start();
+
+        marketState.getPriceRecord(AAPL);
+        marketState.getLock().writeLock().lock();
+        final Thread reader = new Thread(() -> marketState.getPriceRecord(AAPL));
+        try {
+            reader.start();
+            Thread.sleep(100);
+        } finally {
+            marketState.getLock().writeLock().unlock();
+        }
+        reader.join();
+
+        final RecordedEvent lockWait = single(stopRecording(), "com.xxx.lastprice.LockWait");
+        assertThat(lockWait.getString("owner"), is("PriceRecordContainer"));
+        assertThat(lockWait.getBoolean("write"), is(false));
+    }
+
+    private List<RecordedEvent> stopRecording() throws IOException {
+        recording.stop();
+        recordingFile = Files.createTempFile("last-price-events", ".jfr");
+        recording.dump(recordingFile);
+        return RecordingFile.readAllEvents(recordingFile);
+    }
+
+    private static RecordedEvent single(List<RecordedEvent> events, String name) {
+        final List<RecordedEvent> found = events.stream()
+            .filter(event -> event.getEventType().getName().equals(name))
+            .collect(Collectors.toList());
+        assertThat(found, hasSize(1));
+        return found.get(0);
+    }
+
+    private static List<Long> longValues(List<RecordedEvent> events, String name, String field) {
+        return events.stream()
+            .filter(event -> event.getEventType().getName().equals(name))
+            .map(event -> event.getLong(field))
+            .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class LastPriceServiceImplTest {
+
+    private final List<String> instruments = List.of("AIR", "TEAM", "NEE");
+    private final AtomicLong batchIdSequence = new AtomicLong();
+
+    private final LastPriceServiceImpl service = LastPriceServiceImpl.builder(
+        new PriceRecordContainer(),
+        new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+        instruments,
+        new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+    ).build();
+
+    private final AsyncLastPriceService asyncService = service.async();
+
+    @Test
+    public void shouldAnswerCommandsOfMissingBatchRunWithStatus() {
+        final long missingBatchRunId = 42L;
+
+        assertThat(upload(missingBatchRunId, 1L, 1L).getStatus(), is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.cancelBatchRun(missingBatchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.completeBatchRun(missingBatchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.prepareBatchRun(missingBatchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.commitBatchRun(missingBatchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.resumeBatchRun(missingBatchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThrows(BatchNotFoundException.class, () -> service.completeBatchRun(missingBatchRunId));
+    }
+
+    @Test
+    public void shouldApplyBatchRunCommandsThroughAsyncView() {
+        final long batchRunId = asyncService.startBatchRun().join().getValue();
+
+        assertThat(upload(batchRunId, 1L, 5L).getStatus(), is(ServiceResult.Status.SUCCESS));
+        assertThat(asyncService.uploadPriceRecordsChunk(
+            batchRunId, 2L, List.of(new PriceRecord("UNKNOWN", 1L, new byte[0]))
+        ).join().getStatus(), is(ServiceResult.Status.WRONG_INSTRUMENT));
+        assertThat(asyncService.resumeBatchRun(batchRunId).join().getValue(), is(1L));
+        assertThat(asyncService.commitBatchRun(batchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.prepareBatchRun(batchRunId).join().getStatus(), is(ServiceResult.Status.SUCCESS));
+        assertThat(upload(batchRunId, 2L, 6L).getStatus(), is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.commitBatchRun(batchRunId).join().getStatus(), is(ServiceResult.Status.SUCCESS));
+
+        assertThat(asyncService.findLastPrice("AIR").join().getValue().getAsOf(), is(5L));
+        assertThat(asyncService.completeBatchRun(batchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+
+        final long cancelledBatchRunId = asyncService.startBatchRun().join().getValue();
+        assertThat(upload(cancelledBatchRunId, 1L, 7L).getStatus(), is(ServiceResult.Status.SUCCESS));
+        assertThat(asyncService.cancelBatchRun(cancelledBatchRunId).join().getStatus(),
+            is(ServiceResult.Status.SUCCESS));
+        assertThat(asyncService.findLastPrice("AIR").join().getValue().getAsOf(), is(5L));
+    }
+
+    private ServiceResult<Void> upload(long batchRunId, long chunkSequence, long asOf) {
+        return asyncService.uploadPriceRecordsChunk(
+            batchRunId, chunkSequence, List.of(new PriceRecord("AIR", asOf, new byte[]{1}))
+        ).join();
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class MarketChangeJournalTest {
+
+    private static final String AAPL = "AAPL";
+    private static final String AMZN = "AMZN";
+    private static final String MSFT = "MSFT";
+
+    private final MarketChangeJournal changeJournal = new MarketChangeJournal(3);
+    private final PriceRecordContainer marketState = new PriceRecordContainer(changeJournal);
+
+    @Test
+    public void shouldFindInstrumentsChangedAfterVersion() {
+        marketState.updatePriceRecords(List.of(new PriceRecord(AAPL, 1L, new byte[0])));
+        final long version = marketState.getVersion();
+        marketState.updatePriceRecords(List.of(new PriceRecord(AMZN, 1L, new byte[0])));
+        marketState.updatePriceRecords(List.of(new PriceRecord(AMZN, 2L, new byte[0])));
+
+        assertThat(changeJournal.findChangedSince(version), containsInAnyOrder(AMZN));
+        assertThat(changeJournal.findChangedSince(0L), containsInAnyOrder(AAPL, AMZN));
+        assertThat(changeJournal.findChangedSince(marketState.getVersion()), is(empty()));
+    }
+
+    @Test
+    public void shouldNotAnswerForChangesNotRetained() {
+        marketState.updatePriceRecords(List.of(new PriceRecord(AAPL, 1L, new byte[0])));
+        marketState.updatePriceRecords(List.of(new PriceRecord(AMZN, 1L, new byte[0])));
+        final long version = marketState.getVersion();
+        marketState.updatePriceRecords(List.of(
+            new PriceRecord(MSFT, 1L, new byte[0]), new PriceRecord(AAPL, 2L, new byte[0])
+        ));
+
+        assertThat(changeJournal.findChangedSince(0L), nullValue());
+        assertThat(changeJournal.findChangedSince(version), containsInAnyOrder(AAPL, MSFT));
+    }
+
+    @Test
+    public void shouldAnswerVersionOfAnotherEpochWithSnapshot() {
+        final LastPriceServiceImpl service = createService();
+        marketState.updatePriceRecords(List.of(new PriceRecord(AAPL, 1L, new byte[0])));
+        final MarketChanges snapshot = service.findChangesSince(0L, 0L);
+        marketState.updatePriceRecords(List.of(new PriceRecord(AMZN, 1L, new byte[0])));
+
+        final MarketChanges changes = service.findChangesSince(snapshot.getEpoch(), snapshot.getVersion());
+        // a restarted service starts a new epoch, its versions may overlap with the ones handed out before
+        final MarketChanges changesAfterRestart =
+            createService().findChangesSince(snapshot.getEpoch(), snapshot.getVersion());
+
+        assertThat(snapshot.isSnapshot(), is(true));
+        assertThat(changes.isSnapshot(), is(false));
+        assertThat(instruments(changes), contains(AMZN));
+        assertThat(changesAfterRestart.isSnapshot(), is(true));
+        assertThat(instruments(changesAfterRestart), containsInAnyOrder(AAPL, AMZN));
+    }
+
+    private LastPriceServiceImpl createService() {
+        return LastPriceServiceImpl.builder(
+            marketState,
+            new InMemoryBatchRunRepository(System::currentTimeMillis, () -> 0L),
+            List.of(AAPL, AMZN, MSFT),
+            new BatchRunAdmissionControl(1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).changeJournal(changeJournal).build();
+    }
+
+    private static List<String> instruments(MarketChanges changes) {
+        return changes.getPriceRecords().stream().map(PriceRecord::getInstrument).collect(Collectors.toList());
+    }
+
+}
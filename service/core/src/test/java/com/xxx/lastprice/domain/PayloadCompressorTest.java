@@ -0,0 +1,120 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PayloadCompressorTest {
+
+    private static final String AAPL = "AAPL";
+
+    private final PayloadCompressor compressor = new PayloadCompressor(64, 16);
+
+    @Test
+    public void shouldCompressPayloadAndRestoreIt() {
+        final PriceRecord priceRecord = new PriceRecord(AAPL, 1L, quote());
+
+        final PriceRecord compressedRecord = compressor.compress(priceRecord);
+
+        assertThat(compressedRecord.getSizeInBytes(), lessThan(priceRecord.getSizeInBytes() / 2));
+        assertThat(compressedRecord.getPayload(), is(priceRecord.getPayload()));
+        assertThat(compressedRecord.getInstrument(), is(AAPL));
+        assertThat(compressedRecord.getAsOf(), is(1L));
+    }
+
+    @Test
+    public void shouldKeepShortAndIncompressiblePayloads() {
+        final byte[] randomPayload = new byte[1024];
+        new Random(1).nextBytes(randomPayload);
+        final PriceRecord shortRecord = new PriceRecord(AAPL, 1L, new byte[63]);
+        final PriceRecord randomRecord = new PriceRecord(AAPL, 1L, randomPayload);
+
+        assertThat(compressor.compress(shortRecord), sameInstance(shortRecord));
+        assertThat(compressor.compress(randomRecord), sameInstance(randomRecord));
+    }
+
+    @Test
+    public void shouldCachePayloadsReadRepeatedly() {
+        final PriceRecord compressedRecord = compressor.compress(new PriceRecord(AAPL, 1L, quote()));
+
+        final byte[] firstRead = compressedRecord.getPayload();
+        final byte[] secondRead = compressedRecord.getPayload();
+        final byte[] thirdRead = compressedRecord.getPayload();
+
+        assertThat(secondRead, not(sameInstance(firstRead)));
+        assertThat(thirdRead, sameInstance(secondRead));
+        final PriceRecord newerRecord = compressor.compress(new PriceRecord(AAPL, 2L, quote()));
+        assertThat(newerRecord.getPayload(), not(sameInstance(secondRead)));
+    }
+
+    @Test
+    public void shouldKeepUploadedPayloadsCompressed() throws Exception {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        final LastPriceServiceImpl service = LastPriceServiceImpl.builder(
+            marketState,
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            List.of(AAPL),
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        )
+            .payloadCompressor(compressor)
+            .abandonedBatchRunTimeoutMs(1_000L)
+            .build();
+        final PriceRecord priceRecord = new PriceRecord(AAPL, 1L, quote());
+
+        final long batchRunId = service.startBatchRun();
+        service.uploadPriceRecordsChunk(batchRunId, 0, List.of(priceRecord));
+        service.completeBatchRun(batchRunId);
+
+        assertThat(service.findLastPrice(AAPL).orElseThrow().getPayload(), is(priceRecord.getPayload()));
+        assertThat(marketState.getSizeInBytes(), lessThan(priceRecord.getSizeInBytes() / 2));
+    }
+
+    @Test
+    public void shouldCopyCompressedPayloadsToHistoryAndSpilledBatchRuns(@TempDir Path spillDirectory)
+        throws Exception {
+
+        final PriceRecord priceRecord = new PriceRecord(AAPL, 1L, quote());
+        final PriceRecord compressedRecord = compressor.compress(priceRecord);
+        final PriceHistory priceHistory = new PriceHistory(List.of(AAPL), 2, 4096);
+        final BatchRun batchRun = new BatchRun(1L, 0, spillDirectory);
+
+        priceHistory.onPriceRecordUpdated(compressedRecord, 1L);
+        batchRun.updatePriceRecords(List.of(compressedRecord));
+        final PriceRecord historyRecord = priceHistory.findPriceAsOf(AAPL, 1L);
+        final PriceRecordContainer marketState = new PriceRecordContainer();
+        batchRun.mergeTo(marketState);
+        final PriceRecord spilledRecord = marketState.getPriceRecord(AAPL);
+        batchRun.release();
+
+        assertThat(historyRecord.getStoredPayload(), is(compressedRecord.getStoredPayload()));
+        assertThat(historyRecord.getPayload(), is(priceRecord.getPayload()));
+        assertThat(spilledRecord.getStoredPayload(), is(compressedRecord.getStoredPayload()));
+        assertThat(spilledRecord.getPayloadLength(), is(priceRecord.getPayload().length));
+        assertThat(spilledRecord.getPayload(), is(priceRecord.getPayload()));
+    }
+
+    private static byte[] quote() {
+        final StringBuilder quote = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            quote.append("{\"venue\":\"XETR\",\"bid\":").append(100 + i).append(".25,\"ask\":").append(101 + i)
+                .append(".75,\"bidSize\":1000,\"askSize\":1200,\"currency\":\"EUR\"}");
+        }
+        return quote.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceServiceException.PriceEvictedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class PriceHistoryTest {
+
+    private static final String AAPL = "AAPL";
+
+    @Test
+    public void shouldFindLatestRecordNotAfterTimestamp() throws Exception {
+        final PriceHistory priceHistory = new PriceHistory(List.of(AAPL), 3, 1024);
+        for (long asOf = 10; asOf <= 50; asOf += 10) {
+            priceHistory.onPriceRecordUpdated(new PriceRecord(AAPL, asOf, new byte[] {(byte) asOf}), asOf);
+        }
+
+        assertThat(priceHistory.findPriceAsOf(AAPL, 45L).getAsOf(), is(40L));
+        assertThat(priceHistory.findPriceAsOf(AAPL, 45L).getPayload(), equalTo(new byte[] {40}));
+        assertThat(priceHistory.findPriceAsOf(AAPL, 100L).getAsOf(), is(50L));
+        assertThat(priceHistory.findPriceAsOf(AAPL, 30L).getAsOf(), is(30L));
+        // pushed out of the ring
+        assertThat(priceHistory.findPriceAsOf(AAPL, 25L), nullValue());
+        assertThat(priceHistory.findPriceAsOf("AMZN", 100L), nullValue());
+    }
+
+    @Test
+    public void shouldReportRecordsWithOverwrittenPayloadsAsEvicted() throws Exception {
+        final PriceHistory priceHistory = new PriceHistory(List.of(AAPL), 10, 10);
+        priceHistory.onPriceRecordUpdated(new PriceRecord(AAPL, 1L, new byte[] {1, 1, 1, 1}), 1L);
+        priceHistory.onPriceRecordUpdated(new PriceRecord(AAPL, 2L, new byte[] {2, 2, 2, 2}), 2L);
+        priceHistory.onPriceRecordUpdated(new PriceRecord(AAPL, 3L, new byte[] {3, 3, 3, 3}), 3L);
+
+        assertThrows(PriceEvictedException.class, () -> priceHistory.findPriceAsOf(AAPL, 1L));
+        assertThat(priceHistory.findPriceAsOf(AAPL, 2L).getPayload(), equalTo(new byte[] {2, 2, 2, 2}));
+        assertThat(priceHistory.findPriceAsOf(AAPL, 3L).getPayload(), equalTo(new byte[] {3, 3, 3, 3}));
+        assertThat(priceHistory.findPriceAsOf(AAPL, 0L), nullValue());
+    }
+
+    @Test
+    public void shouldReportRecordsWithPayloadsLargerThanBufferAsEvicted() throws Exception {
+        final PriceHistory priceHistory = new PriceHistory(List.of(AAPL), 10, 10);
+        priceHistory.onPriceRecordUpdated(new PriceRecord(AAPL, 1L, new byte[] {1}), 1L);
+        priceHistory.onPriceRecordUpdated(new PriceRecord(AAPL, 2L, new byte[11]), 2L);
+
+        assertThat(priceHistory.findPriceAsOf(AAPL, 1L).getPayload(), equalTo(new byte[] {1}));
+        assertThrows(PriceEvictedException.class, () -> priceHistory.findPriceAsOf(AAPL, 2L));
+    }
+
+}
@@ -14,6 +14,7 @@ import java.util.function.Consumer;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.when;
 
@@ -101,4 +102,20 @@ public class PriceRecordContainerTest {
         inOrder.verify(otherWriteLock).unlock();
     }
 
+    @Test
+    public void shouldMergeAllContainersInGivenOrder() {
+        final PriceRecordContainer first = new PriceRecordContainer();
+        final PriceRecordContainer second = new PriceRecordContainer();
+        final PriceRecord firstPriceRecord = new PriceRecord(AAPL, 100500L, new byte[10]);
+        final PriceRecord secondPriceRecord = new PriceRecord(AAPL, 100500L, new byte[10]);
+        final PriceRecord olderPriceRecord = new PriceRecord(AMZN, 100499L, new byte[10]);
+        final PriceRecord newerPriceRecord = new PriceRecord(AMZN, 100501L, new byte[10]);
+        first.updatePriceRecords(List.of(firstPriceRecord, newerPriceRecord));
+        second.updatePriceRecords(List.of(secondPriceRecord, olderPriceRecord));
+        final PriceRecordContainer target = new PriceRecordContainer();
+        target.mergeAllFrom(List.of(first, second));
+        assertThat(target.getPriceRecord(AAPL), sameInstance(secondPriceRecord));
+        assertThat(target.getPriceRecord(AMZN), sameInstance(newerPriceRecord));
+    }
+
 }
@@ -0,0 +1,205 @@
+package com.xxx.lastprice.domain;
+
+import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
+import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class SingleWriterLastPriceServiceTest {
+
+    private static final int RING_BUFFER_CAPACITY = 4096;
+
+    private final List<String> instruments = List.of("AIR", "TEAM", "NEE");
+    private final AtomicLong batchIdSequence = new AtomicLong();
+
+    private final SingleWriterLastPriceService service = new SingleWriterLastPriceService(
+        LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            instruments,
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 100)
+        ).build(),
+        RING_BUFFER_CAPACITY,
+        System::currentTimeMillis,
+        60_000
+    );
+
+    @TempDir
+    Path journalDirectory;
+
+    @AfterEach
+    public void tearDown() {
+        service.close();
+    }
+
+    @Test
+    public void shouldApplyChunkSplitIntoSeveralMessages() throws Exception {
+        final List<PriceRecord> priceRecords = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            priceRecords.add(new PriceRecord(instruments.get(i % instruments.size()), i, new byte[]{(byte) i}));
+        }
+
+        final long batchRunId = service.startBatchRun();
+        service.uploadPriceRecordsChunk(batchRunId, priceRecords);
+        service.completeBatchRun(batchRunId);
+
+        assertThat(service.findLastPrice("AIR").orElseThrow().getAsOf(), is(99L));
+        assertThat(service.findLastPrice("TEAM").orElseThrow().getPayload()[0], is((byte) 97));
+        assertThat(service.findLastPrice("NEE").orElseThrow().getAsOf(), is(98L));
+    }
+
+    @Test
+    public void shouldRejectChunkWithOversizedRecordBeforeSendingAnyPart() throws Exception {
+        final List<PriceRecord> priceRecords = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            priceRecords.add(new PriceRecord("AIR", i, new byte[1]));
+        }
+        priceRecords.add(new PriceRecord("AIR", 100L, new byte[RING_BUFFER_CAPACITY]));
+
+        final long batchRunId = service.startBatchRun();
+        assertThrows(IllegalArgumentException.class, () -> service.uploadPriceRecordsChunk(batchRunId, priceRecords));
+        final CompletableFuture<ServiceResult<Void>> result = service.async().uploadPriceRecordsChunk(
+            batchRunId, 1L, priceRecords
+        );
+        final CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+        service.completeBatchRun(batchRunId);
+
+        assertThat(service.findLastPrice("AIR").isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldPassCompressedChunksToWriterAndAcknowledgeThemOnceJournaled() {
+        final byte[] payload = "{\"bid\":1.0,\"ask\":1.1}".repeat(64).getBytes(StandardCharsets.UTF_8);
+        try (BatchRunJournal journal = new BatchRunJournal(journalDirectory, true);
+             SingleWriterLastPriceService journaledService = new SingleWriterLastPriceService(
+                 LastPriceServiceImpl.builder(
+                     new PriceRecordContainer(),
+                     new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+                     instruments,
+                     new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 100)
+                 )
+                     .payloadCompressor(new PayloadCompressor(64, 16))
+                     .batchRunJournal(journal)
+                     .build(),
+                 RING_BUFFER_CAPACITY,
+                 System::currentTimeMillis,
+                 60_000
+             )) {
+
+            final AsyncLastPriceService asyncService = journaledService.async();
+            final long batchRunId = asyncService.startBatchRun().join().getValue();
+            final List<CompletableFuture<ServiceResult<Void>>> uploads = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                uploads.add(asyncService.uploadPriceRecordsChunk(
+                    batchRunId, i + 1, List.of(new PriceRecord(instruments.get(i % instruments.size()), i, payload))
+                ));
+            }
+            for (CompletableFuture<ServiceResult<Void>> upload : uploads) {
+                assertThat(upload.join().getStatus(), is(ServiceResult.Status.SUCCESS));
+            }
+            assertThat(asyncService.resumeBatchRun(batchRunId).join().getValue(), is(10L));
+            assertThat(asyncService.completeBatchRun(batchRunId).join().getStatus(), is(ServiceResult.Status.SUCCESS));
+
+            final PriceRecord priceRecord = asyncService.findLastPrice("AIR").join().getValue();
+            assertThat(priceRecord.getAsOf(), is(9L));
+            assertThat(priceRecord.getStoredPayload().length, lessThan(payload.length));
+            assertThat(priceRecord.getPayload(), is(payload));
+        }
+    }
+
+    @Test
+    public void shouldFailCommandsSentAfterClose() {
+        service.close();
+
+        assertThrows(IllegalStateException.class, service::startBatchRun);
+        final CompletableFuture<ServiceResult<Void>> result = service.async().completeBatchRun(1L);
+        final CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void shouldPropagateServiceExceptionsToCallers() throws Exception {
+        final long batchRunId = service.startBatchRun();
+
+        assertThrows(WrongInstrumentException.class, () -> service.uploadPriceRecordsChunk(
+            batchRunId, List.of(new PriceRecord("UNKNOWN", 1L, new byte[0]))
+        ));
+        service.cancelBatchRun(batchRunId);
+        assertThrows(BatchNotFoundException.class, () -> service.completeBatchRun(batchRunId));
+    }
+
+    @Test
+    public void shouldPublishPreparedBatchRunOnlyOnCommit() throws Exception {
+        final long batchRunId = service.startBatchRun();
+        service.uploadPriceRecordsChunk(batchRunId, List.of(new PriceRecord("AIR", 1L, new byte[1])));
+
+        assertThrows(BatchNotFoundException.class, () -> service.commitBatchRun(batchRunId));
+        service.prepareBatchRun(batchRunId);
+        service.prepareBatchRun(batchRunId);
+        assertThrows(BatchNotFoundException.class, () -> service.uploadPriceRecordsChunk(
+            batchRunId, List.of(new PriceRecord("AIR", 2L, new byte[1]))
+        ));
+        assertThat(service.findLastPrice("AIR").isPresent(), is(false));
+        service.commitBatchRun(batchRunId);
+
+        assertThat(service.findLastPrice("AIR").orElseThrow().getAsOf(), is(1L));
+        assertThrows(BatchNotFoundException.class, () -> service.commitBatchRun(batchRunId));
+    }
+
+    @Test
+    public void shouldDiscardCancelledPreparedBatchRun() throws Exception {
+        final long batchRunId = service.startBatchRun();
+        service.uploadPriceRecordsChunk(batchRunId, List.of(new PriceRecord("AIR", 1L, new byte[1])));
+
+        service.prepareBatchRun(batchRunId);
+        service.cancelBatchRun(batchRunId);
+
+        assertThrows(BatchNotFoundException.class, () -> service.commitBatchRun(batchRunId));
+        assertThat(service.findLastPrice("AIR").isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldCompleteAsyncCallsWithStatuses() {
+        final AsyncLastPriceService asyncService = service.async();
+        final long batchRunId = asyncService.startBatchRun().join().getValue();
+
+        final ServiceResult<Void> wrongInstrument = asyncService.uploadPriceRecordsChunk(
+            batchRunId, 1L, List.of(new PriceRecord("UNKNOWN", 1L, new byte[0]))
+        ).join();
+        final ServiceResult<Void> uploaded = asyncService.uploadPriceRecordsChunk(
+            batchRunId, 1L, List.of(new PriceRecord("AIR", 1L, new byte[1]))
+        ).join();
+
+        assertThat(wrongInstrument.getStatus(), is(ServiceResult.Status.WRONG_INSTRUMENT));
+        assertThat(uploaded.getStatus(), is(ServiceResult.Status.SUCCESS));
+        assertThat(asyncService.resumeBatchRun(batchRunId).join().getValue(), is(1L));
+        assertThat(asyncService.completeBatchRun(batchRunId).join().getStatus(), is(ServiceResult.Status.SUCCESS));
+        assertThat(asyncService.completeBatchRun(batchRunId).join().getStatus(),
+            is(ServiceResult.Status.BATCH_RUN_NOT_FOUND));
+        assertThat(asyncService.findLastPrice("AIR").join().getValue().getAsOf(), is(1L));
+        assertThat(asyncService.findLastPrice("TEAM").join().getValue(), is(nullValue()));
+        assertThat(asyncService.findLastPrice("UNKNOWN").join().getStatus(),
+            is(ServiceResult.Status.WRONG_INSTRUMENT));
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class StripedPriceRecordContainerTest {
+
+    private static final String AAPL = "AAPL";
+    private static final String MSFT = "MSFT";
+
+    private final StripedPriceRecordContainer marketState = new StripedPriceRecordContainer(4);
+
+    @Test
+    public void shouldMergeBatchRunsAndKeepLatestRecords() {
+        final BatchRun first = new BatchRun(1L);
+        first.updatePriceRecords(List.of(new PriceRecord(AAPL, 2L, new byte[1]), new PriceRecord(MSFT, 1L, new byte[1])));
+        final BatchRun second = new BatchRun(2L);
+        second.updatePriceRecords(List.of(new PriceRecord(AAPL, 1L, new byte[1]), new PriceRecord(MSFT, 3L, new byte[1])));
+
+        first.mergeTo(marketState);
+        marketState.mergeAllFrom(List.of(second));
+
+        assertThat(marketState.getPriceRecord(AAPL).getAsOf(), is(2L));
+        assertThat(marketState.getPriceRecord(MSFT).getAsOf(), is(3L));
+        assertThat(marketState.getVersion(), is(2L));
+        assertThat(marketState.getSizeInBytes(), is(first.getSizeInBytes()));
+    }
+
+    @Test
+    public void shouldNotTakeVersionForEmptyUpdates() {
+        marketState.updatePriceRecords(List.of(new PriceRecord(AAPL, 1L, new byte[1])));
+        marketState.updatePriceRecords(List.of());
+        marketState.mergeAllFrom(List.of(new BatchRun(1L)));
+
+        assertThat(marketState.getVersion(), is(1L));
+    }
+
+    @Test
+    public void shouldNotExposePartiallyAppliedUpdates() throws InterruptedException {
+        final Thread writer = new Thread(() -> {
+            for (long asOf = 1; asOf <= 10_000; asOf++) {
+                marketState.updatePriceRecords(List.of(
+                    new PriceRecord(AAPL, asOf, new byte[1]), new PriceRecord(MSFT, asOf, new byte[1])
+                ));
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            final Map<String, Long> asOfs = new HashMap<>();
+            marketState.readAll(priceRecord -> asOfs.put(priceRecord.getInstrument(), priceRecord.getAsOf()));
+            assertThat(asOfs.get(AAPL), is(asOfs.get(MSFT)));
+        }
+        writer.join();
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.xxx.lastprice.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class WeightedFairSchedulerTest {
+
+    private static final String BULK = "bulk";
+    private static final String INTERACTIVE = "interactive";
+
+    private final Queue<Runnable> executorQueue = new ArrayDeque<>();
+    private final WeightedFairScheduler scheduler = new WeightedFairScheduler(executorQueue::add, 1);
+    private final List<String> executed = new ArrayList<>();
+
+    @Test
+    public void shouldDispatchClassesByWeight() {
+        scheduler.registerClass(BULK, 1, 1);
+        scheduler.registerClass(INTERACTIVE, 3, 1);
+        for (int i = 0; i < 5; i++) {
+            scheduler.execute(BULK, release -> {
+                executed.add(BULK);
+                release.run();
+            });
+        }
+        for (int i = 0; i < 3; i++) {
+            scheduler.execute(INTERACTIVE, release -> {
+                executed.add(INTERACTIVE);
+                release.run();
+            });
+        }
+        runAll();
+        assertThat(executed, contains(BULK, INTERACTIVE, INTERACTIVE, INTERACTIVE, BULK, BULK, BULK, BULK));
+    }
+
+    @Test
+    public void shouldHoldSlotUntilReleased() {
+        final List<Runnable> releases = new ArrayList<>();
+        scheduler.execute(null, releases::add);
+        scheduler.execute(BULK, releases::add);
+        runAll();
+        assertThat(releases.size(), is(1));
+        assertThat(scheduler.getStats().iterator().next().getQueueDepth(), is(1));
+
+        releases.get(0).run();
+        releases.get(0).run();
+        runAll();
+        assertThat(releases.size(), is(2));
+        assertThat(scheduler.getStats().iterator().next().getInFlight(), is(1));
+    }
+
+    private void runAll() {
+        Runnable task;
+        while ((task = executorQueue.poll()) != null) {
+            task.run();
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.xxx.lastprice.server;
+
+import io.grpc.Context;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Moves processing of the given unary methods from the server call executor to a dedicated executor,
+ * so they can not occupy threads of the other methods. If the executor rejects a call, for example
+ * because its queue is full, the call fails with {@link Status#RESOURCE_EXHAUSTED}.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ExecutorRoutingInterceptor implements ServerInterceptor {
+
+    private final Set<String> methods;
+    private final Executor executor;
+
+    /**
+     * Creates interceptor.
+     *
+     * @param methods full names of the methods to route
+     * @param executor executor to process the routed methods on
+     */
+    public ExecutorRoutingInterceptor(Set<String> methods, Executor executor) {
+        this.methods = methods;
+        this.executor = executor;
+    }
+
+    /**
+     * Creates interceptor routing batch run lifecycle methods.
+     *
+     * @param executor executor to process writes on
+     * @return interceptor
+     */
+    public static ExecutorRoutingInterceptor forWrites(Executor executor) {
+        return new ExecutorRoutingInterceptor(LastPriceMethods.WRITE_METHODS, executor);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call,
+        Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+
+        if (!methods.contains(call.getMethodDescriptor().getFullMethodName())) {
+            return next.startCall(call, headers);
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(next.startCall(call, headers)) {
+            @Override
+            public void onHalfClose() {
+                // unary handlers do their work here, so this is the part to be moved
+                final Context context = Context.current();
+                try {
+                    executor.execute(() -> {
+                        if (context.isCancelled()) {
+                            return;
+                        }
+                        try {
+                            context.run(super::onHalfClose);
+                        } catch (RuntimeException e) {
+                            call.close(Status.fromThrowable(e), new Metadata());
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    call.close(Status.RESOURCE_EXHAUSTED.withDescription("Too many queued calls"), new Metadata());
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.xxx.lastprice.server;
+
+import com.xxx.lastprice.transport.LastPriceGrpc;
+
+import java.util.Set;
+
+/**
+ * Groups of the last price service methods used to route and schedule calls.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+final class LastPriceMethods {
+
+    private LastPriceMethods() {
+    }
+
+    /**
+     * Full names of the batch run lifecycle methods.
+     */
+    static final Set<String> WRITE_METHODS = Set.of(
+        LastPriceGrpc.getStartBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getUploadChunkMethod().getFullMethodName(),
+        LastPriceGrpc.getCancelBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getCompleteBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getPrepareBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getCommitBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getResumeBatchRunMethod().getFullMethodName()
+    );
+
+}
@@ -1,28 +1,109 @@
 package com.xxx.lastprice.server;
 
+import com.xxx.lastprice.domain.AsOfWatermarks;
+import com.xxx.lastprice.domain.BatchRun;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.BatchRunJournal;
+import com.xxx.lastprice.domain.BatchRunJournal.JournaledBatchRun;
+import com.xxx.lastprice.domain.ChunkReducer;
+import com.xxx.lastprice.domain.GroupCommitCompletionStage;
 import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
 import com.xxx.lastprice.domain.LastPriceService;
 import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.MarketChangeJournal;
+import com.xxx.lastprice.domain.PayloadCompressor;
+import com.xxx.lastprice.domain.PriceHistory;
 import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.domain.PriceRecordListener;
+import com.xxx.lastprice.domain.SingleWriterLastPriceService;
+import com.xxx.lastprice.domain.StripedPriceRecordContainer;
+import com.xxx.lastprice.domain.WeightedFairScheduler;
 import com.xxx.lastprice.SystemEpochClock;
+import com.xxx.lastprice.transport.ConsistentHashRing;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import io.grpc.ManagedChannel;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
+import io.grpc.services.HealthStatusManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
 import java.util.function.LongSupplier;
 
 import static com.xxx.lastprice.server.ServerConfiguration.ABANDONED_BATCH_RUN_TIMEOUT_MS;
 import static com.xxx.lastprice.server.ServerConfiguration.BATCH_RUNS_CLEAN_UP_INTERVAL_MS;
+import static com.xxx.lastprice.server.ServerConfiguration.BATCH_RUNS_MEMORY_BUDGET_BYTES;
+import static com.xxx.lastprice.server.ServerConfiguration.BATCH_RUN_JOURNAL_DIRECTORY;
+import static com.xxx.lastprice.server.ServerConfiguration.BATCH_RUN_JOURNAL_SYNC;
+import static com.xxx.lastprice.server.ServerConfiguration.BATCH_RUN_MEMORY_BUDGET_BYTES;
+import static com.xxx.lastprice.server.ServerConfiguration.BATCH_RUN_SPILL_DIRECTORY;
+import static com.xxx.lastprice.server.ServerConfiguration.BATCH_RUN_SPILL_THRESHOLD_BYTES;
+import static com.xxx.lastprice.server.ServerConfiguration.CAPTURE_BUFFER_BYTES;
+import static com.xxx.lastprice.server.ServerConfiguration.CAPTURE_FILE;
+import static com.xxx.lastprice.server.ServerConfiguration.CHUNK_PARALLEL_REDUCE_THRESHOLD;
+import static com.xxx.lastprice.server.ServerConfiguration.CHUNK_PRE_REDUCE_ENABLED;
+import static com.xxx.lastprice.server.ServerConfiguration.CLUSTER_NODE;
+import static com.xxx.lastprice.server.ServerConfiguration.CLUSTER_NODES;
+import static com.xxx.lastprice.server.ServerConfiguration.CLUSTER_VIRTUAL_NODES;
+import static com.xxx.lastprice.server.ServerConfiguration.ENGINE_RING_BUFFER_CAPACITY;
+import static com.xxx.lastprice.server.ServerConfiguration.FILTER_SUPERSEDED_ON_UPLOAD;
+import static com.xxx.lastprice.server.ServerConfiguration.GROUP_COMMIT_ENABLED;
+import static com.xxx.lastprice.server.ServerConfiguration.GROUP_COMMIT_LINGER_US;
+import static com.xxx.lastprice.server.ServerConfiguration.MARKET_CHANGES_CHUNK_SIZE;
+import static com.xxx.lastprice.server.ServerConfiguration.MARKET_CHANGE_JOURNAL_CAPACITY;
+import static com.xxx.lastprice.server.ServerConfiguration.MARKET_STATE_STRIPES;
 import static com.xxx.lastprice.server.ServerConfiguration.MAX_ACTIVE_BATCH_RUNS_TARGET;
+import static com.xxx.lastprice.server.ServerConfiguration.MEMORY_BUDGET_RETRY_AFTER_MS;
+import static com.xxx.lastprice.server.ServerConfiguration.PAYLOAD_CACHE_SLOTS;
+import static com.xxx.lastprice.server.ServerConfiguration.PAYLOAD_COMPRESSION_MIN_BYTES;
+import static com.xxx.lastprice.server.ServerConfiguration.PREPARED_BATCH_RUN_TIMEOUT_MS;
+import static com.xxx.lastprice.server.ServerConfiguration.PRICE_HISTORY_DEPTH;
+import static com.xxx.lastprice.server.ServerConfiguration.PRICE_HISTORY_PAYLOAD_BYTES;
+import static com.xxx.lastprice.server.ServerConfiguration.PRODUCER_CLASSES;
+import static com.xxx.lastprice.server.ServerConfiguration.PRODUCER_CLASSES_PROP;
+import static com.xxx.lastprice.server.ServerConfiguration.READ_DIRECT_EXECUTOR;
+import static com.xxx.lastprice.server.ServerConfiguration.READ_EXECUTOR_THREADS;
+import static com.xxx.lastprice.server.ServerConfiguration.SERVER_DOMAIN_SOCKET_PATH;
 import static com.xxx.lastprice.server.ServerConfiguration.SERVER_PORT;
+import static com.xxx.lastprice.server.ServerConfiguration.SHARED_PRICE_PAGE_FILE;
+import static com.xxx.lastprice.server.ServerConfiguration.SHARED_PRICE_PAGE_MAX_PAYLOAD_BYTES;
+import static com.xxx.lastprice.server.ServerConfiguration.SINGLE_WRITER_ENGINE;
 import static com.xxx.lastprice.server.ServerConfiguration.SUPPORTED_INSTRUMENTS;
+import static com.xxx.lastprice.server.ServerConfiguration.WARM_UP_EXIT;
+import static com.xxx.lastprice.server.ServerConfiguration.WARM_UP_ITERATIONS;
+import static com.xxx.lastprice.server.ServerConfiguration.WIRE_COMPRESSION;
+import static com.xxx.lastprice.server.ServerConfiguration.WRITE_EXECUTOR_QUEUE_CAPACITY;
+import static com.xxx.lastprice.server.ServerConfiguration.WRITE_EXECUTOR_THREADS;
+import static com.xxx.lastprice.server.ServerConfiguration.WRITE_SCHEDULER_CONCURRENCY;
+import static com.xxx.lastprice.server.ServerConfiguration.WRITE_SCHEDULER_STATS_INTERVAL_MS;
 
 /**
  * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
@@ -32,41 +113,321 @@ public class LastPriceServer {
     private static final Logger LOGGER = LoggerFactory.getLogger(LastPriceServer.class);
 
     private ScheduledExecutorService executorService;
-    private Server server;
+    private SingleWriterLastPriceService singleWriterService;
+    private SharedPricePageExporter sharedPricePageExporter;
+    private BatchRunJournal batchRunJournal;
+    private EventLoopGroup domainSocketEventLoopGroup;
+    private ExecutorService readExecutorService;
+    private ExecutorService writeExecutorService;
+    private TrafficCaptureInterceptor trafficCapture;
+    private final List<Server> servers = new ArrayList<>();
+    private final HealthStatusManager healthStatusManager = new HealthStatusManager();
+    private final AtomicBoolean stopped = new AtomicBoolean();
 
+    public static void main(String[] args) throws IOException, InterruptedException {
+        new LastPriceServer().start();
+    }
+
+    /**
+     * Starts the server and blocks until it is shut down. The health service reports the server as not serving
+     * until the optional warm-up is over.
+     *
+     * @throws IOException if the server failed to bind
+     * @throws InterruptedException if interrupted while waiting for the shutdown
+     */
     public void start() throws IOException, InterruptedException {
+        final long startNanos = System.nanoTime();
+        setServingStatus(ServingStatus.NOT_SERVING);
         executorService = Executors.newSingleThreadScheduledExecutor();
-        server = ServerBuilder.forPort(SERVER_PORT)
-            .addService(new LastPriceServiceHandler(provideLastPriceService(executorService)))
-            .build()
-            .start();
-        LOGGER.info("Server started, listening on " + SERVER_PORT);
+        ServerServiceDefinition handler = provideServiceDefinition(
+            new LastPriceServiceHandler(provideLastPriceService(executorService), MARKET_CHANGES_CHUNK_SIZE)
+        );
+        if (!WIRE_COMPRESSION.isEmpty()) {
+            handler = ServerInterceptors.intercept(handler, new ResponseCompressionInterceptor(WIRE_COMPRESSION));
+        }
+        if (!CAPTURE_FILE.isEmpty()) {
+            // intercepts first, so captured durations include the time calls wait for the write scheduler
+            trafficCapture = new TrafficCaptureInterceptor(Paths.get(CAPTURE_FILE), CAPTURE_BUFFER_BYTES);
+            handler = ServerInterceptors.intercept(handler, trafficCapture);
+            LOGGER.info("Capturing traffic into " + CAPTURE_FILE);
+        }
+        if (READ_EXECUTOR_THREADS > 0 && !READ_DIRECT_EXECUTOR) {
+            readExecutorService = Executors.newFixedThreadPool(READ_EXECUTOR_THREADS);
+        }
+        if (SERVER_PORT > 0) {
+            servers.add(configureExecutor(ServerBuilder.forPort(SERVER_PORT))
+                .addService(handler)
+                .addService(healthStatusManager.getHealthService())
+                .build()
+                .start());
+            LOGGER.info("Server started, listening on " + SERVER_PORT);
+        }
+        if (!SERVER_DOMAIN_SOCKET_PATH.isEmpty()) {
+            servers.add(startDomainSocketServer(handler));
+            LOGGER.info("Server started, listening on unix:" + SERVER_DOMAIN_SOCKET_PATH);
+        }
+        if (servers.isEmpty()) {
+            throw new IllegalStateException("Neither TCP port nor domain socket path is configured");
+        }
         setUpShutdownHook();
+        if (WARM_UP_ITERATIONS > 0) {
+            warmUp();
+        }
+        setServingStatus(ServingStatus.SERVING);
+        LOGGER.info("Server ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+        if (WARM_UP_EXIT) {
+            // training run, e.g. to record classes for the class data sharing archive
+            stop();
+            return;
+        }
         blockUntilShutdown();
     }
 
+    private void warmUp() throws InterruptedException {
+        final ManagedChannel channel = SERVER_PORT > 0
+            ? NettyChannelBuilder.forAddress("localhost", SERVER_PORT).usePlaintext().build()
+            : NettyChannelBuilder.forAddress(new DomainSocketAddress(SERVER_DOMAIN_SOCKET_PATH))
+                .eventLoopGroup(domainSocketEventLoopGroup)
+                .channelType(EpollDomainSocketChannel.class)
+                .usePlaintext()
+                .build();
+        try {
+            final long warmUpStartNanos = System.nanoTime();
+            new ServerWarmUp(channel, provideOwnedInstruments()).run(WARM_UP_ITERATIONS);
+            LOGGER.info("Warm-up of " + WARM_UP_ITERATIONS + " iterations took "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - warmUpStartNanos) + " ms");
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private void setServingStatus(ServingStatus status) {
+        healthStatusManager.setStatus(HealthStatusManager.SERVICE_NAME_ALL_SERVICES, status);
+        healthStatusManager.setStatus(LastPriceGrpc.SERVICE_NAME, status);
+    }
+
+    /**
+     * Starts server on the configured Unix domain socket. Requires the native epoll transport,
+     * which is bundled with grpc-netty-shaded for Linux.
+     */
+    private Server startDomainSocketServer(ServerServiceDefinition handler) throws IOException {
+        // socket file left by a previous run would make the bind fail
+        Files.deleteIfExists(Paths.get(SERVER_DOMAIN_SOCKET_PATH));
+        domainSocketEventLoopGroup = new EpollEventLoopGroup();
+        final ServerBuilder<?> builder = NettyServerBuilder
+            .forAddress(new DomainSocketAddress(SERVER_DOMAIN_SOCKET_PATH))
+            .channelType(EpollServerDomainSocketChannel.class)
+            .bossEventLoopGroup(domainSocketEventLoopGroup)
+            .workerEventLoopGroup(domainSocketEventLoopGroup);
+        return configureExecutor(builder)
+            .addService(handler)
+            .addService(healthStatusManager.getHealthService())
+            .build()
+            .start();
+    }
+
+    /**
+     * Sets the executor processing calls which are not routed to a dedicated executor, i.e. reads.
+     */
+    private ServerBuilder<?> configureExecutor(ServerBuilder<?> builder) {
+        if (READ_DIRECT_EXECUTOR) {
+            return builder.directExecutor();
+        }
+        if (readExecutorService != null) {
+            return builder.executor(readExecutorService);
+        }
+        return builder;
+    }
+
+    private ServerServiceDefinition provideServiceDefinition(LastPriceServiceHandler handler) {
+        if (WRITE_SCHEDULER_CONCURRENCY <= 0) {
+            if (WRITE_EXECUTOR_THREADS <= 0) {
+                return handler.bindService();
+            }
+            writeExecutorService = new ThreadPoolExecutor(
+                WRITE_EXECUTOR_THREADS,
+                WRITE_EXECUTOR_THREADS,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(WRITE_EXECUTOR_QUEUE_CAPACITY)
+            );
+            return ServerInterceptors.intercept(handler, ExecutorRoutingInterceptor.forWrites(writeExecutorService));
+        }
+        writeExecutorService = Executors.newFixedThreadPool(WRITE_SCHEDULER_CONCURRENCY);
+        final WeightedFairScheduler scheduler =
+            new WeightedFairScheduler(writeExecutorService, WRITE_SCHEDULER_CONCURRENCY);
+        registerProducerClasses(scheduler, PRODUCER_CLASSES);
+        if (WRITE_SCHEDULER_STATS_INTERVAL_MS > 0) {
+            executorService.scheduleAtFixedRate(
+                () -> LOGGER.info("Write scheduler stats: " + scheduler.getStats()),
+                WRITE_SCHEDULER_STATS_INTERVAL_MS,
+                WRITE_SCHEDULER_STATS_INTERVAL_MS,
+                TimeUnit.MILLISECONDS
+            );
+        }
+        return ServerInterceptors.intercept(handler, new WriteCallSchedulingInterceptor(scheduler));
+    }
+
     private LastPriceService provideLastPriceService(ScheduledExecutorService executorService) {
-        return new LastPriceServiceImpl(
-            new PriceRecordContainer(),
+        final List<String> supportedInstruments = provideOwnedInstruments();
+        final AsOfWatermarks asOfWatermarks =
+            FILTER_SUPERSEDED_ON_UPLOAD ? new AsOfWatermarks(supportedInstruments) : null;
+        final PriceHistory priceHistory = PRICE_HISTORY_DEPTH > 0
+            ? new PriceHistory(supportedInstruments, PRICE_HISTORY_DEPTH, PRICE_HISTORY_PAYLOAD_BYTES)
+            : null;
+        PriceRecordListener marketStateListener = asOfWatermarks == null ? PriceRecordListener.NO_OP : asOfWatermarks;
+        if (priceHistory != null) {
+            marketStateListener = marketStateListener.andThen(priceHistory);
+        }
+        final MarketChangeJournal changeJournal =
+            MARKET_CHANGE_JOURNAL_CAPACITY > 0 ? new MarketChangeJournal(MARKET_CHANGE_JOURNAL_CAPACITY) : null;
+        if (changeJournal != null) {
+            marketStateListener = marketStateListener.andThen(changeJournal);
+        }
+        if (!SHARED_PRICE_PAGE_FILE.isEmpty()) {
+            sharedPricePageExporter = new SharedPricePageExporter(
+                Paths.get(SHARED_PRICE_PAGE_FILE),
+                supportedInstruments,
+                SharedPricePageExporter.DEFAULT_MAX_INSTRUMENT_LENGTH,
+                SHARED_PRICE_PAGE_MAX_PAYLOAD_BYTES
+            );
+            marketStateListener = marketStateListener.andThen(sharedPricePageExporter);
+        }
+        final PriceRecordContainer marketState = MARKET_STATE_STRIPES > 1
+            ? new StripedPriceRecordContainer(MARKET_STATE_STRIPES, marketStateListener)
+            : new PriceRecordContainer(marketStateListener);
+        final SortedMap<Long, JournaledBatchRun> recoveredBatchRuns;
+        if (BATCH_RUN_JOURNAL_DIRECTORY.isEmpty()) {
+            recoveredBatchRuns = null;
+        } else {
+            batchRunJournal = new BatchRunJournal(Paths.get(BATCH_RUN_JOURNAL_DIRECTORY), BATCH_RUN_JOURNAL_SYNC);
+            recoveredBatchRuns = batchRunJournal.recover();
+        }
+        // ids of new batch runs must not collide with the recovered ones
+        final long firstBatchRunId =
+            recoveredBatchRuns == null || recoveredBatchRuns.isEmpty() ? 0 : recoveredBatchRuns.lastKey() + 1;
+        final LastPriceServiceImpl lastPriceService = LastPriceServiceImpl.builder(
+            marketState,
             new InMemoryBatchRunRepository(
                 SystemEpochClock.INSTANCE,
                 new LongSupplier() {
 
-                    private AtomicLong sequence = new AtomicLong();
+                    private AtomicLong sequence = new AtomicLong(firstBatchRunId);
 
                     @Override
                     public long getAsLong() {
                         return sequence.getAndIncrement();
                     }
-            }),
-            Arrays.asList(SUPPORTED_INSTRUMENTS.split(",")),
-            MAX_ACTIVE_BATCH_RUNS_TARGET,
-            BATCH_RUNS_CLEAN_UP_INTERVAL_MS,
-            ABANDONED_BATCH_RUN_TIMEOUT_MS,
-            executorService
+                },
+                provideBatchRunFactory()
+            ),
+            supportedInstruments,
+            new BatchRunAdmissionControl(
+                MAX_ACTIVE_BATCH_RUNS_TARGET,
+                BATCH_RUNS_MEMORY_BUDGET_BYTES,
+                BATCH_RUN_MEMORY_BUDGET_BYTES,
+                MEMORY_BUDGET_RETRY_AFTER_MS
+            )
+        )
+            .asOfWatermarks(asOfWatermarks)
+            .completionStage(
+                GROUP_COMMIT_ENABLED ? new GroupCommitCompletionStage(marketState, GROUP_COMMIT_LINGER_US) : null
+            )
+            .priceHistory(priceHistory)
+            .changeJournal(changeJournal)
+            .payloadCompressor(
+                PAYLOAD_COMPRESSION_MIN_BYTES > 0
+                    ? new PayloadCompressor(PAYLOAD_COMPRESSION_MIN_BYTES, PAYLOAD_CACHE_SLOTS)
+                    : null
+            )
+            .batchRunJournal(batchRunJournal)
+            .chunkReducer(
+                CHUNK_PRE_REDUCE_ENABLED
+                    ? new ChunkReducer(CHUNK_PARALLEL_REDUCE_THRESHOLD, ForkJoinPool.commonPool())
+                    : null
+            )
+            .abandonedBatchRunTimeoutMs(ABANDONED_BATCH_RUN_TIMEOUT_MS)
+            .preparedBatchRunTimeoutMs(PREPARED_BATCH_RUN_TIMEOUT_MS)
+            // the single writer evicts abandoned batch runs itself
+            .cleanUpJob(SINGLE_WRITER_ENGINE ? 0 : BATCH_RUNS_CLEAN_UP_INTERVAL_MS, executorService)
+            .build();
+        if (recoveredBatchRuns != null) {
+            final int restored = lastPriceService.restoreBatchRuns(recoveredBatchRuns.values());
+            LOGGER.info("Restored " + restored + " of " + recoveredBatchRuns.size() + " journaled batch runs");
+        }
+        if (!SINGLE_WRITER_ENGINE) {
+            return lastPriceService;
+        }
+        singleWriterService = new SingleWriterLastPriceService(
+            lastPriceService,
+            ENGINE_RING_BUFFER_CAPACITY,
+            SystemEpochClock.INSTANCE,
+            BATCH_RUNS_CLEAN_UP_INTERVAL_MS
+        );
+        return singleWriterService;
+    }
+
+    /**
+     * Registers producer classes given as comma separated {@code name:weight:maxConcurrency} entries.
+     *
+     * @throws IllegalArgumentException naming the malformed entry
+     */
+    static void registerProducerClasses(WeightedFairScheduler scheduler, String producerClasses) {
+        for (String producerClass : producerClasses.split(",")) {
+            if (producerClass.isBlank()) {
+                continue;
+            }
+            final String[] settings = producerClass.trim().split(":");
+            if (settings.length != 3 || settings[0].isBlank()) {
+                throw invalidProducerClass(producerClass, "expected name:weight:maxConcurrency", null);
+            }
+            try {
+                scheduler.registerClass(settings[0], Integer.parseInt(settings[1]), Integer.parseInt(settings[2]));
+            } catch (IllegalArgumentException e) {
+                // thrown for numbers which are malformed or not positive
+                throw invalidProducerClass(producerClass, e.getMessage(), e);
+            }
+        }
+    }
+
+    private static IllegalArgumentException invalidProducerClass(String producerClass, String reason, Throwable cause) {
+        return new IllegalArgumentException(
+            "Invalid " + PRODUCER_CLASSES_PROP + " entry '" + producerClass.trim() + "': " + reason, cause
         );
     }
 
+    /**
+     * Returns supported instruments this node owns, all of them unless the node is a member of a sharded cluster.
+     */
+    private static List<String> provideOwnedInstruments() {
+        final List<String> supportedInstruments = Arrays.asList(SUPPORTED_INSTRUMENTS.split(","));
+        if (CLUSTER_NODES.isEmpty()) {
+            return supportedInstruments;
+        }
+        final List<String> nodes = Arrays.asList(CLUSTER_NODES.split(","));
+        if (!nodes.contains(CLUSTER_NODE)) {
+            throw new IllegalStateException("Cluster node '" + CLUSTER_NODE + "' is not one of " + nodes);
+        }
+        final ConsistentHashRing ring = new ConsistentHashRing(nodes, CLUSTER_VIRTUAL_NODES);
+        final List<String> ownedInstruments = new ArrayList<>();
+        for (String instrument : supportedInstruments) {
+            if (ring.nodeFor(instrument).equals(CLUSTER_NODE)) {
+                ownedInstruments.add(instrument);
+            }
+        }
+        LOGGER.info("Cluster node " + CLUSTER_NODE + " owns " + ownedInstruments.size() + " of "
+            + supportedInstruments.size() + " instruments");
+        return ownedInstruments;
+    }
+
+    private LongFunction<BatchRun> provideBatchRunFactory() {
+        if (BATCH_RUN_SPILL_THRESHOLD_BYTES <= 0) {
+            return BatchRun::new;
+        }
+        final Path spillDirectory = Paths.get(BATCH_RUN_SPILL_DIRECTORY);
+        return id -> new BatchRun(id, BATCH_RUN_SPILL_THRESHOLD_BYTES, spillDirectory);
+    }
+
     private void setUpShutdownHook() {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
@@ -83,17 +444,44 @@ public class LastPriceServer {
     }
 
     private void stop() throws InterruptedException {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        healthStatusManager.enterTerminalState();
         if (executorService != null) {
             executorService.shutdown();
             executorService.awaitTermination(30, TimeUnit.SECONDS);
         }
-        if (server != null) {
+        for (Server server : servers) {
             server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
         }
+        if (writeExecutorService != null) {
+            writeExecutorService.shutdown();
+            writeExecutorService.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        if (readExecutorService != null) {
+            readExecutorService.shutdown();
+            readExecutorService.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        if (trafficCapture != null) {
+            trafficCapture.close();
+        }
+        if (domainSocketEventLoopGroup != null) {
+            domainSocketEventLoopGroup.shutdownGracefully().await(30, TimeUnit.SECONDS);
+        }
+        if (singleWriterService != null) {
+            singleWriterService.close();
+        }
+        if (sharedPricePageExporter != null) {
+            sharedPricePageExporter.close();
+        }
+        if (batchRunJournal != null) {
+            batchRunJournal.close();
+        }
     }
 
     private void blockUntilShutdown() throws InterruptedException {
-        if (server != null) {
+        for (Server server : servers) {
             server.awaitTermination();
         }
     }
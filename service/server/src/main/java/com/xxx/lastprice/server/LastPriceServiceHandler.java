@@ -2,34 +2,62 @@ package com.xxx.lastprice.server;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Empty;
+import com.xxx.lastprice.domain.AsyncLastPriceService;
 import com.xxx.lastprice.domain.LastPriceService;
-import com.xxx.lastprice.domain.LastPriceServiceException.BatchNotFoundException;
-import com.xxx.lastprice.domain.LastPriceServiceException.TooManyActiveBatchRunsException;
-import com.xxx.lastprice.domain.LastPriceServiceException.WrongInstrumentException;
+import com.xxx.lastprice.domain.MarketChanges;
 import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.ServiceResult;
+import com.xxx.lastprice.transport.ChangesSinceRequest;
 import com.xxx.lastprice.transport.CancelBatchRunRequest;
 import com.xxx.lastprice.transport.CancelBatchRunResponse;
+import com.xxx.lastprice.transport.CommitBatchRunRequest;
+import com.xxx.lastprice.transport.CommitBatchRunResponse;
 import com.xxx.lastprice.transport.CompleteBatchRunRequest;
 import com.xxx.lastprice.transport.CompleteBatchRunResponse;
 import com.xxx.lastprice.transport.InstrumentPriceRecord;
 import com.xxx.lastprice.transport.LastPriceGrpc;
 import com.xxx.lastprice.transport.LastPriceRequest;
 import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.MarketChangesChunk;
+import com.xxx.lastprice.transport.PrepareBatchRunRequest;
+import com.xxx.lastprice.transport.PrepareBatchRunResponse;
+import com.xxx.lastprice.transport.ResumeBatchRunRequest;
+import com.xxx.lastprice.transport.ResumeBatchRunResponse;
+import com.xxx.lastprice.transport.PriceAsOfRequest;
+import com.xxx.lastprice.transport.PriceAsOfResponse;
 import com.xxx.lastprice.transport.StartBatchRunResponse;
 import com.xxx.lastprice.transport.UploadChunkRequest;
 import com.xxx.lastprice.transport.UploadChunkResponse;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
 import static com.xxx.lastprice.server.StaticResponses.BATCH_NOT_FOUND_UPLOAD_CHUNK;
 import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_CANCELED;
+import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_COMMITTED;
 import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_COMPLETED;
 import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_NOT_FOUND_CANCEL_BATCH;
+import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_NOT_FOUND_COMMIT_BATCH;
 import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_NOT_FOUND_COMPLETE_BATCH;
+import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_NOT_FOUND_PREPARE_BATCH;
+import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_NOT_FOUND_RESUME_BATCH;
+import static com.xxx.lastprice.server.StaticResponses.BATCH_RUN_PREPARED;
 import static com.xxx.lastprice.server.StaticResponses.CHUNK_UPLOADED;
+import static com.xxx.lastprice.server.StaticResponses.PRICE_AS_OF_EVICTED;
+import static com.xxx.lastprice.server.StaticResponses.PRICE_AS_OF_IS_NOT_AVAILABLE;
+import static com.xxx.lastprice.server.StaticResponses.PRICE_HISTORY_DISABLED;
 import static com.xxx.lastprice.server.StaticResponses.PRICE_IS_NOT_AVAILABLE;
 import static com.xxx.lastprice.server.StaticResponses.TOO_MANY_ACTIVE_BATCH_RUNS;
 import static com.xxx.lastprice.server.StaticResponses.WRONG_INSTRUMENT_LAST_PRICE_RESPONSE;
+import static com.xxx.lastprice.server.StaticResponses.WRONG_INSTRUMENT_PRICE_AS_OF_RESPONSE;
 import static com.xxx.lastprice.server.StaticResponses.WRONG_INSTRUMENT_UPLOAD_CHUNK;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 import static java.util.stream.Collectors.toUnmodifiableList;
 
 /**
@@ -37,91 +65,302 @@ import static java.util.stream.Collectors.toUnmodifiableList;
  */
 public class LastPriceServiceHandler extends LastPriceGrpc.LastPriceImplBase {
 
-    private final LastPriceService lastPriceService;
+    private static final int DEFAULT_CHANGES_CHUNK_SIZE = 1000;
+
+    private final AsyncLastPriceService lastPriceService;
+    private final int changesChunkSize;
 
     public LastPriceServiceHandler(LastPriceService lastPriceService) {
+        this(lastPriceService, DEFAULT_CHANGES_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates handler.
+     *
+     * @param lastPriceService service to handle requests with, through its {@link LastPriceService#async()} view
+     * @param changesChunkSize maximum number of price records in a single message of the changes stream
+     */
+    public LastPriceServiceHandler(LastPriceService lastPriceService, int changesChunkSize) {
+        this(lastPriceService.async(), changesChunkSize);
+    }
+
+    /**
+     * Creates handler completing calls once the service completes their results, calls do not hold
+     * the handling thread while the service is busy.
+     *
+     * @param lastPriceService service to handle requests with
+     * @param changesChunkSize maximum number of price records in a single message of the changes stream
+     */
+    public LastPriceServiceHandler(AsyncLastPriceService lastPriceService, int changesChunkSize) {
         this.lastPriceService = lastPriceService;
+        this.changesChunkSize = changesChunkSize;
     }
 
     @Override
     public void requestLastPrice(LastPriceRequest request, StreamObserver<LastPriceResponse> responseObserver) {
-        try {
-            responseObserver.onNext(
-                lastPriceService
-                    .findLastPrice(request.getInstrument())
-                    .map(this::buildLastPriceResponse)
-                    .orElse(PRICE_IS_NOT_AVAILABLE)
-            );
-        } catch (WrongInstrumentException e) {
-            responseObserver.onNext(WRONG_INSTRUMENT_LAST_PRICE_RESPONSE);
+        if (rejectExpired(responseObserver)) {
+            return;
+        }
+        respond(lastPriceService.findLastPrice(request.getInstrument()), responseObserver, result -> {
+            if (result.getStatus() == ServiceResult.Status.WRONG_INSTRUMENT) {
+                return WRONG_INSTRUMENT_LAST_PRICE_RESPONSE;
+            }
+            return isNull(result.getValue()) ? PRICE_IS_NOT_AVAILABLE : buildLastPriceResponse(result.getValue());
+        });
+    }
+
+    @Override
+    public void requestPriceAsOf(PriceAsOfRequest request, StreamObserver<PriceAsOfResponse> responseObserver) {
+        if (rejectExpired(responseObserver)) {
+            return;
+        }
+        respond(
+            lastPriceService.findPriceAsOf(request.getInstrument(), request.getTimestamp()),
+            responseObserver,
+            result -> {
+                switch (result.getStatus()) {
+                    case WRONG_INSTRUMENT:
+                        return WRONG_INSTRUMENT_PRICE_AS_OF_RESPONSE;
+                    case PRICE_HISTORY_DISABLED:
+                        return PRICE_HISTORY_DISABLED;
+                    case PRICE_EVICTED:
+                        return PRICE_AS_OF_EVICTED;
+                    default:
+                        return isNull(result.getValue())
+                            ? PRICE_AS_OF_IS_NOT_AVAILABLE
+                            : buildPriceAsOfResponse(result.getValue());
+                }
+            }
+        );
+    }
+
+    @Override
+    public void changesSince(ChangesSinceRequest request, StreamObserver<MarketChangesChunk> responseObserver) {
+        if (rejectExpired(responseObserver)) {
+            return;
         }
-        responseObserver.onCompleted();
+        final CompletableFuture<MarketChanges> changesFuture =
+            lastPriceService.findChangesSince(request.getEpoch(), request.getVersion());
+        changesFuture.whenComplete((changes, throwable) -> {
+            if (nonNull(throwable)) {
+                responseObserver.onError(toStatus(throwable).asRuntimeException());
+                return;
+            }
+            MarketChangesChunk.Builder chunk = newChangesChunk(changes);
+            for (PriceRecord priceRecord : changes.getPriceRecords()) {
+                if (chunk.getPriceRecordsCount() == changesChunkSize) {
+                    responseObserver.onNext(chunk.build());
+                    chunk = newChangesChunk(changes);
+                }
+                chunk.addPriceRecords(buildInstrumentPriceRecord(priceRecord));
+            }
+            // the last chunk is sent even if empty to hand the version over
+            responseObserver.onNext(chunk.build());
+            responseObserver.onCompleted();
+        });
     }
 
     @Override
     public void startBatchRun(Empty request, StreamObserver<StartBatchRunResponse> responseObserver) {
-        try {
-            final long batchId = lastPriceService.startBatchRun();
-            responseObserver.onNext(
-                StartBatchRunResponse.newBuilder()
-                    .setStatus(StartBatchRunResponse.Status.SUCCESS)
-                    .setBatchRunId(batchId)
-                    .build()
-            );
-        } catch (TooManyActiveBatchRunsException e) {
-            responseObserver.onNext(TOO_MANY_ACTIVE_BATCH_RUNS);
+        if (rejectExpired(responseObserver)) {
+            return;
         }
-        responseObserver.onCompleted();
+        respond(lastPriceService.startBatchRun(), responseObserver, result -> {
+            switch (result.getStatus()) {
+                case TOO_MANY_ACTIVE_BATCH_RUNS:
+                    return TOO_MANY_ACTIVE_BATCH_RUNS;
+                case MEMORY_BUDGET_EXCEEDED:
+                    return StartBatchRunResponse.newBuilder()
+                        .setStatus(StartBatchRunResponse.Status.MEMORY_BUDGET_EXCEEDED)
+                        .setRetryAfterMs(result.getRetryAfterMs())
+                        .build();
+                default:
+                    return StartBatchRunResponse.newBuilder()
+                        .setStatus(StartBatchRunResponse.Status.SUCCESS)
+                        .setBatchRunId(result.getValue())
+                        .build();
+            }
+        });
     }
 
     @Override
     public void uploadChunk(UploadChunkRequest request, StreamObserver<UploadChunkResponse> responseObserver) {
-        try {
-            lastPriceService.uploadPriceRecordsChunk(
-                request.getBatchRunId(),
-                request.getPriceRecordsList().stream()
-                    .map(record -> new PriceRecord(record.getInstrument(), record.getAsOf(), record.toByteArray()))
-                    .collect(toUnmodifiableList())
-            );
-            responseObserver.onNext(CHUNK_UPLOADED);
-        } catch (BatchNotFoundException e) {
-            responseObserver.onNext(BATCH_NOT_FOUND_UPLOAD_CHUNK);
-        } catch (WrongInstrumentException e) {
-            responseObserver.onNext(WRONG_INSTRUMENT_UPLOAD_CHUNK);
+        if (rejectExpired(responseObserver)) {
+            return;
         }
-        responseObserver.onCompleted();
+        final CompletableFuture<ServiceResult<Void>> uploaded = lastPriceService.uploadPriceRecordsChunk(
+            request.getBatchRunId(),
+            request.getChunkSequence(),
+            request.getPriceRecordsList().stream()
+                .map(record -> new PriceRecord(record.getInstrument(), record.getAsOf(), record.toByteArray()))
+                .collect(toUnmodifiableList())
+        );
+        respond(uploaded, responseObserver, result -> {
+            switch (result.getStatus()) {
+                case BATCH_RUN_NOT_FOUND:
+                    return BATCH_NOT_FOUND_UPLOAD_CHUNK;
+                case WRONG_INSTRUMENT:
+                    return WRONG_INSTRUMENT_UPLOAD_CHUNK;
+                case MEMORY_BUDGET_EXCEEDED:
+                    return UploadChunkResponse.newBuilder()
+                        .setStatus(UploadChunkResponse.Status.MEMORY_BUDGET_EXCEEDED)
+                        .setRetryAfterMs(result.getRetryAfterMs())
+                        .build();
+                default:
+                    return CHUNK_UPLOADED;
+            }
+        });
     }
 
     @Override
     public void cancelBatchRun(CancelBatchRunRequest request, StreamObserver<CancelBatchRunResponse> responseObserver) {
-        try {
-            lastPriceService.cancelBatchRun(request.getBatchRunId());
-            responseObserver.onNext(BATCH_RUN_CANCELED);
-        } catch (BatchNotFoundException e) {
-            responseObserver.onNext(BATCH_RUN_NOT_FOUND_CANCEL_BATCH);
+        if (rejectExpired(responseObserver)) {
+            return;
         }
-        responseObserver.onCompleted();
+        respond(
+            lastPriceService.cancelBatchRun(request.getBatchRunId()),
+            responseObserver,
+            result -> isFound(result) ? BATCH_RUN_CANCELED : BATCH_RUN_NOT_FOUND_CANCEL_BATCH
+        );
     }
 
     @Override
     public void completeBatchRun(CompleteBatchRunRequest request, StreamObserver<CompleteBatchRunResponse> responseObserver) {
-        try {
-            lastPriceService.completeBatchRun(request.getBatchRunId());
-            responseObserver.onNext(BATCH_RUN_COMPLETED);
-        } catch (BatchNotFoundException e) {
-            responseObserver.onNext(BATCH_RUN_NOT_FOUND_COMPLETE_BATCH);
+        if (rejectExpired(responseObserver)) {
+            return;
+        }
+        respond(
+            lastPriceService.completeBatchRun(request.getBatchRunId()),
+            responseObserver,
+            result -> isFound(result) ? BATCH_RUN_COMPLETED : BATCH_RUN_NOT_FOUND_COMPLETE_BATCH
+        );
+    }
+
+    @Override
+    public void prepareBatchRun(
+        PrepareBatchRunRequest request,
+        StreamObserver<PrepareBatchRunResponse> responseObserver) {
+
+        if (rejectExpired(responseObserver)) {
+            return;
+        }
+        respond(
+            lastPriceService.prepareBatchRun(request.getBatchRunId()),
+            responseObserver,
+            result -> isFound(result) ? BATCH_RUN_PREPARED : BATCH_RUN_NOT_FOUND_PREPARE_BATCH
+        );
+    }
+
+    @Override
+    public void commitBatchRun(
+        CommitBatchRunRequest request,
+        StreamObserver<CommitBatchRunResponse> responseObserver) {
+
+        if (rejectExpired(responseObserver)) {
+            return;
+        }
+        respond(
+            lastPriceService.commitBatchRun(request.getBatchRunId()),
+            responseObserver,
+            result -> isFound(result) ? BATCH_RUN_COMMITTED : BATCH_RUN_NOT_FOUND_COMMIT_BATCH
+        );
+    }
+
+    @Override
+    public void resumeBatchRun(
+        ResumeBatchRunRequest request,
+        StreamObserver<ResumeBatchRunResponse> responseObserver) {
+
+        if (rejectExpired(responseObserver)) {
+            return;
+        }
+        respond(
+            lastPriceService.resumeBatchRun(request.getBatchRunId()),
+            responseObserver,
+            result -> isFound(result)
+                ? ResumeBatchRunResponse.newBuilder()
+                    .setStatus(ResumeBatchRunResponse.Status.SUCCESS)
+                    .setLastChunkSequence(result.getValue())
+                    .build()
+                : BATCH_RUN_NOT_FOUND_RESUME_BATCH
+        );
+    }
+
+    /**
+     * Completes the call with the response built from the service result once it is available,
+     * unexpected failures of the service fail the call.
+     */
+    private static <T, R> void respond(
+        CompletableFuture<T> result,
+        StreamObserver<R> responseObserver,
+        Function<T, R> responseBuilder) {
+
+        result.whenComplete((value, throwable) -> {
+            if (nonNull(throwable)) {
+                responseObserver.onError(toStatus(throwable).asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(responseBuilder.apply(value));
+            responseObserver.onCompleted();
+        });
+    }
+
+    /**
+     * Maps failure of the service call to the call status, the request the service refused as malformed,
+     * e.g. a record too large for the single writer engine, is an invalid argument rather than an unknown error.
+     */
+    private static Status toStatus(Throwable throwable) {
+        final Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        if (cause instanceof IllegalArgumentException) {
+            return Status.INVALID_ARGUMENT.withDescription(cause.getMessage()).withCause(cause);
+        }
+        return Status.fromThrowable(cause);
+    }
+
+    private static boolean isFound(ServiceResult<?> result) {
+        return result.getStatus() != ServiceResult.Status.BATCH_RUN_NOT_FOUND;
+    }
+
+    /**
+     * Fails the call with {@link Status#DEADLINE_EXCEEDED} if its deadline expired while it was waiting
+     * to be processed, the client has already given up on it and the work would be wasted.
+     */
+    private boolean rejectExpired(StreamObserver<?> responseObserver) {
+        final Deadline deadline = Context.current().getDeadline();
+        if (nonNull(deadline) && deadline.isExpired()) {
+            responseObserver.onError(
+                Status.DEADLINE_EXCEEDED.withDescription("Deadline expired before processing").asRuntimeException()
+            );
+            return true;
         }
-        responseObserver.onCompleted();
+        return false;
     }
 
     private LastPriceResponse buildLastPriceResponse(PriceRecord priceRecord) {
         return LastPriceResponse.newBuilder()
             .setStatus(LastPriceResponse.Status.SUCCESS)
-            .setPriceRecord(
-                InstrumentPriceRecord.newBuilder()
-                    .setInstrument(priceRecord.getInstrument())
-                    .setAsOf(priceRecord.getAsOf())
-                    .setPayload(ByteString.copyFrom(priceRecord.getPayload()))
-            ).build();
+            .setPriceRecord(buildInstrumentPriceRecord(priceRecord))
+            .build();
+    }
+
+    private PriceAsOfResponse buildPriceAsOfResponse(PriceRecord priceRecord) {
+        return PriceAsOfResponse.newBuilder()
+            .setStatus(PriceAsOfResponse.Status.SUCCESS)
+            .setPriceRecord(buildInstrumentPriceRecord(priceRecord))
+            .build();
+    }
+
+    private MarketChangesChunk.Builder newChangesChunk(MarketChanges changes) {
+        return MarketChangesChunk.newBuilder()
+            .setEpoch(changes.getEpoch())
+            .setVersion(changes.getVersion())
+            .setSnapshot(changes.isSnapshot());
+    }
+
+    private InstrumentPriceRecord.Builder buildInstrumentPriceRecord(PriceRecord priceRecord) {
+        return InstrumentPriceRecord.newBuilder()
+            .setInstrument(priceRecord.getInstrument())
+            .setAsOf(priceRecord.getAsOf())
+            .setPayload(ByteString.copyFrom(priceRecord.getPayload()));
     }
 }
@@ -0,0 +1,37 @@
+package com.xxx.lastprice.server;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Compresses response messages with the given compressor. The compression is negotiated: gRPC falls back
+ * to uncompressed responses for clients which did not list the compressor in their accepted encodings.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ResponseCompressionInterceptor implements ServerInterceptor {
+
+    private final String compressorName;
+
+    /**
+     * Creates interceptor.
+     *
+     * @param compressorName name of a compressor of the server compressor registry, e.g. {@code gzip}
+     */
+    public ResponseCompressionInterceptor(String compressorName) {
+        this.compressorName = compressorName;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call,
+        Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+
+        call.setCompression(compressorName);
+        return next.startCall(call, headers);
+    }
+
+}
@@ -1,5 +1,10 @@
 package com.xxx.lastprice.server;
 
+import com.xxx.lastprice.domain.ChunkReducer;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.transport.ConsistentHashRing;
+
+import static java.lang.Boolean.getBoolean;
 import static java.lang.Integer.getInteger;
 import static java.lang.Long.getLong;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -15,10 +20,269 @@ public final class ServerConfiguration {
     public static final String SERVER_PORT_PROP = "service.port";
     public static final int SERVER_PORT = getInteger(SERVER_PORT_PROP, 50051);
 
+    /**
+     * Unix domain socket to listen on for same-host clients in addition to the TCP port, empty disables it.
+     * Setting {@link #SERVER_PORT_PROP} to zero leaves the domain socket the only listener.
+     */
+    public static final String SERVER_DOMAIN_SOCKET_PATH_PROP = "service.domain_socket_path";
+    public static final String SERVER_DOMAIN_SOCKET_PATH = System.getProperty(SERVER_DOMAIN_SOCKET_PATH_PROP, "");
+
     public static final String MAX_ACTIVE_BATCH_RUNS_TARGET_PROP = "service.max_active_batch_runs_target";
     public static final int MAX_ACTIVE_BATCH_RUNS_TARGET =
         getInteger(MAX_ACTIVE_BATCH_RUNS_TARGET_PROP, 500);
 
+    public static final String BATCH_RUNS_MEMORY_BUDGET_BYTES_PROP = "service.batch_runs_memory_budget_bytes";
+    public static final long BATCH_RUNS_MEMORY_BUDGET_BYTES =
+        getLong(BATCH_RUNS_MEMORY_BUDGET_BYTES_PROP, Runtime.getRuntime().maxMemory() / 2);
+
+    public static final String BATCH_RUN_MEMORY_BUDGET_BYTES_PROP = "service.batch_run_memory_budget_bytes";
+    public static final long BATCH_RUN_MEMORY_BUDGET_BYTES =
+        getLong(BATCH_RUN_MEMORY_BUDGET_BYTES_PROP, BATCH_RUNS_MEMORY_BUDGET_BYTES / 8);
+
+    public static final String MEMORY_BUDGET_RETRY_AFTER_MS_PROP = "service.memory_budget_retry_after_ms";
+    public static final long MEMORY_BUDGET_RETRY_AFTER_MS =
+        getLong(MEMORY_BUDGET_RETRY_AFTER_MS_PROP, SECONDS.toMillis(1));
+
+    /**
+     * Batch runs holding more bytes than this threshold move their records to a memory-mapped file,
+     * zero or negative value disables spilling. Spill files are not charged against the memory budgets,
+     * each one takes up to twice the size of the batch run records plus two 64 MiB segments of disk space.
+     */
+    public static final String BATCH_RUN_SPILL_THRESHOLD_BYTES_PROP = "service.batch_run_spill_threshold_bytes";
+    public static final long BATCH_RUN_SPILL_THRESHOLD_BYTES = getLong(BATCH_RUN_SPILL_THRESHOLD_BYTES_PROP, 0);
+
+    public static final String BATCH_RUN_SPILL_DIRECTORY_PROP = "service.batch_run_spill_directory";
+    public static final String BATCH_RUN_SPILL_DIRECTORY = System.getProperty(
+        BATCH_RUN_SPILL_DIRECTORY_PROP,
+        System.getProperty("java.io.tmpdir")
+    );
+
+    /**
+     * Directory of the journal of chunks accepted by batch runs, which are restored from it after a restart
+     * so producers can resume their uploads. Empty value keeps batch runs only in memory.
+     */
+    public static final String BATCH_RUN_JOURNAL_DIRECTORY_PROP = "service.batch_run_journal_directory";
+    public static final String BATCH_RUN_JOURNAL_DIRECTORY = System.getProperty(BATCH_RUN_JOURNAL_DIRECTORY_PROP, "");
+
+    /**
+     * Force every journaled chunk to the storage device before acknowledging it, so it survives a crash
+     * of the host and not only of the process.
+     */
+    public static final String BATCH_RUN_JOURNAL_SYNC_PROP = "service.batch_run_journal_sync";
+    public static final boolean BATCH_RUN_JOURNAL_SYNC =
+        Boolean.parseBoolean(System.getProperty(BATCH_RUN_JOURNAL_SYNC_PROP, "true"));
+
+    /**
+     * Drop uploaded records which are older than the market state price of their instrument right on upload.
+     */
+    public static final String FILTER_SUPERSEDED_ON_UPLOAD_PROP = "service.filter_superseded_on_upload";
+    public static final boolean FILTER_SUPERSEDED_ON_UPLOAD = getBoolean(FILTER_SUPERSEDED_ON_UPLOAD_PROP);
+
+    /**
+     * Reduce uploaded chunks to the latest record of every instrument before they are applied to the batch run,
+     * so the batch run lock is held only to merge the records it retains.
+     */
+    public static final String CHUNK_PRE_REDUCE_ENABLED_PROP = "service.chunk_pre_reduce_enabled";
+    public static final boolean CHUNK_PRE_REDUCE_ENABLED =
+        Boolean.parseBoolean(System.getProperty(CHUNK_PRE_REDUCE_ENABLED_PROP, "true"));
+
+    /**
+     * Chunks of at least this many records are pre-reduced in parallel on the common fork/join pool.
+     */
+    public static final String CHUNK_PARALLEL_REDUCE_THRESHOLD_PROP = "service.chunk_parallel_reduce_threshold";
+    public static final int CHUNK_PARALLEL_REDUCE_THRESHOLD =
+        getInteger(CHUNK_PARALLEL_REDUCE_THRESHOLD_PROP, ChunkReducer.DEFAULT_PARALLEL_THRESHOLD);
+
+    /**
+     * Publish batch runs completed concurrently as a single market state update.
+     */
+    public static final String GROUP_COMMIT_ENABLED_PROP = "service.group_commit_enabled";
+    public static final boolean GROUP_COMMIT_ENABLED =
+        Boolean.parseBoolean(System.getProperty(GROUP_COMMIT_ENABLED_PROP, "true"));
+
+    /**
+     * Time the group commit publisher waits for more completions before publishing.
+     */
+    public static final String GROUP_COMMIT_LINGER_US_PROP = "service.group_commit_linger_us";
+    public static final long GROUP_COMMIT_LINGER_US = getLong(GROUP_COMMIT_LINGER_US_PROP, 0);
+
+    /**
+     * Number of stripes the market state is partitioned into by instrument, so completions touching
+     * different stripes are merged in parallel. One keeps the market state under a single lock.
+     */
+    public static final String MARKET_STATE_STRIPES_PROP = "service.market_state_stripes";
+    public static final int MARKET_STATE_STRIPES = getInteger(MARKET_STATE_STRIPES_PROP, 1);
+
+    /**
+     * Number of the most recent prices kept per instrument for as of queries, zero disables the history.
+     */
+    public static final String PRICE_HISTORY_DEPTH_PROP = "service.price_history_depth";
+    public static final int PRICE_HISTORY_DEPTH = getInteger(PRICE_HISTORY_DEPTH_PROP, 0);
+
+    /**
+     * Size of the off-heap buffer for history payloads per instrument. A buffer smaller than the depth times
+     * the payload size lets newer payloads overwrite older ones still in the history, those are answered
+     * with the price evicted status.
+     */
+    public static final String PRICE_HISTORY_PAYLOAD_BYTES_PROP = "service.price_history_payload_bytes";
+    public static final int PRICE_HISTORY_PAYLOAD_BYTES =
+        getInteger(PRICE_HISTORY_PAYLOAD_BYTES_PROP, PRICE_HISTORY_DEPTH * 256);
+
+    /**
+     * Number of instrument changes retained to answer changes requests incrementally, zero makes
+     * every changes request after a market update fall back to the full snapshot.
+     */
+    public static final String MARKET_CHANGE_JOURNAL_CAPACITY_PROP = "service.market_change_journal_capacity";
+    public static final int MARKET_CHANGE_JOURNAL_CAPACITY = getInteger(MARKET_CHANGE_JOURNAL_CAPACITY_PROP, 0);
+
+    /**
+     * Number of price records sent in a single message of the changes stream.
+     */
+    public static final String MARKET_CHANGES_CHUNK_SIZE_PROP = "service.market_changes_chunk_size";
+    public static final int MARKET_CHANGES_CHUNK_SIZE = getInteger(MARKET_CHANGES_CHUNK_SIZE_PROP, 1000);
+
+    /**
+     * Apply all batch run and market state mutations on a single writer thread fed through a ring buffer.
+     */
+    public static final String SINGLE_WRITER_ENGINE_PROP = "service.single_writer_engine";
+    public static final boolean SINGLE_WRITER_ENGINE = getBoolean(SINGLE_WRITER_ENGINE_PROP);
+
+    /**
+     * Capacity of the single writer commands ring buffer, has to be a power of two.
+     */
+    public static final String ENGINE_RING_BUFFER_CAPACITY_PROP = "service.engine_ring_buffer_capacity";
+    public static final int ENGINE_RING_BUFFER_CAPACITY =
+        getInteger(ENGINE_RING_BUFFER_CAPACITY_PROP, 16 * 1024 * 1024);
+
+    /**
+     * File to mirror the market state into for readers on the same host, empty disables the export.
+     */
+    public static final String SHARED_PRICE_PAGE_FILE_PROP = "service.shared_price_page_file";
+    public static final String SHARED_PRICE_PAGE_FILE = System.getProperty(SHARED_PRICE_PAGE_FILE_PROP, "");
+
+    /**
+     * Maximum payload size exported to the shared price page, bigger payloads have to be requested over RPC.
+     */
+    public static final String SHARED_PRICE_PAGE_MAX_PAYLOAD_BYTES_PROP = "service.shared_price_page_max_payload_bytes";
+    public static final int SHARED_PRICE_PAGE_MAX_PAYLOAD_BYTES =
+        getInteger(SHARED_PRICE_PAGE_MAX_PAYLOAD_BYTES_PROP, 256);
+
+    /**
+     * Number of threads of the pool processing reads and other calls not routed elsewhere, zero keeps
+     * the default gRPC executor.
+     */
+    public static final String READ_EXECUTOR_THREADS_PROP = "service.read_executor_threads";
+    public static final int READ_EXECUTOR_THREADS = getInteger(READ_EXECUTOR_THREADS_PROP, 0);
+
+    /**
+     * Process reads and other calls not routed elsewhere directly on the transport event loops, saving a thread
+     * hand-off per call. Only makes sense together with a dedicated write executor, since a read may still wait
+     * for a market state merge.
+     */
+    public static final String READ_DIRECT_EXECUTOR_PROP = "service.read_direct_executor";
+    public static final boolean READ_DIRECT_EXECUTOR = getBoolean(READ_DIRECT_EXECUTOR_PROP);
+
+    /**
+     * Number of threads of the pool dedicated to batch run lifecycle calls, zero processes them together with reads.
+     * Ignored when the weighted fair write scheduler is enabled, which has its own pool.
+     */
+    public static final String WRITE_EXECUTOR_THREADS_PROP = "service.write_executor_threads";
+    public static final int WRITE_EXECUTOR_THREADS = getInteger(WRITE_EXECUTOR_THREADS_PROP, 0);
+
+    /**
+     * Number of write calls waiting for a thread of the write pool, further calls fail with RESOURCE_EXHAUSTED.
+     */
+    public static final String WRITE_EXECUTOR_QUEUE_CAPACITY_PROP = "service.write_executor_queue_capacity";
+    public static final int WRITE_EXECUTOR_QUEUE_CAPACITY = getInteger(WRITE_EXECUTOR_QUEUE_CAPACITY_PROP, 1024);
+
+    /**
+     * Number of write calls processed at the same time by the weighted fair write scheduler, zero disables
+     * the scheduler and write calls run on the transport threads as they come.
+     */
+    public static final String WRITE_SCHEDULER_CONCURRENCY_PROP = "service.write_scheduler_concurrency";
+    public static final int WRITE_SCHEDULER_CONCURRENCY = getInteger(WRITE_SCHEDULER_CONCURRENCY_PROP, 0);
+
+    /**
+     * Producer classes of the write scheduler as comma separated {@code name:weight:maxConcurrency} entries.
+     * Calls without a known class header belong to the {@code default} class, which can be configured the same way.
+     */
+    public static final String PRODUCER_CLASSES_PROP = "service.producer_classes";
+    public static final String PRODUCER_CLASSES = System.getProperty(PRODUCER_CLASSES_PROP, "");
+
+    /**
+     * Interval of logging per producer class queue depth and wait time, zero disables logging.
+     */
+    public static final String WRITE_SCHEDULER_STATS_INTERVAL_MS_PROP = "service.write_scheduler_stats_interval_ms";
+    public static final long WRITE_SCHEDULER_STATS_INTERVAL_MS =
+        getLong(WRITE_SCHEDULER_STATS_INTERVAL_MS_PROP, SECONDS.toMillis(60));
+
+    /**
+     * Number of synthetic read and batch run iterations the server runs against itself before reporting
+     * ready through the health service, zero reports ready right after the start.
+     */
+    public static final String WARM_UP_ITERATIONS_PROP = "service.warm_up_iterations";
+    public static final int WARM_UP_ITERATIONS = getInteger(WARM_UP_ITERATIONS_PROP, 0);
+
+    /**
+     * Stop the server right after the warm-up, used for training runs recording the class list
+     * of the class data sharing archive.
+     */
+    public static final String WARM_UP_EXIT_PROP = "service.warm_up_exit";
+    public static final boolean WARM_UP_EXIT = getBoolean(WARM_UP_EXIT_PROP);
+
+    /**
+     * File to record timing and sizes of all calls into for a later replay, empty disables the capture.
+     */
+    public static final String CAPTURE_FILE_PROP = "service.capture_file";
+    public static final String CAPTURE_FILE = System.getProperty(CAPTURE_FILE_PROP, "");
+
+    /**
+     * Capacity of the buffer holding captured calls until they are written out, has to be a power of two.
+     * Calls finishing while the buffer is full are not captured.
+     */
+    public static final String CAPTURE_BUFFER_BYTES_PROP = "service.capture_buffer_bytes";
+    public static final int CAPTURE_BUFFER_BYTES = getInteger(CAPTURE_BUFFER_BYTES_PROP, 1024 * 1024);
+
+    /**
+     * Payloads of at least this many bytes are kept compressed in batch runs and the market state,
+     * zero keeps all payloads as uploaded.
+     */
+    public static final String PAYLOAD_COMPRESSION_MIN_BYTES_PROP = "service.payload_compression_min_bytes";
+    public static final int PAYLOAD_COMPRESSION_MIN_BYTES = getInteger(PAYLOAD_COMPRESSION_MIN_BYTES_PROP, 0);
+
+    /**
+     * Number of uncompressed payloads of often read instruments cached when payload compression is on.
+     */
+    public static final String PAYLOAD_CACHE_SLOTS_PROP = "service.payload_cache_slots";
+    public static final int PAYLOAD_CACHE_SLOTS = getInteger(PAYLOAD_CACHE_SLOTS_PROP, 1024);
+
+    /**
+     * Compression of response messages, e.g. {@code gzip}, used for clients which accept it. Compressed requests
+     * are accepted regardless of it. Empty sends responses uncompressed.
+     */
+    public static final String WIRE_COMPRESSION_PROP = "service.wire_compression";
+    public static final String WIRE_COMPRESSION = System.getProperty(WIRE_COMPRESSION_PROP, "");
+
+    /**
+     * Names of all nodes of the sharded cluster, comma separated, empty runs the server standalone.
+     * Every node owns the supported instruments the consistent hash ring assigns to it and rejects the others.
+     */
+    public static final String CLUSTER_NODES_PROP = "service.cluster_nodes";
+    public static final String CLUSTER_NODES = System.getProperty(CLUSTER_NODES_PROP, "");
+
+    /**
+     * Name of this node among {@link #CLUSTER_NODES_PROP}.
+     */
+    public static final String CLUSTER_NODE_PROP = "service.cluster_node";
+    public static final String CLUSTER_NODE = System.getProperty(CLUSTER_NODE_PROP, "");
+
+    /**
+     * Number of virtual nodes per cluster node on the hash ring, has to match the routing clients.
+     */
+    public static final String CLUSTER_VIRTUAL_NODES_PROP = "service.cluster_virtual_nodes";
+    public static final int CLUSTER_VIRTUAL_NODES =
+        getInteger(CLUSTER_VIRTUAL_NODES_PROP, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+
     public static final String SUPPORTED_INSTRUMENTS_PROP = "service.supported_instruments";
     public static final String SUPPORTED_INSTRUMENTS = System.getProperty(
         SUPPORTED_INSTRUMENTS_PROP,
@@ -33,4 +297,8 @@ public final class ServerConfiguration {
     public static final long ABANDONED_BATCH_RUN_TIMEOUT_MS =
         getLong(ABANDONED_BATCH_RUN_TIMEOUT_MS_PROP, SECONDS.toMillis(5));
 
+    public static final String PREPARED_BATCH_RUN_TIMEOUT_MS_PROP = "service.prepared_batch_run_timeout_ms";
+    public static final long PREPARED_BATCH_RUN_TIMEOUT_MS =
+        getLong(PREPARED_BATCH_RUN_TIMEOUT_MS_PROP, LastPriceServiceImpl.DEFAULT_PREPARED_BATCH_RUN_TIMEOUT_MS);
+
 }
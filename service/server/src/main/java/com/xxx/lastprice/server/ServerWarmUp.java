@@ -0,0 +1,80 @@
+package com.xxx.lastprice.server;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.xxx.lastprice.transport.CancelBatchRunRequest;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import com.xxx.lastprice.transport.UploadChunkRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives synthetic calls through the running server before it reports ready, so that the transport, protobuf
+ * and the domain hot paths are compiled by the time real traffic arrives. Calls go over a real connection to
+ * the server, so they pass through the same interceptors and executors as client calls.
+ *
+ * Warm-up never changes the market state: batch runs it starts are cancelled after the upload.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ServerWarmUp {
+
+    private static final int READS_PER_ITERATION = 10;
+    private static final int RECORDS_PER_CHUNK = 100;
+
+    private final ManagedChannel channel;
+    private final List<String> instruments;
+
+    /**
+     * Creates warm-up.
+     *
+     * @param channel channel to the server to warm up, owned by the caller
+     * @param instruments supported instruments of the server
+     */
+    public ServerWarmUp(ManagedChannel channel, List<String> instruments) {
+        this.channel = channel;
+        this.instruments = instruments;
+    }
+
+    /**
+     * Runs the given number of warm-up iterations, every iteration issues a few reads
+     * and a cancelled batch run cycle.
+     *
+     * @param iterations number of iterations
+     */
+    public void run(int iterations) {
+        final LastPriceGrpc.LastPriceBlockingStub stub =
+            LastPriceGrpc.newBlockingStub(channel).withDeadlineAfter(10, TimeUnit.MINUTES);
+        final UploadChunkRequest.Builder chunk = UploadChunkRequest.newBuilder();
+        for (int i = 0; i < RECORDS_PER_CHUNK; i++) {
+            chunk.addPriceRecords(InstrumentPriceRecord.newBuilder()
+                .setInstrument(instruments.get(i % instruments.size()))
+                .setAsOf(i)
+                .setPayload(ByteString.copyFrom(new byte[16])));
+        }
+        for (int i = 0; i < iterations; i++) {
+            for (int j = 0; j < READS_PER_ITERATION; j++) {
+                stub.requestLastPrice(LastPriceRequest.newBuilder()
+                    .setInstrument(instruments.get((i + j) % instruments.size()))
+                    .build());
+            }
+            try {
+                final StartBatchRunResponse started = stub.startBatchRun(Empty.getDefaultInstance());
+                if (started.getStatus() != StartBatchRunResponse.Status.SUCCESS) {
+                    continue;
+                }
+                stub.uploadChunk(chunk.setBatchRunId(started.getBatchRunId()).setChunkSequence(i + 1).build());
+                stub.cancelBatchRun(CancelBatchRunRequest.newBuilder().setBatchRunId(started.getBatchRunId()).build());
+            } catch (StatusRuntimeException e) {
+                // a rejected write, e.g. by a full write queue, does not stop the warm-up
+            }
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.xxx.lastprice.server;
+
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.PriceRecordListener;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.xxx.lastprice.transport.SharedPricePageLayout.AS_OF_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.COMPRESSED_PAYLOAD_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.INSTRUMENT_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.INSTRUMENT_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.LAYOUT_VERSION;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.LAYOUT_VERSION_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAGIC;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAGIC_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAX_INSTRUMENT_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.MAX_PAYLOAD_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.NO_PRICE;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.PAYLOAD_LENGTH_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.PAYLOAD_TOO_LARGE;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SEQUENCE_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SLOTS_COUNT_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.SLOT_SIZE_OFFSET;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.pageLength;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.payloadOffset;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.slotOffset;
+import static com.xxx.lastprice.transport.SharedPricePageLayout.slotSize;
+import static java.util.Objects.isNull;
+
+/**
+ * Mirrors the market state into a memory-mapped file laid out as described by
+ * {@link com.xxx.lastprice.transport.SharedPricePageLayout}, so readers on the same host get last prices
+ * without an RPC. Every instrument has a fixed slot which is updated under a seqlock.
+ *
+ * Updates of the same instrument are serialised by the market state, which makes the exporter
+ * the only writer of every slot. The exporter runs under the market state lock, so compressed payloads are copied
+ * compressed and inflated by the readers.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class SharedPricePageExporter implements PriceRecordListener, AutoCloseable {
+
+    public static final int DEFAULT_MAX_INSTRUMENT_LENGTH = 32;
+
+    private final MappedByteBuffer mappedPage;
+    private final UnsafeBuffer page;
+    private final Map<String, Integer> slotOffsets;
+    private final int payloadOffset;
+    private final int maxPayloadLength;
+
+    /**
+     * Creates the page file replacing an existing one and initialises a slot for every instrument.
+     *
+     * @param file page file
+     * @param instruments instruments to export
+     * @param maxInstrumentLength maximum length of an instrument name
+     * @param maxPayloadLength maximum length of an exported payload as stored, longer payloads are marked as too large
+     */
+    public SharedPricePageExporter(
+        Path file,
+        Collection<String> instruments,
+        int maxInstrumentLength,
+        int maxPayloadLength) {
+
+        final int slotSize = slotSize(maxInstrumentLength, maxPayloadLength);
+        final Map<String, Integer> offsets = new HashMap<>();
+        for (String instrument : instruments) {
+            offsets.putIfAbsent(instrument, (int) slotOffset(offsets.size(), slotSize));
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.mappedPage = IoUtil.mapNewFile(file.toFile(), pageLength(offsets.size(), slotSize));
+        this.page = new UnsafeBuffer(mappedPage);
+        this.slotOffsets = Map.copyOf(offsets);
+        this.payloadOffset = payloadOffset(maxInstrumentLength);
+        this.maxPayloadLength = maxPayloadLength;
+
+        page.putInt(LAYOUT_VERSION_OFFSET, LAYOUT_VERSION);
+        page.putInt(SLOTS_COUNT_OFFSET, offsets.size());
+        page.putInt(SLOT_SIZE_OFFSET, slotSize);
+        page.putInt(MAX_INSTRUMENT_LENGTH_OFFSET, maxInstrumentLength);
+        page.putInt(MAX_PAYLOAD_LENGTH_OFFSET, maxPayloadLength);
+        offsets.forEach((instrument, slotOffset) -> {
+            final byte[] instrumentBytes = instrument.getBytes(StandardCharsets.US_ASCII);
+            if (instrumentBytes.length > maxInstrumentLength) {
+                throw new IllegalArgumentException("Instrument name is too long for the shared page: " + instrument);
+            }
+            page.putInt(slotOffset + PAYLOAD_LENGTH_OFFSET, NO_PRICE);
+            page.putInt(slotOffset + INSTRUMENT_LENGTH_OFFSET, instrumentBytes.length);
+            page.putBytes(slotOffset + INSTRUMENT_OFFSET, instrumentBytes);
+        });
+        page.putIntOrdered(MAGIC_OFFSET, MAGIC);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPriceRecordUpdated(PriceRecord priceRecord, long version) {
+        final Integer slotOffset = slotOffsets.get(priceRecord.getInstrument());
+        if (isNull(slotOffset)) {
+            return;
+        }
+        final byte[] payload = priceRecord.getStoredPayload();
+        final int payloadLength = priceRecord.getPayloadLength();
+        final int compressedPayloadLength = payload.length == payloadLength ? 0 : payload.length;
+        final long sequence = page.getLong(slotOffset + SEQUENCE_OFFSET);
+        page.putLongOrdered(slotOffset + SEQUENCE_OFFSET, sequence + 1);
+        // slot data must not become visible before the odd sequence
+        VarHandle.storeStoreFence();
+        page.putLong(slotOffset + AS_OF_OFFSET, priceRecord.getAsOf());
+        if (payload.length > maxPayloadLength) {
+            page.putInt(slotOffset + PAYLOAD_LENGTH_OFFSET, PAYLOAD_TOO_LARGE);
+        } else {
+            page.putInt(slotOffset + PAYLOAD_LENGTH_OFFSET, payloadLength);
+            page.putInt(slotOffset + COMPRESSED_PAYLOAD_LENGTH_OFFSET, compressedPayloadLength);
+            page.putBytes(slotOffset + payloadOffset, payload);
+        }
+        page.putLongOrdered(slotOffset + SEQUENCE_OFFSET, sequence + 2);
+    }
+
+    /**
+     * Unmaps the page. The file stays in place for readers which still have it mapped.
+     */
+    @Override
+    public void close() {
+        IoUtil.unmap(mappedPage);
+    }
+
+}
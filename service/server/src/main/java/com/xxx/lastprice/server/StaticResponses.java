@@ -2,8 +2,12 @@ package com.xxx.lastprice.server;
 
 
 import com.xxx.lastprice.transport.CancelBatchRunResponse;
+import com.xxx.lastprice.transport.CommitBatchRunResponse;
 import com.xxx.lastprice.transport.CompleteBatchRunResponse;
 import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.PrepareBatchRunResponse;
+import com.xxx.lastprice.transport.ResumeBatchRunResponse;
+import com.xxx.lastprice.transport.PriceAsOfResponse;
 import com.xxx.lastprice.transport.StartBatchRunResponse;
 import com.xxx.lastprice.transport.UploadChunkResponse;
 
@@ -21,6 +25,18 @@ public final class StaticResponses {
     static final LastPriceResponse WRONG_INSTRUMENT_LAST_PRICE_RESPONSE =
         LastPriceResponse.newBuilder().setStatus(LastPriceResponse.Status.WRONG_INSTRUMENT).build();
 
+    static final PriceAsOfResponse PRICE_AS_OF_IS_NOT_AVAILABLE =
+        PriceAsOfResponse.newBuilder().setStatus(PriceAsOfResponse.Status.PRICE_NOT_AVAILABLE).build();
+
+    static final PriceAsOfResponse WRONG_INSTRUMENT_PRICE_AS_OF_RESPONSE =
+        PriceAsOfResponse.newBuilder().setStatus(PriceAsOfResponse.Status.WRONG_INSTRUMENT).build();
+
+    static final PriceAsOfResponse PRICE_HISTORY_DISABLED =
+        PriceAsOfResponse.newBuilder().setStatus(PriceAsOfResponse.Status.HISTORY_DISABLED).build();
+
+    static final PriceAsOfResponse PRICE_AS_OF_EVICTED =
+        PriceAsOfResponse.newBuilder().setStatus(PriceAsOfResponse.Status.PRICE_EVICTED).build();
+
     static final StartBatchRunResponse TOO_MANY_ACTIVE_BATCH_RUNS =
         StartBatchRunResponse.newBuilder().setStatus(StartBatchRunResponse.Status.TOO_MANY_ACTIVE_BATCH_RUNS).build();
 
@@ -45,4 +61,19 @@ public final class StaticResponses {
     static final CompleteBatchRunResponse BATCH_RUN_NOT_FOUND_COMPLETE_BATCH =
         CompleteBatchRunResponse.newBuilder().setStatus(CompleteBatchRunResponse.Status.BATCH_RUN_NOT_FOUND).build();
 
+    static final PrepareBatchRunResponse BATCH_RUN_PREPARED =
+        PrepareBatchRunResponse.newBuilder().setStatus(PrepareBatchRunResponse.Status.SUCCESS).build();
+
+    static final PrepareBatchRunResponse BATCH_RUN_NOT_FOUND_PREPARE_BATCH =
+        PrepareBatchRunResponse.newBuilder().setStatus(PrepareBatchRunResponse.Status.BATCH_RUN_NOT_FOUND).build();
+
+    static final CommitBatchRunResponse BATCH_RUN_COMMITTED =
+        CommitBatchRunResponse.newBuilder().setStatus(CommitBatchRunResponse.Status.SUCCESS).build();
+
+    static final CommitBatchRunResponse BATCH_RUN_NOT_FOUND_COMMIT_BATCH =
+        CommitBatchRunResponse.newBuilder().setStatus(CommitBatchRunResponse.Status.BATCH_RUN_NOT_FOUND).build();
+
+    static final ResumeBatchRunResponse BATCH_RUN_NOT_FOUND_RESUME_BATCH =
+        ResumeBatchRunResponse.newBuilder().setStatus(ResumeBatchRunResponse.Status.BATCH_RUN_NOT_FOUND).build();
+
 }
@@ -0,0 +1,246 @@
+package com.xxx.lastprice.server;
+
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Layout of the traffic capture file written by {@link TrafficCaptureInterceptor}. The file starts with
+ * a header followed by fixed length little-endian records, one per finished call, in the order the calls
+ * finished. Captures hold timings and sizes only, never instruments or payloads.
+ *
+ * <pre>
+ * header: magic int, version int, capture start epoch millis long
+ * record: start nanos long, duration nanos long, batch run id long, request bytes int, response bytes int,
+ *         record count int, connection int, method byte, status code byte
+ * </pre>
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class TrafficCaptureFile {
+
+    private TrafficCaptureFile() {
+    }
+
+    public static final int MAGIC = 0x4C505443;
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 16;
+    public static final int RECORD_LENGTH = 42;
+
+    static final int START_NANOS_OFFSET = 0;
+    static final int DURATION_NANOS_OFFSET = 8;
+    static final int BATCH_RUN_ID_OFFSET = 16;
+    static final int REQUEST_BYTES_OFFSET = 24;
+    static final int RESPONSE_BYTES_OFFSET = 28;
+    static final int RECORD_COUNT_OFFSET = 32;
+    static final int CONNECTION_OFFSET = 36;
+    static final int METHOD_OFFSET = 40;
+    static final int STATUS_CODE_OFFSET = 41;
+
+    // records are read through a window of this many records, so the file size is not limited by a single mapping
+    static final int READ_WINDOW_RECORDS = 1024;
+
+    /**
+     * Batch run id of calls not related to a batch run.
+     */
+    public static final long NO_BATCH_RUN = -1;
+
+    /**
+     * Captured methods, the position of a method is its id in the records, so new methods are only appended.
+     */
+    public static final List<String> METHODS = List.of(
+        LastPriceGrpc.getRequestLastPriceMethod().getFullMethodName(),
+        LastPriceGrpc.getRequestPriceAsOfMethod().getFullMethodName(),
+        LastPriceGrpc.getChangesSinceMethod().getFullMethodName(),
+        LastPriceGrpc.getStartBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getUploadChunkMethod().getFullMethodName(),
+        LastPriceGrpc.getCancelBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getCompleteBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getPrepareBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getCommitBatchRunMethod().getFullMethodName(),
+        LastPriceGrpc.getResumeBatchRunMethod().getFullMethodName()
+    );
+
+    /**
+     * Reads all records of the given capture file.
+     *
+     * @param file capture file
+     * @return captured calls ordered by their start time
+     * @throws IOException if the file cannot be read or is not a capture file
+     */
+    public static List<CapturedCall> read(Path file) throws IOException {
+        final List<CapturedCall> calls = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_LENGTH
+                || !readFully(channel, header, 0)
+                || header.getInt(0) != MAGIC
+                || header.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a traffic capture file of version " + VERSION);
+            }
+            // a record cut short by a crash of the server is ignored
+            long remainingRecords = (channel.size() - HEADER_LENGTH) / RECORD_LENGTH;
+            long position = HEADER_LENGTH;
+            final ByteBuffer window =
+                ByteBuffer.allocate(READ_WINDOW_RECORDS * RECORD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            while (remainingRecords > 0) {
+                final int windowRecords = (int) Math.min(remainingRecords, READ_WINDOW_RECORDS);
+                window.clear().limit(windowRecords * RECORD_LENGTH);
+                if (!readFully(channel, window, position)) {
+                    throw new IOException(file + " was truncated while it was read");
+                }
+                for (int i = 0; i < windowRecords; i++) {
+                    calls.add(readCall(window, i * RECORD_LENGTH));
+                }
+                position += window.limit();
+                remainingRecords -= windowRecords;
+            }
+        }
+        calls.sort(Comparator.comparingLong(CapturedCall::getStartNanos));
+        return calls;
+    }
+
+    private static CapturedCall readCall(ByteBuffer buffer, int offset) {
+        return new CapturedCall(
+            METHODS.get(buffer.get(offset + METHOD_OFFSET)),
+            buffer.getLong(offset + START_NANOS_OFFSET),
+            buffer.getLong(offset + DURATION_NANOS_OFFSET),
+            buffer.getLong(offset + BATCH_RUN_ID_OFFSET),
+            buffer.getInt(offset + REQUEST_BYTES_OFFSET),
+            buffer.getInt(offset + RESPONSE_BYTES_OFFSET),
+            buffer.getInt(offset + RECORD_COUNT_OFFSET),
+            buffer.getInt(offset + CONNECTION_OFFSET),
+            Status.Code.values()[buffer.get(offset + STATUS_CODE_OFFSET)]
+        );
+    }
+
+    /**
+     * Fills the remaining space of the buffer from the given position of the file.
+     *
+     * @return {@code false} if the file ended before the buffer was filled
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Single captured call.
+     */
+    public static final class CapturedCall {
+
+        private final String method;
+        private final long startNanos;
+        private final long durationNanos;
+        private final long batchRunId;
+        private final int requestBytes;
+        private final int responseBytes;
+        private final int recordCount;
+        private final int connection;
+        private final Status.Code statusCode;
+
+        CapturedCall(
+            String method,
+            long startNanos,
+            long durationNanos,
+            long batchRunId,
+            int requestBytes,
+            int responseBytes,
+            int recordCount,
+            int connection,
+            Status.Code statusCode) {
+
+            this.method = method;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.batchRunId = batchRunId;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.recordCount = recordCount;
+            this.connection = connection;
+            this.statusCode = statusCode;
+        }
+
+        /**
+         * Returns full name of the called method.
+         *
+         * @return method name
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Returns time the call started at relative to the start of the capture.
+         *
+         * @return start time in nanoseconds
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * Returns batch run the call belongs to, the id assigned by the server for batch run starts.
+         *
+         * @return batch run id or {@link #NO_BATCH_RUN}
+         */
+        public long getBatchRunId() {
+            return batchRunId;
+        }
+
+        public int getRequestBytes() {
+            return requestBytes;
+        }
+
+        /**
+         * Returns serialized size of all response messages of the call.
+         *
+         * @return response size in bytes
+         */
+        public int getResponseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         * Returns number of price records of an uploaded chunk or of all streamed market change chunks.
+         *
+         * @return number of price records
+         */
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * Returns key of the client connection the call came over, calls of the same connection share it.
+         *
+         * @return connection key
+         */
+        public int getConnection() {
+            return connection;
+        }
+
+        public Status.Code getStatusCode() {
+            return statusCode;
+        }
+
+    }
+
+}
@@ -0,0 +1,322 @@
+package com.xxx.lastprice.server;
+
+import com.google.protobuf.MessageLite;
+import com.xxx.lastprice.transport.CancelBatchRunRequest;
+import com.xxx.lastprice.transport.CommitBatchRunRequest;
+import com.xxx.lastprice.transport.CompleteBatchRunRequest;
+import com.xxx.lastprice.transport.MarketChangesChunk;
+import com.xxx.lastprice.transport.PrepareBatchRunRequest;
+import com.xxx.lastprice.transport.ResumeBatchRunRequest;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import com.xxx.lastprice.transport.UploadChunkRequest;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.SleepingMillisIdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.xxx.lastprice.server.TrafficCaptureFile.BATCH_RUN_ID_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.CONNECTION_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.DURATION_NANOS_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.HEADER_LENGTH;
+import static com.xxx.lastprice.server.TrafficCaptureFile.MAGIC;
+import static com.xxx.lastprice.server.TrafficCaptureFile.METHODS;
+import static com.xxx.lastprice.server.TrafficCaptureFile.METHOD_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.NO_BATCH_RUN;
+import static com.xxx.lastprice.server.TrafficCaptureFile.RECORD_COUNT_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.RECORD_LENGTH;
+import static com.xxx.lastprice.server.TrafficCaptureFile.REQUEST_BYTES_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.RESPONSE_BYTES_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.START_NANOS_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.STATUS_CODE_OFFSET;
+import static com.xxx.lastprice.server.TrafficCaptureFile.VERSION;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * Records timing and sizes of every finished call into a {@link TrafficCaptureFile}.
+ *
+ * Calls never wait for the disk: a finished call puts its record into a lock-free ring buffer which
+ * a background thread drains into the file. If the buffer is full the record is dropped and counted,
+ * so capturing can stay on under production load.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class TrafficCaptureInterceptor implements ServerInterceptor, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficCaptureInterceptor.class);
+
+    private static final int RECORD_MESSAGE = 1;
+    private static final int RECORDS_LIMIT = 256;
+    private static final int FILE_BUFFER_LENGTH = 64 * 1024;
+
+    private final RingBuffer records;
+    private final AgentRunner writerRunner;
+    private final long captureStartNanos = System.nanoTime();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates the capture file replacing an existing one and starts the writer thread.
+     *
+     * @param file capture file
+     * @param bufferCapacity capacity of the ring buffer in bytes, has to be a power of two
+     */
+    public TrafficCaptureInterceptor(Path file, int bufferCapacity) {
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+            );
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(System.currentTimeMillis())
+                .flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.records = new ManyToOneRingBuffer(new UnsafeBuffer(
+            ByteBuffer.allocateDirect(bufferCapacity + RingBufferDescriptor.TRAILER_LENGTH)
+        ));
+        this.writerRunner = new AgentRunner(
+            // records are not latency sensitive, a sleeping writer costs nothing while the server is idle
+            new SleepingMillisIdleStrategy(1),
+            throwable -> LOGGER.error("Traffic capture writer failure", throwable),
+            null,
+            new Writer(channel)
+        );
+        AgentRunner.startOnThread(writerRunner);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call,
+        Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+
+        final int method = METHODS.indexOf(call.getMethodDescriptor().getFullMethodName());
+        if (method < 0 || closed) {
+            return next.startCall(call, headers);
+        }
+        final SocketAddress remoteAddress = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        final CallCapture capture = new CallCapture(
+            method,
+            System.nanoTime(),
+            remoteAddress == null ? 0 : remoteAddress.hashCode()
+        );
+        final ServerCall<ReqT, RespT> capturingCall = new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                capture.onResponse(message);
+                super.sendMessage(message);
+            }
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                super.close(status, trailers);
+                record(capture, status);
+            }
+        };
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(
+            next.startCall(capturingCall, headers)) {
+
+            @Override
+            public void onMessage(ReqT message) {
+                capture.onRequest(message);
+                super.onMessage(message);
+            }
+
+            @Override
+            public void onCancel() {
+                // a call cancelled by the client may never be closed by the handler
+                record(capture, Status.CANCELLED);
+                super.onCancel();
+            }
+        };
+    }
+
+    /**
+     * Returns number of records dropped because the writer could not keep up.
+     *
+     * @return number of dropped records
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops capturing, writes out the records which are still buffered and closes the file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writerRunner.close();
+        if (dropped.get() > 0) {
+            LOGGER.warn("Traffic capture dropped " + dropped.get() + " records");
+        }
+    }
+
+    private void record(CallCapture capture, Status status) {
+        if (closed || !capture.recorded.compareAndSet(false, true)) {
+            return;
+        }
+        final int index = records.tryClaim(RECORD_MESSAGE, RECORD_LENGTH);
+        if (index < 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+        final MutableDirectBuffer buffer = records.buffer();
+        buffer.putLong(index + START_NANOS_OFFSET, capture.startNanos - captureStartNanos, LITTLE_ENDIAN);
+        buffer.putLong(index + DURATION_NANOS_OFFSET, System.nanoTime() - capture.startNanos, LITTLE_ENDIAN);
+        buffer.putLong(index + BATCH_RUN_ID_OFFSET, capture.batchRunId, LITTLE_ENDIAN);
+        buffer.putInt(index + REQUEST_BYTES_OFFSET, capture.requestBytes, LITTLE_ENDIAN);
+        buffer.putInt(index + RESPONSE_BYTES_OFFSET, capture.responseBytes, LITTLE_ENDIAN);
+        buffer.putInt(index + RECORD_COUNT_OFFSET, capture.recordCount, LITTLE_ENDIAN);
+        buffer.putInt(index + CONNECTION_OFFSET, capture.connection, LITTLE_ENDIAN);
+        buffer.putByte(index + METHOD_OFFSET, (byte) capture.method);
+        buffer.putByte(index + STATUS_CODE_OFFSET, (byte) status.getCode().value());
+        records.commit(index);
+    }
+
+    /**
+     * Details of a call collected while it is processed. Request and response callbacks of a call
+     * are serialised by gRPC, only recording can race between the close and the cancellation.
+     */
+    private static final class CallCapture {
+
+        private final int method;
+        private final long startNanos;
+        private final int connection;
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private long batchRunId = NO_BATCH_RUN;
+        private int requestBytes;
+        private int responseBytes;
+        private int recordCount;
+
+        CallCapture(int method, long startNanos, int connection) {
+            this.method = method;
+            this.startNanos = startNanos;
+            this.connection = connection;
+        }
+
+        void onRequest(Object message) {
+            requestBytes = ((MessageLite) message).getSerializedSize();
+            if (message instanceof UploadChunkRequest) {
+                batchRunId = ((UploadChunkRequest) message).getBatchRunId();
+                recordCount = ((UploadChunkRequest) message).getPriceRecordsCount();
+            } else if (message instanceof CompleteBatchRunRequest) {
+                batchRunId = ((CompleteBatchRunRequest) message).getBatchRunId();
+            } else if (message instanceof CancelBatchRunRequest) {
+                batchRunId = ((CancelBatchRunRequest) message).getBatchRunId();
+            } else if (message instanceof PrepareBatchRunRequest) {
+                batchRunId = ((PrepareBatchRunRequest) message).getBatchRunId();
+            } else if (message instanceof CommitBatchRunRequest) {
+                batchRunId = ((CommitBatchRunRequest) message).getBatchRunId();
+            } else if (message instanceof ResumeBatchRunRequest) {
+                batchRunId = ((ResumeBatchRunRequest) message).getBatchRunId();
+            }
+        }
+
+        void onResponse(Object message) {
+            // the size is memoized by protobuf and reused when the message is serialized for the wire
+            responseBytes += ((MessageLite) message).getSerializedSize();
+            if (message instanceof StartBatchRunResponse
+                && ((StartBatchRunResponse) message).getStatus() == StartBatchRunResponse.Status.SUCCESS) {
+                batchRunId = ((StartBatchRunResponse) message).getBatchRunId();
+            } else if (message instanceof MarketChangesChunk) {
+                recordCount += ((MarketChangesChunk) message).getPriceRecordsCount();
+            }
+        }
+
+    }
+
+    private final class Writer implements Agent {
+
+        private final FileChannel channel;
+        private final ByteBuffer fileBuffer = ByteBuffer.allocateDirect(FILE_BUFFER_LENGTH);
+        private final UnsafeBuffer pending = new UnsafeBuffer(fileBuffer);
+        private int pendingLength;
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int doWork() throws IOException {
+            final int workCount = records.read(this::onRecord, RECORDS_LIMIT);
+            if (workCount == 0 && pendingLength > 0) {
+                flush();
+            }
+            return workCount;
+        }
+
+        @Override
+        public void onClose() {
+            try {
+                while (records.read(this::onRecord, RECORDS_LIMIT) > 0) {
+                    // drain records of calls finished before the close
+                }
+                flush();
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close traffic capture file", e);
+            }
+        }
+
+        @Override
+        public String roleName() {
+            return "traffic-capture-writer";
+        }
+
+        private void onRecord(int messageType, MutableDirectBuffer buffer, int offset, int length) {
+            if (pendingLength + length > FILE_BUFFER_LENGTH) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            pending.putBytes(pendingLength, buffer, offset, length);
+            pendingLength += length;
+        }
+
+        private void flush() throws IOException {
+            fileBuffer.clear().limit(pendingLength);
+            while (fileBuffer.hasRemaining()) {
+                channel.write(fileBuffer);
+            }
+            pendingLength = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.xxx.lastprice.server;
+
+import com.xxx.lastprice.domain.WeightedFairScheduler;
+import com.xxx.lastprice.transport.LastPriceHeaders;
+import io.grpc.Context;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.xxx.lastprice.server.LastPriceMethods.WRITE_METHODS;
+
+/**
+ * Runs write calls through the {@link WeightedFairScheduler}, classifying them by the producer class header.
+ * A call is queued once its request is received and holds its scheduler slot until the response is closed.
+ * Calls cancelled while queued release the slot without being processed. Reads are not scheduled.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class WriteCallSchedulingInterceptor implements ServerInterceptor {
+
+    private final WeightedFairScheduler scheduler;
+
+    public WriteCallSchedulingInterceptor(WeightedFairScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+        ServerCall<ReqT, RespT> call,
+        Metadata headers,
+        ServerCallHandler<ReqT, RespT> next) {
+
+        if (!WRITE_METHODS.contains(call.getMethodDescriptor().getFullMethodName())) {
+            return next.startCall(call, headers);
+        }
+        final AtomicReference<Runnable> release = new AtomicReference<>();
+        final ServerCall<ReqT, RespT> releasingCall = new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void close(Status status, Metadata trailers) {
+                super.close(status, trailers);
+                final Runnable releaseSlot = release.get();
+                if (releaseSlot != null) {
+                    releaseSlot.run();
+                }
+            }
+        };
+        final String producerClass = headers.get(LastPriceHeaders.PRODUCER_CLASS);
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(
+            next.startCall(releasingCall, headers)) {
+
+            @Override
+            public void onHalfClose() {
+                // unary handlers do their work here, so this is the part to be scheduled
+                final Context context = Context.current();
+                scheduler.execute(producerClass, releaseSlot -> {
+                    release.set(releaseSlot);
+                    if (context.isCancelled()) {
+                        releaseSlot.run();
+                        return;
+                    }
+                    try {
+                        context.run(super::onHalfClose);
+                    } catch (RuntimeException e) {
+                        releasingCall.close(Status.fromThrowable(e), new Metadata());
+                    }
+                });
+            }
+        };
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.xxx.lastprice.server;
+
+import com.google.protobuf.Empty;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.transport.CompleteBatchRunRequest;
+import com.xxx.lastprice.transport.CompleteBatchRunResponse;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ExecutorRoutingInterceptorTest {
+
+    private final ExecutorService writeExecutorService = Executors.newSingleThreadExecutor();
+    private Server server;
+    private ManagedChannel channel;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        writeExecutorService.shutdownNow();
+    }
+
+    @Test
+    public void shouldProcessOnlyWritesOnRoutingExecutor() throws IOException {
+        final AtomicInteger routedCalls = new AtomicInteger();
+        final LastPriceGrpc.LastPriceBlockingStub stub = start(task -> {
+            routedCalls.incrementAndGet();
+            writeExecutorService.execute(task);
+        });
+
+        final LastPriceResponse lastPrice =
+            stub.requestLastPrice(LastPriceRequest.newBuilder().setInstrument("AIR").build());
+        assertThat(lastPrice.getStatus(), is(LastPriceResponse.Status.PRICE_NOT_AVAILABLE));
+        assertThat(routedCalls.get(), is(0));
+
+        final StartBatchRunResponse started = stub.startBatchRun(Empty.getDefaultInstance());
+        final CompleteBatchRunResponse completed = stub.completeBatchRun(
+            CompleteBatchRunRequest.newBuilder().setBatchRunId(started.getBatchRunId()).build()
+        );
+
+        assertThat(started.getStatus(), is(StartBatchRunResponse.Status.SUCCESS));
+        assertThat(completed.getStatus(), is(CompleteBatchRunResponse.Status.SUCCESS));
+        assertThat(routedCalls.get(), is(2));
+    }
+
+    @Test
+    public void shouldFailWriteRejectedByExecutorWithResourceExhausted() throws IOException {
+        final LastPriceGrpc.LastPriceBlockingStub stub = start(task -> {
+            throw new RejectedExecutionException("Queue is full");
+        });
+
+        final StatusRuntimeException e =
+            assertThrows(StatusRuntimeException.class, () -> stub.startBatchRun(Empty.getDefaultInstance()));
+
+        assertThat(e.getStatus().getCode(), is(Status.Code.RESOURCE_EXHAUSTED));
+        assertThat(
+            stub.requestLastPrice(LastPriceRequest.newBuilder().setInstrument("AIR").build()).getStatus(),
+            is(LastPriceResponse.Status.PRICE_NOT_AVAILABLE)
+        );
+    }
+
+    private LastPriceGrpc.LastPriceBlockingStub start(Executor writeExecutor) throws IOException {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        final LastPriceServiceHandler handler = new LastPriceServiceHandler(LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            List.of("AIR", "TEAM", "NEE"),
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build());
+        final String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+            .addService(ServerInterceptors.intercept(handler, ExecutorRoutingInterceptor.forWrites(writeExecutor)))
+            .build()
+            .start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+        return LastPriceGrpc.newBlockingStub(channel);
+    }
+
+}
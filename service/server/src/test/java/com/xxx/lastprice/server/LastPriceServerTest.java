@@ -0,0 +1,36 @@
+package com.xxx.lastprice.server;
+
+import com.xxx.lastprice.domain.WeightedFairScheduler;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class LastPriceServerTest {
+
+    private final WeightedFairScheduler scheduler = new WeightedFairScheduler(Runnable::run, 4);
+
+    @Test
+    public void shouldRegisterProducerClasses() {
+        assertDoesNotThrow(() -> LastPriceServer.registerProducerClasses(scheduler, " bulk:1:2, ,default:3:4"));
+    }
+
+    @Test
+    public void shouldNameMalformedProducerClassEntry() {
+        for (String entry : List.of("bulk", "bulk:1", ":1:2", "bulk:x:2", "bulk:1:2:3", "bulk:0:2")) {
+            final IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> LastPriceServer.registerProducerClasses(scheduler, "realtime:4:2," + entry));
+
+            assertThat(e.getMessage(), containsString(ServerConfiguration.PRODUCER_CLASSES_PROP));
+            assertThat(e.getMessage(), containsString("'" + entry + "'"));
+        }
+    }
+
+}
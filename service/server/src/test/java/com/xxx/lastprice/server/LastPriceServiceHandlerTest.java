@@ -0,0 +1,121 @@
+package com.xxx.lastprice.server;
+
+import com.google.protobuf.Empty;
+import com.xxx.lastprice.domain.AsyncLastPriceService;
+import com.xxx.lastprice.domain.PriceRecord;
+import com.xxx.lastprice.domain.ServiceResult;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.LastPriceResponse;
+import com.xxx.lastprice.transport.StartBatchRunResponse;
+import com.xxx.lastprice.transport.UploadChunkRequest;
+import com.xxx.lastprice.transport.UploadChunkResponse;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class LastPriceServiceHandlerTest {
+
+    private final AsyncLastPriceService lastPriceService = Mockito.mock(AsyncLastPriceService.class);
+    private final LastPriceServiceHandler handler = new LastPriceServiceHandler(lastPriceService, 100);
+    private final ScheduledExecutorService deadlineScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        deadlineScheduler.shutdownNow();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldRejectExpiredCallsWithoutCallingService() {
+        final StreamObserver<LastPriceResponse> lastPriceObserver = Mockito.mock(StreamObserver.class);
+        final StreamObserver<StartBatchRunResponse> startObserver = Mockito.mock(StreamObserver.class);
+        final StreamObserver<UploadChunkResponse> uploadObserver = Mockito.mock(StreamObserver.class);
+
+        runExpired(() -> {
+            handler.requestLastPrice(LastPriceRequest.newBuilder().setInstrument("AIR").build(), lastPriceObserver);
+            handler.startBatchRun(Empty.getDefaultInstance(), startObserver);
+            handler.uploadChunk(UploadChunkRequest.newBuilder().setBatchRunId(1L).build(), uploadObserver);
+        });
+
+        verifyNoInteractions(lastPriceService);
+        assertThat(capturedStatus(lastPriceObserver).getCode(), is(Status.Code.DEADLINE_EXCEEDED));
+        assertThat(capturedStatus(startObserver).getCode(), is(Status.Code.DEADLINE_EXCEEDED));
+        assertThat(capturedStatus(uploadObserver).getCode(), is(Status.Code.DEADLINE_EXCEEDED));
+        verify(uploadObserver, never()).onNext(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldServeCallsWithinDeadline() {
+        final PriceRecord priceRecord = new PriceRecord("AIR", 1L, new byte[]{1});
+        when(lastPriceService.findLastPrice("AIR"))
+            .thenReturn(CompletableFuture.completedFuture(ServiceResult.success(priceRecord)));
+        final StreamObserver<LastPriceResponse> observer = Mockito.mock(StreamObserver.class);
+
+        try (Context.CancellableContext context = Context.current()
+            .withDeadline(Deadline.after(1, TimeUnit.MINUTES), deadlineScheduler)) {
+            context.run(() -> handler.requestLastPrice(
+                LastPriceRequest.newBuilder().setInstrument("AIR").build(), observer
+            ));
+        }
+
+        final ArgumentCaptor<LastPriceResponse> response = ArgumentCaptor.forClass(LastPriceResponse.class);
+        verify(observer).onNext(response.capture());
+        verify(observer).onCompleted();
+        assertThat(response.getValue().getPriceRecord().getAsOf(), is(1L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldFailRefusedRequestAsInvalidArgument() {
+        when(lastPriceService.uploadPriceRecordsChunk(anyLong(), anyLong(), anyCollection()))
+            .thenReturn(CompletableFuture.failedFuture(new IllegalArgumentException("Record is too large")));
+        final StreamObserver<UploadChunkResponse> observer = Mockito.mock(StreamObserver.class);
+
+        handler.uploadChunk(UploadChunkRequest.newBuilder().setBatchRunId(1L).build(), observer);
+
+        final Status status = capturedStatus(observer);
+        assertThat(status.getCode(), is(Status.Code.INVALID_ARGUMENT));
+        assertThat(status.getDescription(), is("Record is too large"));
+    }
+
+    /**
+     * Runs calls in the context of a call whose deadline expired while it was queued.
+     */
+    private void runExpired(Runnable calls) {
+        try (Context.CancellableContext context = Context.current()
+            .withDeadline(Deadline.after(-1, TimeUnit.SECONDS), deadlineScheduler)) {
+            context.run(calls);
+        }
+    }
+
+    private static Status capturedStatus(StreamObserver<?> observer) {
+        final ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        verify(observer).onError(error.capture());
+        return Status.fromThrowable(error.getValue());
+    }
+
+}
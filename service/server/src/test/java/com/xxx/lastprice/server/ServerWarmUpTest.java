@@ -0,0 +1,117 @@
+package com.xxx.lastprice.server;
+
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class ServerWarmUpTest {
+
+    private static final List<String> INSTRUMENTS = List.of("AIR", "TEAM", "NEE");
+    private static final int ITERATIONS = 20;
+
+    private final PriceRecordContainer marketState = new PriceRecordContainer();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger startCalls = new AtomicInteger();
+    private LastPriceServiceImpl service;
+    private Server server;
+    private ManagedChannel channel;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        // a single active batch run, so one left behind by the warm-up would block the next start
+        service = LastPriceServiceImpl.builder(
+            marketState,
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            INSTRUMENTS,
+            new BatchRunAdmissionControl(1, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build();
+        final String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+            .addService(ServerInterceptors.intercept(
+                new LastPriceServiceHandler(service), new EveryThirdStartRejectingInterceptor()
+            ))
+            .build()
+            .start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldDriveCallsWithoutChangingMarketState() throws Exception {
+        new ServerWarmUp(channel, INSTRUMENTS).run(ITERATIONS);
+
+        final int startedBatchRuns = ITERATIONS - ITERATIONS / 3;
+        assertThat(callsOf(LastPriceGrpc.getRequestLastPriceMethod().getFullMethodName()), is(ITERATIONS * 10));
+        assertThat(callsOf(LastPriceGrpc.getStartBatchRunMethod().getFullMethodName()), is(ITERATIONS));
+        assertThat(callsOf(LastPriceGrpc.getUploadChunkMethod().getFullMethodName()), is(startedBatchRuns));
+        assertThat(callsOf(LastPriceGrpc.getCancelBatchRunMethod().getFullMethodName()), is(startedBatchRuns));
+        for (String instrument : INSTRUMENTS) {
+            assertThat(marketState.getPriceRecord(instrument), is(nullValue()));
+        }
+        // every batch run of the warm-up was cancelled, so the only admitted slot is free
+        service.cancelBatchRun(service.startBatchRun());
+    }
+
+    private int callsOf(String method) {
+        return calls.getOrDefault(method, new AtomicInteger()).get();
+    }
+
+    /**
+     * Counts calls by method and rejects every third batch run start, as a full write queue would.
+     */
+    private final class EveryThirdStartRejectingInterceptor implements ServerInterceptor {
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call,
+            Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+
+            final String method = call.getMethodDescriptor().getFullMethodName();
+            calls.computeIfAbsent(method, name -> new AtomicInteger()).incrementAndGet();
+            if (method.equals(LastPriceGrpc.getStartBatchRunMethod().getFullMethodName())
+                && startCalls.incrementAndGet() % 3 == 0) {
+                call.close(Status.RESOURCE_EXHAUSTED, new Metadata());
+                return new ServerCall.Listener<>() { };
+            }
+            return next.startCall(call, headers);
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.xxx.lastprice.server;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.xxx.lastprice.domain.BatchRunAdmissionControl;
+import com.xxx.lastprice.domain.InMemoryBatchRunRepository;
+import com.xxx.lastprice.domain.LastPriceServiceImpl;
+import com.xxx.lastprice.domain.PriceRecordContainer;
+import com.xxx.lastprice.server.TrafficCaptureFile.CapturedCall;
+import com.xxx.lastprice.transport.CompleteBatchRunRequest;
+import com.xxx.lastprice.transport.InstrumentPriceRecord;
+import com.xxx.lastprice.transport.LastPriceGrpc;
+import com.xxx.lastprice.transport.LastPriceRequest;
+import com.xxx.lastprice.transport.UploadChunkRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public class TrafficCaptureInterceptorTest {
+
+    private static final List<String> INSTRUMENTS = List.of("AIR", "TEAM", "NEE");
+
+    @TempDir
+    Path captureDirectory;
+
+    @Test
+    public void shouldReadBackCallsCapturedByInterceptor() throws Exception {
+        final Path captureFile = captureDirectory.resolve("traffic.capture");
+        // more calls than fit into one read window
+        final int lookups = TrafficCaptureFile.READ_WINDOW_RECORDS + 100;
+        final long batchRunId;
+        try (TrafficCaptureInterceptor interceptor = new TrafficCaptureInterceptor(captureFile, 1 << 20)) {
+            final String serverName = InProcessServerBuilder.generateName();
+            // calls are recorded on the calling thread before the blocking stub returns
+            final Server server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(ServerInterceptors.intercept(new LastPriceServiceHandler(createService()), interceptor))
+                .build()
+                .start();
+            final ManagedChannel channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+            try {
+                final LastPriceGrpc.LastPriceBlockingStub stub = LastPriceGrpc.newBlockingStub(channel);
+                batchRunId = stub.startBatchRun(Empty.getDefaultInstance()).getBatchRunId();
+                stub.uploadChunk(UploadChunkRequest.newBuilder()
+                    .setBatchRunId(batchRunId)
+                    .addPriceRecords(priceRecord("AIR"))
+                    .addPriceRecords(priceRecord("TEAM"))
+                    .build());
+                stub.completeBatchRun(CompleteBatchRunRequest.newBuilder().setBatchRunId(batchRunId).build());
+                for (int i = 0; i < lookups; i++) {
+                    stub.requestLastPrice(LastPriceRequest.newBuilder().setInstrument("AIR").build());
+                }
+            } finally {
+                channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+                server.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+            }
+            assertThat(interceptor.getDroppedCount(), is(0L));
+        }
+
+        final List<CapturedCall> calls = TrafficCaptureFile.read(captureFile);
+
+        assertThat(calls.size(), is(3 + lookups));
+        assertThat(calls.subList(0, 3).stream().map(CapturedCall::getMethod).collect(Collectors.toList()), contains(
+            LastPriceGrpc.getStartBatchRunMethod().getFullMethodName(),
+            LastPriceGrpc.getUploadChunkMethod().getFullMethodName(),
+            LastPriceGrpc.getCompleteBatchRunMethod().getFullMethodName()
+        ));
+        assertThat(calls.subList(0, 3).stream().map(CapturedCall::getBatchRunId).collect(Collectors.toList()),
+            everyItem(is(batchRunId)));
+        assertThat(calls.get(1).getRecordCount(), is(2));
+        final CapturedCall lastCall = calls.get(calls.size() - 1);
+        assertThat(lastCall.getMethod(), is(LastPriceGrpc.getRequestLastPriceMethod().getFullMethodName()));
+        assertThat(lastCall.getBatchRunId(), is(TrafficCaptureFile.NO_BATCH_RUN));
+        assertThat(calls.stream().map(CapturedCall::getStatusCode).collect(Collectors.toList()),
+            everyItem(is(Status.Code.OK)));
+    }
+
+    @Test
+    public void shouldIgnoreRecordCutShortAndRejectOtherFiles() throws Exception {
+        final Path captureFile = captureDirectory.resolve("traffic.capture");
+        new TrafficCaptureInterceptor(captureFile, 1 << 12).close();
+        Files.write(captureFile, new byte[TrafficCaptureFile.RECORD_LENGTH - 1], StandardOpenOption.APPEND);
+
+        assertThat(TrafficCaptureFile.read(captureFile).isEmpty(), is(true));
+
+        final Path otherFile = captureDirectory.resolve("other");
+        Files.write(otherFile, new byte[TrafficCaptureFile.HEADER_LENGTH]);
+        assertThrows(IOException.class, () -> TrafficCaptureFile.read(otherFile));
+    }
+
+    private static InstrumentPriceRecord priceRecord(String instrument) {
+        return InstrumentPriceRecord.newBuilder()
+            .setInstrument(instrument)
+            .setAsOf(1L)
+            .setPayload(ByteString.copyFrom(new byte[]{1}))
+            .build();
+    }
+
+    private static LastPriceServiceImpl createService() {
+        final AtomicLong batchIdSequence = new AtomicLong();
+        return LastPriceServiceImpl.builder(
+            new PriceRecordContainer(),
+            new InMemoryBatchRunRepository(System::currentTimeMillis, batchIdSequence::getAndIncrement),
+            INSTRUMENTS,
+            new BatchRunAdmissionControl(10, Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        ).build();
+    }
+
+}
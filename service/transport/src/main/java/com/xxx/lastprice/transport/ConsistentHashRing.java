@@ -0,0 +1,105 @@
+package com.xxx.lastprice.transport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Consistent hash ring assigning instruments to the nodes of a sharded cluster. Servers use it to find
+ * the instruments they own and clients to route calls, so both have to be built from the same node names
+ * and number of virtual nodes. The hash does not depend on the JVM, the order of nodes does not matter.
+ *
+ * Every node is placed on the ring at several points, virtual nodes, which evens out the shares of the nodes
+ * and spreads instruments of a removed node over all remaining ones. Adding a node moves only the instruments
+ * it takes over.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class ConsistentHashRing {
+
+    /**
+     * Number of virtual nodes per node which keeps shares of a few nodes within several percent of each other.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 256;
+
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] pointNodes;
+
+    /**
+     * Creates ring.
+     *
+     * @param nodes distinct names of the cluster nodes
+     * @param virtualNodes number of points of every node on the ring
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("At least one node and one virtual node are required");
+        }
+        this.nodes = List.copyOf(nodes);
+        final int pointsCount = this.nodes.size() * virtualNodes;
+        final long[] hashes = new long[pointsCount];
+        int position = 0;
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                hashes[position++] = hash(node + '#' + i);
+            }
+        }
+        // sort point indexes by hash, ties broken by node name, so the ring does not depend on the nodes order
+        final Integer[] sorted = new Integer[pointsCount];
+        Arrays.setAll(sorted, i -> i);
+        Arrays.sort(sorted, (left, right) -> {
+            final int byHash = Long.compare(hashes[left], hashes[right]);
+            return byHash != 0
+                ? byHash
+                : this.nodes.get(left / virtualNodes).compareTo(this.nodes.get(right / virtualNodes));
+        });
+        this.points = new long[pointsCount];
+        this.pointNodes = new String[pointsCount];
+        for (int i = 0; i < pointsCount; i++) {
+            points[i] = hashes[sorted[i]];
+            pointNodes[i] = this.nodes.get(sorted[i] / virtualNodes);
+        }
+    }
+
+    /**
+     * Returns node owning the given instrument: the node of the first point at or after the instrument hash.
+     *
+     * @param instrument instrument to find the owner of
+     * @return name of the owning node
+     */
+    public String nodeFor(String instrument) {
+        final int index = Arrays.binarySearch(points, hash(instrument));
+        final int point = index >= 0 ? index : -index - 1;
+        return pointNodes[point == points.length ? 0 : point];
+    }
+
+    /**
+     * Returns names of the ring nodes in the order they were given.
+     *
+     * @return node names
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes finished with the MurmurHash3 mixer, FNV alone leaves similar
+     * strings close to each other on the ring.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.xxx.lastprice.transport;
+
+import io.grpc.Metadata;
+
+/**
+ * Metadata headers understood by the last price service.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class LastPriceHeaders {
+
+    private LastPriceHeaders() {
+    }
+
+    /**
+     * Class of the producer issuing write calls, used by the server to schedule writes of different
+     * producers fairly. Calls without it are scheduled as the default class.
+     */
+    public static final Metadata.Key<String> PRODUCER_CLASS =
+        Metadata.Key.of("x-producer-class", Metadata.ASCII_STRING_MARSHALLER);
+
+}
@@ -0,0 +1,77 @@
+package com.xxx.lastprice.transport;
+
+/**
+ * Layout of the memory-mapped last price page shared with readers on the same host.
+ *
+ * The page starts with a header followed by fixed size instrument slots:
+ * <pre>
+ * header:  magic (int) | layout version (int) | slots count (int) | slot size (int)
+ *          | max instrument length (int) | max payload length (int)
+ * slot:    sequence (long) | asOf (long) | payload length (int) | instrument length (int)
+ *          | compressed payload length (int) | instrument (ASCII, max instrument length bytes)
+ *          | payload (max payload length bytes)
+ * </pre>
+ * Payloads compressed by the server are exported compressed with raw deflate, the compressed payload length is zero
+ * for payloads exported as they are, and the payload length is always the length of the uncompressed payload.
+ * The slot sequence is a seqlock: it is odd while the writer updates the slot and is advanced
+ * to the next even value once the update is complete. The magic is written last when the page is initialised.
+ * All numbers are in the native byte order.
+ *
+ * @author Evgeny Stankevich {@literal <stankevich.evg@gmail.com>}.
+ */
+public final class SharedPricePageLayout {
+
+    private SharedPricePageLayout() {
+    }
+
+    public static final int MAGIC = 0x4C505047;
+    public static final int LAYOUT_VERSION = 2;
+
+    public static final int MAGIC_OFFSET = 0;
+    public static final int LAYOUT_VERSION_OFFSET = MAGIC_OFFSET + Integer.BYTES;
+    public static final int SLOTS_COUNT_OFFSET = LAYOUT_VERSION_OFFSET + Integer.BYTES;
+    public static final int SLOT_SIZE_OFFSET = SLOTS_COUNT_OFFSET + Integer.BYTES;
+    public static final int MAX_INSTRUMENT_LENGTH_OFFSET = SLOT_SIZE_OFFSET + Integer.BYTES;
+    public static final int MAX_PAYLOAD_LENGTH_OFFSET = MAX_INSTRUMENT_LENGTH_OFFSET + Integer.BYTES;
+
+    /**
+     * Header and slots are aligned to the cache line, so slots of different instruments do not share lines.
+     */
+    public static final int ALIGNMENT = 64;
+    public static final int HEADER_LENGTH = ALIGNMENT;
+
+    public static final int SEQUENCE_OFFSET = 0;
+    public static final int AS_OF_OFFSET = SEQUENCE_OFFSET + Long.BYTES;
+    public static final int PAYLOAD_LENGTH_OFFSET = AS_OF_OFFSET + Long.BYTES;
+    public static final int INSTRUMENT_LENGTH_OFFSET = PAYLOAD_LENGTH_OFFSET + Integer.BYTES;
+    public static final int COMPRESSED_PAYLOAD_LENGTH_OFFSET = INSTRUMENT_LENGTH_OFFSET + Integer.BYTES;
+    public static final int INSTRUMENT_OFFSET = COMPRESSED_PAYLOAD_LENGTH_OFFSET + Integer.BYTES;
+
+    /**
+     * Payload length of a slot which has no price yet.
+     */
+    public static final int NO_PRICE = -1;
+
+    /**
+     * Payload length of a slot whose latest price does not fit into the slot, it has to be requested over RPC.
+     */
+    public static final int PAYLOAD_TOO_LARGE = -2;
+
+    public static int slotSize(int maxInstrumentLength, int maxPayloadLength) {
+        final int length = INSTRUMENT_OFFSET + maxInstrumentLength + maxPayloadLength;
+        return (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    public static int payloadOffset(int maxInstrumentLength) {
+        return INSTRUMENT_OFFSET + maxInstrumentLength;
+    }
+
+    public static long pageLength(int slotsCount, int slotSize) {
+        return HEADER_LENGTH + (long) slotsCount * slotSize;
+    }
+
+    public static long slotOffset(int slotIndex, int slotSize) {
+        return HEADER_LENGTH + (long) slotIndex * slotSize;
+    }
+
+}